@@ -41,6 +41,7 @@ public interface IndividualLoanEventConstants {
   String WRITE_OFF_INDIVIDUALLOAN_CASE = "write-off-individualloan-case";
   String CLOSE_INDIVIDUALLOAN_CASE = "close-individualloan-case";
   String RECOVER_INDIVIDUALLOAN_CASE = "recover-individualloan-case";
+  String ABANDON_ACCOUNT_CREATION_INDIVIDUALLOAN_CASE = "abandon-account-creation-individualloan-case";
 
   String SELECTOR_PUT_DOCUMENT = SELECTOR_NAME + " = '" + PUT_DOCUMENT + "'";
   String SELECTOR_PUT_LOSS_PROVISION_STEPS = SELECTOR_NAME + " = '" + PUT_LOSS_PROVISION_STEPS + "'";
@@ -58,4 +59,5 @@ public interface IndividualLoanEventConstants {
   String SELECTOR_WRITE_OFF_INDIVIDUALLOAN_CASE = SELECTOR_NAME + " = '" + WRITE_OFF_INDIVIDUALLOAN_CASE + "'";
   String SELECTOR_CLOSE_INDIVIDUALLOAN_CASE = SELECTOR_NAME + " = '" + CLOSE_INDIVIDUALLOAN_CASE + "'";
   String SELECTOR_RECOVER_INDIVIDUALLOAN_CASE = SELECTOR_NAME + " = '" + RECOVER_INDIVIDUALLOAN_CASE + "'";
+  String SELECTOR_ABANDON_ACCOUNT_CREATION_INDIVIDUALLOAN_CASE = SELECTOR_NAME + " = '" + ABANDON_ACCOUNT_CREATION_INDIVIDUALLOAN_CASE + "'";
 }
\ No newline at end of file
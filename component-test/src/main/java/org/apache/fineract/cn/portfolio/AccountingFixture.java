@@ -41,6 +41,7 @@ import javax.validation.Validator;
 import org.apache.fineract.cn.accounting.api.v1.client.LedgerManager;
 import org.apache.fineract.cn.accounting.api.v1.domain.Account;
 import org.apache.fineract.cn.accounting.api.v1.domain.AccountEntry;
+import org.apache.fineract.cn.accounting.api.v1.domain.AccountEntryPage;
 import org.apache.fineract.cn.accounting.api.v1.domain.AccountPage;
 import org.apache.fineract.cn.accounting.api.v1.domain.AccountType;
 import org.apache.fineract.cn.accounting.api.v1.domain.Creditor;
@@ -122,9 +123,10 @@ class AccountingFixture {
     account.setCreatedOn(DateConverter.toIsoString(creationDate));
     final AccountData accountData = new AccountData(account);
     accountMap.put(account.getIdentifier(), accountData);
-    Mockito.doAnswer(new AccountEntriesStreamAnswer(accountData))
+    Mockito.doAnswer(new AccountEntriesPageAnswer(accountData))
         .when(ledgerManagerMock)
-        .fetchAccountEntriesStream(Mockito.eq(account.getIdentifier()), Matchers.anyString(), Matchers.anyString(), AdditionalMatchers.or(Matchers.eq("DESC"), Matchers.eq("ASC")));
+        .fetchAccountEntries(Mockito.eq(account.getIdentifier()), Matchers.anyString(), Matchers.anyString(), Matchers.anyInt(),
+            Matchers.anyInt(), Matchers.anyString(), AdditionalMatchers.or(Matchers.eq("DESC"), Matchers.eq("ASC")));
   }
 
   private static void makeLedgerResponsive(
@@ -605,30 +607,34 @@ class AccountingFixture {
     }
   }
 
-  static class AccountEntriesStreamAnswer implements Answer {
+  static class AccountEntriesPageAnswer implements Answer {
     private final AccountData accountData;
 
-    AccountEntriesStreamAnswer(final AccountData accountData) {
+    AccountEntriesPageAnswer(final AccountData accountData) {
       this.accountData = accountData;
     }
 
     @Override
-    public Stream<AccountEntry> answer(final InvocationOnMock invocation) throws Throwable {
+    public AccountEntryPage answer(final InvocationOnMock invocation) throws Throwable {
       final String message = invocation.getArgumentAt(2, String.class);
-      final String direction = invocation.getArgumentAt(3, String.class);
+      final int pageIndex = invocation.getArgumentAt(3, Integer.class);
+      final int size = invocation.getArgumentAt(4, Integer.class);
+      final String direction = invocation.getArgumentAt(6, String.class);
       final boolean asc = direction == null || direction.equals("ASC");
       final List<AccountEntry> accountEntries = accountData.copyAccountEntries();
       final int entryCount = accountEntries.size();
       final Stream<AccountEntry> orderedCorrectly = asc ?
           IntStream.rangeClosed(1, entryCount).mapToObj(i -> accountEntries.get(entryCount - i)) :
           accountEntries.stream();
-
-      if (message != null) {
-        return orderedCorrectly.filter(x -> x.getMessage().equals(message));
-      }
-      else {
-        return orderedCorrectly;
-      }
+      final List<AccountEntry> matching = orderedCorrectly
+          .filter(x -> message == null || x.getMessage().equals(message))
+          .collect(Collectors.toList());
+
+      final AccountEntryPage ret = new AccountEntryPage();
+      ret.setTotalElements((long) matching.size());
+      ret.setTotalPages((matching.size() + size - 1) / size);
+      ret.setAccountEntries(matching.stream().skip((long) pageIndex * size).limit(size).collect(Collectors.toList()));
+      return ret;
     }
   }
 
@@ -665,6 +671,25 @@ class AccountingFixture {
     Mockito.doAnswer(new CreateLedgerAnswer(accountingListener)).when(ledgerManagerMock).addSubLedger(Matchers.anyString(), Matchers.any(Ledger.class));
   }
 
+  static void seedAccountingPrereqs(final InMemoryAccounting inMemoryAccounting) {
+    final Ledger assetLedger = new Ledger();
+    assetLedger.setIdentifier(ASSET_LEDGER_IDENTIFIER);
+    assetLedger.setType(AccountType.ASSET.name());
+    assetLedger.setCreatedOn(DateConverter.toIsoString(universalCreationDate));
+
+    Stream.of(assetLedger, incomeLedger(), feesAndChargesLedger(), cashLedger(), customerLoanLedger(),
+        loanIncomeLedger(), accruedIncomeLedger())
+        .forEach(inMemoryAccounting::addLedger);
+
+    Stream.of(loanFundsSourceAccount(), loanOriginationFeesIncomeAccount(), processingFeeIncomeAccount(),
+        disbursementFeeIncomeAccount(), tellerOneAccount(), customerDepositAccount(), loanInterestAccrualAccount(),
+        consumerLoanInterestAccount(), lateFeeIncomeAccount(), lateFeeAccrualAccount(), productLossAllowanceAccount(),
+        generalLossAllowanceAccount(), generalExpenseAccount(), importedCustomerLoanPrincipalAccount(),
+        importedCustomerLoanInterestAccount(), importedCustomerLoanFeeAccount())
+        .peek(account -> account.setCreatedOn(DateConverter.toIsoString(universalCreationDate)))
+        .forEach(inMemoryAccounting::addAccount);
+  }
+
   static void mockBalance(final String accountIdentifier, final BigDecimal balance) {
     accountMap.get(accountIdentifier).setBalance(balance.doubleValue());
   }
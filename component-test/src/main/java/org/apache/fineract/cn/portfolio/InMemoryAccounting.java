@@ -0,0 +1,500 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.portfolio;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import org.apache.fineract.cn.accounting.api.v1.client.AccountAlreadyExistsException;
+import org.apache.fineract.cn.accounting.api.v1.client.AccountNotFoundException;
+import org.apache.fineract.cn.accounting.api.v1.client.JournalEntryAlreadyExistsException;
+import org.apache.fineract.cn.accounting.api.v1.client.LedgerAlreadyExistsException;
+import org.apache.fineract.cn.accounting.api.v1.client.LedgerManager;
+import org.apache.fineract.cn.accounting.api.v1.client.LedgerNotFoundException;
+import org.apache.fineract.cn.accounting.api.v1.domain.Account;
+import org.apache.fineract.cn.accounting.api.v1.domain.AccountEntry;
+import org.apache.fineract.cn.accounting.api.v1.domain.AccountEntryPage;
+import org.apache.fineract.cn.accounting.api.v1.domain.AccountPage;
+import org.apache.fineract.cn.accounting.api.v1.domain.AccountType;
+import org.apache.fineract.cn.accounting.api.v1.domain.Creditor;
+import org.apache.fineract.cn.accounting.api.v1.domain.Debtor;
+import org.apache.fineract.cn.accounting.api.v1.domain.JournalEntry;
+import org.apache.fineract.cn.accounting.api.v1.domain.Ledger;
+import org.apache.fineract.cn.lang.DateConverter;
+import org.apache.fineract.cn.lang.TenantContextHolder;
+import org.apache.fineract.cn.portfolio.service.internal.util.AccountingListener;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+/**
+ * A stand-in for the accounting service which keeps ledgers, accounts, balances and account entries in memory, for
+ * benchmarking the portfolio against accounting which behaves like a remote service.  Unlike AccountingFixture, which
+ * answers only what the functional tests expect, it books every journal entry it is given and rejects what
+ * accounting would reject.
+ *
+ * Each call is throttled to the configured throughput, waits for one of a limited number of request slots, takes a
+ * latency sampled from the distribution for its operation, and fails with the configured probability.  Each page of
+ * account entries is a call of its own.
+ *
+ * TestInMemoryAccounting checks the balances and entries it books for a loan workflow.  To benchmark, install it on the
+ * mocked LedgerManager after the prerequisites of the functional tests:
+ *
+ *   final InMemoryAccounting accounting = new InMemoryAccounting(new InMemoryAccounting.Behavior()
+ *       .latency(InMemoryAccounting.LatencyDistribution.logNormal(20, 0.5))
+ *       .errorRate(0.001)
+ *       .maxCallsPerSecond(500));
+ *   AccountingFixture.seedAccountingPrereqs(accounting);
+ *   accounting.install(ledgerManager, accountingListener);
+ */
+@SuppressWarnings("WeakerAccess")
+class InMemoryAccounting {
+  @FunctionalInterface
+  interface LatencyDistribution {
+    LatencyDistribution NONE = () -> 0L;
+
+    long nextMillis();
+
+    static LatencyDistribution fixed(final long millis) {
+      return () -> millis;
+    }
+
+    static LatencyDistribution uniform(final long minMillis, final long maxMillis) {
+      return () -> ThreadLocalRandom.current().nextLong(minMillis, maxMillis + 1);
+    }
+
+    /**
+     * Most calls take about the median, and a few take many times as long, as is typical of remote calls.
+     * A sigma of 0.5 puts the 99th percentile at a bit over three times the median.
+     */
+    static LatencyDistribution logNormal(final long medianMillis, final double sigma) {
+      return () -> Math.round(medianMillis * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+  }
+
+  static class Behavior {
+    private LatencyDistribution defaultLatency = LatencyDistribution.NONE;
+    private final Map<String, LatencyDistribution> latencyPerOperation = new HashMap<>();
+    private double errorRate = 0.0;
+    private int maxCallsPerSecond = 0;
+    private int maxConcurrentCalls = 0;
+    private long ledgerAnnouncementDelayMillis = 0L;
+
+    /**
+     * The latency of all operations for which none was set by name.
+     */
+    Behavior latency(final LatencyDistribution latency) {
+      this.defaultLatency = latency;
+      return this;
+    }
+
+    /**
+     * @param operation the name of the LedgerManager method, for example "createJournalEntry".
+     */
+    Behavior latency(final String operation, final LatencyDistribution latency) {
+      this.latencyPerOperation.put(operation, latency);
+      return this;
+    }
+
+    /**
+     * The probability with which a call fails after its latency has passed.  A failed call changes nothing.
+     */
+    Behavior errorRate(final double errorRate) {
+      this.errorRate = errorRate;
+      return this;
+    }
+
+    /**
+     * Calls beyond this rate are held back until their turn comes.  0 means unlimited.
+     */
+    Behavior maxCallsPerSecond(final int maxCallsPerSecond) {
+      this.maxCallsPerSecond = maxCallsPerSecond;
+      return this;
+    }
+
+    /**
+     * The number of calls which are served at once, like the request threads of the accounting service.  Calls beyond
+     * it queue.  0 means unlimited.
+     */
+    Behavior maxConcurrentCalls(final int maxConcurrentCalls) {
+      this.maxConcurrentCalls = maxConcurrentCalls;
+      return this;
+    }
+
+    /**
+     * How long after a ledger is added it is announced to the AccountingListener.
+     */
+    Behavior ledgerAnnouncementDelayMillis(final long ledgerAnnouncementDelayMillis) {
+      this.ledgerAnnouncementDelayMillis = ledgerAnnouncementDelayMillis;
+      return this;
+    }
+
+    LatencyDistribution getLatency(final String operation) {
+      return latencyPerOperation.getOrDefault(operation, defaultLatency);
+    }
+  }
+
+  static class SimulatedAccountingFailure extends RuntimeException {
+    SimulatedAccountingFailure(final String operation) {
+      super("Simulated failure of accounting operation '" + operation + "'.");
+    }
+  }
+
+  private static class LedgerData {
+    final Ledger ledger;
+    final List<Ledger> subLedgers = new ArrayList<>();
+
+    LedgerData(final Ledger ledger) {
+      this.ledger = ledger;
+    }
+  }
+
+  private static class AccountData {
+    final Account account;
+    final List<AccountEntry> accountEntries = new ArrayList<>();
+
+    AccountData(final Account account) {
+      this.account = account;
+    }
+  }
+
+  private final Behavior behavior;
+  private final Map<String, LedgerData> ledgers = new HashMap<>();
+  private final Map<String, AccountData> accounts = new HashMap<>();
+  private final Set<String> journalEntryIdentifiers = new HashSet<>();
+  private final Semaphore callSlots;
+  private final Map<String, LongAdder> callCounts = new ConcurrentHashMap<>();
+  private final Map<String, LongAdder> failureCounts = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService ledgerAnnouncer = Executors.newSingleThreadScheduledExecutor();
+  private long nextCallSlotNanos = System.nanoTime();
+
+  InMemoryAccounting(final Behavior behavior) {
+    this.behavior = behavior;
+    this.callSlots = behavior.maxConcurrentCalls > 0 ? new Semaphore(behavior.maxConcurrentCalls, true) : null;
+  }
+
+  /**
+   * Lets the given mock answer the calls the portfolio makes from this stand-in.  Calls made by the test to set up
+   * ledgers and accounts should use addLedger and addAccount, which bypass the simulated latency.
+   */
+  void install(final LedgerManager ledgerManagerMock, final AccountingListener accountingListener) {
+    Mockito.doAnswer(invocation -> call("findLedger",
+        () -> findLedger(invocation.getArgumentAt(0, String.class))))
+        .when(ledgerManagerMock).findLedger(Matchers.anyString());
+    Mockito.doAnswer(invocation -> call("addSubLedger", () -> {
+      addSubLedger(invocation.getArgumentAt(0, String.class), invocation.getArgumentAt(1, Ledger.class), accountingListener);
+      return null;
+    })).when(ledgerManagerMock).addSubLedger(Matchers.anyString(), Matchers.any(Ledger.class));
+    Mockito.doAnswer(invocation -> call("fetchAccountsOfLedger",
+        () -> fetchAccountsOfLedger(
+            invocation.getArgumentAt(0, String.class),
+            invocation.getArgumentAt(1, Integer.class),
+            invocation.getArgumentAt(2, Integer.class))))
+        .when(ledgerManagerMock).fetchAccountsOfLedger(Matchers.anyString(),
+            Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+    Mockito.doAnswer(invocation -> call("findAccount",
+        () -> findAccount(invocation.getArgumentAt(0, String.class))))
+        .when(ledgerManagerMock).findAccount(Matchers.anyString());
+    Mockito.doAnswer(invocation -> call("createAccount", () -> {
+      addAccount(invocation.getArgumentAt(0, Account.class));
+      return null;
+    })).when(ledgerManagerMock).createAccount(Matchers.any(Account.class));
+    Mockito.doAnswer(invocation -> call("createJournalEntry", () -> {
+      createJournalEntry(invocation.getArgumentAt(0, JournalEntry.class));
+      return null;
+    })).when(ledgerManagerMock).createJournalEntry(Matchers.any(JournalEntry.class));
+    Mockito.doAnswer(invocation -> fetchAccountEntries(
+        invocation.getArgumentAt(0, String.class),
+        invocation.getArgumentAt(1, String.class),
+        invocation.getArgumentAt(2, String.class),
+        invocation.getArgumentAt(3, Integer.class),
+        invocation.getArgumentAt(4, Integer.class),
+        invocation.getArgumentAt(6, String.class)))
+        .when(ledgerManagerMock).fetchAccountEntries(Matchers.anyString(), Matchers.anyString(), Matchers.anyString(),
+            Matchers.anyInt(), Matchers.anyInt(), Matchers.anyString(), Matchers.anyString());
+  }
+
+  void shutdown() {
+    ledgerAnnouncer.shutdownNow();
+  }
+
+  synchronized void addLedger(final Ledger ledger) {
+    if (ledgers.containsKey(ledger.getIdentifier()))
+      throw new LedgerAlreadyExistsException();
+    if (ledger.getCreatedOn() == null)
+      ledger.setCreatedOn(DateConverter.toIsoString(LocalDateTime.now()));
+    ledgers.put(ledger.getIdentifier(), new LedgerData(ledger));
+    if (ledger.getParentLedgerIdentifier() != null) {
+      final LedgerData parent = ledgers.get(ledger.getParentLedgerIdentifier());
+      if (parent != null)
+        parent.subLedgers.add(ledger);
+    }
+  }
+
+  synchronized void addAccount(final Account account) {
+    if (accounts.containsKey(account.getIdentifier()))
+      throw new AccountAlreadyExistsException();
+    if (account.getLedger() != null && !ledgers.containsKey(account.getLedger()))
+      throw new LedgerNotFoundException();
+    final Account copy = copy(account);
+    if (copy.getCreatedOn() == null)
+      copy.setCreatedOn(DateConverter.toIsoString(LocalDateTime.now()));
+    if (copy.getBalance() == null)
+      copy.setBalance(0.0);
+    accounts.put(copy.getIdentifier(), new AccountData(copy));
+  }
+
+  synchronized BigDecimal getBalance(final String accountIdentifier) {
+    return BigDecimal.valueOf(getAccountData(accountIdentifier).account.getBalance());
+  }
+
+  synchronized List<AccountEntry> getAccountEntries(final String accountIdentifier) {
+    return new ArrayList<>(getAccountData(accountIdentifier).accountEntries);
+  }
+
+  /**
+   * @return the number of calls made of each operation, including the ones which failed.
+   */
+  Map<String, Long> getCallCounts() {
+    return callCounts.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, x -> x.getValue().sum()));
+  }
+
+  Map<String, Long> getFailureCounts() {
+    return failureCounts.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, x -> x.getValue().sum()));
+  }
+
+  private <T> T call(final String operation, final Supplier<T> answer) throws InterruptedException {
+    callCounts.computeIfAbsent(operation, x -> new LongAdder()).increment();
+    awaitCallSlot();
+    if (callSlots != null)
+      callSlots.acquire();
+    try {
+      final long latencyMillis = behavior.getLatency(operation).nextMillis();
+      if (latencyMillis > 0)
+        Thread.sleep(latencyMillis);
+      if (behavior.errorRate > 0.0 && ThreadLocalRandom.current().nextDouble() < behavior.errorRate) {
+        failureCounts.computeIfAbsent(operation, x -> new LongAdder()).increment();
+        throw new SimulatedAccountingFailure(operation);
+      }
+      return answer.get();
+    }
+    finally {
+      if (callSlots != null)
+        callSlots.release();
+    }
+  }
+
+  private void awaitCallSlot() throws InterruptedException {
+    if (behavior.maxCallsPerSecond <= 0)
+      return;
+    final long slotNanos;
+    synchronized (this) {
+      final long now = System.nanoTime();
+      slotNanos = Math.max(now, nextCallSlotNanos);
+      nextCallSlotNanos = slotNanos + TimeUnit.SECONDS.toNanos(1) / behavior.maxCallsPerSecond;
+    }
+    final long waitNanos = slotNanos - System.nanoTime();
+    if (waitNanos > 0)
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+  }
+
+  private synchronized Ledger findLedger(final String identifier) {
+    final LedgerData ledgerData = ledgers.get(identifier);
+    if (ledgerData == null)
+      throw new LedgerNotFoundException();
+    final Ledger ret = copy(ledgerData.ledger);
+    ret.setSubLedgers(ledgerData.subLedgers.stream().map(InMemoryAccounting::copy).collect(Collectors.toList()));
+    return ret;
+  }
+
+  private void addSubLedger(
+      final String parentLedgerIdentifier,
+      final Ledger ledger,
+      final AccountingListener accountingListener) {
+    synchronized (this) {
+      if (!ledgers.containsKey(parentLedgerIdentifier))
+        throw new LedgerNotFoundException();
+      final Ledger copy = copy(ledger);
+      copy.setParentLedgerIdentifier(parentLedgerIdentifier);
+      addLedger(copy);
+    }
+
+    //Accounting creates the ledger in a command and announces it with an event once it's done.
+    final String tenantIdentifier = TenantContextHolder.checkedGetIdentifier();
+    ledgerAnnouncer.schedule(
+        () -> accountingListener.onPostLedger(tenantIdentifier, ledger.getIdentifier()),
+        behavior.ledgerAnnouncementDelayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private synchronized AccountPage fetchAccountsOfLedger(
+      final String ledgerIdentifier,
+      final Integer pageIndex,
+      final Integer size) {
+    if (!ledgers.containsKey(ledgerIdentifier))
+      throw new LedgerNotFoundException();
+    final List<Account> accountsOfLedger = accounts.values().stream()
+        .map(x -> x.account)
+        .filter(x -> ledgerIdentifier.equals(x.getLedger()))
+        .map(InMemoryAccounting::copy)
+        .collect(Collectors.toList());
+
+    final int pageSize = size == null ? Math.max(accountsOfLedger.size(), 1) : size;
+    final int firstElement = Math.min((pageIndex == null ? 0 : pageIndex) * pageSize, accountsOfLedger.size());
+    final AccountPage ret = new AccountPage();
+    ret.setTotalElements((long) accountsOfLedger.size());
+    ret.setTotalPages((accountsOfLedger.size() + pageSize - 1) / pageSize);
+    ret.setAccounts(accountsOfLedger.subList(firstElement, Math.min(firstElement + pageSize, accountsOfLedger.size())));
+    return ret;
+  }
+
+  private synchronized Account findAccount(final String identifier) {
+    return copy(getAccountData(identifier).account);
+  }
+
+  private synchronized void createJournalEntry(final JournalEntry journalEntry) {
+    if (journalEntryIdentifiers.contains(journalEntry.getTransactionIdentifier()))
+      throw new JournalEntryAlreadyExistsException();
+
+    final BigDecimal debtorSum = journalEntry.getDebtors().stream()
+        .map(Debtor::getAmount).map(BigDecimal::new).reduce(BigDecimal.ZERO, BigDecimal::add);
+    final BigDecimal creditorSum = journalEntry.getCreditors().stream()
+        .map(Creditor::getAmount).map(BigDecimal::new).reduce(BigDecimal.ZERO, BigDecimal::add);
+    if (debtorSum.compareTo(creditorSum) != 0)
+      throw new IllegalArgumentException("Debtors and creditors of journal entry '"
+          + journalEntry.getTransactionIdentifier() + "' don't balance.");
+
+    //Check every account before booking to any of them, so that a rejected entry changes nothing.
+    journalEntry.getDebtors().forEach(debtor -> getAccountData(debtor.getAccountNumber()));
+    journalEntry.getCreditors().forEach(creditor -> getAccountData(creditor.getAccountNumber()));
+
+    journalEntryIdentifiers.add(journalEntry.getTransactionIdentifier());
+    journalEntry.getDebtors().forEach(debtor ->
+        book(journalEntry, debtor.getAccountNumber(), new BigDecimal(debtor.getAmount()), AccountEntry.Type.DEBIT));
+    journalEntry.getCreditors().forEach(creditor ->
+        book(journalEntry, creditor.getAccountNumber(), new BigDecimal(creditor.getAmount()), AccountEntry.Type.CREDIT));
+  }
+
+  private void book(
+      final JournalEntry journalEntry,
+      final String accountIdentifier,
+      final BigDecimal amount,
+      final AccountEntry.Type type) {
+    final AccountData accountData = getAccountData(accountIdentifier);
+    final boolean debitIncreasesBalance = isDebitNormal(accountData.account.getType());
+    final BigDecimal change = (type == AccountEntry.Type.DEBIT) == debitIncreasesBalance ? amount : amount.negate();
+    final BigDecimal balance = BigDecimal.valueOf(accountData.account.getBalance()).add(change);
+    accountData.account.setBalance(balance.doubleValue());
+
+    final AccountEntry accountEntry = new AccountEntry();
+    accountEntry.setType(type.name());
+    accountEntry.setTransactionDate(journalEntry.getTransactionDate());
+    accountEntry.setMessage(journalEntry.getMessage());
+    accountEntry.setAmount(amount.doubleValue());
+    accountEntry.setBalance(balance.doubleValue());
+    accountData.accountEntries.add(accountEntry);
+  }
+
+  private AccountEntryPage fetchAccountEntries(
+      final String accountIdentifier,
+      final String dateRange,
+      final String message,
+      final int pageIndex,
+      final int size,
+      final String direction) throws InterruptedException {
+    return call("fetchAccountEntries", () -> {
+      final List<AccountEntry> matchingEntries = getAccountEntries(accountIdentifier).stream()
+          .filter(x -> message == null || message.equals(x.getMessage()))
+          .filter(x -> isInDateRange(x.getTransactionDate(), dateRange))
+          .collect(Collectors.toList());
+      if ("DESC".equals(direction))
+        Collections.reverse(matchingEntries);
+
+      final AccountEntryPage ret = new AccountEntryPage();
+      ret.setTotalElements((long) matchingEntries.size());
+      ret.setTotalPages((matchingEntries.size() + size - 1) / size);
+      ret.setAccountEntries(matchingEntries.stream().skip((long) pageIndex * size).limit(size).collect(Collectors.toList()));
+      return ret;
+    });
+  }
+
+  private AccountData getAccountData(final String identifier) {
+    final AccountData ret = accounts.get(identifier);
+    if (ret == null)
+      throw new AccountNotFoundException();
+    return ret;
+  }
+
+  private static boolean isDebitNormal(final String accountType) {
+    return AccountType.ASSET.name().equals(accountType) || AccountType.EXPENSE.name().equals(accountType);
+  }
+
+  /**
+   * @param dateRange two ISO dates separated by "..", both included, as the accounting client expects it.
+   */
+  private static boolean isInDateRange(final String transactionDate, final String dateRange) {
+    if (dateRange == null)
+      return true;
+    final String[] bounds = dateRange.split("\\.\\.");
+    if (bounds.length != 2)
+      return true;
+    final LocalDate date = DateConverter.fromIsoString(transactionDate).toLocalDate();
+    return !date.isBefore(LocalDate.parse(bounds[0])) && !date.isAfter(LocalDate.parse(bounds[1]));
+  }
+
+  private static Ledger copy(final Ledger ledger) {
+    final Ledger ret = new Ledger();
+    ret.setIdentifier(ledger.getIdentifier());
+    ret.setType(ledger.getType());
+    ret.setName(ledger.getName());
+    ret.setDescription(ledger.getDescription());
+    ret.setParentLedgerIdentifier(ledger.getParentLedgerIdentifier());
+    ret.setShowAccountsInChart(ledger.getShowAccountsInChart());
+    ret.setCreatedOn(ledger.getCreatedOn());
+    return ret;
+  }
+
+  private static Account copy(final Account account) {
+    final Account ret = new Account();
+    ret.setIdentifier(account.getIdentifier());
+    ret.setName(account.getName());
+    ret.setType(account.getType());
+    ret.setLedger(account.getLedger());
+    ret.setState(account.getState());
+    ret.setBalance(account.getBalance());
+    ret.setHolders(account.getHolders() == null ? null : new HashSet<>(account.getHolders()));
+    ret.setAlternativeAccountNumber(account.getAlternativeAccountNumber());
+    ret.setCreatedOn(account.getCreatedOn());
+    return ret;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.portfolio;
+
+import static org.apache.fineract.cn.individuallending.api.v1.events.IndividualLoanEventConstants.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import org.apache.fineract.cn.accounting.api.v1.domain.AccountEntry;
+import org.apache.fineract.cn.individuallending.api.v1.domain.product.AccountDesignators;
+import org.apache.fineract.cn.individuallending.api.v1.domain.workflow.Action;
+import org.apache.fineract.cn.individuallending.internal.service.DataContextOfAction;
+import org.apache.fineract.cn.portfolio.api.v1.domain.AccountAssignment;
+import org.apache.fineract.cn.portfolio.api.v1.domain.Case;
+import org.apache.fineract.cn.portfolio.api.v1.domain.Product;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs a loan through approval and disbursement against InMemoryAccounting, which books what the portfolio sends
+ * rather than answering what the test expects.
+ */
+public class TestInMemoryAccounting extends AbstractPortfolioTest {
+  private static final BigDecimal DISBURSEMENT_AMOUNT = BigDecimal.valueOf(1_000_00, Fixture.MINOR_CURRENCY_UNIT_DIGITS);
+
+  private InMemoryAccounting accounting;
+
+  @Before
+  public void installInMemoryAccounting() {
+    accounting = new InMemoryAccounting(new InMemoryAccounting.Behavior());
+    AccountingFixture.seedAccountingPrereqs(accounting);
+    accounting.install(ledgerManager, accountingListener);
+  }
+
+  @After
+  public void shutdownInMemoryAccounting() {
+    accounting.shutdown();
+  }
+
+  @Test
+  public void disbursementIsBookedToTheCaseAccountsCreatedOnApproval() throws InterruptedException {
+    final LocalDateTime today = midnightToday();
+    final Product product = createAndEnableProduct();
+    final Case customerCase = createCase(product.getIdentifier());
+
+    checkStateTransfer(product.getIdentifier(), customerCase.getIdentifier(), Action.OPEN, today,
+        assignEntry(AccountingFixture.CUSTOMERS_DEPOSIT_ACCOUNT), OPEN_INDIVIDUALLOAN_CASE, Case.State.PENDING);
+    checkStateTransfer(product.getIdentifier(), customerCase.getIdentifier(), Action.APPROVE, today,
+        assignEntry(AccountingFixture.CUSTOMERS_DEPOSIT_ACCOUNT), APPROVE_INDIVIDUALLOAN_CASE, Case.State.APPROVED);
+
+    final String customerLoanPrincipalIdentifier = getAccountIdentifier(
+        product.getIdentifier(), customerCase.getIdentifier(), AccountDesignators.CUSTOMER_LOAN_PRINCIPAL);
+    Assert.assertEquals(0, accounting.getBalance(customerLoanPrincipalIdentifier).compareTo(BigDecimal.ZERO));
+    Assert.assertTrue(accounting.getAccountEntries(customerLoanPrincipalIdentifier).isEmpty());
+
+    final BigDecimal depositBeforeDisbursement = accounting.getBalance(AccountingFixture.CUSTOMERS_DEPOSIT_ACCOUNT);
+    checkStateTransfer(product.getIdentifier(), customerCase.getIdentifier(), Action.DISBURSE, today,
+        assignEntry(AccountingFixture.CUSTOMERS_DEPOSIT_ACCOUNT), DISBURSEMENT_AMOUNT,
+        DISBURSE_INDIVIDUALLOAN_CASE, Case.State.ACTIVE);
+
+    Assert.assertEquals(0, accounting.getBalance(customerLoanPrincipalIdentifier).compareTo(DISBURSEMENT_AMOUNT));
+    final List<AccountEntry> principalEntries = accounting.getAccountEntries(customerLoanPrincipalIdentifier);
+    Assert.assertEquals(1, principalEntries.size());
+    Assert.assertEquals(AccountEntry.Type.DEBIT.name(), principalEntries.get(0).getType());
+    Assert.assertEquals(0, BigDecimal.valueOf(principalEntries.get(0).getAmount()).compareTo(DISBURSEMENT_AMOUNT));
+    Assert.assertEquals(
+        DataContextOfAction.getMessageForCharge(product.getIdentifier(), customerCase.getIdentifier(), Action.DISBURSE),
+        principalEntries.get(0).getMessage());
+
+    //The customer's deposit is credited with the loan.
+    Assert.assertEquals(0, accounting.getBalance(AccountingFixture.CUSTOMERS_DEPOSIT_ACCOUNT)
+        .compareTo(depositBeforeDisbursement.add(DISBURSEMENT_AMOUNT)));
+  }
+
+  private String getAccountIdentifier(final String productIdentifier, final String caseIdentifier, final String designator) {
+    return portfolioManager.getCase(productIdentifier, caseIdentifier).getAccountAssignments().stream()
+        .filter(accountAssignment -> accountAssignment.getDesignator().equals(designator))
+        .map(AccountAssignment::getAccountIdentifier)
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("No account assigned to '" + designator + "'."));
+  }
+}
@@ -37,7 +37,8 @@ import org.junit.runners.Suite;
     TestTaskDefinitions.class,
     TestTaskInstances.class,
     TestLossProvisionSteps.class,
-    TestCaseDocuments.class
+    TestCaseDocuments.class,
+    TestInMemoryAccounting.class
 })
 public class TestSuite extends SuiteTestEnvironment {
 }
@@ -27,9 +27,11 @@ import org.apache.fineract.cn.individuallending.internal.repository.CaseCreditWo
 import org.apache.fineract.cn.individuallending.internal.repository.CaseParametersEntity;
 import org.apache.fineract.cn.individuallending.internal.repository.CaseParametersRepository;
 import org.apache.fineract.cn.individuallending.internal.repository.CreditWorthinessFactorType;
+import org.apache.fineract.cn.individuallending.internal.service.CaseBalanceProjectionService;
 import org.apache.fineract.cn.individuallending.internal.service.ChargeDefinitionService;
 import org.apache.fineract.cn.individuallending.internal.service.DataContextOfAction;
 import org.apache.fineract.cn.individuallending.internal.service.DataContextService;
+import org.apache.fineract.cn.individuallending.internal.service.RepaymentScheduleService;
 import org.apache.fineract.cn.individuallending.internal.service.costcomponent.AcceptPaymentBuilderService;
 import org.apache.fineract.cn.individuallending.internal.service.costcomponent.ApplyInterestPaymentBuilderService;
 import org.apache.fineract.cn.individuallending.internal.service.costcomponent.ApprovePaymentBuilderService;
@@ -162,6 +164,8 @@ public class IndividualLendingPatternFactory implements PatternFactory {
   private final WriteOffPaymentBuilderService writeOffPaymentBuilderService;
   private final RecoverPaymentBuilderService recoverPaymentBuilderService;
   private final AccountingAdapter accountingAdapter;
+  private final CaseBalanceProjectionService caseBalanceProjectionService;
+  private final RepaymentScheduleService repaymentScheduleService;
   private final CustomerManager customerManager;
   private final IndividualLendingCommandDispatcher individualLendingCommandDispatcher;
   private final Gson gson;
@@ -180,7 +184,10 @@ public class IndividualLendingPatternFactory implements PatternFactory {
       final MarkLatePaymentBuilderService markLatePaymentBuilderService,
       MarkInArrearsPaymentBuilderService markInArrearsBuilderService, final WriteOffPaymentBuilderService writeOffPaymentBuilderService,
       final RecoverPaymentBuilderService recoverPaymentBuilderService,
-      AccountingAdapter accountingAdapter, final CustomerManager customerManager,
+      AccountingAdapter accountingAdapter,
+      final CaseBalanceProjectionService caseBalanceProjectionService,
+      final RepaymentScheduleService repaymentScheduleService,
+      final CustomerManager customerManager,
       final IndividualLendingCommandDispatcher individualLendingCommandDispatcher,
       @Qualifier(ServiceConstants.GSON_NAME) final Gson gson)
   {
@@ -198,6 +205,8 @@ public class IndividualLendingPatternFactory implements PatternFactory {
     this.writeOffPaymentBuilderService = writeOffPaymentBuilderService;
     this.recoverPaymentBuilderService = recoverPaymentBuilderService;
     this.accountingAdapter = accountingAdapter;
+    this.caseBalanceProjectionService = caseBalanceProjectionService;
+    this.repaymentScheduleService = repaymentScheduleService;
 
     this.customerManager = customerManager;
     this.individualLendingCommandDispatcher = individualLendingCommandDispatcher;
@@ -299,6 +308,7 @@ public class IndividualLendingPatternFactory implements PatternFactory {
     oldCaseParameters.getCreditWorthinessFactors().addAll(newCreditWorthinessFactorEntities);
 
     caseParametersRepository.save(oldCaseParameters);
+    repaymentScheduleService.invalidate(caseId);
   }
 
   @Override
@@ -380,9 +390,8 @@ public class IndividualLendingPatternFactory implements PatternFactory {
         throw ServiceException.internalError("Invalid action: ''{0}''.", action.name());
     }
 
-    final RealRunningBalances runningBalances = new RealRunningBalances(
-        accountingAdapter,
-        dataContextOfAction);
+    final RealRunningBalances runningBalances = caseBalanceProjectionService.getRunningBalancesForReading(dataContextOfAction);
+    runningBalances.prefetchAccounts();
 
     final PaymentBuilder paymentBuilder = paymentBuilderService.getPaymentBuilder(
         dataContextOfAction,
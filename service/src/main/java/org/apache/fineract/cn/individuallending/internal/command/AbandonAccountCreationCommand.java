@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.command;
+
+import java.time.LocalDateTime;
+import org.apache.fineract.cn.individuallending.api.v1.domain.workflow.Action;
+
+/**
+ * Gives up on an approval or import whose ledgers or accounts couldn't be created, so that it can be tried again.
+ */
+public class AbandonAccountCreationCommand {
+  private final String productIdentifier;
+  private final String caseIdentifier;
+  private final Action action;
+  private final LocalDateTime accountsRequestedOn;
+
+  public AbandonAccountCreationCommand(
+      final String productIdentifier,
+      final String caseIdentifier,
+      final Action action,
+      final LocalDateTime accountsRequestedOn) {
+    this.productIdentifier = productIdentifier;
+    this.caseIdentifier = caseIdentifier;
+    this.action = action;
+    this.accountsRequestedOn = accountsRequestedOn;
+  }
+
+  public String getProductIdentifier() {
+    return productIdentifier;
+  }
+
+  public String getCaseIdentifier() {
+    return caseIdentifier;
+  }
+
+  public Action getAction() {
+    return action;
+  }
+
+  public LocalDateTime getAccountsRequestedOn() {
+    return accountsRequestedOn;
+  }
+
+  @Override
+  public String toString() {
+    return "AbandonAccountCreationCommand{" +
+        "productIdentifier='" + productIdentifier + '\'' +
+        ", caseIdentifier='" + caseIdentifier + '\'' +
+        ", action=" + action +
+        '}';
+  }
+}
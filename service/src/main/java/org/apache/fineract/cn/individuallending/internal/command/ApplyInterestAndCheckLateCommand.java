@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.command;
+
+/**
+ * Applies interest to a case and then checks it for lateness in one pass, sharing the loaded case data.
+ */
+public class ApplyInterestAndCheckLateCommand {
+  private final String productIdentifier;
+  private final String caseIdentifier;
+  private final String forTime;
+  private final boolean resumed;
+
+  public ApplyInterestAndCheckLateCommand(String productIdentifier, String caseIdentifier, String forTime) {
+    this(productIdentifier, caseIdentifier, forTime, false);
+  }
+
+  /**
+   * @param resumed whether the command is dispatched for a stage of an earlier beat which was interrupted, so that the
+   * interest for the day may already have been applied.
+   */
+  public ApplyInterestAndCheckLateCommand(String productIdentifier, String caseIdentifier, String forTime, boolean resumed) {
+    this.productIdentifier = productIdentifier;
+    this.caseIdentifier = caseIdentifier;
+    this.forTime = forTime;
+    this.resumed = resumed;
+  }
+
+  public String getProductIdentifier() {
+    return productIdentifier;
+  }
+
+  public String getCaseIdentifier() {
+    return caseIdentifier;
+  }
+
+  public String getForTime() {
+    return forTime;
+  }
+
+  public boolean isResumed() {
+    return resumed;
+  }
+
+  @Override
+  public String toString() {
+    return "ApplyInterestAndCheckLateCommand{" +
+        "productIdentifier='" + productIdentifier + '\'' +
+        ", caseIdentifier='" + caseIdentifier + '\'' +
+        ", forTime='" + forTime + '\'' +
+        ", resumed=" + resumed +
+        '}';
+  }
+}
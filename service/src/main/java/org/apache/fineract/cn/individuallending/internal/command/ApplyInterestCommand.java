@@ -25,11 +25,21 @@ public class ApplyInterestCommand {
   private final String productIdentifier;
   private final String caseIdentifier;
   private final String forTime;
+  private final boolean resumed;
 
   public ApplyInterestCommand(String productIdentifier, String caseIdentifier, String forTime) {
+    this(productIdentifier, caseIdentifier, forTime, false);
+  }
+
+  /**
+   * @param resumed whether the command is dispatched for a stage of an earlier beat which was interrupted, so that the
+   * interest for the day may already have been applied.
+   */
+  public ApplyInterestCommand(String productIdentifier, String caseIdentifier, String forTime, boolean resumed) {
     this.productIdentifier = productIdentifier;
     this.caseIdentifier = caseIdentifier;
     this.forTime = forTime;
+    this.resumed = resumed;
   }
 
   public String getProductIdentifier() {
@@ -44,12 +54,17 @@ public class ApplyInterestCommand {
     return forTime;
   }
 
+  public boolean isResumed() {
+    return resumed;
+  }
+
   @Override
   public String toString() {
     return "ApplyInterestCommand{" +
         "productIdentifier='" + productIdentifier + '\'' +
         ", caseIdentifier='" + caseIdentifier + '\'' +
         ", forTime='" + forTime + '\'' +
+        ", resumed=" + resumed +
         '}';
   }
 }
@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.command;
+
+import org.apache.fineract.cn.rhythm.spi.v1.domain.BeatPublish;
+
+/**
+ * Announces a beat once all of its stages have been processed for every active case.
+ */
+public class CompleteBeatPublishCommand {
+  private final BeatPublish instance;
+
+  public CompleteBeatPublishCommand(final BeatPublish instance) {
+    this.instance = instance;
+  }
+
+  public BeatPublish getInstance() {
+    return instance;
+  }
+
+  @Override
+  public String toString() {
+    return "CompleteBeatPublishCommand{" +
+        "instance=" + instance.getIdentifier() +
+        '}';
+  }
+}
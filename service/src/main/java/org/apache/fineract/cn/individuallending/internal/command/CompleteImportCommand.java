@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.command;
+
+import java.util.List;
+import org.apache.fineract.cn.portfolio.api.v1.domain.AccountAssignment;
+import org.apache.fineract.cn.portfolio.api.v1.domain.ImportParameters;
+
+/**
+ * Completes an import once the case's ledgers and accounts exist in accounting.
+ */
+public class CompleteImportCommand {
+  private final String productIdentifier;
+  private final String caseIdentifier;
+  private final ImportParameters importParameters;
+  private final List<AccountAssignment> accountAssignments;
+
+  public CompleteImportCommand(
+      final String productIdentifier,
+      final String caseIdentifier,
+      final ImportParameters importParameters,
+      final List<AccountAssignment> accountAssignments) {
+    this.productIdentifier = productIdentifier;
+    this.caseIdentifier = caseIdentifier;
+    this.importParameters = importParameters;
+    this.accountAssignments = accountAssignments;
+  }
+
+  public String getProductIdentifier() {
+    return productIdentifier;
+  }
+
+  public String getCaseIdentifier() {
+    return caseIdentifier;
+  }
+
+  public ImportParameters getImportParameters() {
+    return importParameters;
+  }
+
+  public List<AccountAssignment> getAccountAssignments() {
+    return accountAssignments;
+  }
+
+  @Override
+  public String toString() {
+    return "CompleteImportCommand{" +
+        "productIdentifier='" + productIdentifier + '\'' +
+        ", caseIdentifier='" + caseIdentifier + '\'' +
+        '}';
+  }
+}
@@ -18,40 +18,32 @@
  */
 package org.apache.fineract.cn.individuallending.internal.command.handler;
 
-import org.apache.fineract.cn.individuallending.api.v1.domain.product.AccountDesignators;
-import org.apache.fineract.cn.individuallending.api.v1.domain.workflow.Action;
 import org.apache.fineract.cn.individuallending.api.v1.events.IndividualLoanCommandEvent;
 import org.apache.fineract.cn.individuallending.api.v1.events.IndividualLoanEventConstants;
+import org.apache.fineract.cn.individuallending.internal.command.ApplyInterestAndCheckLateCommand;
 import org.apache.fineract.cn.individuallending.internal.command.ApplyInterestCommand;
 import org.apache.fineract.cn.individuallending.internal.command.CheckLateCommand;
-import org.apache.fineract.cn.individuallending.internal.command.MarkInArrearsCommand;
-import org.apache.fineract.cn.individuallending.internal.command.MarkLateCommand;
-import org.apache.fineract.cn.individuallending.internal.repository.LateCaseEntity;
-import org.apache.fineract.cn.individuallending.internal.repository.LateCaseRepository;
-import org.apache.fineract.cn.individuallending.internal.repository.LossProvisionStepEntity;
-import org.apache.fineract.cn.individuallending.internal.repository.LossProvisionStepRepository;
+import org.apache.fineract.cn.individuallending.internal.command.CompleteBeatPublishCommand;
 import org.apache.fineract.cn.individuallending.internal.service.DataContextOfAction;
 import org.apache.fineract.cn.individuallending.internal.service.DataContextService;
+import org.apache.fineract.cn.individuallending.internal.service.CaseBalanceProjectionService;
+import org.apache.fineract.cn.individuallending.internal.service.LatenessCheckService;
+import org.apache.fineract.cn.individuallending.internal.service.StartOfTermBackfillService;
+import org.apache.fineract.cn.individuallending.internal.service.beat.BeatSchedule;
+import org.apache.fineract.cn.individuallending.internal.service.beat.BeatStage;
+import org.apache.fineract.cn.individuallending.internal.service.beat.PartitionedCaseProcessor;
 import org.apache.fineract.cn.individuallending.internal.service.costcomponent.RealRunningBalances;
-import org.apache.fineract.cn.individuallending.internal.service.schedule.Period;
-import org.apache.fineract.cn.individuallending.internal.service.schedule.ScheduledActionHelpers;
-import org.apache.fineract.cn.portfolio.api.v1.domain.Case;
+import org.apache.fineract.cn.portfolio.service.ServiceConstants;
 import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
 import org.apache.fineract.cn.portfolio.service.internal.command.CreateBeatPublishCommand;
-import org.apache.fineract.cn.portfolio.service.internal.repository.CaseCommandEntity;
-import org.apache.fineract.cn.portfolio.service.internal.repository.CaseCommandRepository;
-import org.apache.fineract.cn.portfolio.service.internal.repository.CaseEntity;
-import org.apache.fineract.cn.portfolio.service.internal.repository.CaseRepository;
-import org.apache.fineract.cn.portfolio.service.internal.util.AccountingAdapter;
-import java.math.BigDecimal;
-import java.time.LocalDate;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseReference;
+import org.apache.fineract.cn.portfolio.service.internal.util.JournalEntryOutbox;
 import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
 import java.util.Collections;
-import java.util.List;
-import java.util.Optional;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import org.apache.fineract.cn.api.util.UserContextHolder;
 import org.apache.fineract.cn.command.annotation.Aggregate;
 import org.apache.fineract.cn.command.annotation.CommandHandler;
 import org.apache.fineract.cn.command.annotation.CommandLogLevel;
@@ -59,15 +51,13 @@ import org.apache.fineract.cn.command.annotation.EventEmitter;
 import org.apache.fineract.cn.command.internal.CommandBus;
 import org.apache.fineract.cn.lang.ApplicationName;
 import org.apache.fineract.cn.lang.DateConverter;
-import org.apache.fineract.cn.lang.ServiceException;
+import org.apache.fineract.cn.lang.TenantContextHolder;
 import org.apache.fineract.cn.rhythm.spi.v1.domain.BeatPublish;
 import org.apache.fineract.cn.rhythm.spi.v1.events.BeatPublishEvent;
 import org.apache.fineract.cn.rhythm.spi.v1.events.EventConstants;
+import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.transaction.annotation.Transactional;
 
 /**
@@ -76,69 +66,154 @@ import org.springframework.transaction.annotation.Transactional;
 @SuppressWarnings("unused")
 @Aggregate
 public class BeatPublishCommandHandler {
-  private final CaseRepository caseRepository;
-  private final CaseCommandRepository caseCommandRepository;
   private final PortfolioProperties portfolioProperties;
   private final DataContextService dataContextService;
   private final ApplicationName applicationName;
   private final CommandBus commandBus;
-  private final AccountingAdapter accountingAdapter;
-  private final LateCaseRepository lateCaseRepository;
-  private final LossProvisionStepRepository lossProvisionStepRepository;
+  private final LatenessCheckService latenessCheckService;
+  private final CaseBalanceProjectionService caseBalanceProjectionService;
+  private final PartitionedCaseProcessor partitionedCaseProcessor;
+  private final BeatSchedule beatSchedule;
+  private final JournalEntryOutbox journalEntryOutbox;
+  private final StartOfTermBackfillService startOfTermBackfillService;
+  private final ExecutorService beatExecutor;
+  private final Logger logger;
 
   @Autowired
   public BeatPublishCommandHandler(
-      final CaseRepository caseRepository,
-      final CaseCommandRepository caseCommandRepository,
       final PortfolioProperties portfolioProperties,
       final DataContextService dataContextService,
       final ApplicationName applicationName,
       final CommandBus commandBus,
-      final AccountingAdapter accountingAdapter,
-      final LateCaseRepository lateCaseRepository,
-      final LossProvisionStepRepository lossProvisionStepRepository) {
-    this.caseRepository = caseRepository;
-    this.caseCommandRepository = caseCommandRepository;
+      final LatenessCheckService latenessCheckService,
+      final CaseBalanceProjectionService caseBalanceProjectionService,
+      final PartitionedCaseProcessor partitionedCaseProcessor,
+      final BeatSchedule beatSchedule,
+      final JournalEntryOutbox journalEntryOutbox,
+      final StartOfTermBackfillService startOfTermBackfillService,
+      @Qualifier(ServiceConstants.BEAT_EXECUTOR_NAME) final ExecutorService beatExecutor,
+      @Qualifier(ServiceConstants.LOGGER_NAME) final Logger logger) {
     this.portfolioProperties = portfolioProperties;
     this.dataContextService = dataContextService;
     this.applicationName = applicationName;
     this.commandBus = commandBus;
-    this.accountingAdapter = accountingAdapter;
-    this.lateCaseRepository = lateCaseRepository;
-    this.lossProvisionStepRepository = lossProvisionStepRepository;
+    this.latenessCheckService = latenessCheckService;
+    this.caseBalanceProjectionService = caseBalanceProjectionService;
+    this.partitionedCaseProcessor = partitionedCaseProcessor;
+    this.beatSchedule = beatSchedule;
+    this.journalEntryOutbox = journalEntryOutbox;
+    this.startOfTermBackfillService = startOfTermBackfillService;
+    this.beatExecutor = beatExecutor;
+    this.logger = logger;
   }
 
-  @Transactional
+  //Not transactional: each case is processed in the transaction of the command dispatched for it.  The cases are
+  //walked on the beat executor rather than on the command bus, since the commands dispatched for them need threads
+  //of the command bus to run.  The beat is announced by CompleteBeatPublishCommand once they have all been processed.
   @CommandHandler(logStart = CommandLogLevel.INFO, logFinish = CommandLogLevel.INFO)
-  @EventEmitter(selectorName = EventConstants.SELECTOR_NAME, selectorValue = EventConstants.POST_PUBLISHEDBEAT)
-  public BeatPublishEvent process(final CreateBeatPublishCommand createBeatPublishCommand) {
+  public void process(final CreateBeatPublishCommand createBeatPublishCommand) {
     final BeatPublish instance = createBeatPublishCommand.getInstance();
+
+    final String tenantIdentifier = TenantContextHolder.checkedGetIdentifier();
+    final String user = UserContextHolder.checkedGetUser();
+    final String accessToken = UserContextHolder.checkedGetAccessToken();
+    beatExecutor.execute(() -> {
+      TenantContextHolder.setIdentifier(tenantIdentifier);
+      UserContextHolder.setAccessToken(user, accessToken);
+      try {
+        processBeat(instance);
+        commandBus.dispatch(new CompleteBeatPublishCommand(instance));
+      }
+      catch (final InterruptedException e) {
+        logger.info("Processing of beat '{}' for time {} was interrupted.  Its unfinished stages are resumed with the next beat.",
+            instance.getIdentifier(), instance.getForTime());
+      }
+      catch (final RuntimeException e) {
+        logger.error("Processing of beat '{}' for time {} failed.  Its unfinished stages are resumed with the next beat.",
+            instance.getIdentifier(), instance.getForTime(), e);
+      }
+      finally {
+        UserContextHolder.clear();
+        TenantContextHolder.clear();
+      }
+    });
+  }
+
+  @CommandHandler(logStart = CommandLogLevel.INFO, logFinish = CommandLogLevel.INFO)
+  @EventEmitter(selectorName = EventConstants.SELECTOR_NAME, selectorValue = EventConstants.POST_PUBLISHEDBEAT)
+  public BeatPublishEvent process(final CompleteBeatPublishCommand completeBeatPublishCommand) {
+    final BeatPublish instance = completeBeatPublishCommand.getInstance();
+    return new BeatPublishEvent(applicationName.toString(), instance.getIdentifier(), instance.getForTime());
+  }
+
+  private void processBeat(final BeatPublish instance) throws InterruptedException {
     final LocalDateTime forTime = DateConverter.fromIsoString(instance.getForTime());
-    if (portfolioProperties.getBookInterestInTimeSlot() == forTime.getHour())
+
+    //Retry journal entries which couldn't be posted earlier, even if nothing is booked for the tenant until then.
+    if (journalEntryOutbox.isEnabled())
+      journalEntryOutbox.dispatchPending();
+
+    if (portfolioProperties.isBackfillStartOfTerm())
+      startOfTermBackfillService.startIfNeeded();
+
+    partitionedCaseProcessor.resumeUnfinishedStages(forTime,
+        (stage, stageForTime) -> caseActionForStage(stage, stageForTime, true));
+
+    final boolean bookInterest = beatSchedule.getSlot(BeatStage.APPLY_INTEREST, forTime.getHour()).isPresent();
+    final boolean checkForLateness = beatSchedule.getSlot(BeatStage.CHECK_LATE, forTime.getHour()).isPresent();
+
+    if (bookInterest && checkForLateness && portfolioProperties.isFuseInterestAndLatenessCheck() &&
+        portfolioProperties.getBookInterestInTimeSlot() == portfolioProperties.getCheckForLatenessInTimeSlot())
     {
-      final Stream<CaseEntity> activeCases = caseRepository.findByCurrentStateIn(Collections.singleton(Case.State.ACTIVE.name()));
-      activeCases.forEach(activeCase -> {
-        final ApplyInterestCommand applyInterestCommand = new ApplyInterestCommand(
-            activeCase.getProductIdentifier(),
-            activeCase.getIdentifier(),
-            instance.getForTime());
-        commandBus.dispatch(applyInterestCommand);
-      });
+      partitionedCaseProcessor.forEachActiveCase(instance.getIdentifier(), forTime, BeatStage.APPLY_INTEREST_AND_CHECK_LATE,
+          caseActionForStage(BeatStage.APPLY_INTEREST_AND_CHECK_LATE, forTime, false));
     }
-
-    if (portfolioProperties.getCheckForLatenessInTimeSlot() == forTime.getHour())
+    else
     {
-      final Stream<CaseEntity> activeCases = caseRepository.findByCurrentStateIn(Collections.singleton(Case.State.ACTIVE.name()));
-      activeCases.forEach(activeCase -> {
-        final CheckLateCommand checkLateCommand = new CheckLateCommand(
+      if (bookInterest)
+      {
+        partitionedCaseProcessor.forEachActiveCase(instance.getIdentifier(), forTime, BeatStage.APPLY_INTEREST,
+            caseActionForStage(BeatStage.APPLY_INTEREST, forTime, false));
+      }
+
+      if (checkForLateness)
+      {
+        partitionedCaseProcessor.forEachActiveCase(instance.getIdentifier(), forTime, BeatStage.CHECK_LATE,
+            caseActionForStage(BeatStage.CHECK_LATE, forTime, false));
+      }
+    }
+  }
+
+  /**
+   * @param resumed whether the stage is one of an earlier beat which was interrupted, so that some of its cases may
+   * already have been processed.
+   */
+  private Function<CaseReference, Future<?>> caseActionForStage(
+      final BeatStage stage,
+      final LocalDateTime forTime,
+      final boolean resumed) {
+    final String forTimeString = DateConverter.toIsoString(forTime);
+    switch (stage) {
+      case APPLY_INTEREST:
+        return activeCase -> dispatch(new ApplyInterestCommand(
+            activeCase.getProductIdentifier(),
+            activeCase.getIdentifier(),
+            forTimeString,
+            resumed));
+      case CHECK_LATE:
+        return activeCase -> dispatch(new CheckLateCommand(
+            activeCase.getProductIdentifier(),
+            activeCase.getIdentifier(),
+            forTimeString));
+      case APPLY_INTEREST_AND_CHECK_LATE:
+        return activeCase -> dispatch(new ApplyInterestAndCheckLateCommand(
             activeCase.getProductIdentifier(),
             activeCase.getIdentifier(),
-            instance.getForTime());
-        commandBus.dispatch(checkLateCommand);
-      });
+            forTimeString,
+            resumed));
+      default:
+        throw new IllegalStateException("Unknown beat stage " + stage);
     }
-
-    return new BeatPublishEvent(applicationName.toString(), instance.getIdentifier(), instance.getForTime());
   }
 
   @Transactional
@@ -149,99 +224,23 @@ public class BeatPublishCommandHandler {
   public IndividualLoanCommandEvent process(final CheckLateCommand command) {
     final String productIdentifier = command.getProductIdentifier();
     final String caseIdentifier = command.getCaseIdentifier();
-    final LocalDateTime forDateTime = DateConverter.fromIsoString(command.getForTime());
-    final LocalDate forDate = forDateTime.toLocalDate();
     final DataContextOfAction dataContextOfAction = dataContextService.checkedGetDataContext(
         productIdentifier, caseIdentifier, Collections.emptyList());
 
-    final RealRunningBalances balances = new RealRunningBalances(accountingAdapter, dataContextOfAction);
-
-    final BigDecimal currentBalance = balances.getAccountBalance(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL).orElse(BigDecimal.ZERO);
-    if (currentBalance.compareTo(BigDecimal.ZERO) == 0) //No late fees if the current balance is zilch.
-      return new IndividualLoanCommandEvent(productIdentifier, caseIdentifier, command.getForTime());
-
-
-    final LocalDateTime dateOfMostRecentDisbursement = dateOfMostRecentDisburse(dataContextOfAction.getCustomerCaseEntity().getId())
-            .orElseThrow(() ->
-                ServiceException
-                    .badRequest("No last disbursal date for ''{0}.{1}'' could be determined.  " +
-                    "Therefore it cannot be checked for lateness.", productIdentifier, caseIdentifier));
-
-    final List<Period> repaymentPeriods = ScheduledActionHelpers.generateRepaymentPeriods(
-        dateOfMostRecentDisbursement.toLocalDate(),
-        forDate,
-        dataContextOfAction.getCaseParameters())
-        .collect(Collectors.toList());
-
-    final long repaymentPeriodsBetweenBeginningAndToday = repaymentPeriods.size() - 1;
-
-    final BigDecimal expectedPaymentSum = dataContextOfAction
-        .getCaseParametersEntity()
-        .getPaymentSize()
-        .multiply(BigDecimal.valueOf(repaymentPeriodsBetweenBeginningAndToday));
-
-    final BigDecimal principalPaymentSum = balances.getSumOfChargesForActionSinceDate(
-        AccountDesignators.CUSTOMER_LOAN_PRINCIPAL,
-        Action.ACCEPT_PAYMENT,
-        dateOfMostRecentDisbursement);
-    final BigDecimal interestPaymentSum = balances.getSumOfChargesForActionSinceDate(
-        AccountDesignators.CUSTOMER_LOAN_INTEREST,
-        Action.ACCEPT_PAYMENT,
-        dateOfMostRecentDisbursement);
-    final BigDecimal feesPaymentSum = balances.getSumOfChargesForActionSinceDate(
-        AccountDesignators.CUSTOMER_LOAN_FEES,
-        Action.ACCEPT_PAYMENT,
-        dateOfMostRecentDisbursement);
-    final BigDecimal lateFeesSum = balances.getSumOfChargesForActionSinceDate(
-        AccountDesignators.LATE_FEE_INCOME,
-        Action.ACCEPT_PAYMENT,
-        dateOfMostRecentDisbursement);
-    final BigDecimal paymentsSum = principalPaymentSum.add(interestPaymentSum).add(feesPaymentSum.subtract(lateFeesSum));
-
-    if (paymentsSum.compareTo(expectedPaymentSum) < 0) {
-      final Optional<LocalDateTime> dateLateSince = dateLateSince(dataContextOfAction.getCustomerCaseEntity().getId());
-      if (!dateLateSince.isPresent()) {
-        commandBus.dispatch(new MarkLateCommand(productIdentifier, caseIdentifier, command.getForTime()));
-      }
+    //Every case gets its event, but only a case on which a payment has come due needs its balances read.
+    if (LatenessCheckService.hasComeDue(dataContextOfAction.getCaseParametersEntity(), command.getForTime())) {
+      final RealRunningBalances balances = caseBalanceProjectionService.getRunningBalances(dataContextOfAction);
 
-      if (dateLateSince.isPresent()) {
-        int daysLate;
-        try {
-          daysLate = Math.toIntExact(dateLateSince.get().until(forDateTime, ChronoUnit.DAYS)) + 1;
-        }
-        catch (ArithmeticException e) {
-          daysLate = -1;
-        }
-        if (daysLate > 1) {
-          final Optional<LossProvisionStepEntity> lossStepEntity = lossProvisionStepRepository.findByProductIdAndDaysLate(dataContextOfAction.getProductEntity().getId(), daysLate);
-          if (lossStepEntity.isPresent()) {
-            commandBus.dispatch(new MarkInArrearsCommand(productIdentifier, caseIdentifier, command.getForTime(), daysLate));
-          }
-        }
-      }
+      final LatenessCheckService.Result latenessCheck
+          = latenessCheckService.checkLate(dataContextOfAction, balances, command.getForTime());
+      latenessCheck.getMarkLateCommand().ifPresent(commandBus::dispatch);
+      latenessCheck.getMarkInArrearsCommand().ifPresent(commandBus::dispatch);
     }
 
     return new IndividualLoanCommandEvent(productIdentifier, caseIdentifier, command.getForTime());
   }
 
-  private Optional<LocalDateTime> dateLateSince(final Long caseId) {
-    return lateCaseRepository.findByCaseId(caseId).map(LateCaseEntity::getLateSince);
-  }
-
-  private Optional<LocalDateTime> dateOfMostRecentDisburse(final Long caseId) {
-    final Pageable pageRequest = new PageRequest(0, 10, Sort.Direction.DESC, "createdOn");
-    final Page<CaseCommandEntity> page = caseCommandRepository.findByCaseIdAndActionName(
-        caseId,
-        Action.DISBURSE.name(),
-        pageRequest);
-
-    return page.getContent().stream().findFirst().map(CaseCommandEntity::getCreatedOn);
-  }
-
-  private boolean mostRecentLateFeeIsBeforeMostRecentRepaymentPeriod(
-      final List<Period> repaymentPeriods,
-      final LocalDateTime dateOfMostRecentLateFee) {
-    return repaymentPeriods.stream()
-        .anyMatch(x -> x.getBeginDate().isAfter(dateOfMostRecentLateFee.toLocalDate()));
+  private Future<?> dispatch(final Object command) {
+    return commandBus.dispatch(command, IndividualLoanCommandEvent.class);
   }
-}
\ No newline at end of file
+}
@@ -24,10 +24,14 @@ import org.apache.fineract.cn.individuallending.api.v1.domain.product.AccountDes
 import org.apache.fineract.cn.individuallending.api.v1.domain.workflow.Action;
 import org.apache.fineract.cn.individuallending.api.v1.events.IndividualLoanCommandEvent;
 import org.apache.fineract.cn.individuallending.api.v1.events.IndividualLoanEventConstants;
+import org.apache.fineract.cn.individuallending.internal.command.AbandonAccountCreationCommand;
 import org.apache.fineract.cn.individuallending.internal.command.AcceptPaymentCommand;
+import org.apache.fineract.cn.individuallending.internal.command.ApplyInterestAndCheckLateCommand;
 import org.apache.fineract.cn.individuallending.internal.command.ApplyInterestCommand;
 import org.apache.fineract.cn.individuallending.internal.command.ApproveCommand;
 import org.apache.fineract.cn.individuallending.internal.command.CloseCommand;
+import org.apache.fineract.cn.individuallending.internal.command.CompleteApprovalCommand;
+import org.apache.fineract.cn.individuallending.internal.command.CompleteImportCommand;
 import org.apache.fineract.cn.individuallending.internal.command.DenyCommand;
 import org.apache.fineract.cn.individuallending.internal.command.DisburseCommand;
 import org.apache.fineract.cn.individuallending.internal.command.ImportCommand;
@@ -43,6 +47,10 @@ import org.apache.fineract.cn.individuallending.internal.repository.LateCaseRepo
 import org.apache.fineract.cn.individuallending.internal.service.DataContextOfAction;
 import org.apache.fineract.cn.individuallending.internal.service.DataContextService;
 import org.apache.fineract.cn.individuallending.internal.service.DesignatorToAccountIdentifierMapper;
+import org.apache.fineract.cn.individuallending.internal.service.AccrualAggregateService;
+import org.apache.fineract.cn.individuallending.internal.service.CaseBalanceProjectionService;
+import org.apache.fineract.cn.individuallending.internal.service.LatenessCheckService;
+import org.apache.fineract.cn.individuallending.internal.service.RepaymentScheduleService;
 import org.apache.fineract.cn.individuallending.internal.service.costcomponent.AcceptPaymentBuilderService;
 import org.apache.fineract.cn.individuallending.internal.service.costcomponent.ApplyInterestPaymentBuilderService;
 import org.apache.fineract.cn.individuallending.internal.service.costcomponent.ApprovePaymentBuilderService;
@@ -61,6 +69,9 @@ import org.apache.fineract.cn.individuallending.internal.service.schedule.Schedu
 import org.apache.fineract.cn.portfolio.api.v1.domain.AccountAssignment;
 import org.apache.fineract.cn.portfolio.api.v1.domain.Case;
 import org.apache.fineract.cn.portfolio.api.v1.domain.CostComponent;
+import org.apache.fineract.cn.portfolio.api.v1.domain.RequiredAccountAssignment;
+import org.apache.fineract.cn.portfolio.service.ServiceConstants;
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
 import org.apache.fineract.cn.portfolio.service.internal.mapper.CaseMapper;
 import org.apache.fineract.cn.portfolio.service.internal.repository.CaseCommandEntity;
 import org.apache.fineract.cn.portfolio.service.internal.repository.CaseCommandRepository;
@@ -69,13 +80,18 @@ import org.apache.fineract.cn.portfolio.service.internal.repository.CaseReposito
 import org.apache.fineract.cn.portfolio.service.internal.repository.TaskInstanceRepository;
 import org.apache.fineract.cn.portfolio.service.internal.util.AccountingAdapter;
 import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import org.apache.fineract.cn.api.util.UserContextHolder;
@@ -83,9 +99,16 @@ import org.apache.fineract.cn.command.annotation.Aggregate;
 import org.apache.fineract.cn.command.annotation.CommandHandler;
 import org.apache.fineract.cn.command.annotation.CommandLogLevel;
 import org.apache.fineract.cn.command.annotation.EventEmitter;
+import org.apache.fineract.cn.command.internal.CommandBus;
 import org.apache.fineract.cn.lang.DateConverter;
 import org.apache.fineract.cn.lang.ServiceException;
+import org.apache.fineract.cn.lang.TenantContextHolder;
+import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.transaction.annotation.Transactional;
 
 /**
@@ -94,6 +117,10 @@ import org.springframework.transaction.annotation.Transactional;
 @SuppressWarnings("unused")
 @Aggregate
 public class IndividualLoanCommandHandler {
+  //After this long, accounts which were requested for an approval or an import are given up on, and the case may be
+  // approved or imported again.
+  private static final Duration ACCOUNT_CREATION_TIMEOUT = Duration.ofMinutes(5);
+
   private final CaseRepository caseRepository;
   private final DataContextService dataContextService;
   private final OpenPaymentBuilderService openPaymentBuilderService;
@@ -112,6 +139,13 @@ public class IndividualLoanCommandHandler {
   private final TaskInstanceRepository taskInstanceRepository;
   private final CaseParametersRepository caseParametersRepository;
   private final LateCaseRepository lateCaseRepository;
+  private final LatenessCheckService latenessCheckService;
+  private final RepaymentScheduleService repaymentScheduleService;
+  private final CaseBalanceProjectionService caseBalanceProjectionService;
+  private final AccrualAggregateService accrualAggregateService;
+  private final CommandBus commandBus;
+  private final PortfolioProperties portfolioProperties;
+  private final Logger logger;
 
   @Autowired
   public IndividualLoanCommandHandler(
@@ -132,7 +166,14 @@ public class IndividualLoanCommandHandler {
       final CaseCommandRepository caseCommandRepository,
       final TaskInstanceRepository taskInstanceRepository,
       final CaseParametersRepository caseParametersRepository,
-      final LateCaseRepository lateCaseRepository) {
+      final LateCaseRepository lateCaseRepository,
+      final LatenessCheckService latenessCheckService,
+      final RepaymentScheduleService repaymentScheduleService,
+      final CaseBalanceProjectionService caseBalanceProjectionService,
+      final AccrualAggregateService accrualAggregateService,
+      final CommandBus commandBus,
+      final PortfolioProperties portfolioProperties,
+      @Qualifier(ServiceConstants.LOGGER_NAME) final Logger logger) {
     this.caseRepository = caseRepository;
     this.dataContextService = dataContextService;
     this.openPaymentBuilderService = openPaymentBuilderService;
@@ -151,6 +192,13 @@ public class IndividualLoanCommandHandler {
     this.taskInstanceRepository = taskInstanceRepository;
     this.caseParametersRepository = caseParametersRepository;
     this.lateCaseRepository = lateCaseRepository;
+    this.latenessCheckService = latenessCheckService;
+    this.repaymentScheduleService = repaymentScheduleService;
+    this.caseBalanceProjectionService = caseBalanceProjectionService;
+    this.accrualAggregateService = accrualAggregateService;
+    this.commandBus = commandBus;
+    this.portfolioProperties = portfolioProperties;
+    this.logger = logger;
   }
 
   @Transactional
@@ -171,6 +219,7 @@ public class IndividualLoanCommandHandler {
         = new DesignatorToAccountIdentifierMapper(dataContextOfAction);
     final RealRunningBalances runningBalances = new RealRunningBalances(
         accountingAdapter,
+        accrualAggregateService,
         dataContextOfAction);
 
     final PaymentBuilder paymentBuilder
@@ -183,6 +232,7 @@ public class IndividualLoanCommandHandler {
         command.getCommand().getCreatedOn(),
         dataContextOfAction.getMessageForCharge(Action.OPEN),
         Action.OPEN.getTransactionType());
+    recordBooking(dataContextOfAction, runningBalances, paymentBuilder, Action.OPEN, transactionUniqueifier);
 
     final CaseEntity customerCase = dataContextOfAction.getCustomerCaseEntity();
 
@@ -200,12 +250,13 @@ public class IndividualLoanCommandHandler {
   }
 
 
+  /**
+   * Starts creating the case's ledgers and accounts.  The import is completed by a CompleteImportCommand once they
+   * exist, so the command doesn't wait for accounting.
+   */
   @Transactional
   @CommandHandler(logStart = CommandLogLevel.INFO, logFinish = CommandLogLevel.INFO)
-  @EventEmitter(
-      selectorName = IndividualLoanEventConstants.SELECTOR_NAME,
-      selectorValue = IndividualLoanEventConstants.IMPORT_INDIVIDUALLOAN_CASE)
-  public IndividualLoanCommandEvent process(final ImportCommand command) throws InterruptedException {
+  public void process(final ImportCommand command) {
     final String productIdentifier = command.getProductIdentifier();
     final String caseIdentifier = command.getCaseIdentifier();
     final DataContextOfAction dataContextOfAction = dataContextService.checkedGetDataContext(
@@ -214,9 +265,30 @@ public class IndividualLoanCommandHandler {
 
     checkIfTasksAreOutstanding(dataContextOfAction, Action.IMPORT);
 
+    final LocalDateTime accountsRequestedOn = markAccountsRequested(dataContextOfAction);
     final DesignatorToAccountIdentifierMapper designatorToAccountIdentifierMapper
         = new DesignatorToAccountIdentifierMapper(dataContextOfAction);
-    createAccounts(dataContextOfAction, designatorToAccountIdentifierMapper, command.getImportParameters().getCurrentBalances());
+    completeOnceAccountsExist(
+        dataContextOfAction,
+        Action.IMPORT,
+        accountsRequestedOn,
+        createAccounts(dataContextOfAction, designatorToAccountIdentifierMapper, command.getImportParameters().getCurrentBalances()),
+        accountAssignments -> new CompleteImportCommand(productIdentifier, caseIdentifier, command.getImportParameters(), accountAssignments));
+  }
+
+  @Transactional
+  @CommandHandler(logStart = CommandLogLevel.INFO, logFinish = CommandLogLevel.INFO)
+  @EventEmitter(
+      selectorName = IndividualLoanEventConstants.SELECTOR_NAME,
+      selectorValue = IndividualLoanEventConstants.IMPORT_INDIVIDUALLOAN_CASE)
+  public IndividualLoanCommandEvent process(final CompleteImportCommand command) {
+    final String productIdentifier = command.getProductIdentifier();
+    final String caseIdentifier = command.getCaseIdentifier();
+    final DataContextOfAction dataContextOfAction = dataContextService.checkedGetDataContext(
+        productIdentifier, caseIdentifier, command.getImportParameters().getCaseAccountAssignments());
+    IndividualLendingPatternFactory.checkActionCanBeExecuted(Case.State.valueOf(dataContextOfAction.getCustomerCaseEntity().getCurrentState()), Action.IMPORT);
+
+    assignAccounts(dataContextOfAction, command.getAccountAssignments());
 
     final CaseEntity customerCase = dataContextOfAction.getCustomerCaseEntity();
 
@@ -240,14 +312,41 @@ public class IndividualLoanCommandHandler {
     customerCase.setEndOfTerm(endOfTerm);
     customerCase.setCurrentState(Case.State.ACTIVE.name());
     caseRepository.save(customerCase);
+    accrualAggregateService.startTracking(dataContextOfAction);
 
     final CaseParametersEntity caseParameters = dataContextOfAction.getCaseParametersEntity();
     caseParameters.setPaymentSize(command.getImportParameters().getPaymentSize());
     caseParametersRepository.save(caseParameters);
+    repaymentScheduleService.generate(dataContextOfAction, startOfTerm);
+
+    latenessCheckService.updateNextDueDateOnDisbursement(
+        dataContextOfAction,
+        DateConverter.fromIsoString(command.getImportParameters().getStartOfTerm()));
 
     return new IndividualLoanCommandEvent(productIdentifier, caseIdentifier, command.getImportParameters().getCreatedOn());
   }
 
+  /**
+   * Allows an approval or import whose ledgers or accounts couldn't be created to be tried again.  Whatever ledgers or
+   * accounts were created before the failure are left in accounting.
+   */
+  @Transactional
+  @CommandHandler(logStart = CommandLogLevel.INFO, logFinish = CommandLogLevel.INFO)
+  @EventEmitter(
+      selectorName = IndividualLoanEventConstants.SELECTOR_NAME,
+      selectorValue = IndividualLoanEventConstants.ABANDON_ACCOUNT_CREATION_INDIVIDUALLOAN_CASE)
+  public IndividualLoanCommandEvent process(final AbandonAccountCreationCommand command) {
+    final String productIdentifier = command.getProductIdentifier();
+    final String caseIdentifier = command.getCaseIdentifier();
+    final DataContextOfAction dataContextOfAction = dataContextService.checkedGetDataContext(
+        productIdentifier, caseIdentifier, Collections.emptyList());
+
+    caseParametersRepository.clearAccountsRequested(
+        dataContextOfAction.getCustomerCaseEntity().getId(), command.getAccountsRequestedOn());
+
+    return new IndividualLoanCommandEvent(productIdentifier, caseIdentifier, DateConverter.toIsoString(command.getAccountsRequestedOn()));
+  }
+
   @Transactional
   @CommandHandler(logStart = CommandLogLevel.INFO, logFinish = CommandLogLevel.INFO)
   @EventEmitter(
@@ -266,6 +365,7 @@ public class IndividualLoanCommandHandler {
         = new DesignatorToAccountIdentifierMapper(dataContextOfAction);
     final RealRunningBalances runningBalances = new RealRunningBalances(
         accountingAdapter,
+        accrualAggregateService,
         dataContextOfAction);
 
     final PaymentBuilder paymentBuilder
@@ -278,6 +378,7 @@ public class IndividualLoanCommandHandler {
         command.getCommand().getCreatedOn(),
         dataContextOfAction.getMessageForCharge(Action.DENY),
         Action.DENY.getTransactionType());
+    recordBooking(dataContextOfAction, runningBalances, paymentBuilder, Action.DENY, transactionUniqueifier);
 
     final CaseEntity customerCase = dataContextOfAction.getCustomerCaseEntity();
 
@@ -293,17 +394,30 @@ public class IndividualLoanCommandHandler {
     return new IndividualLoanCommandEvent(productIdentifier, caseIdentifier, command.getCommand().getCreatedOn());
   }
 
-  static class InterruptedInALambdaException extends RuntimeException {
-
-    private final InterruptedException interruptedException;
+  /**
+   * Starts creating the case's ledgers and accounts.  The approval is completed by a CompleteApprovalCommand once they
+   * exist, so the command doesn't wait for accounting.
+   */
+  @Transactional
+  @CommandHandler(logStart = CommandLogLevel.INFO, logFinish = CommandLogLevel.INFO)
+  public void process(final ApproveCommand command) {
+    final String productIdentifier = command.getProductIdentifier();
+    final String caseIdentifier = command.getCaseIdentifier();
+    final DataContextOfAction dataContextOfAction = dataContextService.checkedGetDataContext(
+        productIdentifier, caseIdentifier, command.getCommand().getOneTimeAccountAssignments());
+    IndividualLendingPatternFactory.checkActionCanBeExecuted(Case.State.valueOf(dataContextOfAction.getCustomerCaseEntity().getCurrentState()), Action.APPROVE);
 
-    InterruptedInALambdaException(InterruptedException e) {
-      interruptedException = e;
-    }
+    checkIfTasksAreOutstanding(dataContextOfAction, Action.APPROVE);
 
-    void throwWrappedException() throws InterruptedException {
-      throw interruptedException;
-    }
+    final LocalDateTime accountsRequestedOn = markAccountsRequested(dataContextOfAction);
+    final DesignatorToAccountIdentifierMapper designatorToAccountIdentifierMapper
+        = new DesignatorToAccountIdentifierMapper(dataContextOfAction);
+    completeOnceAccountsExist(
+        dataContextOfAction,
+        Action.APPROVE,
+        accountsRequestedOn,
+        createAccounts(dataContextOfAction, designatorToAccountIdentifierMapper, Collections.emptyMap()),
+        accountAssignments -> new CompleteApprovalCommand(productIdentifier, caseIdentifier, command.getCommand(), accountAssignments));
   }
 
   @Transactional
@@ -311,23 +425,21 @@ public class IndividualLoanCommandHandler {
   @EventEmitter(
       selectorName = IndividualLoanEventConstants.SELECTOR_NAME,
       selectorValue = IndividualLoanEventConstants.APPROVE_INDIVIDUALLOAN_CASE)
-  public IndividualLoanCommandEvent process(final ApproveCommand command) throws InterruptedException
-  {
+  public IndividualLoanCommandEvent process(final CompleteApprovalCommand command) {
     final String productIdentifier = command.getProductIdentifier();
     final String caseIdentifier = command.getCaseIdentifier();
     final DataContextOfAction dataContextOfAction = dataContextService.checkedGetDataContext(
         productIdentifier, caseIdentifier, command.getCommand().getOneTimeAccountAssignments());
     IndividualLendingPatternFactory.checkActionCanBeExecuted(Case.State.valueOf(dataContextOfAction.getCustomerCaseEntity().getCurrentState()), Action.APPROVE);
 
-    checkIfTasksAreOutstanding(dataContextOfAction, Action.APPROVE);
-
+    assignAccounts(dataContextOfAction, command.getAccountAssignments());
     final DesignatorToAccountIdentifierMapper designatorToAccountIdentifierMapper
-            = new DesignatorToAccountIdentifierMapper(dataContextOfAction);
-    createAccounts(dataContextOfAction, designatorToAccountIdentifierMapper, Collections.emptyMap());
+        = new DesignatorToAccountIdentifierMapper(dataContextOfAction);
 
 
     final RealRunningBalances runningBalances = new RealRunningBalances(
         accountingAdapter,
+        accrualAggregateService,
         dataContextOfAction);
 
     final PaymentBuilder paymentBuilder =
@@ -339,6 +451,7 @@ public class IndividualLoanCommandHandler {
         command.getCommand().getCreatedOn(),
         dataContextOfAction.getMessageForCharge(Action.APPROVE),
         Action.APPROVE.getTransactionType());
+    recordBooking(dataContextOfAction, runningBalances, paymentBuilder, Action.APPROVE, transactionUniqueifier);
 
     final CaseEntity customerCase = dataContextOfAction.getCustomerCaseEntity();
 
@@ -373,7 +486,9 @@ public class IndividualLoanCommandHandler {
         = new DesignatorToAccountIdentifierMapper(dataContextOfAction);
     final RealRunningBalances runningBalances = new RealRunningBalances(
         accountingAdapter,
+        accrualAggregateService,
         dataContextOfAction);
+    runningBalances.prefetchAccounts();
 
     final PaymentBuilder paymentBuilder =
         disbursePaymentBuilderService.getPaymentBuilder(dataContextOfAction, disbursalAmount, CostComponentService.today(), runningBalances);
@@ -384,6 +499,7 @@ public class IndividualLoanCommandHandler {
         command.getCommand().getCreatedOn(),
         dataContextOfAction.getMessageForCharge(Action.DISBURSE),
         Action.DISBURSE.getTransactionType());
+    recordBooking(dataContextOfAction, runningBalances, paymentBuilder, Action.DISBURSE, transactionUniqueifier);
 
     final CaseEntity customerCase = dataContextOfAction.getCustomerCaseEntity();
 
@@ -402,6 +518,7 @@ public class IndividualLoanCommandHandler {
       customerCase.setEndOfTerm(endOfTerm);
       customerCase.setCurrentState(Case.State.ACTIVE.name());
       caseRepository.save(customerCase);
+      accrualAggregateService.startTracking(dataContextOfAction);
     }
     final BigDecimal currentBalance = runningBalances.getBalance(AccountDesignators.CUSTOMER_LOAN_GROUP).orElse(BigDecimal.ZERO);
 
@@ -411,6 +528,13 @@ public class IndividualLoanCommandHandler {
 
     dataContextOfAction.getCaseParametersEntity().setPaymentSize(newLoanPaymentSize);
     caseParametersRepository.save(dataContextOfAction.getCaseParametersEntity());
+    repaymentScheduleService.generate(
+        dataContextOfAction,
+        DateConverter.fromIsoString(command.getCommand().getCreatedOn()).toLocalDate());
+
+    latenessCheckService.updateNextDueDateOnDisbursement(
+        dataContextOfAction,
+        DateConverter.fromIsoString(command.getCommand().getCreatedOn()));
 
     return new IndividualLoanCommandEvent(productIdentifier, caseIdentifier, command.getCommand().getCreatedOn());
   }
@@ -423,37 +547,32 @@ public class IndividualLoanCommandHandler {
   public IndividualLoanCommandEvent process(final ApplyInterestCommand command) {
     final String productIdentifier = command.getProductIdentifier();
     final String caseIdentifier = command.getCaseIdentifier();
-    final DataContextOfAction dataContextOfAction = dataContextService.checkedGetDataContext(
-        productIdentifier, caseIdentifier, null);
-    IndividualLendingPatternFactory.checkActionCanBeExecuted(Case.State.valueOf(dataContextOfAction.getCustomerCaseEntity().getCurrentState()), Action.APPLY_INTEREST);
+    final DataContextOfAction dataContextOfAction = getDataContextForApplyInterest(productIdentifier, caseIdentifier);
+    final RealRunningBalances runningBalances = caseBalanceProjectionService.getRunningBalances(dataContextOfAction);
 
-    if (dataContextOfAction.getCustomerCaseEntity().getEndOfTerm() == null)
-      throw ServiceException.internalError(
-          "End of term not set for active case ''{0}.{1}.''", productIdentifier, caseIdentifier);
+    applyInterest(dataContextOfAction, runningBalances, command.getForTime(), command.isResumed());
 
-    final DesignatorToAccountIdentifierMapper designatorToAccountIdentifierMapper
-        = new DesignatorToAccountIdentifierMapper(dataContextOfAction);
-    final RealRunningBalances runningBalances = new RealRunningBalances(
-        accountingAdapter,
-        dataContextOfAction);
-
-    final PaymentBuilder paymentBuilder =
-        applyInterestPaymentBuilderService.getPaymentBuilder(dataContextOfAction, BigDecimal.ZERO, CostComponentService.today(), runningBalances);
+    return new IndividualLoanCommandEvent(productIdentifier, caseIdentifier, command.getForTime());
+  }
 
-    final Optional<String> transactionUniqueifier = accountingAdapter.bookCharges(paymentBuilder.getBalanceAdjustments(),
-        designatorToAccountIdentifierMapper,
-        "Applied interest on " + command.getForTime(),
-        command.getForTime(),
-        dataContextOfAction.getMessageForCharge(Action.APPLY_INTEREST),
-        Action.APPLY_INTEREST.getTransactionType());
+  @Transactional
+  @CommandHandler(logStart = CommandLogLevel.INFO, logFinish = CommandLogLevel.INFO)
+  @EventEmitter(
+      selectorName = IndividualLoanEventConstants.SELECTOR_NAME,
+      selectorValue = IndividualLoanEventConstants.APPLY_INTEREST_INDIVIDUALLOAN_CASE)
+  public IndividualLoanCommandEvent process(final ApplyInterestAndCheckLateCommand command) {
+    final String productIdentifier = command.getProductIdentifier();
+    final String caseIdentifier = command.getCaseIdentifier();
+    final DataContextOfAction dataContextOfAction = getDataContextForApplyInterest(productIdentifier, caseIdentifier);
+    final RealRunningBalances runningBalances = caseBalanceProjectionService.getRunningBalances(dataContextOfAction);
 
-    final CaseEntity customerCase = dataContextOfAction.getCustomerCaseEntity();
+    applyInterest(dataContextOfAction, runningBalances, command.getForTime(), command.isResumed());
 
-    recordCommand(
-        command.getForTime(),
-        customerCase.getId(),
-        Action.APPLY_INTEREST,
-        transactionUniqueifier);
+    //Applying interest doesn't touch principal or payments, so the balances read for it are still valid here.
+    final LatenessCheckService.Result latenessCheck
+        = latenessCheckService.checkLate(dataContextOfAction, runningBalances, command.getForTime());
+    latenessCheck.getMarkLateCommand().ifPresent(commandBus::dispatch);
+    latenessCheck.getMarkInArrearsCommand().ifPresent(commandBus::dispatch);
 
     return new IndividualLoanCommandEvent(productIdentifier, caseIdentifier, command.getForTime());
   }
@@ -481,7 +600,9 @@ public class IndividualLoanCommandHandler {
         = new DesignatorToAccountIdentifierMapper(dataContextOfAction);
     final RealRunningBalances runningBalances = new RealRunningBalances(
         accountingAdapter,
+        accrualAggregateService,
         dataContextOfAction);
+    runningBalances.prefetchAccounts();
 
     final PaymentBuilder paymentBuilder =
         acceptPaymentBuilderService.getPaymentBuilder(
@@ -495,6 +616,7 @@ public class IndividualLoanCommandHandler {
         command.getCommand().getCreatedOn(),
         dataContextOfAction.getMessageForCharge(Action.ACCEPT_PAYMENT),
         Action.ACCEPT_PAYMENT.getTransactionType());
+    recordBooking(dataContextOfAction, runningBalances, paymentBuilder, Action.ACCEPT_PAYMENT, transactionUniqueifier);
 
     final CaseEntity customerCase = dataContextOfAction.getCustomerCaseEntity();
 
@@ -507,6 +629,10 @@ public class IndividualLoanCommandHandler {
     //TODO: Should this be more sophisticated?  Take into account what the payment amount was?
     markCaseNotLate(dataContextOfAction);
 
+    latenessCheckService.updateNextDueDateOnPayment(
+        dataContextOfAction,
+        DateConverter.fromIsoString(command.getCommand().getCreatedOn()));
+
     return new IndividualLoanCommandEvent(productIdentifier, caseIdentifier, command.getCommand().getCreatedOn());
   }
 
@@ -532,6 +658,7 @@ public class IndividualLoanCommandHandler {
         = new DesignatorToAccountIdentifierMapper(dataContextOfAction);
     final RealRunningBalances runningBalances = new RealRunningBalances(
         accountingAdapter,
+        accrualAggregateService,
         dataContextOfAction);
 
     final PaymentBuilder paymentBuilder =
@@ -544,6 +671,7 @@ public class IndividualLoanCommandHandler {
         command.getForTime(),
         dataContextOfAction.getMessageForCharge(Action.MARK_LATE),
         Action.MARK_LATE.getTransactionType());
+    recordBooking(dataContextOfAction, runningBalances, paymentBuilder, Action.MARK_LATE, transactionUniqueifier);
 
     final CaseEntity customerCase = dataContextOfAction.getCustomerCaseEntity();
 
@@ -580,6 +708,7 @@ public class IndividualLoanCommandHandler {
         = new DesignatorToAccountIdentifierMapper(dataContextOfAction);
     final RealRunningBalances runningBalances = new RealRunningBalances(
         accountingAdapter,
+        accrualAggregateService,
         dataContextOfAction);
 
     final PaymentBuilder paymentBuilder =
@@ -595,6 +724,7 @@ public class IndividualLoanCommandHandler {
         command.getForTime(),
         dataContextOfAction.getMessageForCharge(Action.MARK_IN_ARREARS),
         Action.MARK_IN_ARREARS.getTransactionType());
+    recordBooking(dataContextOfAction, runningBalances, paymentBuilder, Action.MARK_IN_ARREARS, transactionUniqueifier);
 
     final CaseEntity customerCase = dataContextOfAction.getCustomerCaseEntity();
 
@@ -622,7 +752,9 @@ public class IndividualLoanCommandHandler {
         = new DesignatorToAccountIdentifierMapper(dataContextOfAction);
     final RealRunningBalances runningBalances = new RealRunningBalances(
         accountingAdapter,
+        accrualAggregateService,
         dataContextOfAction);
+    runningBalances.prefetchAccounts();
 
     final PaymentBuilder paymentBuilder =
         writeOffPaymentBuilderService.getPaymentBuilder(
@@ -636,6 +768,7 @@ public class IndividualLoanCommandHandler {
         command.getCommand().getCreatedOn(),
         dataContextOfAction.getMessageForCharge(Action.WRITE_OFF),
         Action.WRITE_OFF.getTransactionType());
+    recordBooking(dataContextOfAction, runningBalances, paymentBuilder, Action.WRITE_OFF, transactionUniqueifier);
 
     final CaseEntity customerCase = dataContextOfAction.getCustomerCaseEntity();
 
@@ -667,7 +800,9 @@ public class IndividualLoanCommandHandler {
         = new DesignatorToAccountIdentifierMapper(dataContextOfAction);
     final RealRunningBalances runningBalances = new RealRunningBalances(
         accountingAdapter,
+        accrualAggregateService,
         dataContextOfAction);
+    runningBalances.prefetchAccounts();
 
     final PaymentBuilder paymentBuilder =
         closePaymentBuilderService.getPaymentBuilder(dataContextOfAction, BigDecimal.ZERO, CostComponentService.today(), runningBalances);
@@ -678,6 +813,7 @@ public class IndividualLoanCommandHandler {
         command.getCommand().getCreatedOn(),
         dataContextOfAction.getMessageForCharge(Action.CLOSE),
         Action.CLOSE.getTransactionType());
+    recordBooking(dataContextOfAction, runningBalances, paymentBuilder, Action.CLOSE, transactionIdentifier);
 
     final CaseEntity customerCase = dataContextOfAction.getCustomerCaseEntity();
     customerCase.setCurrentState(Case.State.CLOSED.name());
@@ -702,7 +838,9 @@ public class IndividualLoanCommandHandler {
         = new DesignatorToAccountIdentifierMapper(dataContextOfAction);
     final RealRunningBalances runningBalances = new RealRunningBalances(
         accountingAdapter,
+        accrualAggregateService,
         dataContextOfAction);
+    runningBalances.prefetchAccounts();
 
     final PaymentBuilder paymentBuilder =
         recoverPaymentBuilderService.getPaymentBuilder(dataContextOfAction, BigDecimal.ZERO, CostComponentService.today(), runningBalances);
@@ -713,6 +851,7 @@ public class IndividualLoanCommandHandler {
         command.getCommand().getCreatedOn(),
         dataContextOfAction.getMessageForCharge(Action.RECOVER),
         Action.CLOSE.getTransactionType());
+    recordBooking(dataContextOfAction, runningBalances, paymentBuilder, Action.RECOVER, transactionUniqueifier);
 
     final CaseEntity customerCase = dataContextOfAction.getCustomerCaseEntity();
 
@@ -728,46 +867,119 @@ public class IndividualLoanCommandHandler {
     return new IndividualLoanCommandEvent(productIdentifier, caseIdentifier, command.getCommand().getCreatedOn());
   }
 
-  private void createAccounts(
+  /**
+   * Creates the case's group ledgers and case accounts in accounting.  Nothing waits for them: the returned future
+   * completes with their assignments once all of them exist, or exceptionally if any of them can't be created.  The
+   * case itself is left alone.
+   */
+  CompletableFuture<List<AccountAssignment>> createAccounts(
       final DataContextOfAction dataContextOfAction,
       final DesignatorToAccountIdentifierMapper designatorToAccountIdentifierMapper,
-      final Map<String, BigDecimal> currentBalances) throws InterruptedException
+      final Map<String, BigDecimal> currentBalances)
   {
-    //Create the needed account assignments for groups and persist them for the case.
-    try {
-      designatorToAccountIdentifierMapper.getGroupsNeedingLedgers()
-          .map(groupNeedingLedger -> {
-            try {
-              final String createdLedgerIdentifier = accountingAdapter.createLedger(
-                  dataContextOfAction.getCaseParametersEntity().getCustomerIdentifier(),
-                  groupNeedingLedger.getGroupName(),
-                  groupNeedingLedger.getParentLedger());
-              return new AccountAssignment(groupNeedingLedger.getGroupName(), createdLedgerIdentifier);
-            } catch (InterruptedException e) {
-              throw new InterruptedInALambdaException(e);
-            }
-          })
-          .map(accountAssignment -> CaseMapper.map(accountAssignment, dataContextOfAction.getCustomerCaseEntity()))
-          .forEach(caseAccountAssignmentEntity -> dataContextOfAction.getCustomerCaseEntity().getAccountAssignments().add(caseAccountAssignmentEntity));
-    }
-    catch (final InterruptedInALambdaException e) {
-      e.throwWrappedException();
-    }
+    final String customerIdentifier = dataContextOfAction.getCaseParametersEntity().getCustomerIdentifier();
+    //The creation of a group's accounts resumes on whichever thread completes the group's ledger, which may be the
+    // accounting listener.  So the context is taken from this thread.
+    final String tenantIdentifier = TenantContextHolder.checkedGetIdentifier();
+    final String user = UserContextHolder.checkedGetUser();
+    final String accessToken = UserContextHolder.checkedGetAccessToken();
+
+    //Create the ledgers for groups concurrently.
+    final Map<String, CompletableFuture<String>> groupLedgersInFlight = designatorToAccountIdentifierMapper.getGroupsNeedingLedgers()
+        .collect(Collectors.toMap(
+            DesignatorToAccountIdentifierMapper.GroupNeedingLedger::getGroupName,
+            groupNeedingLedger -> accountingAdapter.callInBackground(() -> accountingAdapter.createLedger(
+                customerIdentifier,
+                groupNeedingLedger.getGroupName(),
+                groupNeedingLedger.getParentLedger()))
+                .thenCompose(ledgerCreation -> ledgerCreation)));
+
+    //Create the accounts concurrently too.  Accounts in a group which is getting a ledger of its own are created as
+    // soon as that ledger exists, all others right away.
+    final Map<String, String> groupsByDesignator = IndividualLendingPatternFactory.individualLendingPattern()
+        .getAccountAssignmentsRequired().stream()
+        .filter(x -> x.getGroup() != null)
+        .collect(Collectors.toMap(RequiredAccountAssignment::getAccountDesignator, RequiredAccountAssignment::getGroup));
+    final List<CompletableFuture<AccountAssignment>> assignmentsInFlight = designatorToAccountIdentifierMapper.getLedgersNeedingAccounts()
+        .map(ledger -> Optional.ofNullable(groupsByDesignator.get(ledger.getDesignator()))
+            .map(groupLedgersInFlight::get)
+            .orElse(CompletableFuture.completedFuture(ledger.getLedgerIdentifier()))
+            .thenCompose(ledgerIdentifier -> accountingAdapter.callInBackground(tenantIdentifier, user, accessToken, () -> {
+              ledger.setLedgerIdentifier(ledgerIdentifier);
+              final BigDecimal currentBalance = currentBalances.getOrDefault(ledger.getDesignator(), BigDecimal.ZERO);
+              return new AccountAssignment(ledger.getDesignator(),
+                  accountingAdapter.createOrFindCaseAccountForLedgerAssignment(customerIdentifier, ledger, currentBalance));
+            })))
+        .collect(Collectors.toList());
+    groupLedgersInFlight.forEach((groupName, groupLedgerInFlight) ->
+        assignmentsInFlight.add(groupLedgerInFlight.thenApply(ledgerIdentifier -> new AccountAssignment(groupName, ledgerIdentifier))));
+
+    return CompletableFuture.allOf(assignmentsInFlight.toArray(new CompletableFuture<?>[assignmentsInFlight.size()]))
+        .thenApply(allCreated -> assignmentsInFlight.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+  }
 
-    //Create the needed account assignments and persist them for the case.
-    designatorToAccountIdentifierMapper.getLedgersNeedingAccounts()
-        .map(ledger -> {
-          final BigDecimal currentBalance = currentBalances.getOrDefault(ledger.getDesignator(), BigDecimal.ZERO);
-          return new AccountAssignment(ledger.getDesignator(),
-              accountingAdapter.createOrFindCaseAccountForLedgerAssignment(
-                  dataContextOfAction.getCaseParametersEntity().getCustomerIdentifier(),
-                  ledger,
-                  currentBalance));})
-        .map(accountAssignment -> CaseMapper.map(accountAssignment, dataContextOfAction.getCustomerCaseEntity()))
-        .forEach(caseAccountAssignmentEntity ->
-            dataContextOfAction.getCustomerCaseEntity().getAccountAssignments().add(caseAccountAssignmentEntity)
-        );
-    caseRepository.save(dataContextOfAction.getCustomerCaseEntity());
+  /**
+   * Records that the case's accounts are being created, so that the case isn't approved or imported a second time in
+   * the meantime.  The mark is removed again when the accounts are assigned to the case, or when creating them fails.
+   *
+   * @return the time recorded, to the precision it is stored with.
+   */
+  private LocalDateTime markAccountsRequested(final DataContextOfAction dataContextOfAction) {
+    final LocalDateTime now = LocalDateTime.now(Clock.systemUTC()).truncatedTo(ChronoUnit.MILLIS);
+    final int marked = caseParametersRepository.markAccountsRequested(
+        dataContextOfAction.getCustomerCaseEntity().getId(), now, now.minus(ACCOUNT_CREATION_TIMEOUT));
+    if (marked == 0)
+      throw ServiceException.conflict("The accounts for case ''{0}.{1}'' are already being created.",
+          dataContextOfAction.getProductEntity().getIdentifier(),
+          dataContextOfAction.getCustomerCaseEntity().getIdentifier());
+    return now;
+  }
+
+  /**
+   * Dispatches the command which completes the given action once the case's accounts exist.  The dispatch happens on a
+   * thread of the accounting executor, in the context of this thread.  If the accounts can't be created, the case is
+   * left as it was, and an AbandonAccountCreationCommand is dispatched instead, so that the action can be tried again
+   * right away.
+   */
+  private void completeOnceAccountsExist(
+      final DataContextOfAction dataContextOfAction,
+      final Action action,
+      final LocalDateTime accountsRequestedOn,
+      final CompletableFuture<List<AccountAssignment>> accountsInFlight,
+      final Function<List<AccountAssignment>, Object> completion) {
+    final String productIdentifier = dataContextOfAction.getProductEntity().getIdentifier();
+    final String caseIdentifier = dataContextOfAction.getCustomerCaseEntity().getIdentifier();
+    final String tenantIdentifier = TenantContextHolder.checkedGetIdentifier();
+    final String user = UserContextHolder.checkedGetUser();
+    final String accessToken = UserContextHolder.checkedGetAccessToken();
+    accountsInFlight
+        .thenCompose(accountAssignments -> accountingAdapter.callInBackground(tenantIdentifier, user, accessToken, () -> {
+          commandBus.dispatch(completion.apply(accountAssignments));
+          return null;
+        }))
+        .whenComplete((dispatched, failure) -> {
+          if (failure == null)
+            return;
+          logger.error("Creating the accounts for action '{}' on case '{}.{}' failed.  The case was left as it was.",
+              action, productIdentifier, caseIdentifier, failure);
+          accountingAdapter.callInBackground(tenantIdentifier, user, accessToken, () -> {
+            commandBus.dispatch(new AbandonAccountCreationCommand(productIdentifier, caseIdentifier, action, accountsRequestedOn));
+            return null;
+          });
+        });
+  }
+
+  private void assignAccounts(
+      final DataContextOfAction dataContextOfAction,
+      final List<AccountAssignment> accountAssignments) {
+    final CaseEntity customerCase = dataContextOfAction.getCustomerCaseEntity();
+    accountAssignments.forEach(accountAssignment ->
+        customerCase.getAccountAssignments().add(CaseMapper.map(accountAssignment, customerCase)));
+    caseRepository.save(customerCase);
+
+    final CaseParametersEntity caseParameters = dataContextOfAction.getCaseParametersEntity();
+    caseParameters.setAccountsRequestedOn(null);
+    caseParametersRepository.save(caseParameters);
   }
 
   private Map<String, BigDecimal> getRequestedChargeAmounts(final @Nullable List<CostComponent> costComponents) {
@@ -792,6 +1004,127 @@ public class IndividualLoanCommandHandler {
           action.name(), productIdentifier, caseIdentifier);
   }
 
+  private DataContextOfAction getDataContextForApplyInterest(
+      final String productIdentifier,
+      final String caseIdentifier) {
+    final DataContextOfAction dataContextOfAction = dataContextService.checkedGetDataContext(
+        productIdentifier, caseIdentifier, null);
+    IndividualLendingPatternFactory.checkActionCanBeExecuted(Case.State.valueOf(dataContextOfAction.getCustomerCaseEntity().getCurrentState()), Action.APPLY_INTEREST);
+
+    if (dataContextOfAction.getCustomerCaseEntity().getEndOfTerm() == null)
+      throw ServiceException.internalError(
+          "End of term not set for active case ''{0}.{1}.''", productIdentifier, caseIdentifier);
+
+    return dataContextOfAction;
+  }
+
+  private void applyInterest(
+      final DataContextOfAction dataContextOfAction,
+      final RealRunningBalances runningBalances,
+      final String forTime,
+      final boolean resumed) {
+    final int accrualDays = getDaysOfInterestToApply(
+        dataContextOfAction, DateConverter.fromIsoString(forTime).toLocalDate(), resumed);
+    if (accrualDays == 0)
+      return;
+
+    final DesignatorToAccountIdentifierMapper designatorToAccountIdentifierMapper
+        = new DesignatorToAccountIdentifierMapper(dataContextOfAction);
+
+    final PaymentBuilder paymentBuilder =
+        applyInterestPaymentBuilderService.getPaymentBuilder(dataContextOfAction, CostComponentService.today(), accrualDays, runningBalances);
+
+    final String note = accrualDays == 1 ? "Applied interest on " + forTime : "Applied " + accrualDays + " days of interest on " + forTime;
+    //Interest entries are only looked up by message to total accruals, so they can be batched once that's done locally.
+    final Optional<String> transactionUniqueifier =
+        (portfolioProperties.isBatchInterestJournalEntries() && accrualAggregateService.isTracking(dataContextOfAction))
+        ? accountingAdapter.bookChargesInBatch(paymentBuilder.getBalanceAdjustments(),
+            designatorToAccountIdentifierMapper,
+            note,
+            forTime,
+            dataContextOfAction.getMessageForCharge(Action.APPLY_INTEREST),
+            Action.APPLY_INTEREST.getTransactionType())
+        : accountingAdapter.bookCharges(paymentBuilder.getBalanceAdjustments(),
+            designatorToAccountIdentifierMapper,
+            note,
+            forTime,
+            dataContextOfAction.getMessageForCharge(Action.APPLY_INTEREST),
+            Action.APPLY_INTEREST.getTransactionType());
+    recordBooking(dataContextOfAction, runningBalances, paymentBuilder, Action.APPLY_INTEREST, transactionUniqueifier);
+
+    final CaseEntity customerCase = dataContextOfAction.getCustomerCaseEntity();
+
+    recordCommand(
+        forTime,
+        customerCase.getId(),
+        Action.APPLY_INTEREST,
+        transactionUniqueifier);
+  }
+
+  /**
+   * @return the number of days since interest was last applied, limited to the configured maximum catch up.  Zero if
+   * interest has already been applied up to the given date.  If catching up is switched off, one,
+   * unless the beat is resumed after a crash and interest was already applied on the given date, so that the resumed
+   * beat doesn't apply it twice.
+   *
+   * Interest is owed from its last application.  Only if it was never applied is it owed from the import of the case,
+   * or failing that from its first disbursement.  The balances of an imported case already include the interest up to
+   * its import, even though its start of term and its recorded disbursement lie before that.  A later disbursement
+   * doesn't start the window over, since the interest on what was disbursed before it is still owed.
+   */
+  private int getDaysOfInterestToApply(
+      final DataContextOfAction dataContextOfAction,
+      final LocalDate forDate,
+      final boolean resumed) {
+    final int maximumInterestCatchUpDays = portfolioProperties.getMaximumInterestCatchUpDays();
+    final CaseEntity customerCase = dataContextOfAction.getCustomerCaseEntity();
+    final Pageable mostRecent = new PageRequest(0, 1, Sort.Direction.DESC, "createdOn");
+    if (maximumInterestCatchUpDays == 1) {
+      if (!resumed)
+        return 1;
+      final boolean alreadyAppliedForDate = findFirstCommand(customerCase, Action.APPLY_INTEREST, mostRecent)
+          .map(createdOn -> !createdOn.toLocalDate().isBefore(forDate))
+          .orElse(false);
+      return alreadyAppliedForDate ? 0 : 1;
+    }
+
+    final Pageable earliest = new PageRequest(0, 1, Sort.Direction.ASC, "createdOn");
+    final Optional<LocalDate> interestAppliedUpTo = Optional.ofNullable(
+        findFirstCommand(customerCase, Action.APPLY_INTEREST, mostRecent)
+            .orElseGet(() -> findFirstCommand(customerCase, Action.IMPORT, mostRecent)
+            .orElseGet(() -> findFirstCommand(customerCase, Action.DISBURSE, earliest)
+            .orElse(customerCase.getStartOfTerm()))))
+        .map(LocalDateTime::toLocalDate);
+    if (!interestAppliedUpTo.isPresent())
+      return 1;
+
+    final long daysSinceInterestWasApplied = ChronoUnit.DAYS.between(interestAppliedUpTo.get(), forDate);
+    return (int) Math.max(0, Math.min(daysSinceInterestWasApplied, maximumInterestCatchUpDays));
+  }
+
+  private Optional<LocalDateTime> findFirstCommand(
+      final CaseEntity customerCase,
+      final Action action,
+      final Pageable pageable) {
+    return caseCommandRepository.findByCaseIdAndActionName(customerCase.getId(), action.name(), pageable)
+        .getContent().stream().findFirst().map(CaseCommandEntity::getCreatedOn);
+  }
+
+  private void recordBooking(
+      final DataContextOfAction dataContextOfAction,
+      final RealRunningBalances runningBalances,
+      final PaymentBuilder paymentBuilder,
+      final Action action,
+      @SuppressWarnings("OptionalUsedAsFieldOrParameterType") final Optional<String> transactionUniqueifier) {
+    caseBalanceProjectionService.adjustBalances(
+        dataContextOfAction,
+        runningBalances,
+        paymentBuilder.getBalanceAdjustments(),
+        transactionUniqueifier.map(x -> AccountingAdapter.formulateTransactionIdentifier(
+            dataContextOfAction.getMessageForCharge(action), x)));
+    accrualAggregateService.recordBooking(dataContextOfAction, action, paymentBuilder.getBalanceAdjustments());
+  }
+
   private void recordCommand(
       final String when,
       final Long caseId,
@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.repository;
+
+import java.time.LocalDateTime;
+import java.util.Objects;
+import javax.persistence.Column;
+import javax.persistence.Convert;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import org.apache.fineract.cn.postgresql.util.LocalDateTimeConverter;
+
+/**
+ * Records how far one partition of the active cases has been processed for a stage of a beat, so that
+ * processing can be continued from there after a restart.
+ */
+@Entity
+@Table(name = "bastet_il_beat_progress")
+public class BeatProgressEntity {
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @Column(name = "id")
+  private Long id;
+
+  @Column(name = "beat_identifier")
+  private String beatIdentifier;
+
+  @Column(name = "for_time")
+  @Convert(converter = LocalDateTimeConverter.class)
+  private LocalDateTime forTime;
+
+  @Column(name = "stage")
+  private String stage;
+
+  @Column(name = "first_case_id")
+  private Long firstCaseId;
+
+  @Column(name = "last_case_id")
+  private Long lastCaseId;
+
+  @Column(name = "last_processed_case_id")
+  private Long lastProcessedCaseId;
+
+  @Column(name = "finished")
+  private Boolean finished;
+
+  /** The portfolio instance currently processing this partition, if any.
+   */
+  @Column(name = "lease_owner")
+  private String leaseOwner;
+
+  /** After this time, the partition may be claimed by another instance.  The lease is renewed at every checkpoint.
+   */
+  @Column(name = "lease_expires_on")
+  @Convert(converter = LocalDateTimeConverter.class)
+  private LocalDateTime leaseExpiresOn;
+
+  /** Comma separated ids of the cases checkpointed past although processing them failed, to retry when the partition
+   * is resumed.
+   */
+  @Column(name = "failed_case_ids")
+  private String failedCaseIds;
+
+  public BeatProgressEntity() {
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public void setId(Long id) {
+    this.id = id;
+  }
+
+  public String getBeatIdentifier() {
+    return beatIdentifier;
+  }
+
+  public void setBeatIdentifier(String beatIdentifier) {
+    this.beatIdentifier = beatIdentifier;
+  }
+
+  public LocalDateTime getForTime() {
+    return forTime;
+  }
+
+  public void setForTime(LocalDateTime forTime) {
+    this.forTime = forTime;
+  }
+
+  public String getStage() {
+    return stage;
+  }
+
+  public void setStage(String stage) {
+    this.stage = stage;
+  }
+
+  public Long getFirstCaseId() {
+    return firstCaseId;
+  }
+
+  public void setFirstCaseId(Long firstCaseId) {
+    this.firstCaseId = firstCaseId;
+  }
+
+  public Long getLastCaseId() {
+    return lastCaseId;
+  }
+
+  public void setLastCaseId(Long lastCaseId) {
+    this.lastCaseId = lastCaseId;
+  }
+
+  public Long getLastProcessedCaseId() {
+    return lastProcessedCaseId;
+  }
+
+  public void setLastProcessedCaseId(Long lastProcessedCaseId) {
+    this.lastProcessedCaseId = lastProcessedCaseId;
+  }
+
+  public Boolean getFinished() {
+    return finished;
+  }
+
+  public void setFinished(Boolean finished) {
+    this.finished = finished;
+  }
+
+  public String getLeaseOwner() {
+    return leaseOwner;
+  }
+
+  public void setLeaseOwner(String leaseOwner) {
+    this.leaseOwner = leaseOwner;
+  }
+
+  public LocalDateTime getLeaseExpiresOn() {
+    return leaseExpiresOn;
+  }
+
+  public void setLeaseExpiresOn(LocalDateTime leaseExpiresOn) {
+    this.leaseExpiresOn = leaseExpiresOn;
+  }
+
+  public String getFailedCaseIds() {
+    return failedCaseIds;
+  }
+
+  public void setFailedCaseIds(String failedCaseIds) {
+    this.failedCaseIds = failedCaseIds;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    BeatProgressEntity that = (BeatProgressEntity) o;
+    return Objects.equals(beatIdentifier, that.beatIdentifier) &&
+        Objects.equals(forTime, that.forTime) &&
+        Objects.equals(stage, that.stage) &&
+        Objects.equals(firstCaseId, that.firstCaseId);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(beatIdentifier, forTime, stage, firstCaseId);
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface BeatProgressRepository extends JpaRepository<BeatProgressEntity, Long> {
+  List<BeatProgressEntity> findByBeatIdentifierAndForTimeAndStage(String beatIdentifier, LocalDateTime forTime, String stage);
+
+  List<BeatProgressEntity> findByFinishedFalseAndForTimeBefore(LocalDateTime forTime);
+
+  /**
+   * @return 1 if the partition was unfinished and not leased by anyone, or its lease had expired, and is now leased by
+   * the given owner.  0 otherwise.
+   */
+  @Modifying
+  @Transactional
+  @Query("UPDATE BeatProgressEntity p SET p.leaseOwner = :owner, p.leaseExpiresOn = :leaseExpiresOn " +
+      "WHERE p.id = :id AND p.finished = false AND (p.leaseOwner IS NULL OR p.leaseExpiresOn < :now)")
+  int claimLease(
+      @Param("id") Long id,
+      @Param("owner") String owner,
+      @Param("now") LocalDateTime now,
+      @Param("leaseExpiresOn") LocalDateTime leaseExpiresOn);
+
+  /**
+   * Records the progress together with the cases which failed up to it, so that a failed case is never checkpointed
+   * past without being recorded.
+   *
+   * @return 1 if the given owner still held the lease, and the progress was recorded and the lease renewed.  0 if the
+   * lease was lost to another instance.
+   */
+  @Modifying
+  @Transactional
+  @Query("UPDATE BeatProgressEntity p SET p.lastProcessedCaseId = :lastProcessedCaseId, p.failedCaseIds = :failedCaseIds, " +
+      "p.leaseExpiresOn = :leaseExpiresOn WHERE p.id = :id AND p.leaseOwner = :owner")
+  int checkpoint(
+      @Param("id") Long id,
+      @Param("owner") String owner,
+      @Param("lastProcessedCaseId") Long lastProcessedCaseId,
+      @Param("failedCaseIds") String failedCaseIds,
+      @Param("leaseExpiresOn") LocalDateTime leaseExpiresOn);
+
+  /**
+   * @return 1 if the given owner held the lease and has now given it up, leaving the partition unfinished.  0 otherwise.
+   */
+  @Modifying
+  @Transactional
+  @Query("UPDATE BeatProgressEntity p SET p.leaseOwner = NULL, p.leaseExpiresOn = NULL " +
+      "WHERE p.id = :id AND p.leaseOwner = :owner")
+  int releaseLease(
+      @Param("id") Long id,
+      @Param("owner") String owner);
+
+  @Modifying
+  @Transactional
+  @Query("UPDATE BeatProgressEntity p SET p.finished = true, p.leaseOwner = NULL, p.leaseExpiresOn = NULL " +
+      "WHERE p.id = :id AND p.leaseOwner = :owner")
+  int finish(
+      @Param("id") Long id,
+      @Param("owner") String owner);
+}
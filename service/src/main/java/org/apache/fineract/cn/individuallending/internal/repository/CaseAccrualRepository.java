@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.repository;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface CaseAccrualRepository extends JpaRepository<CaseAccrualEntity, Long> {
+  Optional<CaseAccrualEntity> findByCaseIdAndAccountDesignatorAndActionName(
+      Long caseId, String accountDesignator, String actionName);
+
+  /**
+   * Increases the total by the given amount, creating it if there is none yet.  Done in one statement, so that two
+   * transactions booking to the same total at once can't both find it missing.
+   */
+  @Modifying
+  @Transactional
+  @Query(value = "INSERT INTO bastet_il_case_accruals (case_id, account_designator, action_name, amount) " +
+      "VALUES (:caseId, :accountDesignator, :actionName, :amount) " +
+      "ON CONFLICT (case_id, account_designator, action_name) " +
+      "DO UPDATE SET amount = bastet_il_case_accruals.amount + EXCLUDED.amount", nativeQuery = true)
+  int addToAmount(
+      @Param("caseId") Long caseId,
+      @Param("accountDesignator") String accountDesignator,
+      @Param("actionName") String actionName,
+      @Param("amount") BigDecimal amount);
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.repository;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Objects;
+import javax.persistence.Column;
+import javax.persistence.Convert;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import org.apache.fineract.cn.postgresql.util.LocalDateTimeConverter;
+
+/**
+ * The balance of one of a case's own accounts, as last known to the portfolio.  Kept up to date with every journal
+ * entry booked for the case, and overwritten with the balance in accounting when reconciled.
+ */
+@Entity
+@Table(name = "bastet_il_case_balances")
+public class CaseBalanceEntity {
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @Column(name = "id")
+  private Long id;
+
+  @Column(name = "case_id")
+  private Long caseId;
+
+  @Column(name = "account_designator")
+  private String accountDesignator;
+
+  @Column(name = "account_identifier")
+  private String accountIdentifier;
+
+  @Column(name = "balance")
+  private BigDecimal balance;
+
+  @Column(name = "reconciled_on")
+  @Convert(converter = LocalDateTimeConverter.class)
+  private LocalDateTime reconciledOn;
+
+  public Long getId() {
+    return id;
+  }
+
+  public void setId(Long id) {
+    this.id = id;
+  }
+
+  public Long getCaseId() {
+    return caseId;
+  }
+
+  public void setCaseId(Long caseId) {
+    this.caseId = caseId;
+  }
+
+  public String getAccountDesignator() {
+    return accountDesignator;
+  }
+
+  public void setAccountDesignator(String accountDesignator) {
+    this.accountDesignator = accountDesignator;
+  }
+
+  public String getAccountIdentifier() {
+    return accountIdentifier;
+  }
+
+  public void setAccountIdentifier(String accountIdentifier) {
+    this.accountIdentifier = accountIdentifier;
+  }
+
+  public BigDecimal getBalance() {
+    return balance;
+  }
+
+  public void setBalance(BigDecimal balance) {
+    this.balance = balance;
+  }
+
+  public LocalDateTime getReconciledOn() {
+    return reconciledOn;
+  }
+
+  public void setReconciledOn(LocalDateTime reconciledOn) {
+    this.reconciledOn = reconciledOn;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    CaseBalanceEntity that = (CaseBalanceEntity) o;
+    return Objects.equals(caseId, that.caseId) &&
+        Objects.equals(accountDesignator, that.accountDesignator);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(caseId, accountDesignator);
+  }
+}
@@ -20,9 +20,11 @@ package org.apache.fineract.cn.individuallending.internal.repository;
 
 import javax.persistence.*;
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.Objects;
 import java.util.Set;
+import org.apache.fineract.cn.postgresql.util.LocalDateTimeConverter;
 
 /**
  * @author Myrle Krantz
@@ -76,6 +78,39 @@ public class CaseParametersEntity {
   @Column(name = "payment_size")
   private BigDecimal paymentSize;
 
+  /** The earliest repayment date on which the case could fall behind, given what has been verified so far.  Null if
+   * the case has not been indexed yet, in which case it is checked for lateness on every beat until it is.
+   */
+  @Column(name = "next_due_date")
+  @Convert(converter = LocalDateTimeConverter.class)
+  private LocalDateTime nextDueDate;
+
+  /** The sum of all payments expected between the most recent disbursement and the next due date.
+   */
+  @Column(name = "expected_payment_sum")
+  private BigDecimal expectedPaymentSum;
+
+  /** Whether the amounts booked to the case's accrual accounts have been totalled in bastet_il_case_accruals since
+   * the start of term.  False for cases which started their term before the totals were kept.
+   */
+  @Column(name = "accruals_tracked")
+  private Boolean accrualsTracked;
+
+  /** When accounting rejected a journal entry booked for the case.  Its amounts were taken back from the case's own
+   * records, but not the state changes of the command which booked it, so the case is left out of the beat until
+   * someone has looked at it.  Null if no entry was rejected.
+   */
+  @Column(name = "journal_entry_rejected_on")
+  @Convert(converter = LocalDateTimeConverter.class)
+  private LocalDateTime journalEntryRejectedOn;
+
+  /** When the creation of the case's ledgers and accounts was started for an approval or an import which hasn't been
+   * completed yet.  Null if no accounts are being created for the case.
+   */
+  @Column(name = "accounts_requested_on")
+  @Convert(converter = LocalDateTimeConverter.class)
+  private LocalDateTime accountsRequestedOn;
+
   public CaseParametersEntity() {
   }
 
@@ -191,6 +226,46 @@ public class CaseParametersEntity {
     this.paymentSize = paymentSize;
   }
 
+  public LocalDateTime getNextDueDate() {
+    return nextDueDate;
+  }
+
+  public void setNextDueDate(LocalDateTime nextDueDate) {
+    this.nextDueDate = nextDueDate;
+  }
+
+  public BigDecimal getExpectedPaymentSum() {
+    return expectedPaymentSum;
+  }
+
+  public void setExpectedPaymentSum(BigDecimal expectedPaymentSum) {
+    this.expectedPaymentSum = expectedPaymentSum;
+  }
+
+  public Boolean getAccrualsTracked() {
+    return accrualsTracked;
+  }
+
+  public void setAccrualsTracked(Boolean accrualsTracked) {
+    this.accrualsTracked = accrualsTracked;
+  }
+
+  public LocalDateTime getJournalEntryRejectedOn() {
+    return journalEntryRejectedOn;
+  }
+
+  public void setJournalEntryRejectedOn(LocalDateTime journalEntryRejectedOn) {
+    this.journalEntryRejectedOn = journalEntryRejectedOn;
+  }
+
+  public LocalDateTime getAccountsRequestedOn() {
+    return accountsRequestedOn;
+  }
+
+  public void setAccountsRequestedOn(LocalDateTime accountsRequestedOn) {
+    this.accountsRequestedOn = accountsRequestedOn;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -21,9 +21,13 @@ package org.apache.fineract.cn.individuallending.internal.repository;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.Optional;
 
 /**
@@ -35,4 +39,32 @@ public interface CaseParametersRepository extends JpaRepository<CaseParametersEn
   Optional<CaseParametersEntity> findByCaseId(Long id);
 
   Page<CaseParametersEntity> findByCustomerIdentifier(String customerIdentifier, Pageable pageable);
+
+  /**
+   * Records that the creation of the case's accounts was started, unless it was already started after the given time
+   * and hasn't been completed yet.  The row is updated right away, so that a completion running in another
+   * transaction waits for this one rather than overwriting it.
+   *
+   * @return the number of cases recorded; zero if the case's accounts are already being created.
+   */
+  @Modifying
+  @Query("UPDATE CaseParametersEntity p SET p.accountsRequestedOn = :requestedOn " +
+      "WHERE p.caseId = :caseId AND (p.accountsRequestedOn IS NULL OR p.accountsRequestedOn < :abandonedBefore)")
+  int markAccountsRequested(
+      @Param("caseId") Long caseId,
+      @Param("requestedOn") LocalDateTime requestedOn,
+      @Param("abandonedBefore") LocalDateTime abandonedBefore);
+
+  /**
+   * Removes the record that the creation of the case's accounts was started at the given time, unless it was since
+   * started anew.
+   *
+   * @return the number of cases whose record was removed.
+   */
+  @Modifying
+  @Query("UPDATE CaseParametersEntity p SET p.accountsRequestedOn = NULL " +
+      "WHERE p.caseId = :caseId AND p.accountsRequestedOn = :requestedOn")
+  int clearAccountsRequested(
+      @Param("caseId") Long caseId,
+      @Param("requestedOn") LocalDateTime requestedOn);
 }
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.repository;
+
+import java.time.LocalDateTime;
+import java.util.Objects;
+import javax.persistence.Column;
+import javax.persistence.Convert;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import org.apache.fineract.cn.postgresql.util.LocalDateTimeConverter;
+
+/**
+ * A journal entry which has been applied to the projected balances of a case, but which accounting hasn't yet
+ * announced as released.  Until it does, the balances in accounting may not contain the entry.  An entry which is
+ * posted combined with others is released with the combined entry.
+ */
+@Entity
+@Table(name = "bastet_il_case_unreleased_entries")
+public class CaseUnreleasedEntryEntity {
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @Column(name = "id")
+  private Long id;
+
+  @Column(name = "case_id")
+  private Long caseId;
+
+  @Column(name = "transaction_identifier")
+  private String transactionIdentifier;
+
+  @Column(name = "batch_identifier")
+  private String batchIdentifier;
+
+  @Column(name = "booked_on")
+  @Convert(converter = LocalDateTimeConverter.class)
+  private LocalDateTime bookedOn;
+
+  public Long getId() {
+    return id;
+  }
+
+  public void setId(Long id) {
+    this.id = id;
+  }
+
+  public Long getCaseId() {
+    return caseId;
+  }
+
+  public void setCaseId(Long caseId) {
+    this.caseId = caseId;
+  }
+
+  public String getTransactionIdentifier() {
+    return transactionIdentifier;
+  }
+
+  public void setTransactionIdentifier(String transactionIdentifier) {
+    this.transactionIdentifier = transactionIdentifier;
+  }
+
+  public String getBatchIdentifier() {
+    return batchIdentifier;
+  }
+
+  public void setBatchIdentifier(String batchIdentifier) {
+    this.batchIdentifier = batchIdentifier;
+  }
+
+  public LocalDateTime getBookedOn() {
+    return bookedOn;
+  }
+
+  public void setBookedOn(LocalDateTime bookedOn) {
+    this.bookedOn = bookedOn;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    CaseUnreleasedEntryEntity that = (CaseUnreleasedEntryEntity) o;
+    return Objects.equals(transactionIdentifier, that.transactionIdentifier);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(transactionIdentifier);
+  }
+}
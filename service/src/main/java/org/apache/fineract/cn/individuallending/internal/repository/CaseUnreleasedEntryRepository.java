@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface CaseUnreleasedEntryRepository extends JpaRepository<CaseUnreleasedEntryEntity, Long> {
+  long countByCaseIdAndBookedOnAfter(Long caseId, LocalDateTime bookedOn);
+
+  /**
+   * Forgets entries booked before the given time.  Their release is assumed to have been missed.
+   *
+   * @return the number of entries forgotten.
+   */
+  @Modifying
+  @Transactional
+  @Query("DELETE FROM CaseUnreleasedEntryEntity e WHERE e.caseId = :caseId AND e.bookedOn <= :bookedOn")
+  int deleteByCaseIdAndBookedOnNotAfter(@Param("caseId") Long caseId, @Param("bookedOn") LocalDateTime bookedOn);
+
+  /**
+   * Releases the entry with the given transaction identifier, or all entries posted combined under it.
+   */
+  @Modifying
+  @Transactional
+  @Query("DELETE FROM CaseUnreleasedEntryEntity e " +
+      "WHERE e.transactionIdentifier = :transactionIdentifier OR e.batchIdentifier = :transactionIdentifier")
+  int deleteByTransactionIdentifier(@Param("transactionIdentifier") String transactionIdentifier);
+
+  /**
+   * Records under which combined entry the given entries are posted.  Null if they are posted on their own after all.
+   */
+  @Modifying
+  @Transactional
+  @Query("UPDATE CaseUnreleasedEntryEntity e SET e.batchIdentifier = :batchIdentifier " +
+      "WHERE e.transactionIdentifier IN :transactionIdentifiers")
+  int setBatchIdentifier(
+      @Param("transactionIdentifiers") Collection<String> transactionIdentifiers,
+      @Param("batchIdentifier") String batchIdentifier);
+}
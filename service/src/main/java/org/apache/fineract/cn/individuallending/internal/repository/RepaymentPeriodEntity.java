@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.repository;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Objects;
+import javax.persistence.Column;
+import javax.persistence.Convert;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import org.apache.fineract.cn.postgresql.util.LocalDateTimeConverter;
+
+/**
+ * One repayment period of a case's contractual schedule, as generated when the case was disbursed.
+ */
+@Entity
+@Table(name = "bastet_il_repayment_periods")
+public class RepaymentPeriodEntity {
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @Column(name = "id")
+  private Long id;
+
+  @Column(name = "case_id")
+  private Long caseId;
+
+  @Column(name = "period_index")
+  private Integer periodIndex;
+
+  @Column(name = "begin_date")
+  @Convert(converter = LocalDateTimeConverter.class)
+  private LocalDateTime beginDate;
+
+  @Column(name = "end_date")
+  @Convert(converter = LocalDateTimeConverter.class)
+  private LocalDateTime endDate;
+
+  @Column(name = "last_period")
+  private Boolean lastPeriod;
+
+  /** The payment size the schedule was generated for.  It is due at the end of the period.
+   */
+  @Column(name = "expected_payment")
+  private BigDecimal expectedPayment;
+
+  public Long getId() {
+    return id;
+  }
+
+  public void setId(Long id) {
+    this.id = id;
+  }
+
+  public Long getCaseId() {
+    return caseId;
+  }
+
+  public void setCaseId(Long caseId) {
+    this.caseId = caseId;
+  }
+
+  public Integer getPeriodIndex() {
+    return periodIndex;
+  }
+
+  public void setPeriodIndex(Integer periodIndex) {
+    this.periodIndex = periodIndex;
+  }
+
+  public LocalDateTime getBeginDate() {
+    return beginDate;
+  }
+
+  public void setBeginDate(LocalDateTime beginDate) {
+    this.beginDate = beginDate;
+  }
+
+  public LocalDateTime getEndDate() {
+    return endDate;
+  }
+
+  public void setEndDate(LocalDateTime endDate) {
+    this.endDate = endDate;
+  }
+
+  public Boolean getLastPeriod() {
+    return lastPeriod;
+  }
+
+  public void setLastPeriod(Boolean lastPeriod) {
+    this.lastPeriod = lastPeriod;
+  }
+
+  public BigDecimal getExpectedPayment() {
+    return expectedPayment;
+  }
+
+  public void setExpectedPayment(BigDecimal expectedPayment) {
+    this.expectedPayment = expectedPayment;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    RepaymentPeriodEntity that = (RepaymentPeriodEntity) o;
+    return Objects.equals(caseId, that.caseId) &&
+        Objects.equals(periodIndex, that.periodIndex);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(caseId, periodIndex);
+  }
+}
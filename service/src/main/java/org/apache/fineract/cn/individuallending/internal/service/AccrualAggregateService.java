@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service;
+
+import org.apache.fineract.cn.individuallending.api.v1.domain.workflow.Action;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseAccrualEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseAccrualRepository;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseParametersEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseParametersRepository;
+import org.apache.fineract.cn.portfolio.api.v1.domain.ChargeDefinition;
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Keeps running totals of what each action has booked to a case's accrual accounts since the start of term, so that
+ * the accrued balance for a charge can be looked up instead of summed from the account entries in accounting.
+ *
+ * Only cases whose term starts after the totals were introduced are tracked.  For all others the accrued balance is
+ * still summed from accounting.  The totals are only used while they are turned on in the portfolio properties.  Cases
+ * which are already tracked keep being totalled while they are turned off, so that they can be turned on again
+ * without the totals having missed bookings.
+ */
+@Service
+public class AccrualAggregateService {
+  private final CaseAccrualRepository caseAccrualRepository;
+  private final CaseParametersRepository caseParametersRepository;
+  private final ChargeDefinitionService chargeDefinitionService;
+  private final PortfolioProperties portfolioProperties;
+
+  @Autowired
+  public AccrualAggregateService(
+      final CaseAccrualRepository caseAccrualRepository,
+      final CaseParametersRepository caseParametersRepository,
+      final ChargeDefinitionService chargeDefinitionService,
+      final PortfolioProperties portfolioProperties) {
+    this.caseAccrualRepository = caseAccrualRepository;
+    this.caseParametersRepository = caseParametersRepository;
+    this.chargeDefinitionService = chargeDefinitionService;
+    this.portfolioProperties = portfolioProperties;
+  }
+
+  /**
+   * To be called when the term of the case starts, before anything is accrued.
+   */
+  @Transactional
+  public void startTracking(final DataContextOfAction dataContextOfAction) {
+    final CaseParametersEntity caseParameters = dataContextOfAction.getCaseParametersEntity();
+    if (!portfolioProperties.isUseAccrualTotals() || isTracked(caseParameters))
+      return;
+    caseParameters.setAccrualsTracked(true);
+    caseParametersRepository.save(caseParameters);
+  }
+
+  /**
+   * @return true if the accruals of the case are totalled in the portfolio rather than summed from accounting's
+   * entries.
+   */
+  public boolean isTracking(final DataContextOfAction dataContextOfAction) {
+    return portfolioProperties.isUseAccrualTotals() && isTracked(dataContextOfAction.getCaseParametersEntity());
+  }
+
+  /**
+   * To be called once the journal entry for the given balance adjustments has been booked.
+   */
+  @Transactional
+  public void recordBooking(
+      final DataContextOfAction dataContextOfAction,
+      final Action action,
+      final Map<String, BigDecimal> balanceAdjustments) {
+    addToTotals(dataContextOfAction, action, balanceAdjustments, false);
+  }
+
+  /**
+   * To be called if accounting rejected the journal entry for balance adjustments recorded earlier, so that the
+   * totals only hold what accounting has booked.
+   */
+  @Transactional
+  public void reverseBooking(
+      final DataContextOfAction dataContextOfAction,
+      final Action action,
+      final Map<String, BigDecimal> balanceAdjustments) {
+    addToTotals(dataContextOfAction, action, balanceAdjustments, true);
+  }
+
+  /**
+   * @return the amount accrued for the charge and not yet applied, or empty if the case isn't tracked or the totals
+   * are turned off.
+   */
+  public Optional<BigDecimal> getAccruedBalanceForCharge(
+      final DataContextOfAction dataContextOfAction,
+      final ChargeDefinition chargeDefinition) {
+    if (!isTracking(dataContextOfAction))
+      return Optional.empty();
+
+    final Long caseId = dataContextOfAction.getCustomerCaseEntity().getId();
+    final BigDecimal amountAccrued = getTotal(caseId, chargeDefinition.getAccrualAccountDesignator(), chargeDefinition.getAccrueAction());
+    final BigDecimal amountApplied = getTotal(caseId, chargeDefinition.getAccrualAccountDesignator(), chargeDefinition.getChargeAction());
+    return Optional.of(amountAccrued.subtract(amountApplied));
+  }
+
+  private void addToTotals(
+      final DataContextOfAction dataContextOfAction,
+      final Action action,
+      final Map<String, BigDecimal> balanceAdjustments,
+      final boolean reverse) {
+    if (!isTracked(dataContextOfAction.getCaseParametersEntity()))
+      return;
+
+    final Long caseId = dataContextOfAction.getCustomerCaseEntity().getId();
+    final Set<String> accrualAccountDesignators = getAccrualAccountDesignatorsAffectedBy(
+        dataContextOfAction.getProductEntity().getIdentifier(), action);
+    balanceAdjustments.entrySet().stream()
+        .filter(x -> accrualAccountDesignators.contains(x.getKey()))
+        .filter(x -> x.getValue().signum() != 0)
+        .forEach(x -> caseAccrualRepository.addToAmount(caseId, x.getKey(), action.name(),
+            reverse ? x.getValue().abs().negate() : x.getValue().abs()));
+  }
+
+  private Set<String> getAccrualAccountDesignatorsAffectedBy(final String productIdentifier, final Action action) {
+    return chargeDefinitionService.getChargeDefinitionsMappedByAccrueAction(productIdentifier).values().stream()
+        .flatMap(Collection::stream)
+        .filter(x -> x.getAccrualAccountDesignator() != null)
+        .filter(x -> action.name().equals(x.getAccrueAction()) || action.name().equals(x.getChargeAction()))
+        .map(ChargeDefinition::getAccrualAccountDesignator)
+        .collect(Collectors.toSet());
+  }
+
+  private BigDecimal getTotal(final Long caseId, final String accountDesignator, final String actionName) {
+    return caseAccrualRepository.findByCaseIdAndAccountDesignatorAndActionName(caseId, accountDesignator, actionName)
+        .map(CaseAccrualEntity::getAmount)
+        .orElse(BigDecimal.ZERO);
+  }
+
+  private static boolean isTracked(final CaseParametersEntity caseParameters) {
+    return Boolean.TRUE.equals(caseParameters.getAccrualsTracked());
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service;
+
+import org.apache.fineract.cn.individuallending.IndividualLendingPatternFactory;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseBalanceEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseBalanceRepository;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseUnreleasedEntryEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseUnreleasedEntryRepository;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.ProjectedRunningBalances;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.RealRunningBalances;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.RunningBalances;
+import org.apache.fineract.cn.portfolio.service.ServiceConstants;
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseAccountAssignmentEntity;
+import org.apache.fineract.cn.portfolio.service.internal.util.AccountingAdapter;
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Maintains the portfolio's own projection of the balances of each case's own accounts, so that balance reads for
+ * the nightly runs and for cost component quotes needn't go to accounting.  The projection is adjusted with every
+ * journal entry booked for the case, and reconciled against accounting at the configured interval.
+ *
+ * Reconciliation only takes place once accounting has released every journal entry already applied to the
+ * projection.  Until then the balances in accounting may be older than the projection.
+ */
+@Service
+public class CaseBalanceProjectionService {
+  private final CaseBalanceRepository caseBalanceRepository;
+  private final CaseUnreleasedEntryRepository caseUnreleasedEntryRepository;
+  private final AccountingAdapter accountingAdapter;
+  private final AccrualAggregateService accrualAggregateService;
+  private final PortfolioProperties portfolioProperties;
+  private final Logger logger;
+
+  @Autowired
+  public CaseBalanceProjectionService(
+      final CaseBalanceRepository caseBalanceRepository,
+      final CaseUnreleasedEntryRepository caseUnreleasedEntryRepository,
+      final AccountingAdapter accountingAdapter,
+      final AccrualAggregateService accrualAggregateService,
+      final PortfolioProperties portfolioProperties,
+      @Qualifier(ServiceConstants.LOGGER_NAME) final Logger logger) {
+    this.caseBalanceRepository = caseBalanceRepository;
+    this.caseUnreleasedEntryRepository = caseUnreleasedEntryRepository;
+    this.accountingAdapter = accountingAdapter;
+    this.accrualAggregateService = accrualAggregateService;
+    this.portfolioProperties = portfolioProperties;
+    this.logger = logger;
+  }
+
+  /**
+   * For commands.  Reconciles the projection with accounting first if it is due and accounting has released every
+   * entry applied to it.
+   *
+   * @return balances backed by the projection if local balances are switched on, otherwise balances read from
+   * accounting.
+   */
+  @Transactional
+  public RealRunningBalances getRunningBalances(final DataContextOfAction dataContextOfAction) {
+    if (!portfolioProperties.isUseLocalCaseBalances())
+      return new RealRunningBalances(accountingAdapter, accrualAggregateService, dataContextOfAction);
+
+    final Long caseId = dataContextOfAction.getCustomerCaseEntity().getId();
+    final Map<String, String> caseAccountIdentifiers = getCaseAccountIdentifiersByDesignator(dataContextOfAction);
+    final LocalDateTime reconcileBefore = LocalDateTime.now(Clock.systemUTC())
+        .minusDays(portfolioProperties.getCaseBalanceReconciliationDays());
+
+    final List<CaseBalanceEntity> caseBalances = caseBalanceRepository.findByCaseId(caseId);
+    if (isProjectionCurrent(caseAccountIdentifiers, caseBalances, reconcileBefore))
+      return getProjectedRunningBalances(dataContextOfAction, caseBalances);
+
+    //Entries which still haven't been released after a whole reconciliation interval are assumed to have been
+    //released without the portfolio hearing of it.
+    final long unreleasedEntries = caseUnreleasedEntryRepository.countByCaseIdAndBookedOnAfter(caseId, reconcileBefore);
+    if (unreleasedEntries == 0) {
+      final int forgottenEntries = caseUnreleasedEntryRepository.deleteByCaseIdAndBookedOnNotAfter(caseId, reconcileBefore);
+      if (forgottenEntries != 0)
+        logger.warn("Release of {} journal entries of case '{}' not heard of.  Reconciling anyway.",
+            forgottenEntries, dataContextOfAction.getCompoundIdentifer());
+      return getProjectedRunningBalances(dataContextOfAction, reconcile(dataContextOfAction, caseAccountIdentifiers, caseBalances));
+    }
+
+    logger.debug("Reconciliation of case '{}' postponed until accounting has released {} journal entries.",
+        dataContextOfAction.getCompoundIdentifer(), unreleasedEntries);
+    if (isProjectionOfAccounts(caseAccountIdentifiers, caseBalances))
+      return getProjectedRunningBalances(dataContextOfAction, caseBalances);
+    else
+      return new RealRunningBalances(accountingAdapter, accrualAggregateService, dataContextOfAction);
+  }
+
+  /**
+   * For queries.  Never writes to the projection.
+   *
+   * @return balances backed by the projection if local balances are switched on and the projection is current,
+   * otherwise balances read from accounting.
+   */
+  @Transactional(readOnly = true)
+  public RealRunningBalances getRunningBalancesForReading(final DataContextOfAction dataContextOfAction) {
+    if (!portfolioProperties.isUseLocalCaseBalances())
+      return new RealRunningBalances(accountingAdapter, accrualAggregateService, dataContextOfAction);
+
+    final Map<String, String> caseAccountIdentifiers = getCaseAccountIdentifiersByDesignator(dataContextOfAction);
+    final LocalDateTime reconcileBefore = LocalDateTime.now(Clock.systemUTC())
+        .minusDays(portfolioProperties.getCaseBalanceReconciliationDays());
+
+    final List<CaseBalanceEntity> caseBalances
+        = caseBalanceRepository.findByCaseId(dataContextOfAction.getCustomerCaseEntity().getId());
+    if (isProjectionCurrent(caseAccountIdentifiers, caseBalances, reconcileBefore))
+      return getProjectedRunningBalances(dataContextOfAction, caseBalances);
+    else
+      return new RealRunningBalances(accountingAdapter, accrualAggregateService, dataContextOfAction);
+  }
+
+  /**
+   * To be called once the journal entry for the given balance adjustments has been booked, in the same transaction
+   * in which the command is recorded.
+   *
+   * @param runningBalances the balances the adjustments were calculated with.  Used for the sign of the accounts.
+   * @param transactionIdentifier the identifier of the journal entry booked, if one was booked.  Reconciliation waits
+   *                              for accounting to release it.
+   */
+  @Transactional
+  public void adjustBalances(
+      final DataContextOfAction dataContextOfAction,
+      final RunningBalances runningBalances,
+      final Map<String, BigDecimal> balanceAdjustments,
+      @SuppressWarnings("OptionalUsedAsFieldOrParameterType") final Optional<String> transactionIdentifier) {
+    final Long caseId = dataContextOfAction.getCustomerCaseEntity().getId();
+    final List<CaseBalanceEntity> caseBalances = caseBalanceRepository.findByCaseId(caseId);
+    if (caseBalances.isEmpty())
+      return;
+
+    final DesignatorToAccountIdentifierMapper designatorToAccountIdentifierMapper
+        = new DesignatorToAccountIdentifierMapper(dataContextOfAction);
+    final List<CaseBalanceEntity> adjustedCaseBalances = caseBalances.stream()
+        .filter(x -> balanceAdjustments.containsKey(x.getAccountDesignator()))
+        //One-time account assignments can book to other accounts than the case's own.
+        .filter(x -> designatorToAccountIdentifierMapper.map(x.getAccountDesignator())
+            .map(x.getAccountIdentifier()::equals)
+            .orElse(false))
+        .peek(x -> {
+          final BigDecimal adjustment = balanceAdjustments.get(x.getAccountDesignator());
+          x.setBalance(x.getBalance().add(
+              runningBalances.isAccountNegative(x.getAccountDesignator()) ? adjustment.negate() : adjustment));
+        })
+        .collect(Collectors.toList());
+    if (adjustedCaseBalances.isEmpty())
+      return;
+    caseBalanceRepository.save(adjustedCaseBalances);
+
+    transactionIdentifier.ifPresent(x -> {
+      final CaseUnreleasedEntryEntity caseUnreleasedEntry = new CaseUnreleasedEntryEntity();
+      caseUnreleasedEntry.setCaseId(caseId);
+      caseUnreleasedEntry.setTransactionIdentifier(x);
+      caseUnreleasedEntry.setBookedOn(LocalDateTime.now(Clock.systemUTC()));
+      caseUnreleasedEntryRepository.save(caseUnreleasedEntry);
+    });
+  }
+
+  private static boolean isProjectionCurrent(
+      final Map<String, String> caseAccountIdentifiers,
+      final List<CaseBalanceEntity> caseBalances,
+      final LocalDateTime reconcileBefore) {
+    return isProjectionOfAccounts(caseAccountIdentifiers, caseBalances) &&
+        caseBalances.stream().allMatch(x -> x.getReconciledOn().isAfter(reconcileBefore));
+  }
+
+  private static boolean isProjectionOfAccounts(
+      final Map<String, String> caseAccountIdentifiers,
+      final List<CaseBalanceEntity> caseBalances) {
+    return caseBalances.size() == caseAccountIdentifiers.size() &&
+        caseBalances.stream().allMatch(x ->
+            x.getAccountIdentifier().equals(caseAccountIdentifiers.get(x.getAccountDesignator())));
+  }
+
+  private ProjectedRunningBalances getProjectedRunningBalances(
+      final DataContextOfAction dataContextOfAction,
+      final List<CaseBalanceEntity> projection) {
+    return new ProjectedRunningBalances(
+        accountingAdapter,
+        accrualAggregateService,
+        dataContextOfAction,
+        projection.stream().collect(Collectors.toMap(CaseBalanceEntity::getAccountDesignator, CaseBalanceEntity::getBalance)));
+  }
+  private List<CaseBalanceEntity> reconcile(
+      final DataContextOfAction dataContextOfAction,
+      final Map<String, String> caseAccountIdentifiers,
+      final List<CaseBalanceEntity> caseBalances) {
+    final Long caseId = dataContextOfAction.getCustomerCaseEntity().getId();
+    final LocalDateTime now = LocalDateTime.now(Clock.systemUTC());
+    final Map<String, CaseBalanceEntity> caseBalancesByDesignator = caseBalances.stream()
+        .collect(Collectors.toMap(CaseBalanceEntity::getAccountDesignator, Function.identity()));
+    caseBalanceRepository.delete(caseBalances.stream()
+        .filter(x -> !caseAccountIdentifiers.containsKey(x.getAccountDesignator()))
+        .collect(Collectors.toList()));
+
+    final RealRunningBalances realRunningBalances = new RealRunningBalances(accountingAdapter, accrualAggregateService, dataContextOfAction);
+    realRunningBalances.prefetchAccounts();
+
+    final List<CaseBalanceEntity> reconciledCaseBalances = caseAccountIdentifiers.entrySet().stream()
+        .map(caseAccount -> {
+          final BigDecimal balance = realRunningBalances.getAccountBalance(caseAccount.getKey()).orElse(BigDecimal.ZERO);
+          final CaseBalanceEntity caseBalance = Optional.ofNullable(caseBalancesByDesignator.get(caseAccount.getKey()))
+              .orElseGet(() -> {
+                final CaseBalanceEntity ret = new CaseBalanceEntity();
+                ret.setCaseId(caseId);
+                ret.setAccountDesignator(caseAccount.getKey());
+                return ret;
+              });
+          if (caseBalance.getBalance() != null && caseBalance.getBalance().compareTo(balance) != 0)
+            logger.info("Projected balance {} of account '{}' of case '{}' corrected to {}.",
+                caseBalance.getBalance(), caseAccount.getValue(), dataContextOfAction.getCompoundIdentifer(), balance);
+          caseBalance.setAccountIdentifier(caseAccount.getValue());
+          caseBalance.setBalance(balance);
+          caseBalance.setReconciledOn(now);
+          return caseBalance;
+        })
+        .collect(Collectors.toList());
+    return caseBalanceRepository.save(reconciledCaseBalances);
+  }
+
+  private static Map<String, String> getCaseAccountIdentifiersByDesignator(final DataContextOfAction dataContextOfAction) {
+    final Set<String> accountAssignmentGroups = IndividualLendingPatternFactory.individualLendingPattern().getAccountAssignmentGroups();
+    return dataContextOfAction.getCustomerCaseEntity().getAccountAssignments().stream()
+        .filter(x -> !accountAssignmentGroups.contains(x.getDesignator()))
+        .collect(Collectors.toMap(CaseAccountAssignmentEntity::getDesignator, CaseAccountAssignmentEntity::getIdentifier, (x, y) -> x));
+  }
+}
@@ -81,7 +81,14 @@ public class DataContextOfAction {
   }
 
   public String getMessageForCharge(final Action action) {
-    return getCompoundIdentifer() + "." + action.name();
+    return getMessageForCharge(product.getIdentifier(), customerCase.getIdentifier(), action);
+  }
+
+  public static String getMessageForCharge(
+      final String productIdentifier,
+      final String caseIdentifier,
+      final Action action) {
+    return productIdentifier + "." + caseIdentifier + "." + action.name();
   }
 
   public BigDecimal getInterest() {
@@ -100,6 +100,18 @@ public class DesignatorToAccountIdentifierMapper {
         .map(AccountAssignment::getAccountIdentifier);
   }
 
+  /**
+   * @return the identifier of the account each designator maps to.  Designators of account groups are left out, since
+   * they have no account of their own.
+   */
+  public Map<String, String> getAccountIdentifiersByDesignator() {
+    final Set<String> accountAssignmentGroups = IndividualLendingPatternFactory.individualLendingPattern().getAccountAssignmentGroups();
+    return allAccountAssignmentsAsStream()
+        .filter(x -> !accountAssignmentGroups.contains(x.getDesignator()))
+        .filter(x -> x.getAccountIdentifier() != null)
+        .collect(Collectors.toMap(AccountAssignment::getDesignator, AccountAssignment::getAccountIdentifier, (first, second) -> first));
+  }
+
   public String mapOrThrow(final @Nonnull String accountDesignator) {
     return map(accountDesignator).orElseThrow(() ->
         ServiceException
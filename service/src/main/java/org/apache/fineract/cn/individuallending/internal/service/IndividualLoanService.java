@@ -18,34 +18,33 @@
  */
 package org.apache.fineract.cn.individuallending.internal.service;
 
-import org.apache.fineract.cn.individuallending.api.v1.domain.caseinstance.ChargeName;
+import org.apache.fineract.cn.individuallending.api.v1.domain.caseinstance.CaseParameters;
 import org.apache.fineract.cn.individuallending.api.v1.domain.caseinstance.PlannedPayment;
 import org.apache.fineract.cn.individuallending.api.v1.domain.caseinstance.PlannedPaymentPage;
-import org.apache.fineract.cn.individuallending.api.v1.domain.product.AccountDesignators;
 import org.apache.fineract.cn.individuallending.api.v1.domain.workflow.Action;
 import org.apache.fineract.cn.individuallending.internal.service.costcomponent.CostComponentService;
-import org.apache.fineract.cn.individuallending.internal.service.costcomponent.PaymentBuilder;
-import org.apache.fineract.cn.individuallending.internal.service.costcomponent.SimulatedRunningBalances;
-import org.apache.fineract.cn.individuallending.internal.service.schedule.Period;
+import org.apache.fineract.cn.individuallending.internal.service.schedule.RepaymentPeriods;
 import org.apache.fineract.cn.individuallending.internal.service.schedule.ScheduledAction;
 import org.apache.fineract.cn.individuallending.internal.service.schedule.ScheduledActionHelpers;
 import org.apache.fineract.cn.individuallending.internal.service.schedule.ScheduledCharge;
-import org.apache.fineract.cn.individuallending.internal.service.schedule.ScheduledChargeComparator;
 import org.apache.fineract.cn.individuallending.internal.service.schedule.ScheduledChargesService;
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseEntity;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
-import java.util.stream.Collector;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import net.jodah.expiringmap.ExpirationPolicy;
+import net.jodah.expiringmap.ExpiringMap;
 import org.apache.fineract.cn.lang.ServiceException;
+import org.apache.fineract.cn.lang.TenantContextHolder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -55,6 +54,9 @@ import org.springframework.stereotype.Service;
 @Service
 public class IndividualLoanService {
   private final ScheduledChargesService scheduledChargesService;
+  private final RepaymentScheduleService repaymentScheduleService;
+  private final boolean cursorsEnabled;
+  private final ExpiringMap<PlannedPaymentCursor, PlannedPaymentIterator> cursors;
 
   public static class PlannedPaymentWindow {
     final int pageIndex;
@@ -73,19 +75,62 @@ public class IndividualLoanService {
   }
 
   @Autowired
-  public IndividualLoanService(final ScheduledChargesService scheduledChargesService) {
+  public IndividualLoanService(
+      final ScheduledChargesService scheduledChargesService,
+      final RepaymentScheduleService repaymentScheduleService,
+      final PortfolioProperties portfolioProperties) {
     this.scheduledChargesService = scheduledChargesService;
+    this.repaymentScheduleService = repaymentScheduleService;
+    this.cursorsEnabled = portfolioProperties.getPlannedPaymentCursorCacheSize() > 0;
+    this.cursors = ExpiringMap.builder()
+        .maxSize(Math.max(1, portfolioProperties.getPlannedPaymentCursorCacheSize()))
+        .expirationPolicy(ExpirationPolicy.CREATED)
+        .expiration(portfolioProperties.getPlannedPaymentCursorExpirySeconds(), TimeUnit.SECONDS)
+        .build();
   }
 
   public PlannedPaymentPage getPlannedPaymentsPage(
       final DataContextOfAction dataContextOfAction,
       final PlannedPaymentWindow plannedPaymentWindow) {
-    final int minorCurrencyUnitDigits = dataContextOfAction.getProductEntity().getMinorCurrencyUnitDigits();
     final LocalDate initialDisbursalDate = plannedPaymentWindow.requestedInitialDisbursalDate
         .orElse(Optional.ofNullable(dataContextOfAction.getCustomerCaseEntity().getStartOfTerm()).map(LocalDateTime::toLocalDate)
             .orElseGet(() -> LocalDate.now(ZoneId.of("UTC"))));
 
-    final List<ScheduledAction> scheduledActions = ScheduledActionHelpers.getHypotheticalScheduledActions(initialDisbursalDate, dataContextOfAction.getCaseParameters());
+    final int fromIndex = plannedPaymentWindow.size*plannedPaymentWindow.pageIndex;
+
+    final PlannedPaymentIterator plannedPayments = resumeCursor(dataContextOfAction, initialDisbursalDate, fromIndex)
+        .orElseGet(() -> startPlannedPayments(dataContextOfAction, initialDisbursalDate));
+
+    final int toIndex = Math.min(plannedPaymentWindow.size*(plannedPaymentWindow.pageIndex+1), plannedPayments.size());
+    if (toIndex < fromIndex)
+      throw ServiceException.badRequest("Page number ''{0}'' out of range.", plannedPaymentWindow.pageIndex);
+
+    while (plannedPayments.getNextIndex() < fromIndex)
+      plannedPayments.skip();
+
+    final List<PlannedPayment> elements = new ArrayList<>(toIndex - fromIndex);
+    while (plannedPayments.getNextIndex() < toIndex)
+      elements.add(plannedPayments.next());
+
+    if (plannedPayments.hasNext())
+      saveCursor(dataContextOfAction, initialDisbursalDate, plannedPayments);
+
+    final PlannedPaymentPage ret = new PlannedPaymentPage();
+    ret.setElements(elements);
+    ret.setChargeNames(plannedPayments.getChargeNames());
+    ret.setTotalElements((long) plannedPayments.size());
+    final int partialPage = Math.floorMod(plannedPayments.size(), plannedPaymentWindow.size) == 0 ? 0 : 1;
+    ret.setTotalPages(Math.floorDiv(plannedPayments.size(), plannedPaymentWindow.size)+ partialPage);
+
+    return ret;
+  }
+
+  private PlannedPaymentIterator startPlannedPayments(
+      final DataContextOfAction dataContextOfAction,
+      final LocalDate initialDisbursalDate) {
+    final int minorCurrencyUnitDigits = dataContextOfAction.getProductEntity().getMinorCurrencyUnitDigits();
+
+    final List<ScheduledAction> scheduledActions = getScheduledActions(dataContextOfAction, initialDisbursalDate);
 
     final Set<Action> actionsScheduled = scheduledActions.stream().map(ScheduledAction::getAction).collect(Collectors.toSet());
 
@@ -101,123 +146,108 @@ public class IndividualLoanService {
             minorCurrencyUnitDigits,
             scheduledCharges));
 
-    final List<PlannedPayment> plannedPaymentsElements = getPlannedPaymentsElements(
+    return new PlannedPaymentIterator(
         dataContextOfAction.getCaseParametersEntity().getBalanceRangeMaximum(),
         minorCurrencyUnitDigits,
         actionsScheduled,
         scheduledCharges,
         loanPaymentSize,
         dataContextOfAction.getInterest());
-
-    final Set<ChargeName> chargeNames = scheduledCharges.stream()
-            .map(IndividualLoanService::chargeNameFromChargeDefinition)
-            .collect(Collectors.toSet());
-
-    return constructPage(plannedPaymentWindow.pageIndex, plannedPaymentWindow.size, plannedPaymentsElements, chargeNames);
   }
 
-  private static PlannedPaymentPage constructPage(
-          final int pageIndex,
-          final int size,
-          final List<PlannedPayment> plannedPaymentsElements,
-          final Set<ChargeName> chargeNames) {
-    final int fromIndex = size*pageIndex;
-    final int toIndex = Math.min(size*(pageIndex+1), plannedPaymentsElements.size());
-    if (toIndex < fromIndex)
-      throw ServiceException.badRequest("Page number ''{0}'' out of range.", pageIndex);
-    final List<PlannedPayment> elements = plannedPaymentsElements.subList(fromIndex, toIndex);
-
-    final PlannedPaymentPage ret = new PlannedPaymentPage();
-    ret.setElements(elements);
-    ret.setChargeNames(chargeNames);
-    ret.setTotalElements((long) plannedPaymentsElements.size());
-    final int partialPage = Math.floorMod(plannedPaymentsElements.size(), size) == 0 ? 0 : 1;
-    ret.setTotalPages(Math.floorDiv(plannedPaymentsElements.size(), size)+ partialPage);
+  /**
+   * For a disbursed case whose schedule is requested from its start of term, the repayment periods persisted at
+   * disbursement are used rather than generated again.
+   */
+  private List<ScheduledAction> getScheduledActions(
+      final DataContextOfAction dataContextOfAction,
+      final LocalDate initialDisbursalDate) {
+    final CaseEntity customerCase = dataContextOfAction.getCustomerCaseEntity();
+    final boolean startsAtStartOfTerm = customerCase.getId() != null && customerCase.getStartOfTerm() != null &&
+        customerCase.getStartOfTerm().toLocalDate().equals(initialDisbursalDate);
+    final Optional<RepaymentPeriods> persistedRepaymentPeriods = startsAtStartOfTerm
+        ? repaymentScheduleService.find(dataContextOfAction, initialDisbursalDate)
+        : Optional.empty();
+
+    return persistedRepaymentPeriods
+        .map(repaymentPeriods -> ScheduledActionHelpers.getScheduledActions(
+            initialDisbursalDate,
+            ScheduledActionHelpers.getRoughEndDate(initialDisbursalDate, dataContextOfAction.getCaseParameters()),
+            repaymentPeriods))
+        .orElseGet(() -> ScheduledActionHelpers.getHypotheticalScheduledActions(initialDisbursalDate, dataContextOfAction.getCaseParameters()));
+  }
 
-    return ret;
+  /**
+   * A cursor is handed out at most once, so that two requests never simulate forward on the same balances.
+   */
+  private Optional<PlannedPaymentIterator> resumeCursor(
+      final DataContextOfAction dataContextOfAction,
+      final LocalDate initialDisbursalDate,
+      final int nextIndex) {
+    if (!cursorsEnabled)
+      return Optional.empty();
+    return Optional.ofNullable(cursors.remove(new PlannedPaymentCursor(dataContextOfAction, initialDisbursalDate, nextIndex)));
   }
 
-  private static ChargeName chargeNameFromChargeDefinition(final ScheduledCharge scheduledCharge) {
-    return new ChargeName(scheduledCharge.getChargeDefinition().getIdentifier(), scheduledCharge.getChargeDefinition().getName());
+  private void saveCursor(
+      final DataContextOfAction dataContextOfAction,
+      final LocalDate initialDisbursalDate,
+      final PlannedPaymentIterator plannedPayments) {
+    if (!cursorsEnabled)
+      return;
+    cursors.put(new PlannedPaymentCursor(dataContextOfAction, initialDisbursalDate, plannedPayments.getNextIndex()), plannedPayments);
   }
 
-  static private List<PlannedPayment> getPlannedPaymentsElements(
-      final BigDecimal initialBalance,
-      final int minorCurrencyUnitDigits,
-      final Set<Action> actionsScheduled,
-      final List<ScheduledCharge> scheduledCharges,
-      final BigDecimal loanPaymentSize,
-      final BigDecimal interest) {
-    final Map<Period, SortedSet<ScheduledCharge>> orderedScheduledChargesGroupedByPeriod
-        = scheduledCharges.stream()
-        .filter(scheduledCharge -> chargeIsNotAccruedOrAccruesAtActionScheduled(actionsScheduled, scheduledCharge))
-        .collect(Collectors.groupingBy(IndividualLoanService::getPeriodFromScheduledCharge,
-            Collectors.mapping(x -> x,
-                Collector.of(
-                    () -> new TreeSet<>(new ScheduledChargeComparator()),
-                    SortedSet::add,
-                    (left, right) -> { left.addAll(right); return left; }))));
-
-    final List<Period> sortedRepaymentPeriods
-        = orderedScheduledChargesGroupedByPeriod.keySet().stream()
-        .sorted()
-        .collect(Collector.of(ArrayList::new, List::add, (left, right) -> { left.addAll(right); return left; }));
-
-    final SimulatedRunningBalances balances = new SimulatedRunningBalances();
-    final List<PlannedPayment> plannedPayments = new ArrayList<>();
-    for (int i = 0; i < sortedRepaymentPeriods.size(); i++)
-    {
-      final Period repaymentPeriod = sortedRepaymentPeriods.get(i);
-      final BigDecimal requestedRepayment;
-      final BigDecimal requestedDisbursal;
-      if (i == 0)
-      { //First "period" is actually just the OPEN/APPROVE/DISBURSAL action set.
-        requestedRepayment = BigDecimal.ZERO;
-        requestedDisbursal = initialBalance.setScale(minorCurrencyUnitDigits, BigDecimal.ROUND_HALF_EVEN);
-      }
-      else if (i == sortedRepaymentPeriods.size() - 1)
-      { //Last repayment period: Fill the proposed payment out to the remaining balance of the loan.
-        requestedRepayment = loanPaymentSize.multiply(BigDecimal.valueOf(2));
-        requestedDisbursal = BigDecimal.ZERO;
-      }
-      else {
-        requestedRepayment = loanPaymentSize;
-        requestedDisbursal = BigDecimal.ZERO;
-      }
-
-      balances.adjustBalance(AccountDesignators.ENTRY, requestedRepayment);
-
-      final SortedSet<ScheduledCharge> scheduledChargesInPeriod = orderedScheduledChargesGroupedByPeriod.get(repaymentPeriod);
-      final PaymentBuilder paymentBuilder =
-              CostComponentService.getCostComponentsForScheduledCharges(
-                  scheduledChargesInPeriod,
-                  initialBalance,
-                  balances,
-                  loanPaymentSize,
-                  requestedDisbursal,
-                  requestedRepayment,
-                  interest,
-                  minorCurrencyUnitDigits,
-                  true);
-
-      plannedPayments.add(paymentBuilder.accumulatePlannedPayment(balances, repaymentPeriod.getEndDate()));
+  /**
+   * Everything the planned payments of a case depend on, plus the position in them.  The product's charge definitions
+   * are represented by the product's last modification time, which changes whenever one of them does.
+   */
+  private static class PlannedPaymentCursor {
+    private final String tenantIdentifier;
+    private final String productIdentifier;
+    private final LocalDateTime productLastModifiedOn;
+    private final String caseIdentifier;
+    private final LocalDate initialDisbursalDate;
+    private final CaseParameters caseParameters;
+    private final BigDecimal interest;
+    private final Optional<BigDecimal> persistedPaymentSize;
+    private final int nextIndex;
+
+    private PlannedPaymentCursor(
+        final DataContextOfAction dataContextOfAction,
+        final LocalDate initialDisbursalDate,
+        final int nextIndex) {
+      this.tenantIdentifier = TenantContextHolder.checkedGetIdentifier();
+      this.productIdentifier = dataContextOfAction.getProductEntity().getIdentifier();
+      this.productLastModifiedOn = dataContextOfAction.getProductEntity().getLastModifiedOn();
+      this.caseIdentifier = dataContextOfAction.getCustomerCaseEntity().getIdentifier();
+      this.initialDisbursalDate = initialDisbursalDate;
+      this.caseParameters = dataContextOfAction.getCaseParameters();
+      this.interest = dataContextOfAction.getInterest();
+      this.persistedPaymentSize = dataContextOfAction.getPaymentSize();
+      this.nextIndex = nextIndex;
     }
-    return plannedPayments;
-  }
 
-  private static boolean chargeIsNotAccruedOrAccruesAtActionScheduled(
-      final Set<Action> actionsScheduled,
-      final ScheduledCharge scheduledCharge) {
-    // For example to prevent late charges from showing up on planned payments.
-    return scheduledCharge.getChargeDefinition().getAccrueAction() == null ||
-        actionsScheduled.contains(Action.valueOf(scheduledCharge.getChargeDefinition().getAccrueAction()));
-  }
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      final PlannedPaymentCursor that = (PlannedPaymentCursor) o;
+      return nextIndex == that.nextIndex &&
+          Objects.equals(tenantIdentifier, that.tenantIdentifier) &&
+          Objects.equals(productIdentifier, that.productIdentifier) &&
+          Objects.equals(productLastModifiedOn, that.productLastModifiedOn) &&
+          Objects.equals(caseIdentifier, that.caseIdentifier) &&
+          Objects.equals(initialDisbursalDate, that.initialDisbursalDate) &&
+          Objects.equals(caseParameters, that.caseParameters) &&
+          Objects.equals(interest, that.interest) &&
+          Objects.equals(persistedPaymentSize, that.persistedPaymentSize);
+    }
 
-  private static Period getPeriodFromScheduledCharge(final ScheduledCharge scheduledCharge) {
-    final ScheduledAction scheduledAction = scheduledCharge.getScheduledAction();
-    if (ScheduledActionHelpers.actionHasNoActionPeriod(scheduledAction.getAction()))
-      return new Period(null, null);
-    else
-      return scheduledAction.getRepaymentPeriod();
+    @Override
+    public int hashCode() {
+      return Objects.hash(tenantIdentifier, productIdentifier, productLastModifiedOn, caseIdentifier, initialDisbursalDate,
+          caseParameters, interest, persistedPaymentSize, nextIndex);
+    }
   }
-}
\ No newline at end of file
+}
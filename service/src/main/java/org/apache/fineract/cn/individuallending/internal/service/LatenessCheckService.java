@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service;
+
+import org.apache.fineract.cn.individuallending.api.v1.domain.product.AccountDesignators;
+import org.apache.fineract.cn.individuallending.api.v1.domain.workflow.Action;
+import org.apache.fineract.cn.individuallending.internal.command.MarkInArrearsCommand;
+import org.apache.fineract.cn.individuallending.internal.command.MarkLateCommand;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseParametersEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseParametersRepository;
+import org.apache.fineract.cn.individuallending.internal.repository.LateCaseEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.LateCaseRepository;
+import org.apache.fineract.cn.individuallending.internal.repository.LossProvisionStepEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.LossProvisionStepRepository;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.RealRunningBalances;
+import org.apache.fineract.cn.individuallending.internal.service.schedule.RepaymentPeriods;
+import org.apache.fineract.cn.individuallending.internal.service.schedule.ScheduledActionHelpers;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseCommandEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseCommandRepository;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+import org.apache.fineract.cn.lang.DateConverter;
+import org.apache.fineract.cn.lang.ServiceException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+
+/**
+ * Determines whether an active case is behind on its payments.  Shared between the separate lateness check and the
+ * fused interest and lateness pass of the beat, so that the latter can reuse the data context and the balances it
+ * already loaded for applying interest.
+ *
+ * Also maintains each case's next due date, so that the balances and schedule of a case need only be read when a
+ * payment has come due since it was last found to be up to date.
+ */
+@Service
+public class LatenessCheckService {
+  private final CaseCommandRepository caseCommandRepository;
+  private final CaseParametersRepository caseParametersRepository;
+  private final LateCaseRepository lateCaseRepository;
+  private final LossProvisionStepRepository lossProvisionStepRepository;
+  private final RepaymentScheduleService repaymentScheduleService;
+
+  @Autowired
+  public LatenessCheckService(
+      final CaseCommandRepository caseCommandRepository,
+      final CaseParametersRepository caseParametersRepository,
+      final LateCaseRepository lateCaseRepository,
+      final LossProvisionStepRepository lossProvisionStepRepository,
+      final RepaymentScheduleService repaymentScheduleService) {
+    this.caseCommandRepository = caseCommandRepository;
+    this.caseParametersRepository = caseParametersRepository;
+    this.lateCaseRepository = lateCaseRepository;
+    this.lossProvisionStepRepository = lossProvisionStepRepository;
+    this.repaymentScheduleService = repaymentScheduleService;
+  }
+
+  /**
+   * The commands to dispatch as a consequence of a lateness check.  At most one of them is present.
+   */
+  public static class Result {
+    private static final Result NOTHING_TO_DO = new Result(null, null);
+
+    private final MarkLateCommand markLateCommand;
+    private final MarkInArrearsCommand markInArrearsCommand;
+
+    private Result(final MarkLateCommand markLateCommand, final MarkInArrearsCommand markInArrearsCommand) {
+      this.markLateCommand = markLateCommand;
+      this.markInArrearsCommand = markInArrearsCommand;
+    }
+
+    /**
+     * @return a command to mark the case late, if it has just fallen behind.
+     */
+    public Optional<MarkLateCommand> getMarkLateCommand() {
+      return Optional.ofNullable(markLateCommand);
+    }
+
+    /**
+     * @return a command to take the next loss provision step, if the case has been behind for a number of days which
+     * corresponds to one.
+     */
+    public Optional<MarkInArrearsCommand> getMarkInArrearsCommand() {
+      return Optional.ofNullable(markInArrearsCommand);
+    }
+  }
+
+  /**
+   * @return true if a payment has come due on the case since it was last found to be up to date.  If not, the lateness
+   * check has nothing to do, and there is no need to read the case's balances for it.
+   */
+  public static boolean hasComeDue(final CaseParametersEntity caseParametersEntity, final String forTime) {
+    final LocalDateTime nextDueDate = caseParametersEntity.getNextDueDate();
+    return nextDueDate == null || nextDueDate.toLocalDate().isBefore(DateConverter.fromIsoString(forTime).toLocalDate());
+  }
+
+  /**
+   * @return the commands which should be dispatched as a consequence of the lateness check.
+   */
+  public Result checkLate(
+      final DataContextOfAction dataContextOfAction,
+      final RealRunningBalances balances,
+      final String forTime) {
+    final String productIdentifier = dataContextOfAction.getProductEntity().getIdentifier();
+    final String caseIdentifier = dataContextOfAction.getCustomerCaseEntity().getIdentifier();
+    final LocalDateTime forDateTime = DateConverter.fromIsoString(forTime);
+    final LocalDate forDate = forDateTime.toLocalDate();
+
+    if (!hasComeDue(dataContextOfAction.getCaseParametersEntity(), forTime))
+      return Result.NOTHING_TO_DO;
+
+    final BigDecimal currentBalance = balances.getAccountBalance(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL).orElse(BigDecimal.ZERO);
+    if (currentBalance.compareTo(BigDecimal.ZERO) == 0) //No late fees if the current balance is zilch.
+      return Result.NOTHING_TO_DO;
+
+    final LocalDateTime dateOfMostRecentDisbursement = dateOfMostRecentDisburse(dataContextOfAction.getCustomerCaseEntity().getId())
+        .orElseThrow(() ->
+            ServiceException
+                .badRequest("No last disbursal date for ''{0}.{1}'' could be determined.  " +
+                    "Therefore it cannot be checked for lateness.", productIdentifier, caseIdentifier));
+
+    final RepaymentPeriods repaymentPeriods = getRepaymentPeriods(
+        dataContextOfAction,
+        dateOfMostRecentDisbursement.toLocalDate(),
+        forDate);
+
+    final BigDecimal expectedPaymentSum = expectedPaymentSum(dataContextOfAction.getCaseParametersEntity(), repaymentPeriods);
+
+    final BigDecimal principalPaymentSum = balances.getSumOfChargesForActionSinceDate(
+        AccountDesignators.CUSTOMER_LOAN_PRINCIPAL,
+        Action.ACCEPT_PAYMENT,
+        dateOfMostRecentDisbursement);
+    final BigDecimal interestPaymentSum = balances.getSumOfChargesForActionSinceDate(
+        AccountDesignators.CUSTOMER_LOAN_INTEREST,
+        Action.ACCEPT_PAYMENT,
+        dateOfMostRecentDisbursement);
+    final BigDecimal feesPaymentSum = balances.getSumOfChargesForActionSinceDate(
+        AccountDesignators.CUSTOMER_LOAN_FEES,
+        Action.ACCEPT_PAYMENT,
+        dateOfMostRecentDisbursement);
+    final BigDecimal lateFeesSum = balances.getSumOfChargesForActionSinceDate(
+        AccountDesignators.LATE_FEE_INCOME,
+        Action.ACCEPT_PAYMENT,
+        dateOfMostRecentDisbursement);
+    final BigDecimal paymentsSum = principalPaymentSum.add(interestPaymentSum).add(feesPaymentSum.subtract(lateFeesSum));
+
+    if (paymentsSum.compareTo(expectedPaymentSum) >= 0) {
+      setNextDueDate(dataContextOfAction, repaymentPeriods, repaymentPeriods.size() - 1);
+      return Result.NOTHING_TO_DO;
+    }
+
+    final Optional<LocalDateTime> dateLateSince = dateLateSince(dataContextOfAction.getCustomerCaseEntity().getId());
+    if (!dateLateSince.isPresent())
+      return new Result(new MarkLateCommand(productIdentifier, caseIdentifier, forTime), null);
+
+    int daysLate;
+    try {
+      daysLate = Math.toIntExact(dateLateSince.get().until(forDateTime, ChronoUnit.DAYS)) + 1;
+    }
+    catch (ArithmeticException e) {
+      daysLate = -1;
+    }
+    if (daysLate > 1) {
+      final Optional<LossProvisionStepEntity> lossStepEntity = lossProvisionStepRepository.findByProductIdAndDaysLate(dataContextOfAction.getProductEntity().getId(), daysLate);
+      if (lossStepEntity.isPresent()) {
+        return new Result(null, new MarkInArrearsCommand(productIdentifier, caseIdentifier, forTime, daysLate));
+      }
+    }
+
+    return Result.NOTHING_TO_DO;
+  }
+
+  public void updateNextDueDateOnDisbursement(
+      final DataContextOfAction dataContextOfAction,
+      final LocalDateTime disbursedOn) {
+    final RepaymentPeriods repaymentPeriods = getRepaymentPeriods(
+        dataContextOfAction,
+        disbursedOn.toLocalDate(),
+        disbursedOn.toLocalDate());
+    setNextDueDate(dataContextOfAction, repaymentPeriods, 0);
+  }
+
+  /**
+   * A payment can't cause a case to fall behind, so an upcoming due date is left as it is.  If a due date has already
+   * passed, the case stays due, so that the next lateness check verifies whether the payments made, including this
+   * one, cover it.
+   */
+  public void updateNextDueDateOnPayment(
+      final DataContextOfAction dataContextOfAction,
+      final LocalDateTime paidOn) {
+    final LocalDateTime nextDueDate = dataContextOfAction.getCaseParametersEntity().getNextDueDate();
+    if (nextDueDate != null && !nextDueDate.toLocalDate().isBefore(paidOn.toLocalDate()))
+      return;
+
+    final Optional<LocalDateTime> dateOfMostRecentDisbursement
+        = dateOfMostRecentDisburse(dataContextOfAction.getCustomerCaseEntity().getId());
+    if (!dateOfMostRecentDisbursement.isPresent())
+      return;
+
+    final RepaymentPeriods repaymentPeriods = getRepaymentPeriods(
+        dataContextOfAction,
+        dateOfMostRecentDisbursement.get().toLocalDate(),
+        paidOn.toLocalDate());
+    setNextDueDate(dataContextOfAction, repaymentPeriods, Math.max(repaymentPeriods.size() - 2, 0));
+  }
+
+  /**
+   * The same periods ScheduledActionHelpers.generateRepaymentPeriods would generate up to endDate, taken from the
+   * case's persisted schedule where it reaches that far.  Only the last of them may differ, in that it isn't marked as
+   * the last period of the term.
+   */
+  private RepaymentPeriods getRepaymentPeriods(
+      final DataContextOfAction dataContextOfAction,
+      final LocalDate startOfSchedule,
+      final LocalDate endDate) {
+    final RepaymentPeriods schedule = repaymentScheduleService.findOrGenerate(dataContextOfAction, startOfSchedule);
+    final int indexOfDuePeriod = schedule.indexOfFirstPeriodEndingOnOrAfter(endDate);
+    if (indexOfDuePeriod < schedule.size())
+      return schedule.first(indexOfDuePeriod + 1);
+
+    return ScheduledActionHelpers.getRepaymentPeriods(
+        startOfSchedule,
+        endDate,
+        dataContextOfAction.getCaseParameters());
+  }
+
+  /**
+   * The expected cumulative payment stored with the next due date, if that is the most recent due date which has
+   * passed.  For a case which hasn't been checked since several due dates passed, it is worked out from the periods.
+   */
+  private static BigDecimal expectedPaymentSum(
+      final CaseParametersEntity caseParametersEntity,
+      final RepaymentPeriods repaymentPeriods) {
+    final int repaymentPeriodsBetweenBeginningAndToday = repaymentPeriods.size() - 1;
+    final LocalDateTime nextDueDate = caseParametersEntity.getNextDueDate();
+    if (caseParametersEntity.getExpectedPaymentSum() != null && nextDueDate != null &&
+        repaymentPeriodsBetweenBeginningAndToday > 0 &&
+        repaymentPeriods.getEndDate(repaymentPeriodsBetweenBeginningAndToday - 1).equals(nextDueDate.toLocalDate()))
+      return caseParametersEntity.getExpectedPaymentSum();
+
+    return caseParametersEntity.getPaymentSize().multiply(BigDecimal.valueOf(repaymentPeriodsBetweenBeginningAndToday));
+  }
+
+  private void setNextDueDate(
+      final DataContextOfAction dataContextOfAction,
+      final RepaymentPeriods repaymentPeriods,
+      final int indexOfDuePeriod) {
+    final CaseParametersEntity caseParametersEntity = dataContextOfAction.getCaseParametersEntity();
+    caseParametersEntity.setNextDueDate(repaymentPeriods.getEndDate(indexOfDuePeriod).atTime(LocalTime.MIDNIGHT));
+    caseParametersEntity.setExpectedPaymentSum(
+        caseParametersEntity.getPaymentSize().multiply(BigDecimal.valueOf(indexOfDuePeriod + 1)));
+    caseParametersRepository.save(caseParametersEntity);
+  }
+
+  private Optional<LocalDateTime> dateLateSince(final Long caseId) {
+    return lateCaseRepository.findByCaseId(caseId).map(LateCaseEntity::getLateSince);
+  }
+
+  private Optional<LocalDateTime> dateOfMostRecentDisburse(final Long caseId) {
+    final Pageable pageRequest = new PageRequest(0, 10, Sort.Direction.DESC, "createdOn");
+    final Page<CaseCommandEntity> page = caseCommandRepository.findByCaseIdAndActionName(
+        caseId,
+        Action.DISBURSE.name(),
+        pageRequest);
+
+    return page.getContent().stream().findFirst().map(CaseCommandEntity::getCreatedOn);
+  }
+}
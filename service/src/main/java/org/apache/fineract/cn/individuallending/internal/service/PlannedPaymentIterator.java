@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service;
+
+import org.apache.fineract.cn.individuallending.api.v1.domain.caseinstance.ChargeName;
+import org.apache.fineract.cn.individuallending.api.v1.domain.caseinstance.PlannedPayment;
+import org.apache.fineract.cn.individuallending.api.v1.domain.product.AccountDesignators;
+import org.apache.fineract.cn.individuallending.api.v1.domain.workflow.Action;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.CostComponentService;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.PaymentBuilder;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.SimulatedRunningBalances;
+import org.apache.fineract.cn.individuallending.internal.service.schedule.Period;
+import org.apache.fineract.cn.individuallending.internal.service.schedule.ScheduledAction;
+import org.apache.fineract.cn.individuallending.internal.service.schedule.ScheduledActionHelpers;
+import org.apache.fineract.cn.individuallending.internal.service.schedule.ScheduledCharge;
+import org.apache.fineract.cn.individuallending.internal.service.schedule.ScheduledChargeComparator;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+
+/**
+ * Simulates a case's planned payments one repayment period at a time, so that a page of them can be produced without
+ * building the payments before or after it.  The simulated balances are kept between calls, so an iterator which has
+ * produced one page can be kept and asked for the next.
+ *
+ * Not thread safe.
+ */
+class PlannedPaymentIterator implements Iterator<PlannedPayment> {
+  private final BigDecimal initialBalance;
+  private final int minorCurrencyUnitDigits;
+  private final BigDecimal loanPaymentSize;
+  private final BigDecimal interest;
+  private final Map<Period, SortedSet<ScheduledCharge>> orderedScheduledChargesGroupedByPeriod;
+  private final List<Period> sortedRepaymentPeriods;
+  private final Set<ChargeName> chargeNames;
+  private final SimulatedRunningBalances balances = new SimulatedRunningBalances();
+  private int nextIndex = 0;
+
+  PlannedPaymentIterator(
+      final BigDecimal initialBalance,
+      final int minorCurrencyUnitDigits,
+      final Set<Action> actionsScheduled,
+      final List<ScheduledCharge> scheduledCharges,
+      final BigDecimal loanPaymentSize,
+      final BigDecimal interest) {
+    this.initialBalance = initialBalance;
+    this.minorCurrencyUnitDigits = minorCurrencyUnitDigits;
+    this.loanPaymentSize = loanPaymentSize;
+    this.interest = interest;
+
+    this.orderedScheduledChargesGroupedByPeriod = scheduledCharges.stream()
+        .filter(scheduledCharge -> chargeIsNotAccruedOrAccruesAtActionScheduled(actionsScheduled, scheduledCharge))
+        .collect(Collectors.groupingBy(PlannedPaymentIterator::getPeriodFromScheduledCharge,
+            Collectors.mapping(x -> x,
+                Collector.of(
+                    () -> new TreeSet<>(new ScheduledChargeComparator()),
+                    SortedSet::add,
+                    (left, right) -> { left.addAll(right); return left; }))));
+
+    this.sortedRepaymentPeriods = orderedScheduledChargesGroupedByPeriod.keySet().stream()
+        .sorted()
+        .collect(Collector.of(ArrayList::new, List::add, (left, right) -> { left.addAll(right); return left; }));
+
+    this.chargeNames = scheduledCharges.stream()
+        .map(PlannedPaymentIterator::chargeNameFromChargeDefinition)
+        .collect(Collectors.toSet());
+  }
+
+  /**
+   * @return the number of planned payments in the whole schedule.
+   */
+  int size() {
+    return sortedRepaymentPeriods.size();
+  }
+
+  /**
+   * @return the index of the planned payment the next call to next or skip will produce.
+   */
+  int getNextIndex() {
+    return nextIndex;
+  }
+
+  Set<ChargeName> getChargeNames() {
+    return chargeNames;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return nextIndex < sortedRepaymentPeriods.size();
+  }
+
+  @Override
+  public PlannedPayment next() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    final Period repaymentPeriod = sortedRepaymentPeriods.get(nextIndex);
+    final PlannedPayment ret = simulateNextPeriod().accumulatePlannedPayment(balances, repaymentPeriod.getEndDate());
+    nextIndex++;
+    return ret;
+  }
+
+  /**
+   * Moves the simulated balances past the next planned payment without building it.
+   */
+  void skip() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    simulateNextPeriod().accumulateBalances(balances);
+    nextIndex++;
+  }
+
+  private PaymentBuilder simulateNextPeriod() {
+    final Period repaymentPeriod = sortedRepaymentPeriods.get(nextIndex);
+    final BigDecimal requestedRepayment;
+    final BigDecimal requestedDisbursal;
+    if (nextIndex == 0)
+    { //First "period" is actually just the OPEN/APPROVE/DISBURSAL action set.
+      requestedRepayment = BigDecimal.ZERO;
+      requestedDisbursal = initialBalance.setScale(minorCurrencyUnitDigits, BigDecimal.ROUND_HALF_EVEN);
+    }
+    else if (nextIndex == sortedRepaymentPeriods.size() - 1)
+    { //Last repayment period: Fill the proposed payment out to the remaining balance of the loan.
+      requestedRepayment = loanPaymentSize.multiply(BigDecimal.valueOf(2));
+      requestedDisbursal = BigDecimal.ZERO;
+    }
+    else {
+      requestedRepayment = loanPaymentSize;
+      requestedDisbursal = BigDecimal.ZERO;
+    }
+
+    balances.adjustBalance(AccountDesignators.ENTRY, requestedRepayment);
+
+    final SortedSet<ScheduledCharge> scheduledChargesInPeriod = orderedScheduledChargesGroupedByPeriod.get(repaymentPeriod);
+    return CostComponentService.getCostComponentsForScheduledCharges(
+        scheduledChargesInPeriod,
+        initialBalance,
+        balances,
+        loanPaymentSize,
+        requestedDisbursal,
+        requestedRepayment,
+        interest,
+        minorCurrencyUnitDigits,
+        true);
+  }
+
+  private static ChargeName chargeNameFromChargeDefinition(final ScheduledCharge scheduledCharge) {
+    return new ChargeName(scheduledCharge.getChargeDefinition().getIdentifier(), scheduledCharge.getChargeDefinition().getName());
+  }
+
+  private static boolean chargeIsNotAccruedOrAccruesAtActionScheduled(
+      final Set<Action> actionsScheduled,
+      final ScheduledCharge scheduledCharge) {
+    // For example to prevent late charges from showing up on planned payments.
+    return scheduledCharge.getChargeDefinition().getAccrueAction() == null ||
+        actionsScheduled.contains(Action.valueOf(scheduledCharge.getChargeDefinition().getAccrueAction()));
+  }
+
+  private static Period getPeriodFromScheduledCharge(final ScheduledCharge scheduledCharge) {
+    final ScheduledAction scheduledAction = scheduledCharge.getScheduledAction();
+    if (ScheduledActionHelpers.actionHasNoActionPeriod(scheduledAction.getAction()))
+      return new Period(null, null);
+    else
+      return scheduledAction.getRepaymentPeriod();
+  }
+}
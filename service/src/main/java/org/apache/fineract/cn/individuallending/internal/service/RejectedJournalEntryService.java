@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service;
+
+import org.apache.fineract.cn.individuallending.api.v1.domain.workflow.Action;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseBalanceEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseBalanceRepository;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseParametersEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseParametersRepository;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseUnreleasedEntryRepository;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.ProjectedRunningBalances;
+import org.apache.fineract.cn.portfolio.service.ServiceConstants;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseCommandEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseCommandRepository;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseRepository;
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.fineract.cn.accounting.api.v1.domain.Creditor;
+import org.apache.fineract.cn.accounting.api.v1.domain.Debtor;
+import org.apache.fineract.cn.accounting.api.v1.domain.JournalEntry;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Takes back what booking a journal entry did to the portfolio's own records of its case, once accounting has
+ * rejected the entry for good.  Until then the accrual totals and the projected balances of the case hold amounts
+ * which accounting never booked, and every later command for the case would be calculated with them.
+ *
+ * What else the command which booked the entry changed, such as the state of the case, its next due date, or its
+ * repayment schedule, can't be taken back this way.  The case is marked instead, which keeps it out of the beat until
+ * someone has looked at it.
+ */
+@Service
+public class RejectedJournalEntryService {
+  private final CaseCommandRepository caseCommandRepository;
+  private final CaseRepository caseRepository;
+  private final DataContextService dataContextService;
+  private final AccrualAggregateService accrualAggregateService;
+  private final CaseBalanceRepository caseBalanceRepository;
+  private final CaseUnreleasedEntryRepository caseUnreleasedEntryRepository;
+  private final CaseParametersRepository caseParametersRepository;
+  private final Logger logger;
+
+  @Autowired
+  public RejectedJournalEntryService(
+      final CaseCommandRepository caseCommandRepository,
+      final CaseRepository caseRepository,
+      final DataContextService dataContextService,
+      final AccrualAggregateService accrualAggregateService,
+      final CaseBalanceRepository caseBalanceRepository,
+      final CaseUnreleasedEntryRepository caseUnreleasedEntryRepository,
+      final CaseParametersRepository caseParametersRepository,
+      @Qualifier(ServiceConstants.LOGGER_NAME) final Logger logger) {
+    this.caseCommandRepository = caseCommandRepository;
+    this.caseRepository = caseRepository;
+    this.dataContextService = dataContextService;
+    this.accrualAggregateService = accrualAggregateService;
+    this.caseBalanceRepository = caseBalanceRepository;
+    this.caseUnreleasedEntryRepository = caseUnreleasedEntryRepository;
+    this.caseParametersRepository = caseParametersRepository;
+    this.logger = logger;
+  }
+
+  /**
+   * To be called in the transaction in which the journal entry is dead lettered, so that it is reversed exactly once.
+   *
+   * @param balanceAdjustments the balance adjustments by account designator the journal entry was built from.
+   */
+  @Transactional
+  public void reverseBooking(final JournalEntry journalEntry, final Map<String, BigDecimal> balanceAdjustments) {
+    final String transactionIdentifier = journalEntry.getTransactionIdentifier();
+    final String transactionUniqueifier = transactionIdentifier.substring(transactionIdentifier.lastIndexOf('.') + 1);
+    final Optional<CaseCommandEntity> caseCommand = caseCommandRepository.findFirstByTransactionUniqueifier(transactionUniqueifier);
+    final Optional<CaseEntity> customerCase = caseCommand.map(CaseCommandEntity::getCaseId).map(caseRepository::findOne);
+    if (!caseCommand.isPresent() || !customerCase.isPresent()) {
+      logger.warn("No case found for rejected journal entry '{}'.  Nothing to reverse.", transactionIdentifier);
+      return;
+    }
+
+    final DataContextOfAction dataContextOfAction = dataContextService.checkedGetDataContext(
+        customerCase.get().getProductIdentifier(), customerCase.get().getIdentifier(), Collections.emptyList());
+    final Action action = Action.valueOf(caseCommand.get().getActionName());
+    accrualAggregateService.reverseBooking(dataContextOfAction, action, balanceAdjustments);
+
+    //The projection was only adjusted if it existed at the time, and is only still adjusted if it hasn't been
+    //reconciled since.  Either way there is an unreleased entry recorded for it exactly then.
+    if (caseUnreleasedEntryRepository.deleteByTransactionIdentifier(transactionIdentifier) != 0)
+      reverseProjectedBalances(dataContextOfAction, journalEntry, balanceAdjustments);
+
+    final CaseParametersEntity caseParameters = dataContextOfAction.getCaseParametersEntity();
+    if (caseParameters.getJournalEntryRejectedOn() == null) {
+      caseParameters.setJournalEntryRejectedOn(LocalDateTime.now(Clock.systemUTC()));
+      caseParametersRepository.save(caseParameters);
+    }
+
+    logger.error("Reversed the booking of rejected journal entry '{}' for case '{}'.  The case's state after {} may " +
+            "not match its accounts, and it is left out of the beat until it has been looked at.",
+        transactionIdentifier, dataContextOfAction.getCompoundIdentifer(), action);
+  }
+
+  private void reverseProjectedBalances(
+      final DataContextOfAction dataContextOfAction,
+      final JournalEntry journalEntry,
+      final Map<String, BigDecimal> balanceAdjustments) {
+    final Set<String> accountsBookedTo = Stream.concat(
+        journalEntry.getCreditors().stream().map(Creditor::getAccountNumber),
+        journalEntry.getDebtors().stream().map(Debtor::getAccountNumber))
+        .collect(Collectors.toSet());
+
+    final List<CaseBalanceEntity> reversedCaseBalances
+        = caseBalanceRepository.findByCaseId(dataContextOfAction.getCustomerCaseEntity().getId()).stream()
+        .filter(x -> balanceAdjustments.containsKey(x.getAccountDesignator()))
+        //Bookings to other accounts than the case's own, through one-time account assignments, weren't projected.
+        .filter(x -> accountsBookedTo.contains(x.getAccountIdentifier()))
+        .peek(x -> {
+          final BigDecimal adjustment = balanceAdjustments.get(x.getAccountDesignator());
+          final boolean accountIsNegative = ProjectedRunningBalances.getSignOfRequiredAccount(x.getAccountDesignator())
+              .map(sign -> sign.signum() < 0)
+              .orElse(true);
+          x.setBalance(x.getBalance().subtract(accountIsNegative ? adjustment.negate() : adjustment));
+        })
+        .collect(Collectors.toList());
+    caseBalanceRepository.save(reversedCaseBalances);
+  }
+}
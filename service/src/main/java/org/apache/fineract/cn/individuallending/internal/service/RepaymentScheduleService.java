@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service;
+
+import org.apache.fineract.cn.individuallending.internal.repository.RepaymentPeriodEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.RepaymentPeriodRepository;
+import org.apache.fineract.cn.individuallending.internal.service.schedule.Period;
+import org.apache.fineract.cn.individuallending.internal.service.schedule.RepaymentPeriods;
+import org.apache.fineract.cn.individuallending.internal.service.schedule.ScheduledActionHelpers;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Keeps the contractual repayment periods of a disbursed case, so that they are generated once at disbursement rather
+ * than every time a payment is planned, accepted, or checked for lateness.
+ *
+ * A persisted schedule is only used by a caller whose schedule would start on the same date and be for the same
+ * payment size.  Otherwise, for example for a case disbursed before schedules were persisted, callers generate the
+ * repayment periods as before.
+ */
+@Service
+public class RepaymentScheduleService {
+  private final RepaymentPeriodRepository repaymentPeriodRepository;
+
+  @Autowired
+  public RepaymentScheduleService(final RepaymentPeriodRepository repaymentPeriodRepository) {
+    this.repaymentPeriodRepository = repaymentPeriodRepository;
+  }
+
+  /**
+   * Replaces the case's schedule with one starting on startOfSchedule and running to the end of term that start
+   * implies.  To be called whenever the start of the schedule, the case parameters, or the payment size change.
+   */
+  @Transactional
+  public RepaymentPeriods generate(
+      final DataContextOfAction dataContextOfAction,
+      final LocalDate startOfSchedule) {
+    final Long caseId = dataContextOfAction.getCustomerCaseEntity().getId();
+    final BigDecimal paymentSize = dataContextOfAction.getCaseParametersEntity().getPaymentSize();
+
+    final RepaymentPeriods repaymentPeriods = ScheduledActionHelpers.getRepaymentPeriods(
+        startOfSchedule,
+        ScheduledActionHelpers.getRoughEndDate(startOfSchedule, dataContextOfAction.getCaseParameters()),
+        dataContextOfAction.getCaseParameters());
+
+    repaymentPeriodRepository.deleteByCaseId(caseId);
+    for (int i = 0; i < repaymentPeriods.size(); i++) {
+      final Period repaymentPeriod = repaymentPeriods.get(i);
+      final RepaymentPeriodEntity entity = new RepaymentPeriodEntity();
+      entity.setCaseId(caseId);
+      entity.setPeriodIndex(i);
+      entity.setBeginDate(repaymentPeriod.getBeginDate().atTime(LocalTime.MIDNIGHT));
+      entity.setEndDate(repaymentPeriod.getEndDate().atTime(LocalTime.MIDNIGHT));
+      entity.setLastPeriod(repaymentPeriod.isLastPeriod());
+      entity.setExpectedPayment(paymentSize);
+      repaymentPeriodRepository.save(entity);
+    }
+
+    return repaymentPeriods;
+  }
+
+  @Transactional
+  public void invalidate(final Long caseId) {
+    repaymentPeriodRepository.deleteByCaseId(caseId);
+  }
+
+  /**
+   * @return the persisted repayment periods of the case, if they start on startOfSchedule and were generated for the
+   * case's current payment size.
+   */
+  public Optional<RepaymentPeriods> find(
+      final DataContextOfAction dataContextOfAction,
+      final LocalDate startOfSchedule) {
+    final List<RepaymentPeriodEntity> entities
+        = repaymentPeriodRepository.findByCaseIdOrderByPeriodIndex(dataContextOfAction.getCustomerCaseEntity().getId());
+    if (entities.isEmpty())
+      return Optional.empty();
+
+    final RepaymentPeriodEntity first = entities.get(0);
+    if (!first.getBeginDate().toLocalDate().equals(startOfSchedule))
+      return Optional.empty();
+
+    final BigDecimal paymentSize = dataContextOfAction.getCaseParametersEntity().getPaymentSize();
+    if (paymentSize == null || first.getExpectedPayment().compareTo(paymentSize) != 0)
+      return Optional.empty();
+
+    final List<LocalDate> dates = new ArrayList<>(entities.size() + 1);
+    dates.add(startOfSchedule);
+    entities.forEach(entity -> dates.add(entity.getEndDate().toLocalDate()));
+    return Optional.of(RepaymentPeriods.of(dates, Boolean.TRUE.equals(entities.get(entities.size() - 1).getLastPeriod())));
+  }
+
+  /**
+   * Like find, but generates and persists the schedule if there is no matching one.  Only to be called from
+   * commands.
+   */
+  @Transactional
+  public RepaymentPeriods findOrGenerate(
+      final DataContextOfAction dataContextOfAction,
+      final LocalDate startOfSchedule) {
+    return find(dataContextOfAction, startOfSchedule)
+        .orElseGet(() -> generate(dataContextOfAction, startOfSchedule));
+  }
+}
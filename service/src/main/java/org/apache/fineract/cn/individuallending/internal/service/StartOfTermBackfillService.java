@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import org.apache.fineract.cn.api.util.UserContextHolder;
+import org.apache.fineract.cn.individuallending.api.v1.domain.product.AccountDesignators;
+import org.apache.fineract.cn.individuallending.api.v1.domain.workflow.Action;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.RealRunningBalances;
+import org.apache.fineract.cn.lang.TenantContextHolder;
+import org.apache.fineract.cn.portfolio.service.ServiceConstants;
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseAccountReference;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseRepository;
+import org.apache.fineract.cn.portfolio.service.internal.util.AccountingAdapter;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+/**
+ * Moves the start of term of cases disbursed before it was persisted in the portfolio db out of accounting.  The
+ * cases without one are walked in keyset-paginated chunks, and for each the oldest disbursement entry is looked up
+ * with at most startOfTermBackfillConcurrency lookups in flight, so that the backfill doesn't crowd requests out of
+ * accounting.  A case for which accounting has no disbursement entry gets its creation as its start of term, so that
+ * every disbursed case has one once the backfill is complete.
+ *
+ * The backfill runs at most once per tenant and instance, in the background, and is started by the beat.  It is
+ * idempotent, so a backfill interrupted by a restart is simply continued by the next one.
+ */
+@Service
+public class StartOfTermBackfillService {
+  private final CaseRepository caseRepository;
+  private final AccountingAdapter accountingAdapter;
+  private final PortfolioProperties portfolioProperties;
+  private final Logger logger;
+  private final ExecutorService backfillRunner = Executors.newSingleThreadExecutor();
+  private final Set<String> tenantsBackfilled = ConcurrentHashMap.newKeySet();
+  private final Set<String> tenantsBeingBackfilled = ConcurrentHashMap.newKeySet();
+
+  @Autowired
+  public StartOfTermBackfillService(
+      final CaseRepository caseRepository,
+      final AccountingAdapter accountingAdapter,
+      final PortfolioProperties portfolioProperties,
+      @Qualifier(ServiceConstants.LOGGER_NAME) final Logger logger) {
+    this.caseRepository = caseRepository;
+    this.accountingAdapter = accountingAdapter;
+    this.portfolioProperties = portfolioProperties;
+    this.logger = logger;
+  }
+
+  /**
+   * Starts the backfill for the current tenant, unless it has already finished or is running.  Returns immediately.
+   */
+  public void startIfNeeded() {
+    final String tenantIdentifier = TenantContextHolder.checkedGetIdentifier();
+    if (tenantsBackfilled.contains(tenantIdentifier) || !tenantsBeingBackfilled.add(tenantIdentifier))
+      return;
+
+    final String user = UserContextHolder.checkedGetUser();
+    final String accessToken = UserContextHolder.checkedGetAccessToken();
+    backfillRunner.execute(() -> {
+      TenantContextHolder.setIdentifier(tenantIdentifier);
+      UserContextHolder.setAccessToken(user, accessToken);
+      try {
+        if (backfill(tenantIdentifier))
+          tenantsBackfilled.add(tenantIdentifier);
+      }
+      catch (final RuntimeException e) {
+        logger.warn("Backfill of the start of term for tenant '{}' failed, it will be retried with the next beat.",
+            tenantIdentifier, e);
+      }
+      finally {
+        tenantsBeingBackfilled.remove(tenantIdentifier);
+        TenantContextHolder.clear();
+        UserContextHolder.clear();
+      }
+    });
+  }
+
+  /**
+   * @return true if the start of term of every case could be looked up.
+   */
+  boolean backfill(final String tenantIdentifier) {
+    final long casesToExamine = caseRepository.countWithoutStartOfTerm(RealRunningBalances.DISBURSED_STATES);
+    if (casesToExamine == 0)
+      return true;
+
+    logger.info("Backfilling the start of term of up to {} cases for tenant '{}'.", casesToExamine, tenantIdentifier);
+
+    final int concurrency = portfolioProperties.getStartOfTermBackfillConcurrency();
+    long afterId = 0L;
+    long casesExamined = 0L;
+    long casesBackfilled = 0L;
+    long casesWithoutDisbursement = 0L;
+    boolean complete = true;
+    while (true) {
+      final List<CaseAccountReference> chunk = caseRepository.findWithoutStartOfTermAfterId(
+          RealRunningBalances.DISBURSED_STATES,
+          AccountDesignators.CUSTOMER_LOAN_PRINCIPAL,
+          afterId,
+          new PageRequest(0, portfolioProperties.getStartOfTermBackfillChunkSize()));
+      if (chunk.isEmpty())
+        break;
+
+      for (int i = 0; i < chunk.size(); i += concurrency) {
+        final List<CaseAccountReference> window = chunk.subList(i, Math.min(i + concurrency, chunk.size()));
+        final List<CompletableFuture<Optional<LocalDateTime>>> lookups = window.stream()
+            .map(caseAccount -> accountingAdapter.callInBackground(() ->
+                accountingAdapter.getDateOfOldestEntryContainingMessage(
+                    caseAccount.getAccountIdentifier(),
+                    DataContextOfAction.getMessageForCharge(
+                        caseAccount.getProductIdentifier(), caseAccount.getIdentifier(), Action.DISBURSE))))
+            .collect(Collectors.toList());
+
+        for (int j = 0; j < window.size(); j++) {
+          final CaseAccountReference caseAccount = window.get(j);
+          final Optional<LocalDateTime> startOfTerm;
+          try {
+            startOfTerm = lookups.get(j).get();
+          }
+          catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+          }
+          catch (final ExecutionException e) {
+            logger.warn("Looking up the start of term of case '{}.{}' failed.",
+                caseAccount.getProductIdentifier(), caseAccount.getIdentifier(), e.getCause());
+            complete = false;
+            continue;
+          }
+          if (startOfTerm.isPresent()) {
+            casesBackfilled += caseRepository.setStartOfTermIfAbsent(caseAccount.getId(), startOfTerm.get());
+          }
+          else {
+            logger.warn("No disbursement of case '{}.{}' found in accounting.  Its creation is taken as its start of term.",
+                caseAccount.getProductIdentifier(), caseAccount.getIdentifier());
+            casesWithoutDisbursement += caseRepository.setStartOfTermToCreatedOnIfAbsent(caseAccount.getId());
+          }
+        }
+      }
+
+      casesExamined += chunk.size();
+      afterId = chunk.get(chunk.size() - 1).getId();
+      logger.info("Start of term backfill for tenant '{}': {} of up to {} cases examined, {} backfilled, {} without disbursement.",
+          tenantIdentifier, casesExamined, casesToExamine, casesBackfilled, casesWithoutDisbursement);
+    }
+
+    logger.info("Start of term backfill for tenant '{}' finished: {} cases examined, {} backfilled, {} without disbursement.",
+        tenantIdentifier, casesExamined, casesBackfilled, casesWithoutDisbursement);
+    return complete;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    backfillRunner.shutdownNow();
+  }
+}
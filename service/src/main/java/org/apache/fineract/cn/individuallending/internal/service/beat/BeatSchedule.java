@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service.beat;
+
+import java.util.Optional;
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Decides which cases are processed in which hourly beat.  Every case belongs to one of beatSlotCount slots by its id.
+ * The slots of a stage are processed in consecutive hours, beginning with the hour configured for the stage, so that
+ * every case is processed once a day and the load is spread over as many hours as there are slots.
+ */
+@Component
+public class BeatSchedule {
+  private static final int HOURS_PER_DAY = 24;
+
+  private final PortfolioProperties portfolioProperties;
+
+  @Autowired
+  public BeatSchedule(final PortfolioProperties portfolioProperties) {
+    this.portfolioProperties = portfolioProperties;
+  }
+
+  public int getSlotCount() {
+    return portfolioProperties.getBeatSlotCount();
+  }
+
+  /**
+   * @return the slot of the cases to process in the given stage during the beat at the given hour, or empty if the
+   * stage has no work in that hour.
+   */
+  public Optional<Integer> getSlot(final BeatStage stage, final int hour) {
+    final int slot = Math.floorMod(hour - getFirstHour(stage), HOURS_PER_DAY);
+    return slot < getSlotCount() ? Optional.of(slot) : Optional.empty();
+  }
+
+  private int getFirstHour(final BeatStage stage) {
+    switch (stage) {
+      case APPLY_INTEREST:
+      case APPLY_INTEREST_AND_CHECK_LATE:
+        return portfolioProperties.getBookInterestInTimeSlot();
+      case CHECK_LATE:
+        return portfolioProperties.getCheckForLatenessInTimeSlot();
+      default:
+        throw new IllegalStateException("Unknown beat stage " + stage);
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service.beat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * An inclusive range of case ids which is processed by one worker during a beat.
+ */
+public class CaseIdRange {
+  private final long firstId;
+  private final long lastId;
+
+  public CaseIdRange(final long firstId, final long lastId) {
+    this.firstId = firstId;
+    this.lastId = lastId;
+  }
+
+  public long getFirstId() {
+    return firstId;
+  }
+
+  public long getLastId() {
+    return lastId;
+  }
+
+  /**
+   * Splits the ids from firstId to lastId into at most partitionCount contiguous ranges of nearly equal size.
+   */
+  public static List<CaseIdRange> partition(final long firstId, final long lastId, final int partitionCount) {
+    final List<CaseIdRange> ret = new ArrayList<>();
+    if (lastId < firstId || partitionCount < 1)
+      return ret;
+
+    final long idCount = lastId - firstId + 1;
+    final long effectivePartitionCount = Math.min(partitionCount, idCount);
+    final long partitionSize = idCount / effectivePartitionCount;
+    final long remainder = idCount % effectivePartitionCount;
+
+    long nextFirstId = firstId;
+    for (long i = 0; i < effectivePartitionCount; i++) {
+      final long size = partitionSize + (i < remainder ? 1 : 0);
+      ret.add(new CaseIdRange(nextFirstId, nextFirstId + size - 1));
+      nextFirstId += size;
+    }
+    return ret;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    CaseIdRange that = (CaseIdRange) o;
+    return firstId == that.firstId &&
+        lastId == that.lastId;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(firstId, lastId);
+  }
+
+  @Override
+  public String toString() {
+    return "CaseIdRange{" +
+        "firstId=" + firstId +
+        ", lastId=" + lastId +
+        '}';
+  }
+}
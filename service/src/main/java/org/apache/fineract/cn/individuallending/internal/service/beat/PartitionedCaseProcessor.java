@@ -0,0 +1,485 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service.beat;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.fineract.cn.api.util.UserContextHolder;
+import org.apache.fineract.cn.individuallending.internal.repository.BeatProgressEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.BeatProgressRepository;
+import org.apache.fineract.cn.lang.DateConverter;
+import org.apache.fineract.cn.lang.TenantContextHolder;
+import org.apache.fineract.cn.portfolio.api.v1.domain.Case;
+import org.apache.fineract.cn.portfolio.service.ServiceConstants;
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseReference;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseRepository;
+import org.apache.fineract.cn.portfolio.service.internal.util.ReplicaAdapter;
+import org.apache.fineract.cn.rhythm.spi.v1.domain.BeatPublish;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+/**
+ * Splits the active cases into ranges by id, which worker threads lease and walk one at a time.  Cases are read in
+ * small keyset-paginated batches of identifiers only, so that neither memory use nor the length of a database
+ * read depends on the size of the portfolio.  The action passed in is expected to take care of its own transaction,
+ * typically by dispatching a command, and to return without waiting for it.  A few cases per range are kept in
+ * flight at a time, see PortfolioProperties.beatCasesInFlightPerPartition.
+ *
+ * The last case processed in each range is checkpointed, so that a stage interrupted by a restart can be
+ * continued where it stopped rather than started over.  A case only counts as processed once its action and those
+ * of all cases before it in its range have finished.  A case whose action failed is recorded with the checkpoint, and
+ * its range is left unfinished, so that the case is retried once when the stage is resumed with a later beat.
+ *
+ * Leases are held in the database, so several instances of the service can share the ranges of a beat between them
+ * without processing a case twice.  A lease which isn't renewed, because its instance died, expires, and the range is
+ * taken over by whichever instance next looks for work.
+ *
+ * Only the cases in the slot of the beat's hour are visited, see BeatSchedule.
+ */
+@Component
+public class PartitionedCaseProcessor {
+  private static final Collection<String> ACTIVE_STATES = Collections.singleton(Case.State.ACTIVE.name());
+
+  private final CaseRepository caseRepository;
+  private final BeatProgressRepository beatProgressRepository;
+  private final PortfolioProperties portfolioProperties;
+  private final ReplicaAdapter replicaAdapter;
+  private final BeatSchedule beatSchedule;
+  private final ExecutorService beatWorkerExecutor;
+  private final Logger logger;
+  private final String instanceIdentifier = UUID.randomUUID().toString();
+
+  @Autowired
+  public PartitionedCaseProcessor(
+      final CaseRepository caseRepository,
+      final BeatProgressRepository beatProgressRepository,
+      final PortfolioProperties portfolioProperties,
+      final ReplicaAdapter replicaAdapter,
+      final BeatSchedule beatSchedule,
+      @Qualifier(ServiceConstants.BEAT_WORKER_EXECUTOR_NAME) final ExecutorService beatWorkerExecutor,
+      @Qualifier(ServiceConstants.LOGGER_NAME) final Logger logger) {
+    this.caseRepository = caseRepository;
+    this.beatProgressRepository = beatProgressRepository;
+    this.portfolioProperties = portfolioProperties;
+    this.replicaAdapter = replicaAdapter;
+    this.beatSchedule = beatSchedule;
+    this.beatWorkerExecutor = beatWorkerExecutor;
+    this.logger = logger;
+  }
+
+  private static class StageOfBeat {
+    final String beatIdentifier;
+    final LocalDateTime forTime;
+    final BeatStage stage;
+
+    StageOfBeat(final BeatProgressEntity beatProgressEntity) {
+      this.beatIdentifier = beatProgressEntity.getBeatIdentifier();
+      this.forTime = beatProgressEntity.getForTime();
+      this.stage = BeatStage.valueOf(beatProgressEntity.getStage());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      StageOfBeat that = (StageOfBeat) o;
+      return Objects.equals(beatIdentifier, that.beatIdentifier) &&
+          Objects.equals(forTime, that.forTime) &&
+          stage == that.stage;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(beatIdentifier, forTime, stage);
+    }
+  }
+
+  private static class CaseInFlight {
+    final CaseReference activeCase;
+    final Future<?> processing;
+
+    CaseInFlight(final CaseReference activeCase, final Future<?> processing) {
+      this.activeCase = activeCase;
+      this.processing = processing;
+    }
+  }
+
+  /**
+   * Continues every stage of a beat before the given time which was started but never finished.
+   *
+   * @param caseActionForStage provides the action to perform per case for a given stage and time of beat.
+   */
+  public void resumeUnfinishedStages(
+      final LocalDateTime before,
+      final BiFunction<BeatStage, LocalDateTime, Function<CaseReference, Future<?>>> caseActionForStage) throws InterruptedException {
+    final Set<StageOfBeat> unfinishedStages = beatProgressRepository.findByFinishedFalseAndForTimeBefore(before).stream()
+        .map(StageOfBeat::new)
+        .collect(Collectors.toSet());
+
+    for (final StageOfBeat unfinishedStage : unfinishedStages) {
+      logger.info("Resuming stage {} of beat '{}' for time {}.",
+          unfinishedStage.stage, unfinishedStage.beatIdentifier, unfinishedStage.forTime);
+      forEachActiveCase(
+          unfinishedStage.beatIdentifier,
+          unfinishedStage.forTime,
+          unfinishedStage.stage,
+          caseActionForStage.apply(unfinishedStage.stage, unfinishedStage.forTime));
+    }
+  }
+
+  public void forEachActiveCase(
+      final String beatIdentifier,
+      final LocalDateTime forTime,
+      final BeatStage stage,
+      final Function<CaseReference, Future<?>> caseAction) throws InterruptedException {
+    final long unfinishedPartitionCount = getOrCreatePartitions(beatIdentifier, forTime, stage).stream()
+        .filter(partition -> !partition.getFinished())
+        .count();
+    if (unfinishedPartitionCount == 0)
+      return;
+
+    final String tenantIdentifier = TenantContextHolder.checkedGetIdentifier();
+    final String user = UserContextHolder.checkedGetUser();
+    final String accessToken = UserContextHolder.checkedGetAccessToken();
+
+    final int workerCount = (int) Math.min(portfolioProperties.getBeatPartitionCount(), unfinishedPartitionCount);
+    final List<Future<?>> workers = Stream.generate(() -> beatWorkerExecutor.submit(() -> {
+          TenantContextHolder.setIdentifier(tenantIdentifier);
+          UserContextHolder.setAccessToken(user, accessToken);
+          try {
+            processClaimablePartitions(beatIdentifier, forTime, stage, caseAction);
+          }
+          finally {
+            UserContextHolder.clear();
+            TenantContextHolder.clear();
+          }
+        }))
+        .limit(workerCount)
+        .collect(Collectors.toList());
+
+    try {
+      for (final Future<?> worker : workers) {
+        try {
+          worker.get();
+        }
+        catch (final ExecutionException e) {
+          logger.error("Processing of a partition of active cases failed.", e.getCause());
+        }
+      }
+    }
+    finally {
+      //The executor is shared, so only this stage's workers are stopped if the beat is interrupted.
+      workers.forEach(worker -> worker.cancel(true));
+    }
+  }
+
+  private List<BeatProgressEntity> getOrCreatePartitions(
+      final String beatIdentifier,
+      final LocalDateTime forTime,
+      final BeatStage stage) {
+    final List<BeatProgressEntity> existingPartitions
+        = beatProgressRepository.findByBeatIdentifierAndForTimeAndStage(beatIdentifier, forTime, stage.name());
+    if (!existingPartitions.isEmpty())
+      return existingPartitions;
+
+    final Long firstId = caseRepository.findMinimumIdByCurrentStateIn(ACTIVE_STATES);
+    final Long lastId = caseRepository.findMaximumIdByCurrentStateIn(ACTIVE_STATES);
+    if (firstId == null || lastId == null)
+      return Collections.emptyList();
+
+    final boolean shareWithReplicas = portfolioProperties.isShareBeatsWithReplicas();
+    final int instanceCount = shareWithReplicas ? replicaAdapter.countInstances() : 1;
+    final List<BeatProgressEntity> partitions = CaseIdRange.partition(firstId, lastId, portfolioProperties.getBeatPartitionCount() * instanceCount)
+        .stream()
+        .map(caseIdRange -> {
+          final BeatProgressEntity ret = new BeatProgressEntity();
+          ret.setBeatIdentifier(beatIdentifier);
+          ret.setForTime(forTime);
+          ret.setStage(stage.name());
+          ret.setFirstCaseId(caseIdRange.getFirstId());
+          ret.setLastCaseId(caseIdRange.getLastId());
+          ret.setLastProcessedCaseId(caseIdRange.getFirstId() - 1);
+          ret.setFinished(false);
+          return ret;
+        })
+        .collect(Collectors.toList());
+    final List<BeatProgressEntity> createdPartitions;
+    try {
+      createdPartitions = beatProgressRepository.save(partitions);
+    }
+    catch (final DataIntegrityViolationException e) {
+      //Another instance created the partitions for this stage first.
+      return beatProgressRepository.findByBeatIdentifierAndForTimeAndStage(beatIdentifier, forTime, stage.name());
+    }
+
+    if (shareWithReplicas)
+      replicaAdapter.forwardBeat(new BeatPublish(beatIdentifier, DateConverter.toIsoString(forTime)));
+
+    return createdPartitions;
+  }
+
+  private void processClaimablePartitions(
+      final String beatIdentifier,
+      final LocalDateTime forTime,
+      final BeatStage stage,
+      final Function<CaseReference, Future<?>> caseAction) {
+    while (!Thread.currentThread().isInterrupted()) {
+      final Optional<BeatProgressEntity> partition = claimNextPartition(beatIdentifier, forTime, stage);
+      if (!partition.isPresent())
+        return;
+      processPartition(partition.get(), caseAction);
+    }
+  }
+
+  private Optional<BeatProgressEntity> claimNextPartition(
+      final String beatIdentifier,
+      final LocalDateTime forTime,
+      final BeatStage stage) {
+    final LocalDateTime now = LocalDateTime.now(Clock.systemUTC());
+    final List<BeatProgressEntity> claimablePartitions
+        = beatProgressRepository.findByBeatIdentifierAndForTimeAndStage(beatIdentifier, forTime, stage.name()).stream()
+        .filter(partition -> !partition.getFinished())
+        .filter(partition -> partition.getLeaseOwner() == null || partition.getLeaseExpiresOn().isBefore(now))
+        .collect(Collectors.toList());
+
+    for (final BeatProgressEntity partition : claimablePartitions) {
+      if (beatProgressRepository.claimLease(partition.getId(), instanceIdentifier, now, leaseExpiry(now)) == 1) {
+        partition.setLeaseOwner(instanceIdentifier);
+        return Optional.of(partition);
+      }
+    }
+    return Optional.empty();
+  }
+
+  private LocalDateTime leaseExpiry(final LocalDateTime now) {
+    return now.plusSeconds(portfolioProperties.getBeatLeaseDurationSeconds());
+  }
+
+  private List<CaseReference> findNextBatch(final BeatProgressEntity progress, final long afterCaseId) {
+    final BeatStage stage = BeatStage.valueOf(progress.getStage());
+    final Optional<Integer> slot = beatSchedule.getSlot(stage, progress.getForTime().getHour());
+    if (!slot.isPresent()) //The schedule was changed since this stage was started.
+      return Collections.emptyList();
+
+    final long slotCount = beatSchedule.getSlotCount();
+    return caseRepository.findReferencesByCurrentStateInAfterId(
+        ACTIVE_STATES,
+        slotCount,
+        slot.get().longValue(),
+        afterCaseId,
+        progress.getLastCaseId(),
+        new PageRequest(0, portfolioProperties.getBeatBatchSize()));
+  }
+
+  private void processPartition(
+      final BeatProgressEntity partition,
+      final Function<CaseReference, Future<?>> caseAction) {
+    logger.info("Processing stage {} of beat '{}' for active cases {} through {}, starting after {}.",
+        partition.getStage(), partition.getBeatIdentifier(),
+        partition.getFirstCaseId(), partition.getLastCaseId(), partition.getLastProcessedCaseId());
+    if (!retryFailedCases(partition, caseAction))
+      return;
+
+    final Deque<CaseInFlight> casesInFlight = new ArrayDeque<>();
+    long lastDispatchedCaseId = partition.getLastProcessedCaseId();
+    while (true) {
+      final List<CaseReference> batch = findNextBatch(partition, lastDispatchedCaseId);
+      if (batch.isEmpty())
+        break;
+
+      for (final CaseReference activeCase : batch) {
+        if (Thread.currentThread().isInterrupted()) {
+          releasePartition(partition);
+          return;
+        }
+
+        if (casesInFlight.size() >= portfolioProperties.getBeatCasesInFlightPerPartition()
+            && !checkpointOldest(partition, casesInFlight))
+          return;
+
+        casesInFlight.add(new CaseInFlight(activeCase, dispatch(caseAction, activeCase)));
+        lastDispatchedCaseId = activeCase.getId();
+
+        while (!casesInFlight.isEmpty() && casesInFlight.peek().processing.isDone()) {
+          if (!checkpointOldest(partition, casesInFlight))
+            return;
+        }
+      }
+    }
+
+    while (!casesInFlight.isEmpty()) {
+      if (!checkpointOldest(partition, casesInFlight))
+        return;
+    }
+
+    if (partition.getFailedCaseIds() != null) {
+      //The lease is left to expire rather than released, so that the failed cases are retried when the stage is
+      //resumed with a later beat, rather than right away by whichever worker next looks for a partition.
+      logger.warn("Stage {} of beat '{}' for active cases {} through {} is left unfinished, since cases {} failed.",
+          partition.getStage(), partition.getBeatIdentifier(),
+          partition.getFirstCaseId(), partition.getLastCaseId(), partition.getFailedCaseIds());
+      return;
+    }
+
+    beatProgressRepository.finish(partition.getId(), instanceIdentifier);
+  }
+
+  /**
+   * Processes the cases which failed when the partition was last walked once more, one at a time.  They are then
+   * dropped from the partition's failed cases whether they succeed or not, so that a case which can't be processed
+   * doesn't hold its partition up beat after beat.
+   *
+   * @return false if processing of the partition must stop, because the thread was interrupted or the lease was lost.
+   */
+  private boolean retryFailedCases(
+      final BeatProgressEntity partition,
+      final Function<CaseReference, Future<?>> caseAction) {
+    final SortedSet<Long> failedCaseIds = parseCaseIds(partition.getFailedCaseIds());
+    if (failedCaseIds.isEmpty())
+      return true;
+
+    for (final Long failedCaseId : failedCaseIds) {
+      final CaseEntity failedCase = caseRepository.findOne(failedCaseId);
+      if (failedCase == null || !ACTIVE_STATES.contains(failedCase.getCurrentState()))
+        continue;
+
+      try {
+        dispatch(caseAction, new CaseReference(failedCase.getId(), failedCase.getProductIdentifier(), failedCase.getIdentifier()))
+            .get();
+      }
+      catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        releasePartition(partition);
+        return false;
+      }
+      catch (final ExecutionException e) {
+        logger.error("Processing of case '{}.{}' during beat failed again, and isn't retried for this beat.",
+            failedCase.getProductIdentifier(), failedCase.getIdentifier(), e.getCause());
+      }
+    }
+
+    final int checkpointed = beatProgressRepository.checkpoint(
+        partition.getId(), instanceIdentifier, partition.getLastProcessedCaseId(), null,
+        leaseExpiry(LocalDateTime.now(Clock.systemUTC())));
+    if (checkpointed == 0) {
+      logger.warn("Lease on stage {} of beat '{}' for active cases {} through {} was lost while retrying cases {}.",
+          partition.getStage(), partition.getBeatIdentifier(),
+          partition.getFirstCaseId(), partition.getLastCaseId(), partition.getFailedCaseIds());
+      return false;
+    }
+    partition.setFailedCaseIds(null);
+    return true;
+  }
+
+  private static SortedSet<Long> parseCaseIds(final String caseIds) {
+    final SortedSet<Long> ret = new TreeSet<>();
+    if (caseIds != null)
+      Stream.of(caseIds.split(",")).map(Long::valueOf).forEach(ret::add);
+    return ret;
+  }
+
+  private static String formatCaseIds(final SortedSet<Long> caseIds) {
+    return caseIds.isEmpty() ? null : caseIds.stream().map(String::valueOf).collect(Collectors.joining(","));
+  }
+
+  private static Future<?> dispatch(final Function<CaseReference, Future<?>> caseAction, final CaseReference activeCase) {
+    try {
+      return caseAction.apply(activeCase);
+    }
+    catch (final RuntimeException e) {
+      final CompletableFuture<?> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      return failed;
+    }
+  }
+
+  /**
+   * Waits for the oldest case in flight to be processed, and checkpoints it, recording it as failed if it did.
+   *
+   * @return false if processing of the partition must stop, because the thread was interrupted or the lease was lost.
+   */
+  private boolean checkpointOldest(final BeatProgressEntity partition, final Deque<CaseInFlight> casesInFlight) {
+    final CaseInFlight oldest = casesInFlight.peek();
+    final SortedSet<Long> failedCaseIds = parseCaseIds(partition.getFailedCaseIds());
+    try {
+      oldest.processing.get();
+    }
+    catch (final InterruptedException e) {
+      //The cases still in flight will be dispatched again when the partition is resumed.
+      Thread.currentThread().interrupt();
+      releasePartition(partition);
+      return false;
+    }
+    catch (final ExecutionException e) {
+      logger.error("Processing of case '{}.{}' during beat failed.  It is retried when the stage is resumed.",
+          oldest.activeCase.getProductIdentifier(), oldest.activeCase.getIdentifier(), e.getCause());
+      failedCaseIds.add(oldest.activeCase.getId());
+    }
+    casesInFlight.remove();
+
+    final int checkpointed = beatProgressRepository.checkpoint(
+        partition.getId(), instanceIdentifier, oldest.activeCase.getId(), formatCaseIds(failedCaseIds),
+        leaseExpiry(LocalDateTime.now(Clock.systemUTC())));
+    if (checkpointed == 0) {
+      logger.warn("Lease on stage {} of beat '{}' for active cases {} through {} was lost after case {}.",
+          partition.getStage(), partition.getBeatIdentifier(),
+          partition.getFirstCaseId(), partition.getLastCaseId(), oldest.activeCase.getId());
+      return false;
+    }
+    partition.setLastProcessedCaseId(oldest.activeCase.getId());
+    partition.setFailedCaseIds(formatCaseIds(failedCaseIds));
+    return true;
+  }
+
+  /**
+   * Gives up the lease on a partition which was interrupted, so that the rest of it can be resumed immediately rather
+   * than after the lease expires.
+   */
+  private void releasePartition(final BeatProgressEntity partition) {
+    logger.info("Stopped processing stage {} of beat '{}' for active cases {} through {} after case {}.",
+        partition.getStage(), partition.getBeatIdentifier(),
+        partition.getFirstCaseId(), partition.getLastCaseId(), partition.getLastProcessedCaseId());
+    beatProgressRepository.releaseLease(partition.getId(), instanceIdentifier);
+  }
+}
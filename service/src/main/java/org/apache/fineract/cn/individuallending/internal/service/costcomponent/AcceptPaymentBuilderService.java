@@ -21,6 +21,7 @@ package org.apache.fineract.cn.individuallending.internal.service.costcomponent;
 import org.apache.fineract.cn.individuallending.api.v1.domain.product.AccountDesignators;
 import org.apache.fineract.cn.individuallending.internal.repository.CaseParametersEntity;
 import org.apache.fineract.cn.individuallending.internal.service.DataContextOfAction;
+import org.apache.fineract.cn.individuallending.internal.service.RepaymentScheduleService;
 import org.apache.fineract.cn.individuallending.internal.service.schedule.ScheduledAction;
 import org.apache.fineract.cn.individuallending.internal.service.schedule.ScheduledActionHelpers;
 import org.apache.fineract.cn.individuallending.internal.service.schedule.ScheduledCharge;
@@ -33,6 +34,7 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * @author Myrle Krantz
@@ -40,11 +42,14 @@ import java.util.List;
 @Service
 public class AcceptPaymentBuilderService implements PaymentBuilderService {
   private final ScheduledChargesService scheduledChargesService;
+  private final RepaymentScheduleService repaymentScheduleService;
 
   @Autowired
   public AcceptPaymentBuilderService(
-      final ScheduledChargesService scheduledChargesService) {
+      final ScheduledChargesService scheduledChargesService,
+      final RepaymentScheduleService repaymentScheduleService) {
     this.scheduledChargesService = scheduledChargesService;
+    this.repaymentScheduleService = repaymentScheduleService;
   }
 
   @Override
@@ -58,13 +63,7 @@ public class AcceptPaymentBuilderService implements PaymentBuilderService {
     final CaseParametersEntity caseParameters = dataContextOfAction.getCaseParametersEntity();
     final String productIdentifier = dataContextOfAction.getProductEntity().getIdentifier();
     final int minorCurrencyUnitDigits = dataContextOfAction.getProductEntity().getMinorCurrencyUnitDigits();
-    final ScheduledAction scheduledAction
-        = ScheduledActionHelpers.getNextScheduledPayment(
-        startOfTerm.toLocalDate(),
-        forDate,
-        dataContextOfAction.getCustomerCaseEntity().getEndOfTerm().toLocalDate(),
-        dataContextOfAction.getCaseParameters()
-    );
+    final ScheduledAction scheduledAction = getNextScheduledPayment(dataContextOfAction, startOfTerm.toLocalDate(), forDate);
 
     final List<ScheduledCharge> scheduledChargesForThisAction = scheduledChargesService.getScheduledCharges(
         productIdentifier,
@@ -100,4 +99,26 @@ public class AcceptPaymentBuilderService implements PaymentBuilderService {
         minorCurrencyUnitDigits,
         true);
   }
+
+  /**
+   * The persisted schedule runs exactly to the end of term, so past it, the payment is scheduled as before.
+   */
+  private ScheduledAction getNextScheduledPayment(
+      final DataContextOfAction dataContextOfAction,
+      final LocalDate startOfTerm,
+      final LocalDate forDate) {
+    final LocalDate endOfTerm = dataContextOfAction.getCustomerCaseEntity().getEndOfTerm().toLocalDate();
+    if (!forDate.isAfter(endOfTerm)) {
+      final Optional<ScheduledAction> scheduledAction = repaymentScheduleService.find(dataContextOfAction, startOfTerm)
+          .flatMap(repaymentPeriods -> ScheduledActionHelpers.getNextScheduledPayment(repaymentPeriods, forDate));
+      if (scheduledAction.isPresent())
+        return scheduledAction.get();
+    }
+
+    return ScheduledActionHelpers.getNextScheduledPayment(
+        startOfTerm,
+        forDate,
+        endOfTerm,
+        dataContextOfAction.getCaseParameters());
+  }
 }
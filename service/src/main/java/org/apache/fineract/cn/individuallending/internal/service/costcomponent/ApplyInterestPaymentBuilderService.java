@@ -51,11 +51,24 @@ public class ApplyInterestPaymentBuilderService implements PaymentBuilderService
       final BigDecimal ignored,
       final LocalDate forDate,
       final RunningBalances runningBalances)
+  {
+    return getPaymentBuilder(dataContextOfAction, forDate, 1, runningBalances);
+  }
+
+  /**
+   * Interest for several days is compounded daily over the whole accrual period, and booked as one payment.  This is
+   * used to catch up on days for which no interest was applied, for example because beats were missed.
+   */
+  public PaymentBuilder getPaymentBuilder(
+      final DataContextOfAction dataContextOfAction,
+      final LocalDate forDate,
+      final int accrualDays,
+      final RunningBalances runningBalances)
   {
     final CaseParametersEntity caseParameters = dataContextOfAction.getCaseParametersEntity();
     final String productIdentifier = dataContextOfAction.getProductEntity().getIdentifier();
     final int minorCurrencyUnitDigits = dataContextOfAction.getProductEntity().getMinorCurrencyUnitDigits();
-    final ScheduledAction interestAction = new ScheduledAction(Action.APPLY_INTEREST, forDate, new Period(1, forDate));
+    final ScheduledAction interestAction = new ScheduledAction(Action.APPLY_INTEREST, forDate, new Period(accrualDays, forDate));
 
     final List<ScheduledCharge> scheduledCharges = scheduledChargesService.getScheduledCharges(
         productIdentifier,
@@ -24,11 +24,13 @@ import org.apache.fineract.cn.individuallending.api.v1.domain.workflow.Action;
 import org.apache.fineract.cn.individuallending.internal.service.AnnuityPayment;
 import org.apache.fineract.cn.individuallending.internal.service.RateCollectors;
 import org.apache.fineract.cn.individuallending.internal.service.schedule.Period;
+import org.apache.fineract.cn.individuallending.internal.service.schedule.ScheduledAction;
 import org.apache.fineract.cn.individuallending.internal.service.schedule.ScheduledCharge;
 import org.apache.fineract.cn.portfolio.api.v1.domain.ChargeDefinition;
 import java.math.BigDecimal;
 import java.time.Clock;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -55,43 +57,162 @@ public class CostComponentService {
       final boolean accrualAccounting) {
     final PaymentBuilder paymentBuilder = new PaymentBuilder(preChargeBalances, accrualAccounting);
 
-    for (final ScheduledCharge scheduledCharge : scheduledCharges) {
-      if (accrualAccounting || !isAccrualChargeForAction(scheduledCharge.getChargeDefinition(), scheduledCharge.getScheduledAction().getAction())) {
-        final BigDecimal chargeAmount;
-        if (!isIncurralActionForAccruedCharge(scheduledCharge.getChargeDefinition(), scheduledCharge.getScheduledAction().getAction()))
-        {
-          final BigDecimal amountProportionalTo = getAmountProportionalTo(
-              scheduledCharge,
+    final List<ScheduledCharge> orderedScheduledCharges = new ArrayList<>(scheduledCharges);
+    int i = 0;
+    while (i < orderedScheduledCharges.size()) {
+      final ScheduledAction scheduledAction = orderedScheduledCharges.get(i).getScheduledAction();
+      int end = i + 1;
+      while (end < orderedScheduledCharges.size() &&
+          orderedScheduledCharges.get(end).getScheduledAction().equals(scheduledAction))
+        end++;
+      final List<ScheduledCharge> chargesOfAction = orderedScheduledCharges.subList(i, end);
+
+      if (scheduledAction.getOccurrenceCount() == 1 ||
+          !applyRepeatedChargeAtOnce(
+              chargesOfAction,
               maximumBalance,
               preChargeBalances,
               contractualRepayment,
               requestedDisbursement,
               requestedRepayment,
-              paymentBuilder);
-          if (scheduledCharge.getChargeRange().map(x ->
-              !x.amountIsWithinRange(amountProportionalTo)).orElse(false))
-            continue;
-
-          chargeAmount = howToApplyScheduledChargeToAmount(scheduledCharge, percentPoints)
-              .apply(amountProportionalTo)
-              .setScale(minorCurrencyUnitDigits, BigDecimal.ROUND_HALF_EVEN);
-        }
-        else
-        {
-          chargeAmount = preChargeBalances.getAccruedBalanceForCharge(scheduledCharge.getChargeDefinition())
-              .add(paymentBuilder.getBalanceAdjustment(scheduledCharge.getChargeDefinition().getAccrualAccountDesignator()));
+              percentPoints,
+              minorCurrencyUnitDigits,
+              paymentBuilder)) {
+        //Occurrences are applied one after the other, with the charges of an action interleaved, as if they had
+        //been scheduled as separate actions.
+        for (int occurrence = 0; occurrence < scheduledAction.getOccurrenceCount(); occurrence++) {
+          for (final ScheduledCharge scheduledCharge : chargesOfAction) {
+            getChargeAmount(
+                scheduledCharge,
+                maximumBalance,
+                preChargeBalances,
+                contractualRepayment,
+                requestedDisbursement,
+                requestedRepayment,
+                percentPoints,
+                minorCurrencyUnitDigits,
+                paymentBuilder)
+                .ifPresent(chargeAmount -> paymentBuilder.adjustBalances(
+                    scheduledCharge.getScheduledAction().getAction(),
+                    scheduledCharge.getChargeDefinition(),
+                    chargeAmount));
+          }
         }
-
-        paymentBuilder.adjustBalances(
-            scheduledCharge.getScheduledAction().getAction(),
-            scheduledCharge.getChargeDefinition(),
-            chargeAmount);
       }
+      i = end;
     }
 
     return paymentBuilder;
   }
 
+  /**
+   * Applies all occurrences of a repeated charge as one adjustment, if that is guaranteed to give the same result as
+   * applying them one at a time.  That is the case if the charge amount doesn't depend on the adjustments already made
+   * in the payment, and if even the sum of all occurrences isn't limited by the balances of the accounts involved.
+   *
+   * @return false if nothing was applied, and the occurrences must be applied one at a time.
+   */
+  private static boolean applyRepeatedChargeAtOnce(
+      final List<ScheduledCharge> chargesOfAction,
+      final BigDecimal maximumBalance,
+      final RunningBalances preChargeBalances,
+      final BigDecimal contractualRepayment,
+      final BigDecimal requestedDisbursement,
+      final BigDecimal requestedRepayment,
+      final BigDecimal percentPoints,
+      final int minorCurrencyUnitDigits,
+      final PaymentBuilder paymentBuilder) {
+    if (chargesOfAction.size() != 1)
+      return false;
+
+    final ScheduledCharge scheduledCharge = chargesOfAction.get(0);
+    final Action action = scheduledCharge.getScheduledAction().getAction();
+    final ChargeDefinition chargeDefinition = scheduledCharge.getChargeDefinition();
+    if (isIncurralActionForAccruedCharge(chargeDefinition, action) ||
+        !ChargeProportionalDesignator.fromString(chargeDefinition.getProportionalTo())
+            .map(CostComponentService::isIndependentOfPaymentInProgress)
+            .orElse(true))
+      return false;
+
+    final Optional<BigDecimal> chargeAmount = getChargeAmount(
+        scheduledCharge,
+        maximumBalance,
+        preChargeBalances,
+        contractualRepayment,
+        requestedDisbursement,
+        requestedRepayment,
+        percentPoints,
+        minorCurrencyUnitDigits,
+        paymentBuilder);
+    if (!chargeAmount.isPresent())
+      return true;
+    if (chargeAmount.get().signum() < 0)
+      return false;
+
+    final BigDecimal sumOfOccurrences = chargeAmount.get()
+        .multiply(BigDecimal.valueOf(scheduledCharge.getScheduledAction().getOccurrenceCount()));
+    if (!paymentBuilder.isChargeableInFull(action, chargeDefinition, sumOfOccurrences))
+      return false;
+
+    paymentBuilder.adjustBalances(action, chargeDefinition, sumOfOccurrences);
+    return true;
+  }
+
+  private static boolean isIndependentOfPaymentInProgress(final ChargeProportionalDesignator chargeProportionalTo) {
+    switch (chargeProportionalTo) {
+      case NOT_PROPORTIONAL:
+      case MAXIMUM_BALANCE_DESIGNATOR:
+      case PRINCIPAL_DESIGNATOR:
+      case CONTRACTUAL_REPAYMENT_DESIGNATOR:
+      case REQUESTED_DISBURSEMENT_DESIGNATOR:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * @return the amount to charge for one occurrence of the scheduled charge, or empty if it isn't charged at all.
+   */
+  private static Optional<BigDecimal> getChargeAmount(
+      final ScheduledCharge scheduledCharge,
+      final BigDecimal maximumBalance,
+      final RunningBalances preChargeBalances,
+      final BigDecimal contractualRepayment,
+      final BigDecimal requestedDisbursement,
+      final BigDecimal requestedRepayment,
+      final BigDecimal percentPoints,
+      final int minorCurrencyUnitDigits,
+      final PaymentBuilder paymentBuilder) {
+    if (!paymentBuilder.isAccrualAccounting() &&
+        isAccrualChargeForAction(scheduledCharge.getChargeDefinition(), scheduledCharge.getScheduledAction().getAction()))
+      return Optional.empty();
+
+    if (!isIncurralActionForAccruedCharge(scheduledCharge.getChargeDefinition(), scheduledCharge.getScheduledAction().getAction()))
+    {
+      final BigDecimal amountProportionalTo = getAmountProportionalTo(
+          scheduledCharge,
+          maximumBalance,
+          preChargeBalances,
+          contractualRepayment,
+          requestedDisbursement,
+          requestedRepayment,
+          paymentBuilder);
+      if (scheduledCharge.getChargeRange().map(x ->
+          !x.amountIsWithinRange(amountProportionalTo)).orElse(false))
+        return Optional.empty();
+
+      return Optional.of(howToApplyScheduledChargeToAmount(scheduledCharge, percentPoints)
+          .apply(amountProportionalTo)
+          .setScale(minorCurrencyUnitDigits, BigDecimal.ROUND_HALF_EVEN));
+    }
+    else
+    {
+      return Optional.of(preChargeBalances.getAccruedBalanceForCharge(scheduledCharge.getChargeDefinition())
+          .add(paymentBuilder.getBalanceAdjustment(scheduledCharge.getChargeDefinition().getAccrualAccountDesignator())));
+    }
+  }
+
   private static BigDecimal getAmountProportionalTo(
       final ScheduledCharge scheduledCharge,
       final BigDecimal maximumBalance,
@@ -110,12 +110,20 @@ public class PaymentBuilder {
       final SimulatedRunningBalances balances,
       final @Nullable LocalDate forDate) {
     final Payment payment = buildPayment(forDate);
-    balanceAdjustments.forEach(balances::adjustBalance);
+    accumulateBalances(balances);
     final Map<String, BigDecimal> balancesCopy = balances.snapshot();
 
     return new PlannedPayment(payment, balancesCopy);
   }
 
+  /**
+   * Like accumulatePlannedPayment, but for a payment which will not be shown, so neither the payment nor a copy of the
+   * balances is built.
+   */
+  public void accumulateBalances(final SimulatedRunningBalances balances) {
+    balanceAdjustments.forEach(balances::adjustBalance);
+  }
+
   public Map<String, BigDecimal> getBalanceAdjustments() {
     return balanceAdjustments;
   }
@@ -156,6 +164,41 @@ public class PaymentBuilder {
     }
   }
 
+  /**
+   * @return true if adjustBalances would apply all of the charge amount, rather than only as much of it as the balances
+   * of the accounts involved allow.
+   */
+  boolean isChargeableInFull(
+      final Action action,
+      final ChargeDefinition chargeDefinition,
+      final BigDecimal chargeAmount) {
+    final String fromAccountDesignator;
+    final String toAccountDesignator;
+    if (this.accrualAccounting && chargeIsAccrued(chargeDefinition)) {
+      if (Action.valueOf(chargeDefinition.getAccrueAction()) == action) {
+        fromAccountDesignator = chargeDefinition.getFromAccountDesignator();
+        toAccountDesignator = chargeDefinition.getAccrualAccountDesignator();
+      } else if (Action.valueOf(chargeDefinition.getChargeAction()) == action) {
+        fromAccountDesignator = chargeDefinition.getAccrualAccountDesignator();
+        toAccountDesignator = chargeDefinition.getToAccountDesignator();
+      }
+      else
+        return true;
+    }
+    else if (Action.valueOf(chargeDefinition.getChargeAction()) == action) {
+      fromAccountDesignator = chargeDefinition.getFromAccountDesignator();
+      toAccountDesignator = chargeDefinition.getToAccountDesignator();
+    }
+    else
+      return true;
+
+    return getMaxCharge(fromAccountDesignator, toAccountDesignator, chargeAmount).compareTo(chargeAmount) == 0;
+  }
+
+  boolean isAccrualAccounting() {
+    return accrualAccounting;
+  }
+
   private BigDecimal getMaxCharge(
       final String fromAccountDesignator,
       final String toAccountDesignator,
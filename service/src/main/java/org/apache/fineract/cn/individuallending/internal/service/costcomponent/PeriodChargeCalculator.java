@@ -84,8 +84,7 @@ class PeriodChargeCalculator {
     final BigDecimal actionPeriodDuration
         = BigDecimal.valueOf(
         scheduledAction.getActionPeriod()
-            .getDuration()
-            .getSeconds());
+            .getDurationInSeconds());
     final Optional<BigDecimal> accrualPeriodDuration = Optional.ofNullable(chargeDefinition.getAccrueAction())
         .flatMap(action -> ScheduledActionHelpers.getAccrualPeriodDurationForAction(Action.valueOf(action)))
         .map(Duration::getSeconds)
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service.costcomponent;
+
+import org.apache.fineract.cn.individuallending.IndividualLendingPatternFactory;
+import org.apache.fineract.cn.individuallending.internal.service.AccrualAggregateService;
+import org.apache.fineract.cn.individuallending.internal.service.DataContextOfAction;
+import org.apache.fineract.cn.portfolio.api.v1.domain.RequiredAccountAssignment;
+import org.apache.fineract.cn.portfolio.service.internal.util.AccountingAdapter;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Optional;
+import org.apache.fineract.cn.accounting.api.v1.domain.AccountType;
+
+/**
+ * Running balances which take the balances of the case's own accounts from the portfolio's projection of them,
+ * rather than from accounting.  All other balances are read from accounting as before.
+ */
+public class ProjectedRunningBalances extends RealRunningBalances {
+  private final Map<String, BigDecimal> projectedBalances;
+
+  public ProjectedRunningBalances(
+      final AccountingAdapter accountingAdapter,
+      final AccrualAggregateService accrualAggregateService,
+      final DataContextOfAction dataContextOfAction,
+      final Map<String, BigDecimal> projectedBalances) {
+    super(accountingAdapter, accrualAggregateService, dataContextOfAction);
+    this.projectedBalances = projectedBalances;
+  }
+
+  @Override
+  protected boolean needsAccount(final String accountDesignator) {
+    return !projectedBalances.containsKey(accountDesignator);
+  }
+
+  @Override
+  public BigDecimal getAccountSign(final String accountDesignator) {
+    if (!projectedBalances.containsKey(accountDesignator))
+      return super.getAccountSign(accountDesignator);
+
+    return getSignOfRequiredAccount(accountDesignator)
+        .orElseGet(() -> super.getAccountSign(accountDesignator));
+  }
+
+  /**
+   * @return the sign of the account the individual lending pattern requires for the designator, judged by the type of
+   * account required, or empty if the pattern doesn't require one.
+   */
+  public static Optional<BigDecimal> getSignOfRequiredAccount(final String accountDesignator) {
+    return IndividualLendingPatternFactory.individualLendingPattern().getAccountAssignmentsRequired().stream()
+        .filter(x -> x.getAccountDesignator().equals(accountDesignator))
+        .findFirst()
+        .map(RequiredAccountAssignment::getAccountType)
+        .map(AccountType::valueOf)
+        .map(x -> {
+          switch (x)
+          {
+            case LIABILITY:
+            case REVENUE:
+            case EQUITY:
+              return POSITIVE;
+
+            default:
+            case ASSET:
+            case EXPENSE:
+              return NEGATIVE;
+          }
+        });
+  }
+
+  @Override
+  public Optional<BigDecimal> getAccountBalance(final String accountDesignator) {
+    final BigDecimal projectedBalance = projectedBalances.get(accountDesignator);
+    if (projectedBalance != null)
+      return Optional.of(projectedBalance);
+    else
+      return super.getAccountBalance(accountDesignator);
+  }
+}
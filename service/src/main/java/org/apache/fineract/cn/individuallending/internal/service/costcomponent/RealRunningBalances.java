@@ -20,15 +20,23 @@ package org.apache.fineract.cn.individuallending.internal.service.costcomponent;
 
 import org.apache.fineract.cn.individuallending.api.v1.domain.product.AccountDesignators;
 import org.apache.fineract.cn.individuallending.api.v1.domain.workflow.Action;
+import org.apache.fineract.cn.individuallending.internal.service.AccrualAggregateService;
 import org.apache.fineract.cn.individuallending.internal.service.DataContextOfAction;
 import org.apache.fineract.cn.individuallending.internal.service.DesignatorToAccountIdentifierMapper;
+import org.apache.fineract.cn.portfolio.api.v1.domain.Case;
 import org.apache.fineract.cn.portfolio.api.v1.domain.ChargeDefinition;
 import org.apache.fineract.cn.portfolio.service.internal.util.AccountingAdapter;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import net.jodah.expiringmap.ExpirationPolicy;
 import net.jodah.expiringmap.ExpiringMap;
 import org.apache.fineract.cn.accounting.api.v1.domain.Account;
@@ -38,7 +46,12 @@ import org.apache.fineract.cn.accounting.api.v1.domain.AccountType;
  * @author Myrle Krantz
  */
 public class RealRunningBalances implements RunningBalances {
+  public static final Set<String> DISBURSED_STATES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+      Case.State.ACTIVE.name(),
+      Case.State.CLOSED.name())));
+
   private final AccountingAdapter accountingAdapter;
+  private final AccrualAggregateService accrualAggregateService;
   private final DesignatorToAccountIdentifierMapper designatorToAccountIdentifierMapper;
   private final DataContextOfAction dataContextOfAction;
   private final ExpiringMap<String, Optional<Account>> accountCache;
@@ -47,8 +60,10 @@ public class RealRunningBalances implements RunningBalances {
 
   public RealRunningBalances(
       final AccountingAdapter accountingAdapter,
+      final AccrualAggregateService accrualAggregateService,
       final DataContextOfAction dataContextOfAction) {
     this.accountingAdapter = accountingAdapter;
+    this.accrualAggregateService = accrualAggregateService;
     this.designatorToAccountIdentifierMapper =
         new DesignatorToAccountIdentifierMapper(dataContextOfAction);
     this.dataContextOfAction = dataContextOfAction;
@@ -64,12 +79,34 @@ public class RealRunningBalances implements RunningBalances {
           else {
             accountIdentifier = Optional.of(designatorToAccountIdentifierMapper.mapOrThrow(accountDesignator));
           }
-          return accountIdentifier.map(accountingAdapter::getAccount);
+          return accountIdentifier.map(accountingAdapter::getCachedAccount);
         })
         .build();
     this.startOfTerm = Optional.empty();
   }
 
+  /**
+   * Reads all accounts mapped for the case in one go, concurrently, instead of one at a time as they are needed.
+   * Worthwhile before building payments which touch many accounts.
+   */
+  public void prefetchAccounts() {
+    final Map<String, String> accountIdentifiersByDesignator
+        = designatorToAccountIdentifierMapper.getAccountIdentifiersByDesignator().entrySet().stream()
+        .filter(x -> needsAccount(x.getKey()))
+        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    final Map<String, Account> accounts = accountingAdapter.getAccounts(accountIdentifiersByDesignator.values());
+    accountIdentifiersByDesignator.forEach((accountDesignator, accountIdentifier) ->
+        Optional.ofNullable(accounts.get(accountIdentifier))
+            .ifPresent(account -> accountCache.put(accountDesignator, Optional.of(account))));
+  }
+
+  /**
+   * @return whether the account for the designator must be read from accounting to answer for its sign and balance.
+   */
+  protected boolean needsAccount(final String accountDesignator) {
+    return true;
+  }
+
   @Override
   public BigDecimal getAccountSign(final String accountDesignator) {
     return accountCache.get(accountDesignator)
@@ -108,6 +145,11 @@ public class RealRunningBalances implements RunningBalances {
 
   @Override
   public BigDecimal getAccruedBalanceForCharge(final ChargeDefinition chargeDefinition) {
+    final Optional<BigDecimal> aggregatedAccruedBalance
+        = accrualAggregateService.getAccruedBalanceForCharge(dataContextOfAction, chargeDefinition);
+    if (aggregatedAccruedBalance.isPresent())
+      return aggregatedAccruedBalance.get();
+
     final String accrualAccountIdentifier = designatorToAccountIdentifierMapper.mapOrThrow(chargeDefinition.getAccrualAccountDesignator());
 
     final LocalDate startOfTermLocalDate = getStartOfTermOrThrow(dataContextOfAction).toLocalDate();
@@ -123,6 +165,11 @@ public class RealRunningBalances implements RunningBalances {
     return amountAccrued.subtract(amountApplied);
   }
 
+  /**
+   * The start of term is persisted on disbursement.  Cases disbursed before that are given one by
+   * StartOfTermBackfillService.  Until the backfill has reached a case, its start of term is looked up in accounting
+   * here, the same way the backfill would, and set on the case, so that it is persisted with it.
+   */
   @Override
   public Optional<LocalDateTime> getStartOfTerm() {
     if (!startOfTerm.isPresent()) {
@@ -131,15 +178,19 @@ public class RealRunningBalances implements RunningBalances {
         this.startOfTerm = Optional.of(persistedStartOfTerm);
         return this.startOfTerm;
       }
+      //A case which hasn't been disbursed yet has no start of term, so there is nothing to look for in accounting.
+      if (!DISBURSED_STATES.contains(dataContextOfAction.getCustomerCaseEntity().getCurrentState()))
+        return this.startOfTerm;
+
       final String customerLoanPrincipalAccountIdentifier = designatorToAccountIdentifierMapper.mapOrThrow(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL);
 
-      this.startOfTerm = accountingAdapter.getDateOfOldestEntryContainingMessage(
+      //None of the case's entries can be older than the case, so its creation serves if no disbursement is found.
+      this.startOfTerm = Optional.of(accountingAdapter.getDateOfOldestEntryContainingMessage(
           customerLoanPrincipalAccountIdentifier,
-          dataContextOfAction.getMessageForCharge(Action.DISBURSE));
+          dataContextOfAction.getMessageForCharge(Action.DISBURSE))
+          .orElseGet(dataContextOfAction.getCustomerCaseEntity()::getCreatedOn));
 
-      //Moving start of term persistence from accounting to the portfolio db.  Opportunistic migration only right now.
-      startOfTerm.ifPresent(startOfTermPersistedInAccounting ->
-          dataContextOfAction.getCustomerCaseEntity().setStartOfTerm(startOfTermPersistedInAccounting));
+      dataContextOfAction.getCustomerCaseEntity().setStartOfTerm(this.startOfTerm.get());
     }
 
     return this.startOfTerm;
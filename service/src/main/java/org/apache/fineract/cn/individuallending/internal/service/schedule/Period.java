@@ -22,59 +22,92 @@ import javax.annotation.Nonnull;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
-import java.util.Objects;
 
 /**
+ * The dates are kept as epoch days, so that comparing, hashing, and measuring periods, which the schedule engine does a
+ * lot of, is integer arithmetic.  LocalDates are only created when they are asked for.  A missing date is NO_DATE,
+ * which orders before any actual date.
+ *
  * @author Myrle Krantz
  */
 public class Period implements Comparable<Period> {
-  final private LocalDate beginDate;
-  final private LocalDate endDate;
+  static final int NO_DATE = Integer.MIN_VALUE;
+  private static final long SECONDS_PER_DAY = ChronoUnit.DAYS.getDuration().getSeconds();
+
+  final private int beginEpochDay;
+  final private int endEpochDay;
   final private boolean lastPeriod;
 
   public Period(final LocalDate beginDate, final LocalDate endDateExclusive) {
-    this.beginDate = beginDate;
-    this.endDate = endDateExclusive;
-    this.lastPeriod = false;
+    this(beginDate, endDateExclusive, false);
   }
 
   public Period(final LocalDate beginDate, final LocalDate endDateExclusive, final boolean lastPeriod) {
-    this.beginDate = beginDate;
-    this.endDate = endDateExclusive;
+    this(toEpochDay(beginDate), toEpochDay(endDateExclusive), lastPeriod);
+  }
+
+  Period(final int beginEpochDay, final int endEpochDayExclusive, final boolean lastPeriod) {
+    this.beginEpochDay = beginEpochDay;
+    this.endEpochDay = endEpochDayExclusive;
     this.lastPeriod = lastPeriod;
   }
 
   public Period(final LocalDate beginDate, final int periodLength) {
-    this.beginDate = beginDate;
-    this.endDate = beginDate.plusDays(periodLength);
-    this.lastPeriod = false;
+    this(beginDate, beginDate.plusDays(periodLength), false);
   }
 
   public Period(final int periodLength, final LocalDate endDate) {
-    this.beginDate = endDate.minusDays(periodLength);
-    this.endDate = endDate;
-    this.lastPeriod = false;
+    this(endDate.minusDays(periodLength), endDate, false);
+  }
+
+  static int toEpochDay(final LocalDate date) {
+    return date == null ? NO_DATE : Math.toIntExact(date.toEpochDay());
+  }
+
+  private static LocalDate toLocalDate(final int epochDay) {
+    return epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay);
   }
 
   public LocalDate getBeginDate() {
-    return beginDate;
+    return toLocalDate(beginEpochDay);
   }
 
   public LocalDate getEndDate() {
-    return endDate;
+    return toLocalDate(endEpochDay);
   }
 
   public boolean isLastPeriod() {
     return lastPeriod;
   }
 
+  int getBeginEpochDay() {
+    return beginEpochDay;
+  }
+
+  int getEndEpochDay() {
+    return endEpochDay;
+  }
+
+  /**
+   * @return the number of days from the begin date up to the end date, which is exclusive.
+   */
+  public long getDayCount() {
+    if (beginEpochDay == NO_DATE || endEpochDay == NO_DATE)
+      throw new IllegalStateException("A period without begin or end has no length: " + this);
+    return (long) endEpochDay - beginEpochDay;
+  }
+
   public Duration getDuration() {
-    long days = beginDate.until(endDate, ChronoUnit.DAYS);
-    return ChronoUnit.DAYS.getDuration().multipliedBy(days);
+    return Duration.ofSeconds(getDurationInSeconds());
+  }
+
+  public long getDurationInSeconds() {
+    return getDayCount() * SECONDS_PER_DAY;
   }
 
   boolean containsDate(final LocalDate date) {
-    return this.getBeginDate().compareTo(date) <= 0 && this.getEndDate().compareTo(date) > 0;
+    final long epochDay = date.toEpochDay();
+    return beginEpochDay <= epochDay && endEpochDay > epochDay;
   }
 
   @Override
@@ -83,22 +116,22 @@ public class Period implements Comparable<Period> {
     if (o == null || getClass() != o.getClass()) return false;
     Period period = (Period) o;
     return lastPeriod == period.lastPeriod &&
-        Objects.equals(beginDate, period.beginDate) &&
-        Objects.equals(endDate, period.endDate);
+        beginEpochDay == period.beginEpochDay &&
+        endEpochDay == period.endEpochDay;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(beginDate, endDate, lastPeriod);
+    return 31 * (31 * beginEpochDay + endEpochDay) + (lastPeriod ? 1 : 0);
   }
 
   @Override
   public int compareTo(@Nonnull Period o) {
-    int comparison = compareNullableDates(endDate, o.endDate);
+    int comparison = Integer.compare(endEpochDay, o.endEpochDay);
     if (comparison != 0)
       return comparison;
 
-    comparison = compareNullableDates(beginDate, o.beginDate);
+    comparison = Integer.compare(beginEpochDay, o.beginEpochDay);
     if (comparison != 0)
       return comparison;
 
@@ -110,23 +143,11 @@ public class Period implements Comparable<Period> {
       return 1;
   }
 
-  @SuppressWarnings("ConstantConditions")
-  private static int compareNullableDates(final LocalDate x, final LocalDate y) {
-    if ((x == null) && (y == null))
-      return 0;
-    else if ((x == null) && (y != null))
-      return -1;
-    else if ((x != null) && (y == null))
-      return 1;
-    else
-      return x.compareTo(y);
-  }
-
   @Override
   public String toString() {
     return "Period{" +
-        "beginDate=" + beginDate +
-        ", endDate=" + endDate +
+        "beginDate=" + getBeginDate() +
+        ", endDate=" + getEndDate() +
         ", lastPeriod=" + lastPeriod +
         '}';
   }
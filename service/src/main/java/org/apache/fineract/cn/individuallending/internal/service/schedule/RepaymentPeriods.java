@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service.schedule;
+
+import javax.annotation.Nonnull;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Consecutive repayment periods, each beginning where the one before it ends, kept as one array of epoch days: the
+ * begin date of the first period followed by the end date of every period.  The periods themselves are only created
+ * when they are asked for, and then hold nothing but the epoch days, so a schedule can be kept, searched, and passed
+ * around without a Period and two LocalDates for every repayment period in it.
+ */
+public final class RepaymentPeriods extends AbstractList<Period> implements RandomAccess {
+  private final int[] boundaries;
+  private final int size;
+  private final boolean endsTerm;
+
+  /**
+   * @param boundaries the begin date of the first period followed by the end date of every period, as ascending epoch
+   *                   days.
+   * @param endsTerm whether the last of the periods is the last period of the term.
+   */
+  RepaymentPeriods(final int[] boundaries, final boolean endsTerm) {
+    this(boundaries, boundaries.length - 1, endsTerm);
+  }
+
+  private RepaymentPeriods(final int[] boundaries, final int size, final boolean endsTerm) {
+    if (size < 0 || size >= boundaries.length)
+      throw new IllegalArgumentException("Repayment periods need a begin date and an end date for each period.");
+    this.boundaries = boundaries;
+    this.size = size;
+    this.endsTerm = endsTerm;
+  }
+
+  /**
+   * @param dates the begin date of the first period followed by the end date of every period.
+   * @throws IllegalArgumentException if the dates aren't ascending.
+   */
+  public static RepaymentPeriods of(final @Nonnull List<LocalDate> dates, final boolean endsTerm) {
+    final int[] boundaries = new int[dates.size()];
+    for (int i = 0; i < boundaries.length; i++) {
+      boundaries[i] = Period.toEpochDay(dates.get(i));
+      if (i > 0 && boundaries[i] <= boundaries[i - 1])
+        throw new IllegalArgumentException("Repayment period " + (i - 1) + " does not end after it begins.");
+    }
+    return new RepaymentPeriods(boundaries, endsTerm);
+  }
+
+  @Override
+  public Period get(final int index) {
+    if (index < 0 || index >= size())
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+    return new Period(boundaries[index], boundaries[index + 1], endsTerm && index == size() - 1);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  public LocalDate getEndDate(final int index) {
+    if (index < 0 || index >= size())
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+    return LocalDate.ofEpochDay(boundaries[index + 1]);
+  }
+
+  /**
+   * @return the index of the first period which ends on or after date, or size() if they all end before it.
+   */
+  public int indexOfFirstPeriodEndingOnOrAfter(final @Nonnull LocalDate date) {
+    final int epochDay = Period.toEpochDay(date);
+    final int found = Arrays.binarySearch(boundaries, 1, size + 1, epochDay);
+    //binarySearch finds some index of an equal end date, or the insertion point encoded as -(insertion point)-1.
+    int index = found >= 0 ? found : -found - 1;
+    while (index > 1 && boundaries[index - 1] == epochDay)
+      index--;
+    return index - 1;
+  }
+
+  /**
+   * @return the first count periods, sharing this one's boundaries.  The last of them ends the term only if it is the
+   * last of these periods as well.
+   */
+  public RepaymentPeriods first(final int count) {
+    if (count < 0 || count > size())
+      throw new IndexOutOfBoundsException("Count: " + count + ", Size: " + size());
+    if (count == size())
+      return this;
+    return new RepaymentPeriods(boundaries, count, false);
+  }
+}
@@ -24,6 +24,8 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.time.LocalDate;
 import java.util.Objects;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * @author Myrle Krantz
@@ -33,16 +35,31 @@ public class ScheduledAction {
   private final LocalDate when;
   private final @Nullable Period actionPeriod;
   private final @Nullable Period repaymentPeriod;
+  private final int occurrenceCount;
 
   public ScheduledAction(
       @Nonnull final Action action,
       @Nonnull final LocalDate when,
       @Nonnull final Period actionPeriod,
       @Nonnull final Period repaymentPeriod) {
+    this(action, when, actionPeriod, repaymentPeriod, 1);
+  }
+
+  /**
+   * An action which occurs once a day on occurrenceCount consecutive days, the last of which is when.  Every occurrence
+   * but the last is like the last one moved back by whole days, so the action period is that of the last occurrence.
+   */
+  public ScheduledAction(
+      @Nonnull final Action action,
+      @Nonnull final LocalDate when,
+      @Nonnull final Period actionPeriod,
+      @Nonnull final Period repaymentPeriod,
+      final int occurrenceCount) {
     this.action = action;
     this.when = when;
     this.actionPeriod = actionPeriod;
     this.repaymentPeriod = repaymentPeriod;
+    this.occurrenceCount = occurrenceCount;
   }
 
   public ScheduledAction(
@@ -53,6 +70,7 @@ public class ScheduledAction {
     this.when = when;
     this.actionPeriod = actionPeriod;
     this.repaymentPeriod = null;
+    this.occurrenceCount = 1;
   }
 
   public ScheduledAction(
@@ -62,18 +80,36 @@ public class ScheduledAction {
     this.when = when;
     this.actionPeriod = null;
     this.repaymentPeriod = null;
+    this.occurrenceCount = 1;
   }
 
   boolean actionIsOnOrAfter(final LocalDate date) {
     return when.compareTo(date) >= 0;
   }
 
+  /**
+   * @return one action per occurrence, in order.
+   */
+  public Stream<ScheduledAction> expandOccurrences() {
+    if (occurrenceCount == 1)
+      return Stream.of(this);
+
+    return IntStream.range(0, occurrenceCount).mapToObj(i -> {
+      final long daysBeforeLast = occurrenceCount - 1 - i;
+      final Period occurrencePeriod = actionPeriod == null ? null : new Period(
+          actionPeriod.getBeginDate().minusDays(daysBeforeLast),
+          actionPeriod.getEndDate().minusDays(daysBeforeLast));
+      return new ScheduledAction(action, when.minusDays(daysBeforeLast), occurrencePeriod, repaymentPeriod, 1);
+    });
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
     if (o == null || getClass() != o.getClass()) return false;
     ScheduledAction that = (ScheduledAction) o;
     return action == that.action &&
+            occurrenceCount == that.occurrenceCount &&
             Objects.equals(when, that.when) &&
             Objects.equals(actionPeriod, that.actionPeriod) &&
             Objects.equals(repaymentPeriod, that.repaymentPeriod);
@@ -81,7 +117,7 @@ public class ScheduledAction {
 
   @Override
   public int hashCode() {
-    return Objects.hash(action, when, actionPeriod, repaymentPeriod);
+    return Objects.hash(action, when, actionPeriod, repaymentPeriod, occurrenceCount);
   }
 
   @Override
@@ -91,6 +127,7 @@ public class ScheduledAction {
             ", when=" + when +
             ", actionPeriod=" + actionPeriod +
             ", repaymentPeriod=" + repaymentPeriod +
+            ", occurrenceCount=" + occurrenceCount +
             '}';
   }
 
@@ -111,4 +148,8 @@ public class ScheduledAction {
   public LocalDate getWhen() {
     return when;
   }
+
+  public int getOccurrenceCount() {
+    return occurrenceCount;
+  }
 }
@@ -50,33 +50,84 @@ public class ScheduledActionHelpers {
                                                         final @Nonnull CaseParameters caseParameters)
   {
     final LocalDate endOfTerm = getRoughEndDate(startOfTerm, caseParameters);
+    return getScheduledActions(startOfTerm, endOfTerm, getRepaymentPeriods(startOfTerm, endOfTerm, caseParameters));
+  }
+
+  /**
+   * Like getHypotheticalScheduledActions, but for repayment periods which have already been generated, for example
+   * those persisted when the case was disbursed.
+   */
+  public static List<ScheduledAction> getScheduledActions(final @Nonnull LocalDate startOfTerm,
+                                                          final @Nonnull LocalDate endOfTerm,
+                                                          final @Nonnull List<Period> repaymentPeriods)
+  {
     return Stream.concat( Stream.concat(
           preTermActions().map(action -> new ScheduledAction(action, startOfTerm)),
-          getHypotheticalScheduledActionsForDisbursedLoan(startOfTerm, endOfTerm, caseParameters)),
+          repaymentPeriods.stream().flatMap(ScheduledActionHelpers::generateScheduledActionsForRepaymentPeriod)),
           postTermActions().map(action -> new ScheduledAction(action, endOfTerm)))
         .collect(Collectors.toList());
   }
 
+  /**
+   * Steps through the payment dates only as far as the first one on or after fromDate, rather than generating the
+   * scheduled actions of the whole term.  The period found is the last one of the term if its payment date is on or
+   * after the end of term, just as it is in generateRepaymentPeriods.
+   */
   public static ScheduledAction getNextScheduledPayment(final @Nonnull LocalDate startOfTerm,
                                                         final @Nonnull LocalDate fromDate,
                                                         final @Nonnull LocalDate endOfTerm,
                                                         final @Nonnull CaseParameters caseParameters) {
     final LocalDate effectiveEndOfTerm = fromDate.isAfter(endOfTerm) ? fromDate : endOfTerm;
 
-    return getHypotheticalScheduledActionsForDisbursedLoan(startOfTerm, effectiveEndOfTerm, caseParameters)
-        .filter(x -> x.getAction().equals(Action.ACCEPT_PAYMENT))
-        .filter(x -> x.actionIsOnOrAfter(fromDate))
-        .findFirst()
-        .orElseGet(() -> new ScheduledAction(Action.ACCEPT_PAYMENT, fromDate));
+    LocalDate lastPaymentDate = startOfTerm;
+    LocalDate nextPaymentDate = generateNextPaymentDate(caseParameters, lastPaymentDate);
+    while (nextPaymentDate.isBefore(fromDate) && nextPaymentDate.isBefore(effectiveEndOfTerm))
+    {
+      lastPaymentDate = nextPaymentDate;
+      nextPaymentDate = generateNextPaymentDate(caseParameters, lastPaymentDate);
+    }
+
+    final Period repaymentPeriod = new Period(lastPaymentDate, nextPaymentDate, !nextPaymentDate.isBefore(effectiveEndOfTerm));
+    return new ScheduledAction(Action.ACCEPT_PAYMENT, nextPaymentDate, repaymentPeriod, repaymentPeriod);
   }
 
-  private static Stream<ScheduledAction> getHypotheticalScheduledActionsForDisbursedLoan(
-      final @Nonnull LocalDate startOfTerm,
-      final @Nonnull LocalDate endOfTerm,
-      final @Nonnull CaseParameters caseParameters)
-  {
-    return generateRepaymentPeriods(startOfTerm, endOfTerm, caseParameters)
-        .flatMap(ScheduledActionHelpers::generateScheduledActionsForRepaymentPeriod);
+  /**
+   * Like getNextScheduledPayment, but for repayment periods which have already been generated.
+   *
+   * @return empty if all of the repayment periods end before fromDate.
+   */
+  public static Optional<ScheduledAction> getNextScheduledPayment(final @Nonnull List<Period> repaymentPeriods,
+                                                                  final @Nonnull LocalDate fromDate) {
+    final int index = indexOfFirstPeriodEndingOnOrAfter(repaymentPeriods, fromDate);
+    if (index == repaymentPeriods.size())
+      return Optional.empty();
+
+    final Period repaymentPeriod = repaymentPeriods.get(index);
+    return Optional.of(new ScheduledAction(Action.ACCEPT_PAYMENT, repaymentPeriod.getEndDate(), repaymentPeriod, repaymentPeriod));
+  }
+
+  /**
+   * Binary search over repayment periods in the order generateRepaymentPeriods produces them, in which their end dates
+   * are ascending.
+   *
+   * @return the index of the first of the repayment periods which ends on or after date, or the number of repayment
+   * periods if they all end before it.
+   */
+  public static int indexOfFirstPeriodEndingOnOrAfter(final @Nonnull List<Period> repaymentPeriods,
+                                                      final @Nonnull LocalDate date) {
+    if (repaymentPeriods instanceof RepaymentPeriods)
+      return ((RepaymentPeriods) repaymentPeriods).indexOfFirstPeriodEndingOnOrAfter(date);
+
+    int low = 0;
+    int high = repaymentPeriods.size();
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (repaymentPeriods.get(middle).getEndDate().isBefore(date))
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
   }
 
   /** 'Rough' end date, because if the repayment period takes the last period after that end date, then the repayment
@@ -97,34 +148,55 @@ public class ScheduledActionHelpers {
             Stream.of(new ScheduledAction(Action.ACCEPT_PAYMENT, repaymentPeriod.getEndDate(), repaymentPeriod, repaymentPeriod)));
   }
 
+  /**
+   * Interest is applied once a day, and every day of a repayment period is charged the same way, so the days of a
+   * period are represented by a single action occurring once per day rather than by one action per day.  This keeps
+   * the size of a schedule proportional to the number of repayment periods.
+   */
   private static Stream<ScheduledAction> generateScheduledInterestPaymentsForRepaymentPeriod(final @Nonnull Period repaymentPeriod) {
-    return getInterestDayInRepaymentPeriod(repaymentPeriod).map(x ->
-            new ScheduledAction(Action.APPLY_INTEREST, x, new Period(x.minus(1, ChronoUnit.DAYS), x), repaymentPeriod));
+    final long interestDayCount = ChronoUnit.DAYS.between(repaymentPeriod.getBeginDate(), repaymentPeriod.getEndDate());
+    if (interestDayCount <= 0)
+      return Stream.empty();
+
+    final LocalDate lastInterestDay = repaymentPeriod.getEndDate();
+    return Stream.of(new ScheduledAction(
+        Action.APPLY_INTEREST,
+        lastInterestDay,
+        new Period(lastInterestDay.minus(1, ChronoUnit.DAYS), lastInterestDay),
+        repaymentPeriod,
+        (int) interestDayCount));
   }
 
-  private static Stream<LocalDate> getInterestDayInRepaymentPeriod(final @Nonnull Period repaymentPeriod) {
-    return Stream.iterate(repaymentPeriod.getBeginDate().plusDays(1), date -> date.plusDays(1))
-            .limit(ChronoUnit.DAYS.between(repaymentPeriod.getBeginDate(), repaymentPeriod.getEndDate()));
+  public static Stream<Period> generateRepaymentPeriods(
+      final LocalDate startOfTerm,
+      final LocalDate endOfTerm,
+      final CaseParameters caseParameters) {
+    return getRepaymentPeriods(startOfTerm, endOfTerm, caseParameters).stream();
   }
 
-  public static Stream<Period> generateRepaymentPeriods(
+  /**
+   * The same periods as generateRepaymentPeriods, kept as their boundary dates only.
+   */
+  public static RepaymentPeriods getRepaymentPeriods(
       final LocalDate startOfTerm,
       final LocalDate endOfTerm,
       final CaseParameters caseParameters) {
 
-    final List<Period> ret = new ArrayList<>();
-    LocalDate lastPaymentDate = startOfTerm;
-    LocalDate nextPaymentDate = generateNextPaymentDate(caseParameters, lastPaymentDate);
-    while (nextPaymentDate.isBefore(endOfTerm))
+    int[] boundaries = new int[16];
+    int boundaryCount = 0;
+    boundaries[boundaryCount++] = Period.toEpochDay(startOfTerm);
+    LocalDate nextPaymentDate = generateNextPaymentDate(caseParameters, startOfTerm);
+    while (true)
     {
-      final Period period = new Period(lastPaymentDate, nextPaymentDate);
-      ret.add(period);
-      lastPaymentDate = nextPaymentDate;
-      nextPaymentDate = generateNextPaymentDate(caseParameters, lastPaymentDate);
+      if (boundaryCount == boundaries.length)
+        boundaries = Arrays.copyOf(boundaries, boundaries.length * 2);
+      boundaries[boundaryCount++] = Period.toEpochDay(nextPaymentDate);
+      if (!nextPaymentDate.isBefore(endOfTerm))
+        break;
+      nextPaymentDate = generateNextPaymentDate(caseParameters, nextPaymentDate);
     }
-    ret.add(new Period(lastPaymentDate, nextPaymentDate, true));
 
-    return ret.stream();
+    return new RepaymentPeriods(Arrays.copyOf(boundaries, boundaryCount), true);
   }
 
   private static LocalDate generateNextPaymentDate(final CaseParameters caseParameters, final LocalDate lastPaymentDate) {
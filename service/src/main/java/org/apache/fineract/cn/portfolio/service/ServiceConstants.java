@@ -21,4 +21,8 @@ package org.apache.fineract.cn.portfolio.service;
 public interface ServiceConstants {
   String LOGGER_NAME = "portfolio-logger";
   String GSON_NAME = "portfolio-gson";
+  String ACCOUNTING_EXECUTOR_NAME = "portfolio-accounting-executor";
+  String JOURNAL_ENTRY_DISPATCHER_NAME = "portfolio-journal-entry-dispatcher";
+  String BEAT_EXECUTOR_NAME = "portfolio-beat-executor";
+  String BEAT_WORKER_EXECUTOR_NAME = "portfolio-beat-worker-executor";
 }
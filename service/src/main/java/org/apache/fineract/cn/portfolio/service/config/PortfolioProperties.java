@@ -32,6 +32,9 @@ import org.springframework.validation.annotation.Validated;
 @ConfigurationProperties(prefix="portfolio")
 @Validated
 public class PortfolioProperties {
+  /**
+   * The user this service acts as on its own behalf, for example when it hands a beat to its other instances.
+   */
   @ValidIdentifier
   private String bookLateFeesAndInterestAsUser;
 
@@ -41,6 +44,213 @@ public class PortfolioProperties {
   @Range(min=0, max=23)
   private int checkForLatenessInTimeSlot = 0;
 
+  /**
+   * The number of hourly beats over which the daily processing of cases is spread.  Each case is assigned to a slot by
+   * its id, and slot n is processed n hours after the configured time slot of the stage.  At 1, all cases are
+   * processed in the configured time slot.
+   */
+  @Range(min=1, max=24)
+  private int beatSlotCount = 1;
+
+  /**
+   * If interest is booked and lateness is checked in the same time slot, do both in one pass over each case instead
+   * of two separate passes over all active cases.  In the fused pass only the apply interest event is emitted per case.
+   */
+  private boolean fuseInterestAndLatenessCheck = false;
+
+  /**
+   * The number of worker threads each instance uses to process the active cases during a beat.  The active cases are
+   * split into this many id ranges per instance.
+   */
+  @Range(min=1, max=64)
+  private int beatPartitionCount = 4;
+
+  /**
+   * The number of cases read from the database at a time while processing one id range.
+   */
+  @Range(min=1, max=1000)
+  private int beatBatchSize = 100;
+
+  /**
+   * The number of commands for cases of one id range which may be dispatched and not yet finished at a time.  A case
+   * is checkpointed only once the commands for it and for every case before it in its range have finished.
+   */
+  @Range(min=1, max=1000)
+  private int beatCasesInFlightPerPartition = 8;
+
+  /**
+   * The number of beats an instance processes at once.  Beats are processed off the command bus, so that the
+   * commands dispatched for their cases never wait for threads held by the beats themselves.
+   */
+  @Range(min=1, max=64)
+  private int beatConcurrency = 2;
+
+  /**
+   * The largest number of days of interest applied to a case in one go.  If beats were missed, the interest for all
+   * days since interest was last applied is compounded and booked in one journal entry, up to this many days.  At
+   * 1, interest is always applied for exactly one day.
+   */
+  @Range(min=1, max=366)
+  private int maximumInterestCatchUpDays = 1;
+
+  /**
+   * Hand each beat on to the other instances of this service, so that all of them share its work.  Each instance
+   * leases id ranges of the active cases one at a time.  Beats are handed on as bookLateFeesAndInterestAsUser, which
+   * needs the permission to publish beats to this service.
+   */
+  private boolean shareBeatsWithReplicas = false;
+
+  /**
+   * How long an instance may go without progress on an id range before another instance may take it over.
+   */
+  @Range(min=10, max=3600)
+  private int beatLeaseDurationSeconds = 300;
+
+  /**
+   * The number of requests to accounting which may run concurrently when several accounts are read at once.
+   */
+  @Range(min=1, max=64)
+  private int accountingRequestConcurrency = 8;
+
+  /**
+   * The number of accounts read from accounting which are kept across requests.  Entries are evicted on accounting's
+   * account and journal entry events.  At 0, accounts are only kept for the duration of one request.
+   */
+  @Range(min=0, max=100000)
+  private int sharedAccountCacheSize = 0;
+
+  /**
+   * How long an account is kept across requests at the longest, in case an event from accounting is missed.
+   */
+  @Range(min=1, max=3600)
+  private int sharedAccountCacheExpirySeconds = 60;
+
+  /**
+   * Take the balances of a case's own accounts from the portfolio's projection of them for interest, lateness checks,
+   * and cost component quotes, instead of reading them from accounting.
+   */
+  private boolean useLocalCaseBalances = false;
+
+  /**
+   * The number of days after which the projection of a case's balances is reconciled against accounting.
+   */
+  @Range(min=1, max=365)
+  private int caseBalanceReconciliationDays = 7;
+
+  /**
+   * Total what is booked to each case's accrual accounts in the portfolio, and take accrued balances from those totals
+   * instead of summing the entries of the accrual accounts in accounting.  Only cases whose term starts while this is
+   * on are totalled.
+   */
+  private boolean useAccrualTotals = false;
+
+  /**
+   * Write journal entries to an outbox in the transaction of the command which books them, and post them to
+   * accounting after the transaction commits, rather than posting them while the transaction is open.
+   */
+  private boolean useJournalEntryOutbox = false;
+
+  /**
+   * The number of threads posting journal entries from the outbox to accounting.  Each tenant's entries are posted
+   * by one thread at a time, in order.
+   */
+  @Range(min=1, max=16)
+  private int journalEntryDispatcherCount = 2;
+
+  /**
+   * Post the interest booked for cases during a beat to accounting in combined journal entries for many cases, rather
+   * than one journal entry per case.  Only cases whose accruals are totalled in the portfolio are batched, since the
+   * combined entries can't be found by the message of a case.  Entries are batched in the journal entry outbox, so
+   * this has no effect unless the outbox is used.
+   */
+  private boolean batchInterestJournalEntries = false;
+
+  /**
+   * The largest number of interest journal entries combined into one.  Entries waiting in the outbox are combined
+   * as they are found there, so batches only fill up while accounting falls behind the bookings.
+   */
+  @Range(min=1, max=10000)
+  private int interestJournalEntryBatchSize = 500;
+
+  /**
+   * The number of case account numbers each instance reserves at a time per ledger.
+   */
+  @Range(min=1, max=1000)
+  private int accountNumberBlockSize = 10;
+
+  /**
+   * Limit the number of concurrent calls to accounting per operation, time calls out, and fail calls fast while
+   * accounting keeps failing.  Latencies are recorded either way.
+   */
+  private boolean guardAccountingCalls = false;
+
+  /**
+   * The number of calls per accounting operation which may run at once.
+   */
+  @Range(min=1, max=256)
+  private int accountingBulkheadSize = 32;
+
+  /**
+   * How long a call waits for a place in its operation's bulkhead before it fails.
+   */
+  @Range(min=0, max=60000)
+  private int accountingBulkheadWaitMillis = 1000;
+
+  /**
+   * How long a call to accounting may take before it fails.
+   */
+  @Range(min=100, max=300000)
+  private int accountingCallTimeoutMillis = 30000;
+
+  /**
+   * The number of consecutive failed calls of an accounting operation after which calls of it fail fast.
+   */
+  @Range(min=1, max=1000)
+  private int accountingCircuitBreakerFailureThreshold = 20;
+
+  /**
+   * How long calls of an accounting operation fail fast before one is let through to test whether accounting has
+   * recovered.
+   */
+  @Range(min=1, max=3600)
+  private int accountingCircuitBreakerOpenSeconds = 30;
+
+  /**
+   * How often the latency histograms of the calls to accounting are logged.  At 0, they are not logged.
+   */
+  @Range(min=0, max=86400)
+  private int accountingMetricsLogIntervalSeconds = 300;
+
+  /**
+   * Look up the start of term of disbursed cases which don't have one in the portfolio db yet, in the background.
+   */
+  private boolean backfillStartOfTerm = true;
+
+  /**
+   * The number of cases the start of term backfill reads from the db at a time.
+   */
+  @Range(min=1, max=10000)
+  private int startOfTermBackfillChunkSize = 100;
+
+  /**
+   * The number of start of term lookups in accounting the backfill makes at once.
+   */
+  @Range(min=1, max=64)
+  private int startOfTermBackfillConcurrency = 2;
+
+  /**
+   * The number of partly paged through planned payment schedules kept so that the next page can be simulated on from
+   * where the last one stopped.  At 0, every page is simulated from the start of the schedule.
+   */
+  @Range(min=0, max=100000)
+  private int plannedPaymentCursorCacheSize = 1000;
+
+  /**
+   * How long a partly paged through planned payment schedule is kept waiting for its next page to be requested.
+   */
+  @Range(min=1, max=3600)
+  private int plannedPaymentCursorExpirySeconds = 60;
+
   public PortfolioProperties() {
   }
 
@@ -67,4 +277,260 @@ public class PortfolioProperties {
   public void setCheckForLatenessInTimeSlot(int checkForLatenessInTimeSlot) {
     this.checkForLatenessInTimeSlot = checkForLatenessInTimeSlot;
   }
+
+  public int getBeatPartitionCount() {
+    return beatPartitionCount;
+  }
+
+  public void setBeatPartitionCount(int beatPartitionCount) {
+    this.beatPartitionCount = beatPartitionCount;
+  }
+
+  public int getBeatCasesInFlightPerPartition() {
+    return beatCasesInFlightPerPartition;
+  }
+
+  public void setBeatCasesInFlightPerPartition(int beatCasesInFlightPerPartition) {
+    this.beatCasesInFlightPerPartition = beatCasesInFlightPerPartition;
+  }
+
+  public int getBeatConcurrency() {
+    return beatConcurrency;
+  }
+
+  public void setBeatConcurrency(int beatConcurrency) {
+    this.beatConcurrency = beatConcurrency;
+  }
+
+  public int getBeatBatchSize() {
+    return beatBatchSize;
+  }
+
+  public void setBeatBatchSize(int beatBatchSize) {
+    this.beatBatchSize = beatBatchSize;
+  }
+
+  public boolean isFuseInterestAndLatenessCheck() {
+    return fuseInterestAndLatenessCheck;
+  }
+
+  public void setFuseInterestAndLatenessCheck(boolean fuseInterestAndLatenessCheck) {
+    this.fuseInterestAndLatenessCheck = fuseInterestAndLatenessCheck;
+  }
+
+  public int getMaximumInterestCatchUpDays() {
+    return maximumInterestCatchUpDays;
+  }
+
+  public void setMaximumInterestCatchUpDays(int maximumInterestCatchUpDays) {
+    this.maximumInterestCatchUpDays = maximumInterestCatchUpDays;
+  }
+
+  public boolean isShareBeatsWithReplicas() {
+    return shareBeatsWithReplicas;
+  }
+
+  public void setShareBeatsWithReplicas(boolean shareBeatsWithReplicas) {
+    this.shareBeatsWithReplicas = shareBeatsWithReplicas;
+  }
+
+  public int getBeatLeaseDurationSeconds() {
+    return beatLeaseDurationSeconds;
+  }
+
+  public void setBeatLeaseDurationSeconds(int beatLeaseDurationSeconds) {
+    this.beatLeaseDurationSeconds = beatLeaseDurationSeconds;
+  }
+
+  public int getBeatSlotCount() {
+    return beatSlotCount;
+  }
+
+  public void setBeatSlotCount(int beatSlotCount) {
+    this.beatSlotCount = beatSlotCount;
+  }
+
+  public int getAccountingRequestConcurrency() {
+    return accountingRequestConcurrency;
+  }
+
+  public void setAccountingRequestConcurrency(int accountingRequestConcurrency) {
+    this.accountingRequestConcurrency = accountingRequestConcurrency;
+  }
+
+  public int getSharedAccountCacheSize() {
+    return sharedAccountCacheSize;
+  }
+
+  public void setSharedAccountCacheSize(int sharedAccountCacheSize) {
+    this.sharedAccountCacheSize = sharedAccountCacheSize;
+  }
+
+  public int getSharedAccountCacheExpirySeconds() {
+    return sharedAccountCacheExpirySeconds;
+  }
+
+  public void setSharedAccountCacheExpirySeconds(int sharedAccountCacheExpirySeconds) {
+    this.sharedAccountCacheExpirySeconds = sharedAccountCacheExpirySeconds;
+  }
+
+  public boolean isUseLocalCaseBalances() {
+    return useLocalCaseBalances;
+  }
+
+  public void setUseLocalCaseBalances(boolean useLocalCaseBalances) {
+    this.useLocalCaseBalances = useLocalCaseBalances;
+  }
+
+  public boolean isUseAccrualTotals() {
+    return useAccrualTotals;
+  }
+
+  public void setUseAccrualTotals(boolean useAccrualTotals) {
+    this.useAccrualTotals = useAccrualTotals;
+  }
+
+  public int getCaseBalanceReconciliationDays() {
+    return caseBalanceReconciliationDays;
+  }
+
+  public void setCaseBalanceReconciliationDays(int caseBalanceReconciliationDays) {
+    this.caseBalanceReconciliationDays = caseBalanceReconciliationDays;
+  }
+
+  public boolean isUseJournalEntryOutbox() {
+    return useJournalEntryOutbox;
+  }
+
+  public void setUseJournalEntryOutbox(boolean useJournalEntryOutbox) {
+    this.useJournalEntryOutbox = useJournalEntryOutbox;
+  }
+
+  public int getJournalEntryDispatcherCount() {
+    return journalEntryDispatcherCount;
+  }
+
+  public void setJournalEntryDispatcherCount(int journalEntryDispatcherCount) {
+    this.journalEntryDispatcherCount = journalEntryDispatcherCount;
+  }
+
+  public boolean isBatchInterestJournalEntries() {
+    return batchInterestJournalEntries;
+  }
+
+  public void setBatchInterestJournalEntries(boolean batchInterestJournalEntries) {
+    this.batchInterestJournalEntries = batchInterestJournalEntries;
+  }
+
+  public int getInterestJournalEntryBatchSize() {
+    return interestJournalEntryBatchSize;
+  }
+
+  public void setInterestJournalEntryBatchSize(int interestJournalEntryBatchSize) {
+    this.interestJournalEntryBatchSize = interestJournalEntryBatchSize;
+  }
+
+  public int getAccountNumberBlockSize() {
+    return accountNumberBlockSize;
+  }
+
+  public void setAccountNumberBlockSize(int accountNumberBlockSize) {
+    this.accountNumberBlockSize = accountNumberBlockSize;
+  }
+
+  public boolean isGuardAccountingCalls() {
+    return guardAccountingCalls;
+  }
+
+  public void setGuardAccountingCalls(boolean guardAccountingCalls) {
+    this.guardAccountingCalls = guardAccountingCalls;
+  }
+
+  public int getAccountingBulkheadSize() {
+    return accountingBulkheadSize;
+  }
+
+  public void setAccountingBulkheadSize(int accountingBulkheadSize) {
+    this.accountingBulkheadSize = accountingBulkheadSize;
+  }
+
+  public int getAccountingBulkheadWaitMillis() {
+    return accountingBulkheadWaitMillis;
+  }
+
+  public void setAccountingBulkheadWaitMillis(int accountingBulkheadWaitMillis) {
+    this.accountingBulkheadWaitMillis = accountingBulkheadWaitMillis;
+  }
+
+  public int getAccountingCallTimeoutMillis() {
+    return accountingCallTimeoutMillis;
+  }
+
+  public void setAccountingCallTimeoutMillis(int accountingCallTimeoutMillis) {
+    this.accountingCallTimeoutMillis = accountingCallTimeoutMillis;
+  }
+
+  public int getAccountingCircuitBreakerFailureThreshold() {
+    return accountingCircuitBreakerFailureThreshold;
+  }
+
+  public void setAccountingCircuitBreakerFailureThreshold(int accountingCircuitBreakerFailureThreshold) {
+    this.accountingCircuitBreakerFailureThreshold = accountingCircuitBreakerFailureThreshold;
+  }
+
+  public int getAccountingCircuitBreakerOpenSeconds() {
+    return accountingCircuitBreakerOpenSeconds;
+  }
+
+  public void setAccountingCircuitBreakerOpenSeconds(int accountingCircuitBreakerOpenSeconds) {
+    this.accountingCircuitBreakerOpenSeconds = accountingCircuitBreakerOpenSeconds;
+  }
+
+  public int getAccountingMetricsLogIntervalSeconds() {
+    return accountingMetricsLogIntervalSeconds;
+  }
+
+  public void setAccountingMetricsLogIntervalSeconds(int accountingMetricsLogIntervalSeconds) {
+    this.accountingMetricsLogIntervalSeconds = accountingMetricsLogIntervalSeconds;
+  }
+
+  public boolean isBackfillStartOfTerm() {
+    return backfillStartOfTerm;
+  }
+
+  public void setBackfillStartOfTerm(boolean backfillStartOfTerm) {
+    this.backfillStartOfTerm = backfillStartOfTerm;
+  }
+
+  public int getStartOfTermBackfillChunkSize() {
+    return startOfTermBackfillChunkSize;
+  }
+
+  public void setStartOfTermBackfillChunkSize(int startOfTermBackfillChunkSize) {
+    this.startOfTermBackfillChunkSize = startOfTermBackfillChunkSize;
+  }
+
+  public int getStartOfTermBackfillConcurrency() {
+    return startOfTermBackfillConcurrency;
+  }
+
+  public void setStartOfTermBackfillConcurrency(int startOfTermBackfillConcurrency) {
+    this.startOfTermBackfillConcurrency = startOfTermBackfillConcurrency;
+  }
+
+  public int getPlannedPaymentCursorCacheSize() {
+    return plannedPaymentCursorCacheSize;
+  }
+
+  public void setPlannedPaymentCursorCacheSize(int plannedPaymentCursorCacheSize) {
+    this.plannedPaymentCursorCacheSize = plannedPaymentCursorCacheSize;
+  }
+
+  public int getPlannedPaymentCursorExpirySeconds() {
+    return plannedPaymentCursorExpirySeconds;
+  }
+
+  public void setPlannedPaymentCursorExpirySeconds(int plannedPaymentCursorExpirySeconds) {
+    this.plannedPaymentCursorExpirySeconds = plannedPaymentCursorExpirySeconds;
+  }
 }
@@ -30,8 +30,11 @@ import org.apache.fineract.cn.customer.api.v1.client.CustomerManager;
 import org.apache.fineract.cn.lang.config.EnableApplicationName;
 import org.apache.fineract.cn.lang.config.EnableServiceException;
 import org.apache.fineract.cn.lang.config.EnableTenantContext;
+import org.apache.fineract.cn.permittedfeignclient.config.EnablePermissionRequestingFeignClients;
 import org.apache.fineract.cn.postgresql.config.EnablePostgreSQL;
 import org.apache.fineract.cn.rhythm.api.v1.client.RhythmManager;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
@@ -64,6 +67,7 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter
 @EnableJpaRepositories(basePackages = "org.apache.fineract.cn.portfolio.service.internal.repository")
 @EntityScan(basePackages = "org.apache.fineract.cn.portfolio.service.internal.repository")
 @EnableFeignClients(clients = {LedgerManager.class, RhythmManager.class, CustomerManager.class})
+@EnablePermissionRequestingFeignClients(feignClasses = {})
 @EnableApplicationName
 @Import(IndividualLendingConfiguration.class)
 public class PortfolioServiceConfiguration extends WebMvcConfigurerAdapter {
@@ -82,6 +86,27 @@ public class PortfolioServiceConfiguration extends WebMvcConfigurerAdapter {
     return new Gson();
   }
 
+  @Bean(name = ServiceConstants.ACCOUNTING_EXECUTOR_NAME, destroyMethod = "shutdown")
+  public ExecutorService accountingExecutor(final PortfolioProperties portfolioProperties) {
+    return Executors.newFixedThreadPool(portfolioProperties.getAccountingRequestConcurrency());
+  }
+
+  @Bean(name = ServiceConstants.JOURNAL_ENTRY_DISPATCHER_NAME, destroyMethod = "shutdown")
+  public ExecutorService journalEntryDispatcher(final PortfolioProperties portfolioProperties) {
+    return Executors.newFixedThreadPool(portfolioProperties.getJournalEntryDispatcherCount());
+  }
+
+  @Bean(name = ServiceConstants.BEAT_EXECUTOR_NAME, destroyMethod = "shutdownNow")
+  public ExecutorService beatExecutor(final PortfolioProperties portfolioProperties) {
+    return Executors.newFixedThreadPool(portfolioProperties.getBeatConcurrency());
+  }
+
+  //Every beat processed at a time can have all of its partitions worked on at once.
+  @Bean(name = ServiceConstants.BEAT_WORKER_EXECUTOR_NAME, destroyMethod = "shutdownNow")
+  public ExecutorService beatWorkerExecutor(final PortfolioProperties portfolioProperties) {
+    return Executors.newFixedThreadPool(portfolioProperties.getBeatConcurrency() * portfolioProperties.getBeatPartitionCount());
+  }
+
   @Override
   public void configurePathMatch(final PathMatchConfigurer configurer) {
     configurer.setUseSuffixPatternMatch(Boolean.FALSE);
@@ -31,7 +31,10 @@ import org.apache.fineract.cn.portfolio.service.internal.repository.ChargeDefini
 import org.apache.fineract.cn.portfolio.service.internal.repository.ChargeDefinitionRepository;
 import org.apache.fineract.cn.portfolio.service.internal.repository.ProductEntity;
 import org.apache.fineract.cn.portfolio.service.internal.repository.ProductRepository;
+import java.time.Clock;
+import java.time.LocalDateTime;
 import java.util.Optional;
+import org.apache.fineract.cn.api.util.UserContextHolder;
 import org.apache.fineract.cn.command.annotation.Aggregate;
 import org.apache.fineract.cn.command.annotation.CommandHandler;
 import org.apache.fineract.cn.command.annotation.CommandLogLevel;
@@ -76,6 +79,7 @@ public class ChargeDefinitionCommandHandler {
     final ChargeDefinitionEntity chargeDefinitionEntity =
             ChargeDefinitionMapper.map(productEntity, chargeDefinition, segmentRange.fromSegment, segmentRange.toSegment);
     chargeDefinitionRepository.save(chargeDefinitionEntity);
+    recordChangeOfChargeDefinitions(productEntity);
 
     return new ChargeDefinitionEvent(
             command.getProductIdentifier(),
@@ -101,6 +105,7 @@ public class ChargeDefinitionCommandHandler {
     chargeDefinitionEntity.setId(existingChargeDefinition.getId());
     chargeDefinitionEntity.setId(existingChargeDefinition.getId());
     chargeDefinitionRepository.save(chargeDefinitionEntity);
+    recordChangeOfChargeDefinitions(existingChargeDefinition.getProduct());
 
     return new ChargeDefinitionEvent(
             command.getProductIdentifier(),
@@ -119,12 +124,23 @@ public class ChargeDefinitionCommandHandler {
                     command.getProductIdentifier(), command.getChargeDefinitionIdentifier()));
 
     chargeDefinitionRepository.delete(toDelete);
+    recordChangeOfChargeDefinitions(toDelete.getProduct());
 
     return new ChargeDefinitionEvent(
             command.getProductIdentifier(),
             command.getChargeDefinitionIdentifier());
   }
 
+  /**
+   * The product's last modification time stands for its charge definitions too, for example in the planned payment
+   * cursors of IndividualLoanService.
+   */
+  private void recordChangeOfChargeDefinitions(final ProductEntity productEntity) {
+    productEntity.setLastModifiedOn(LocalDateTime.now(Clock.systemUTC()));
+    productEntity.setLastModifiedBy(UserContextHolder.checkedGetUser());
+    productRepository.save(productEntity);
+  }
+
   static class SegmentRange {
     final BalanceSegmentEntity fromSegment;
     final BalanceSegmentEntity toSegment;
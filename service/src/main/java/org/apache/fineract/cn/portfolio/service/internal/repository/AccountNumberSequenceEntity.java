@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.portfolio.service.internal.repository;
+
+import java.util.Objects;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * The next free index for the numbers of the case accounts created in a ledger.
+ */
+@Entity
+@Table(name = "bastet_account_number_sequences")
+public class AccountNumberSequenceEntity {
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @Column(name = "id")
+  private Long id;
+
+  @Column(name = "ledger_identifier")
+  private String ledgerIdentifier;
+
+  @Column(name = "next_index")
+  private Long nextIndex;
+
+  public AccountNumberSequenceEntity() {
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public void setId(Long id) {
+    this.id = id;
+  }
+
+  public String getLedgerIdentifier() {
+    return ledgerIdentifier;
+  }
+
+  public void setLedgerIdentifier(String ledgerIdentifier) {
+    this.ledgerIdentifier = ledgerIdentifier;
+  }
+
+  public Long getNextIndex() {
+    return nextIndex;
+  }
+
+  public void setNextIndex(Long nextIndex) {
+    this.nextIndex = nextIndex;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    AccountNumberSequenceEntity that = (AccountNumberSequenceEntity) o;
+    return Objects.equals(ledgerIdentifier, that.ledgerIdentifier);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(ledgerIdentifier);
+  }
+}
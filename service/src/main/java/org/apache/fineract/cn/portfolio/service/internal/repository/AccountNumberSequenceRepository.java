@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.portfolio.service.internal.repository;
+
+import java.util.Optional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Reservations commit independently of the calling transaction.  The accounts created with a reserved index exist in
+ * accounting whether or not that transaction commits, so the index must not be handed out again.
+ */
+@Repository
+public interface AccountNumberSequenceRepository extends JpaRepository<AccountNumberSequenceEntity, Long> {
+  @Query("SELECT s.nextIndex FROM AccountNumberSequenceEntity s WHERE s.ledgerIdentifier = :ledgerIdentifier")
+  Optional<Long> findNextIndex(@Param("ledgerIdentifier") String ledgerIdentifier);
+
+  /**
+   * @return 1 if the next index of the ledger was still the expected one and count indexes from it are now reserved.
+   * 0 if another reservation came first.
+   */
+  @Modifying
+  @Transactional(propagation = Propagation.REQUIRES_NEW)
+  @Query("UPDATE AccountNumberSequenceEntity s SET s.nextIndex = s.nextIndex + :count " +
+      "WHERE s.ledgerIdentifier = :ledgerIdentifier AND s.nextIndex = :expectedNextIndex")
+  int reserve(
+      @Param("ledgerIdentifier") String ledgerIdentifier,
+      @Param("expectedNextIndex") Long expectedNextIndex,
+      @Param("count") Long count);
+
+  /**
+   * @return 1 if the sequence of the ledger was created, 0 if it already existed.
+   */
+  @Modifying
+  @Transactional(propagation = Propagation.REQUIRES_NEW)
+  @Query(value = "INSERT INTO bastet_account_number_sequences (ledger_identifier, next_index) " +
+      "VALUES (:ledgerIdentifier, :nextIndex) ON CONFLICT DO NOTHING", nativeQuery = true)
+  int createIfAbsent(
+      @Param("ledgerIdentifier") String ledgerIdentifier,
+      @Param("nextIndex") Long nextIndex);
+}
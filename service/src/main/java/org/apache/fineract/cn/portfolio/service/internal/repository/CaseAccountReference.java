@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.portfolio.service.internal.repository;
+
+import java.util.Objects;
+
+/**
+ * The identifying columns of a case, together with the identifier of one of the accounts assigned to it.
+ */
+public class CaseAccountReference {
+  private final Long id;
+  private final String productIdentifier;
+  private final String identifier;
+  private final String accountIdentifier;
+
+  public CaseAccountReference(
+      final Long id,
+      final String productIdentifier,
+      final String identifier,
+      final String accountIdentifier) {
+    this.id = id;
+    this.productIdentifier = productIdentifier;
+    this.identifier = identifier;
+    this.accountIdentifier = accountIdentifier;
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public String getProductIdentifier() {
+    return productIdentifier;
+  }
+
+  public String getIdentifier() {
+    return identifier;
+  }
+
+  public String getAccountIdentifier() {
+    return accountIdentifier;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    CaseAccountReference that = (CaseAccountReference) o;
+    return Objects.equals(id, that.id) &&
+        Objects.equals(accountIdentifier, that.accountIdentifier);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(id, accountIdentifier);
+  }
+
+  @Override
+  public String toString() {
+    return "CaseAccountReference{" +
+        "id=" + id +
+        ", productIdentifier='" + productIdentifier + '\'' +
+        ", identifier='" + identifier + '\'' +
+        ", accountIdentifier='" + accountIdentifier + '\'' +
+        '}';
+  }
+}
@@ -18,6 +18,7 @@
  */
 package org.apache.fineract.cn.portfolio.service.internal.repository;
 
+import java.util.Optional;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -29,4 +30,6 @@ import org.springframework.stereotype.Repository;
 @Repository
 public interface CaseCommandRepository extends JpaRepository<CaseCommandEntity, Long> {
   Page<CaseCommandEntity> findByCaseIdAndActionName(Long caseId, String actionName, Pageable pageable);
+
+  Optional<CaseCommandEntity> findFirstByTransactionUniqueifier(String transactionUniqueifier);
 }
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.portfolio.service.internal.repository;
+
+import java.util.Objects;
+
+/**
+ * The identifying columns of a case, for scans over many cases which don't need the full entity.
+ */
+public class CaseReference {
+  private final Long id;
+  private final String productIdentifier;
+  private final String identifier;
+
+  public CaseReference(final Long id, final String productIdentifier, final String identifier) {
+    this.id = id;
+    this.productIdentifier = productIdentifier;
+    this.identifier = identifier;
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public String getProductIdentifier() {
+    return productIdentifier;
+  }
+
+  public String getIdentifier() {
+    return identifier;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    CaseReference that = (CaseReference) o;
+    return Objects.equals(id, that.id);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(id);
+  }
+
+  @Override
+  public String toString() {
+    return "CaseReference{" +
+        "id=" + id +
+        ", productIdentifier='" + productIdentifier + '\'' +
+        ", identifier='" + identifier + '\'' +
+        '}';
+  }
+}
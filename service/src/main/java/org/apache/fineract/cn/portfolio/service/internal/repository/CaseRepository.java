@@ -21,13 +21,16 @@ package org.apache.fineract.cn.portfolio.service.internal.repository;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
-import java.util.stream.Stream;
 
 /**
  * @author Myrle Krantz
@@ -41,5 +44,65 @@ public interface CaseRepository extends JpaRepository<CaseEntity, Long> {
   @Query("SELECT CASE WHEN COUNT(t) > 0 THEN true ELSE false END FROM CaseEntity t WHERE t.productIdentifier = :productIdentifier")
   boolean existsByProductIdentifier(@Param("productIdentifier") String productIdentifier);
 
-  Stream<CaseEntity> findByCurrentStateIn(Collection<String> currentStates);
+  @Query("SELECT MIN(t.id) FROM CaseEntity t WHERE t.currentState IN :currentStates")
+  Long findMinimumIdByCurrentStateIn(@Param("currentStates") Collection<String> currentStates);
+
+  @Query("SELECT MAX(t.id) FROM CaseEntity t WHERE t.currentState IN :currentStates")
+  Long findMaximumIdByCurrentStateIn(@Param("currentStates") Collection<String> currentStates);
+
+  /**
+   * Keyset-paginated scan over cases.  Returns the cases in the given states with ids greater than afterId and
+   * at most lastId, in ascending order of id.  Only the page size of the page request is relevant; the next
+   * chunk is requested by passing the id of the last case returned as afterId.  Only cases whose id modulo slotCount
+   * is slot are returned.  Cases for which accounting rejected a journal entry are left out.
+   */
+  @Query("SELECT new org.apache.fineract.cn.portfolio.service.internal.repository.CaseReference(t.id, t.productIdentifier, t.identifier) " +
+      "FROM CaseEntity t WHERE t.currentState IN :currentStates AND MOD(t.id, :slotCount) = :slot " +
+      "AND t.id > :afterId AND t.id <= :lastId " +
+      "AND NOT EXISTS (SELECT p FROM CaseParametersEntity p WHERE p.caseId = t.id AND p.journalEntryRejectedOn IS NOT NULL) " +
+      "ORDER BY t.id ASC")
+  List<CaseReference> findReferencesByCurrentStateInAfterId(
+      @Param("currentStates") Collection<String> currentStates,
+      @Param("slotCount") Long slotCount,
+      @Param("slot") Long slot,
+      @Param("afterId") Long afterId,
+      @Param("lastId") Long lastId,
+      Pageable pageRequest);
+
+  /**
+   * Keyset-paginated scan over the cases in the given states which have no start of term yet.  Each case is returned
+   * with the account assigned to it for the given designator, and cases without such an account are left out.
+   */
+  @Query("SELECT new org.apache.fineract.cn.portfolio.service.internal.repository.CaseAccountReference(t.id, t.productIdentifier, t.identifier, a.identifier) " +
+      "FROM CaseEntity t JOIN t.accountAssignments a WHERE t.startOfTerm IS NULL AND t.currentState IN :currentStates " +
+      "AND a.designator = :designator AND t.id > :afterId ORDER BY t.id ASC")
+  List<CaseAccountReference> findWithoutStartOfTermAfterId(
+      @Param("currentStates") Collection<String> currentStates,
+      @Param("designator") String designator,
+      @Param("afterId") Long afterId,
+      Pageable pageRequest);
+
+  @Query("SELECT COUNT(t) FROM CaseEntity t WHERE t.startOfTerm IS NULL AND t.currentState IN :currentStates")
+  long countWithoutStartOfTerm(@Param("currentStates") Collection<String> currentStates);
+
+  /**
+   * @return 1 if the start of term was set, 0 if the case already had one.
+   */
+  @Modifying
+  @Transactional
+  @Query("UPDATE CaseEntity t SET t.startOfTerm = :startOfTerm WHERE t.id = :id AND t.startOfTerm IS NULL")
+  int setStartOfTermIfAbsent(
+      @Param("id") Long id,
+      @Param("startOfTerm") LocalDateTime startOfTerm);
+
+  /**
+   * For a case whose disbursement can't be found in accounting.  The case's creation stands in for its start of term,
+   * since none of its entries can be older.
+   *
+   * @return 1 if the start of term was set, 0 if the case already had one.
+   */
+  @Modifying
+  @Transactional
+  @Query("UPDATE CaseEntity t SET t.startOfTerm = t.createdOn WHERE t.id = :id AND t.startOfTerm IS NULL")
+  int setStartOfTermToCreatedOnIfAbsent(@Param("id") Long id);
 }
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.portfolio.service.internal.repository;
+
+import java.time.LocalDateTime;
+import java.util.Objects;
+import javax.persistence.Column;
+import javax.persistence.Convert;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import org.apache.fineract.cn.postgresql.util.LocalDateTimeConverter;
+
+/**
+ * A journal entry booked by a command, but not yet posted to accounting.  Entries which accounting rejected are kept
+ * as dead letters, for an operator to look into.
+ */
+@Entity
+@Table(name = "bastet_journal_entry_outbox")
+public class JournalEntryOutboxEntity {
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @Column(name = "id")
+  private Long id;
+
+  @Column(name = "transaction_identifier")
+  private String transactionIdentifier;
+
+  /** The journal entry as JSON, exactly as it is to be posted.
+   */
+  @Column(name = "journal_entry")
+  private String journalEntry;
+
+  @Column(name = "created_on")
+  @Convert(converter = LocalDateTimeConverter.class)
+  private LocalDateTime createdOn;
+
+  @Column(name = "attempts")
+  private Integer attempts;
+
+  @Column(name = "next_attempt_on")
+  @Convert(converter = LocalDateTimeConverter.class)
+  private LocalDateTime nextAttemptOn;
+
+  @Column(name = "dead_lettered_on")
+  @Convert(converter = LocalDateTimeConverter.class)
+  private LocalDateTime deadLetteredOn;
+
+  /** Whether the entry may be posted combined with the entries following it.
+   */
+  @Column(name = "batchable")
+  private Boolean batchable;
+
+  /** The transaction identifier of the combined entry the entry is posted in, once the batch has been put together.
+   */
+  @Column(name = "batch_identifier")
+  private String batchIdentifier;
+
+  /** The balance adjustments by account designator the entry was built from, as JSON.  Used to take back what the
+   * booking did to the portfolio's own records of the case, should accounting reject the entry.
+   */
+  @Column(name = "balance_adjustments")
+  private String balanceAdjustments;
+
+  /** When accounting took the entry.  The entry is kept until accounting announces that it has been released, so that
+   * balances read in the meantime still include it.
+   */
+  @Column(name = "posted_on")
+  @Convert(converter = LocalDateTimeConverter.class)
+  private LocalDateTime postedOn;
+
+  public Long getId() {
+    return id;
+  }
+
+  public void setId(Long id) {
+    this.id = id;
+  }
+
+  public String getTransactionIdentifier() {
+    return transactionIdentifier;
+  }
+
+  public void setTransactionIdentifier(String transactionIdentifier) {
+    this.transactionIdentifier = transactionIdentifier;
+  }
+
+  public String getJournalEntry() {
+    return journalEntry;
+  }
+
+  public void setJournalEntry(String journalEntry) {
+    this.journalEntry = journalEntry;
+  }
+
+  public LocalDateTime getCreatedOn() {
+    return createdOn;
+  }
+
+  public void setCreatedOn(LocalDateTime createdOn) {
+    this.createdOn = createdOn;
+  }
+
+  public Integer getAttempts() {
+    return attempts;
+  }
+
+  public void setAttempts(Integer attempts) {
+    this.attempts = attempts;
+  }
+
+  public LocalDateTime getNextAttemptOn() {
+    return nextAttemptOn;
+  }
+
+  public void setNextAttemptOn(LocalDateTime nextAttemptOn) {
+    this.nextAttemptOn = nextAttemptOn;
+  }
+
+  public LocalDateTime getDeadLetteredOn() {
+    return deadLetteredOn;
+  }
+
+  public void setDeadLetteredOn(LocalDateTime deadLetteredOn) {
+    this.deadLetteredOn = deadLetteredOn;
+  }
+
+  public Boolean getBatchable() {
+    return batchable;
+  }
+
+  public void setBatchable(Boolean batchable) {
+    this.batchable = batchable;
+  }
+
+  public String getBatchIdentifier() {
+    return batchIdentifier;
+  }
+
+  public void setBatchIdentifier(String batchIdentifier) {
+    this.batchIdentifier = batchIdentifier;
+  }
+
+  public String getBalanceAdjustments() {
+    return balanceAdjustments;
+  }
+
+  public void setBalanceAdjustments(String balanceAdjustments) {
+    this.balanceAdjustments = balanceAdjustments;
+  }
+
+  public LocalDateTime getPostedOn() {
+    return postedOn;
+  }
+
+  public void setPostedOn(LocalDateTime postedOn) {
+    this.postedOn = postedOn;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    JournalEntryOutboxEntity that = (JournalEntryOutboxEntity) o;
+    return Objects.equals(transactionIdentifier, that.transactionIdentifier);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(transactionIdentifier);
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.portfolio.service.internal.repository;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Objects;
+import javax.persistence.Column;
+import javax.persistence.Convert;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import org.apache.fineract.cn.postgresql.util.LocalDateTimeConverter;
+
+/**
+ * What a journal entry in the outbox books to one account.  Kept alongside the entry, so that what is still waiting
+ * to be posted can be added to what accounting knows about the account.  Removed with the entry.
+ */
+@Entity
+@Table(name = "bastet_journal_entry_outbox_lines")
+public class JournalEntryOutboxLineEntity {
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @Column(name = "id")
+  private Long id;
+
+  @Column(name = "outbox_entry_id")
+  private Long outboxEntryId;
+
+  @Column(name = "account_identifier")
+  private String accountIdentifier;
+
+  /** The message the entry will be found by in accounting, or null if it is posted combined with other entries.
+   */
+  @Column(name = "message")
+  private String message;
+
+  @Column(name = "transaction_date")
+  @Convert(converter = LocalDateTimeConverter.class)
+  private LocalDateTime transactionDate;
+
+  /** Positive if the account is credited, negative if it is debited.
+   */
+  @Column(name = "credit_amount")
+  private BigDecimal creditAmount;
+
+  public Long getId() {
+    return id;
+  }
+
+  public void setId(Long id) {
+    this.id = id;
+  }
+
+  public Long getOutboxEntryId() {
+    return outboxEntryId;
+  }
+
+  public void setOutboxEntryId(Long outboxEntryId) {
+    this.outboxEntryId = outboxEntryId;
+  }
+
+  public String getAccountIdentifier() {
+    return accountIdentifier;
+  }
+
+  public void setAccountIdentifier(String accountIdentifier) {
+    this.accountIdentifier = accountIdentifier;
+  }
+
+  public String getMessage() {
+    return message;
+  }
+
+  public void setMessage(String message) {
+    this.message = message;
+  }
+
+  public LocalDateTime getTransactionDate() {
+    return transactionDate;
+  }
+
+  public void setTransactionDate(LocalDateTime transactionDate) {
+    this.transactionDate = transactionDate;
+  }
+
+  public BigDecimal getCreditAmount() {
+    return creditAmount;
+  }
+
+  public void setCreditAmount(BigDecimal creditAmount) {
+    this.creditAmount = creditAmount;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    JournalEntryOutboxLineEntity that = (JournalEntryOutboxLineEntity) o;
+    return Objects.equals(outboxEntryId, that.outboxEntryId) &&
+        Objects.equals(accountIdentifier, that.accountIdentifier);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(outboxEntryId, accountIdentifier);
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.portfolio.service.internal.repository;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface JournalEntryOutboxLineRepository extends JpaRepository<JournalEntryOutboxLineEntity, Long> {
+  /**
+   * @return the net amount credited to the account by entries which accounting hasn't released yet.  Dead letters are
+   * left out.
+   */
+  @Query("SELECT COALESCE(SUM(l.creditAmount), 0) FROM JournalEntryOutboxLineEntity l, JournalEntryOutboxEntity e " +
+      "WHERE l.outboxEntryId = e.id AND e.deadLetteredOn IS NULL AND l.accountIdentifier = :accountIdentifier")
+  BigDecimal sumPendingCreditAmounts(@Param("accountIdentifier") String accountIdentifier);
+
+  /**
+   * @return the total amount booked to the account, in either direction, by entries which accounting hasn't released
+   * yet, with the given message and a transaction date no earlier than the given time.  Dead letters are left out.
+   */
+  @Query("SELECT COALESCE(SUM(ABS(l.creditAmount)), 0) FROM JournalEntryOutboxLineEntity l, JournalEntryOutboxEntity e " +
+      "WHERE l.outboxEntryId = e.id AND e.deadLetteredOn IS NULL AND l.accountIdentifier = :accountIdentifier " +
+      "AND l.message = :message AND l.transactionDate >= :since")
+  BigDecimal sumPendingAmountsWithMessage(
+      @Param("accountIdentifier") String accountIdentifier,
+      @Param("message") String message,
+      @Param("since") LocalDateTime since);
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.portfolio.service.internal.repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface JournalEntryOutboxRepository extends JpaRepository<JournalEntryOutboxEntity, Long> {
+  /**
+   * @return the entries still to be posted, oldest first.  Dead letters are left out.
+   */
+  List<JournalEntryOutboxEntity> findByDeadLetteredOnIsNullAndPostedOnIsNullOrderByIdAsc(Pageable pageable);
+
+  /**
+   * @return the entries posted combined under the given transaction identifier, oldest first.
+   */
+  List<JournalEntryOutboxEntity> findByBatchIdentifierOrderByIdAsc(String batchIdentifier);
+
+  /**
+   * Records that the given entries are posted combined under the given transaction identifier.  Entries which already
+   * belong to a combined entry, or which have been posted, dead lettered or removed in the meantime, are left out.
+   *
+   * @return the number of entries recorded.
+   */
+  @Modifying
+  @Transactional
+  @Query("UPDATE JournalEntryOutboxEntity e SET e.batchIdentifier = :batchIdentifier " +
+      "WHERE e.id IN :ids AND e.batchIdentifier IS NULL AND e.deadLetteredOn IS NULL AND e.postedOn IS NULL")
+  int claimForBatch(@Param("ids") Collection<Long> ids, @Param("batchIdentifier") String batchIdentifier);
+
+  /**
+   * Records that accounting took the entry with the given transaction identifier, or all entries combined under it.
+   */
+  @Modifying
+  @Transactional
+  @Query("UPDATE JournalEntryOutboxEntity e SET e.postedOn = :postedOn " +
+      "WHERE e.transactionIdentifier = :transactionIdentifier OR e.batchIdentifier = :transactionIdentifier")
+  int markPosted(@Param("transactionIdentifier") String transactionIdentifier, @Param("postedOn") LocalDateTime postedOn);
+
+  /**
+   * Removes the entry with the given transaction identifier, or all entries combined under it, once accounting has
+   * released it.  Whether it was recorded as posted yet or not, accounting has it.
+   */
+  @Modifying
+  @Transactional
+  @Query("DELETE FROM JournalEntryOutboxEntity e " +
+      "WHERE e.transactionIdentifier = :transactionIdentifier OR e.batchIdentifier = :transactionIdentifier")
+  int deleteReleased(@Param("transactionIdentifier") String transactionIdentifier);
+
+  /**
+   * Removes posted entries whose release wasn't announced in time.  Their release is assumed to have been missed.
+   */
+  @Modifying
+  @Transactional
+  @Query("DELETE FROM JournalEntryOutboxEntity e WHERE e.postedOn <= :postedOn")
+  int deleteByPostedOnNotAfter(@Param("postedOn") LocalDateTime postedOn);
+
+  /**
+   * Removes the entries combined under the given transaction identifier without them having been posted.
+   */
+  @Modifying
+  @Transactional
+  @Query("DELETE FROM JournalEntryOutboxEntity e WHERE e.batchIdentifier = :batchIdentifier")
+  int deleteByBatchIdentifier(@Param("batchIdentifier") String batchIdentifier);
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.portfolio.service.internal.util;
+
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import net.jodah.expiringmap.ExpirationPolicy;
+import net.jodah.expiringmap.ExpiringMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.fineract.cn.accounting.api.v1.domain.Account;
+import org.apache.fineract.cn.accounting.api.v1.domain.Creditor;
+import org.apache.fineract.cn.accounting.api.v1.domain.Debtor;
+import org.apache.fineract.cn.accounting.api.v1.domain.JournalEntry;
+import org.apache.fineract.cn.lang.TenantContextHolder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Accounts read from accounting, shared across requests and kept per tenant.  Entries are evicted when accounting
+ * announces a change to the account, or a journal entry touching it.  Journal entries booked by this service are
+ * recognized by their transaction identifier; for any other journal entry, all of the tenant's accounts are evicted,
+ * since the event doesn't say which accounts the entry touches.
+ *
+ * Every eviction is stamped with a new generation.  A read from accounting takes the current generation before it
+ * starts, and its result is only put into the cache if the account wasn't evicted since, so that a read which was
+ * already in flight can't put back the balance from before the journal entry.
+ */
+@Component
+public class AccountCache {
+  private final boolean enabled;
+  private final ExpiringMap<TenantedIdentifier, Account> accounts;
+  private final ExpiringMap<TenantedIdentifier, Set<String>> accountIdentifiersByTransaction;
+  private final AtomicLong generation = new AtomicLong();
+  private final ExpiringMap<TenantedIdentifier, Long> evictedInGeneration;
+  private final ConcurrentHashMap<String, Long> tenantEvictedInGeneration = new ConcurrentHashMap<>();
+  private final AtomicLong forgottenUpToGeneration = new AtomicLong();
+
+  @Autowired
+  public AccountCache(final PortfolioProperties portfolioProperties) {
+    this.enabled = portfolioProperties.getSharedAccountCacheSize() > 0;
+    final int maxSize = Math.max(1, portfolioProperties.getSharedAccountCacheSize());
+    this.accounts = ExpiringMap.builder()
+        .maxSize(maxSize)
+        .expirationPolicy(ExpirationPolicy.CREATED)
+        .expiration(portfolioProperties.getSharedAccountCacheExpirySeconds(), TimeUnit.SECONDS)
+        .build();
+    this.accountIdentifiersByTransaction = ExpiringMap.builder()
+        .maxSize(maxSize)
+        .expirationPolicy(ExpirationPolicy.CREATED)
+        .expiration(portfolioProperties.getSharedAccountCacheExpirySeconds(), TimeUnit.SECONDS)
+        .build();
+    //Once the generation of an eviction is forgotten, reads started before it can't be checked against it anymore.
+    this.evictedInGeneration = ExpiringMap.builder()
+        .maxSize(maxSize)
+        .expirationPolicy(ExpirationPolicy.CREATED)
+        .expiration(portfolioProperties.getSharedAccountCacheExpirySeconds(), TimeUnit.SECONDS)
+        .expirationListener((TenantedIdentifier key, Long evictionGeneration) ->
+            forgottenUpToGeneration.accumulateAndGet(evictionGeneration, Math::max))
+        .build();
+  }
+
+  public Optional<Account> get(final String accountIdentifier) {
+    if (!enabled)
+      return Optional.empty();
+    return Optional.ofNullable(accounts.get(new TenantedIdentifier(TenantContextHolder.checkedGetIdentifier(), accountIdentifier)));
+  }
+
+  /**
+   * @return the generation to pass to {@link #put} with the account, once it has been read from accounting.
+   */
+  public long startRead() {
+    return generation.get();
+  }
+
+  /**
+   * Puts the account into the cache, unless it was evicted after the given generation, in which case it may have been
+   * read before the change which evicted it.
+   */
+  public void put(final Account account, final long readStartedInGeneration) {
+    if (!enabled)
+      return;
+    final TenantedIdentifier key
+        = new TenantedIdentifier(TenantContextHolder.checkedGetIdentifier(), account.getIdentifier());
+    if (evictedSince(key, readStartedInGeneration))
+      return;
+    accounts.put(key, account);
+    //An eviction may have come in between the check and the put.  It is stamped before it removes the account, so
+    //checking again afterwards catches it.
+    if (evictedSince(key, readStartedInGeneration))
+      accounts.remove(key);
+  }
+
+  private boolean evictedSince(final TenantedIdentifier key, final long readStartedInGeneration) {
+    return forgottenUpToGeneration.get() > readStartedInGeneration
+        || tenantEvictedInGeneration.getOrDefault(key.tenantIdentifier, 0L) > readStartedInGeneration
+        || Optional.ofNullable(evictedInGeneration.get(key)).orElse(0L) > readStartedInGeneration;
+  }
+
+  /**
+   * To be called once a journal entry is booked.  The accounts touched are evicted right away, and again when
+   * accounting announces the journal entry, since their balances change only once accounting has processed it.
+   */
+  public void journalEntryBooked(final String transactionIdentifier, final Collection<String> accountIdentifiers) {
+    if (!enabled)
+      return;
+    final String tenantIdentifier = TenantContextHolder.checkedGetIdentifier();
+    accountIdentifiersByTransaction.put(
+        new TenantedIdentifier(tenantIdentifier, transactionIdentifier),
+        new HashSet<>(accountIdentifiers));
+    accountIdentifiers.forEach(accountIdentifier -> evictAccount(tenantIdentifier, accountIdentifier));
+  }
+
+  public void journalEntryBooked(final JournalEntry journalEntry) {
+    journalEntryBooked(journalEntry.getTransactionIdentifier(), Stream.concat(
+        journalEntry.getCreditors().stream().map(Creditor::getAccountNumber),
+        journalEntry.getDebtors().stream().map(Debtor::getAccountNumber))
+        .collect(Collectors.toSet()));
+  }
+
+  void evictAccount(final String tenantIdentifier, final String accountIdentifier) {
+    final TenantedIdentifier key = new TenantedIdentifier(tenantIdentifier, accountIdentifier);
+    evictedInGeneration.put(key, generation.incrementAndGet());
+    accounts.remove(key);
+  }
+
+  void evictAccountsOfTransaction(final String tenantIdentifier, final String transactionIdentifier) {
+    final Set<String> accountIdentifiers
+        = accountIdentifiersByTransaction.get(new TenantedIdentifier(tenantIdentifier, transactionIdentifier));
+    if (accountIdentifiers != null)
+      accountIdentifiers.forEach(accountIdentifier -> evictAccount(tenantIdentifier, accountIdentifier));
+    else {
+      tenantEvictedInGeneration.put(tenantIdentifier, generation.incrementAndGet());
+      new ArrayList<>(accounts.keySet()).stream()
+          .filter(key -> key.tenantIdentifier.equals(tenantIdentifier))
+          .forEach(accounts::remove);
+    }
+  }
+
+  private static class TenantedIdentifier {
+    private final String tenantIdentifier;
+    private final String identifier;
+
+    private TenantedIdentifier(final String tenantIdentifier, final String identifier) {
+      this.tenantIdentifier = tenantIdentifier;
+      this.identifier = identifier;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      final TenantedIdentifier that = (TenantedIdentifier) o;
+      return Objects.equals(tenantIdentifier, that.tenantIdentifier) &&
+          Objects.equals(identifier, that.identifier);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(tenantIdentifier, identifier);
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.portfolio.service.internal.util;
+
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import org.apache.fineract.cn.portfolio.service.internal.repository.AccountNumberSequenceRepository;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import org.apache.fineract.cn.lang.ServiceException;
+import org.apache.fineract.cn.lang.TenantContextHolder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hands out the indexes used in the numbers of case accounts, per ledger.  Each instance reserves a block of indexes
+ * at a time in the ledger's sequence in the database, and hands them out from memory.  Indexes of a block which are
+ * not used before the instance stops are skipped.
+ */
+@Component
+public class AccountNumberAllocator {
+  private final AccountNumberSequenceRepository accountNumberSequenceRepository;
+  private final PortfolioProperties portfolioProperties;
+  private final Map<String, ReservedBlock> reservedBlocks = new ConcurrentHashMap<>();
+
+  private static class ReservedBlock {
+    private long nextIndex = 0;
+    private long endIndex = 0;
+  }
+
+  @Autowired
+  public AccountNumberAllocator(
+      final AccountNumberSequenceRepository accountNumberSequenceRepository,
+      final PortfolioProperties portfolioProperties) {
+    this.accountNumberSequenceRepository = accountNumberSequenceRepository;
+    this.portfolioProperties = portfolioProperties;
+  }
+
+  /**
+   * @param firstIndexOfNewSequence called only if there is no sequence for the ledger yet, to determine where it
+   *                                should start.  It is called without holding the lock on the ledger's block, since
+   *                                it may have to ask accounting.
+   */
+  public long allocate(final String ledgerIdentifier, final LongSupplier firstIndexOfNewSequence) {
+    final String tenantIdentifier = TenantContextHolder.checkedGetIdentifier();
+    final ReservedBlock reservedBlock = reservedBlocks.computeIfAbsent(
+        tenantIdentifier + "|" + ledgerIdentifier, key -> new ReservedBlock());
+
+    synchronized (reservedBlock) {
+      final OptionalLong index = allocateFromSequence(ledgerIdentifier, reservedBlock);
+      if (index.isPresent())
+        return index.getAsLong();
+    }
+
+    accountNumberSequenceRepository.createIfAbsent(ledgerIdentifier, firstIndexOfNewSequence.getAsLong());
+
+    synchronized (reservedBlock) {
+      //Another thread may have created the sequence and reserved a block meanwhile.
+      return allocateFromSequence(ledgerIdentifier, reservedBlock).orElseThrow(() ->
+          ServiceException.internalError("No account number sequence for ledger ''{0}''.", ledgerIdentifier));
+    }
+  }
+
+  /**
+   * @return empty if there is no sequence for the ledger yet.
+   */
+  private OptionalLong allocateFromSequence(final String ledgerIdentifier, final ReservedBlock reservedBlock) {
+    if (reservedBlock.nextIndex >= reservedBlock.endIndex) {
+      final long blockSize = portfolioProperties.getAccountNumberBlockSize();
+      final Optional<Long> firstIndexOfBlock = reserveBlock(ledgerIdentifier, blockSize);
+      if (!firstIndexOfBlock.isPresent())
+        return OptionalLong.empty();
+      reservedBlock.nextIndex = firstIndexOfBlock.get();
+      reservedBlock.endIndex = reservedBlock.nextIndex + blockSize;
+    }
+    return OptionalLong.of(reservedBlock.nextIndex++);
+  }
+
+  private Optional<Long> reserveBlock(final String ledgerIdentifier, final long blockSize) {
+    while (true) {
+      final Optional<Long> nextIndex = accountNumberSequenceRepository.findNextIndex(ledgerIdentifier);
+      if (!nextIndex.isPresent())
+        return Optional.empty();
+
+      if (accountNumberSequenceRepository.reserve(ledgerIdentifier, nextIndex.get(), blockSize) == 1)
+        return nextIndex;
+    }
+  }
+}
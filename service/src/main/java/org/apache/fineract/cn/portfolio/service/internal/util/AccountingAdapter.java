@@ -25,19 +25,29 @@ import org.apache.fineract.cn.individuallending.internal.service.DesignatorToAcc
 import org.apache.fineract.cn.portfolio.api.v1.domain.AccountAssignment;
 import org.apache.fineract.cn.portfolio.api.v1.domain.ChargeDefinition;
 import org.apache.fineract.cn.portfolio.service.ServiceConstants;
+import org.apache.fineract.cn.portfolio.service.internal.util.AccountingGateway.Operation;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import org.apache.commons.lang.RandomStringUtils;
 import org.apache.commons.lang.StringUtils;
@@ -49,7 +59,8 @@ import org.apache.fineract.cn.accounting.api.v1.client.LedgerManager;
 import org.apache.fineract.cn.accounting.api.v1.client.LedgerNotFoundException;
 import org.apache.fineract.cn.accounting.api.v1.domain.Account;
 import org.apache.fineract.cn.accounting.api.v1.domain.AccountEntry;
-import org.apache.fineract.cn.accounting.api.v1.domain.AccountPage;
+import org.apache.fineract.cn.accounting.api.v1.domain.AccountEntryPage;
+import org.apache.fineract.cn.accounting.api.v1.domain.AccountType;
 import org.apache.fineract.cn.accounting.api.v1.domain.Creditor;
 import org.apache.fineract.cn.accounting.api.v1.domain.Debtor;
 import org.apache.fineract.cn.accounting.api.v1.domain.JournalEntry;
@@ -58,7 +69,7 @@ import org.apache.fineract.cn.api.util.UserContextHolder;
 import org.apache.fineract.cn.lang.DateConverter;
 import org.apache.fineract.cn.lang.DateRange;
 import org.apache.fineract.cn.lang.ServiceException;
-import org.apache.fineract.cn.lang.listening.EventExpectation;
+import org.apache.fineract.cn.lang.TenantContextHolder;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -73,16 +84,37 @@ public class AccountingAdapter {
 
   public enum IdentifierType {LEDGER, ACCOUNT}
 
+  public static final String TRANSACTION_IDENTIFIER_PREFIX = "portfolio.";
+
+  private static final long MAXIMUM_ACCOUNT_INDEX = 99999;
+  private static final int MAXIMUM_CASE_ACCOUNT_NUMBER_COLLISIONS = 100;
+  private static final int ACCOUNT_ENTRIES_PAGE_SIZE = 50;
+
   private final LedgerManager ledgerManager;
   private final AccountingListener accountingListener;
+  private final AccountCache accountCache;
+  private final JournalEntryOutbox journalEntryOutbox;
+  private final AccountNumberAllocator accountNumberAllocator;
+  private final AccountingGateway accountingGateway;
+  private final ExecutorService accountingExecutor;
   private final Logger logger;
 
   @Autowired
   public AccountingAdapter(@SuppressWarnings("SpringJavaAutowiringInspection") final LedgerManager ledgerManager,
                            final AccountingListener accountingListener,
+                           final AccountCache accountCache,
+                           final JournalEntryOutbox journalEntryOutbox,
+                           final AccountNumberAllocator accountNumberAllocator,
+                           final AccountingGateway accountingGateway,
+                           @Qualifier(ServiceConstants.ACCOUNTING_EXECUTOR_NAME) final ExecutorService accountingExecutor,
                            @Qualifier(ServiceConstants.LOGGER_NAME) final Logger logger) {
     this.ledgerManager = ledgerManager;
     this.accountingListener = accountingListener;
+    this.accountCache = accountCache;
+    this.journalEntryOutbox = journalEntryOutbox;
+    this.accountNumberAllocator = accountNumberAllocator;
+    this.accountingGateway = accountingGateway;
+    this.accountingExecutor = accountingExecutor;
     this.logger = logger;
   }
 
@@ -124,11 +156,19 @@ public class AccountingAdapter {
     if (journalEntry.getCreditors().isEmpty() && journalEntry.getDebtors().isEmpty())
       return Optional.empty();
 
+    if (journalEntryOutbox.isEnabled()) {
+      final String transactionUniqueifier = RandomStringUtils.random(26, true, true);
+      journalEntry.setTransactionIdentifier(formulateTransactionIdentifier(message, transactionUniqueifier));
+      journalEntryOutbox.enqueue(journalEntry, balanceAdjustments);
+      return Optional.of(transactionUniqueifier);
+    }
+
     while (true) {
       try {
         final String transactionUniqueifier = RandomStringUtils.random(26, true, true);
         journalEntry.setTransactionIdentifier(formulateTransactionIdentifier(message, transactionUniqueifier));
-        ledgerManager.createJournalEntry(journalEntry);
+        accountingGateway.run(Operation.CREATE_JOURNAL_ENTRY, () -> ledgerManager.createJournalEntry(journalEntry));
+        accountCache.journalEntryBooked(journalEntry);
         return Optional.of(transactionUniqueifier);
       } catch (final JournalEntryAlreadyExistsException ignore) {
         //Try again with a new uniqueifier.
@@ -136,10 +176,44 @@ public class AccountingAdapter {
     }
   }
 
-  private static String formulateTransactionIdentifier(
+  /**
+   * Like bookCharges, but the journal entry may be posted to accounting combined with the entries of other cases.
+   * Only for entries which are never looked up by their message in accounting.  Batching takes place in the outbox, so
+   * without it the entry is booked on its own.
+   */
+  public Optional<String> bookChargesInBatch(
+      final Map<String, BigDecimal> balanceAdjustments,
+      final DesignatorToAccountIdentifierMapper designatorToAccountIdentifierMapper,
+      final String note,
+      final String transactionDate,
+      final String message,
+      final String transactionType) {
+    if (!journalEntryOutbox.isEnabled())
+      return bookCharges(balanceAdjustments, designatorToAccountIdentifierMapper, note, transactionDate, message, transactionType);
+
+    final JournalEntry journalEntry = getJournalEntry(
+        balanceAdjustments,
+        designatorToAccountIdentifierMapper,
+        note,
+        transactionDate,
+        message,
+        transactionType,
+        UserContextHolder.checkedGetUser());
+
+    //noinspection ConstantConditions
+    if (journalEntry.getCreditors().isEmpty() && journalEntry.getDebtors().isEmpty())
+      return Optional.empty();
+
+    final String transactionUniqueifier = RandomStringUtils.random(26, true, true);
+    journalEntry.setTransactionIdentifier(formulateTransactionIdentifier(message, transactionUniqueifier));
+    journalEntryOutbox.enqueueForBatch(journalEntry, balanceAdjustments);
+    return Optional.of(transactionUniqueifier);
+  }
+
+  public static String formulateTransactionIdentifier(
       final String message,
       final String transactionUniqueifier) {
-    return "portfolio." + message + "." + transactionUniqueifier;
+    return TRANSACTION_IDENTIFIER_PREFIX + message + "." + transactionUniqueifier;
   }
 
   static JournalEntry getJournalEntry(
@@ -199,28 +273,60 @@ public class AccountingAdapter {
 
   public Optional<LocalDateTime> getDateOfOldestEntryContainingMessage(final String accountIdentifier,
                                                                        final String message) {
-    final Account account = ledgerManager.findAccount(accountIdentifier);
+    final Account account = accountingGateway.call(Operation.FIND_ACCOUNT, () -> ledgerManager.findAccount(accountIdentifier));
     final LocalDateTime accountCreatedOn = DateConverter.fromIsoString(account.getCreatedOn());
     final DateRange fromAccountCreationUntilNow = oneSidedDateRange(accountCreatedOn.toLocalDate());
 
-    return ledgerManager.fetchAccountEntriesStream(accountIdentifier, fromAccountCreationUntilNow.toString(), message, "ASC")
+    return fetchAccountEntries(accountIdentifier, fromAccountCreationUntilNow, message)
         .findFirst()
         .map(AccountEntry::getTransactionDate)
         .map(DateConverter::fromIsoString);
   }
 
+  /**
+   * Includes the matching entries which are still waiting in the outbox to be posted.
+   */
   public BigDecimal sumMatchingEntriesSinceDate(final String accountIdentifier, final LocalDate startDate, final String message)
   {
     final DateRange fromLastPaymentUntilNow = oneSidedDateRange(startDate);
-    final Stream<AccountEntry> accountEntriesStream = ledgerManager.fetchAccountEntriesStream(accountIdentifier, fromLastPaymentUntilNow.toString(), message, "ASC");
-    return accountEntriesStream
+    final BigDecimal postedAmount = fetchAccountEntries(accountIdentifier, fromLastPaymentUntilNow, message)
         .map(AccountEntry::getAmount)
         .map(BigDecimal::valueOf).reduce(BigDecimal.ZERO, BigDecimal::add);
+    if (!journalEntryOutbox.isEnabled())
+      return postedAmount;
+    return postedAmount.add(journalEntryOutbox.getPendingAmountWithMessage(accountIdentifier, message, startDate));
+  }
+
+  /**
+   * Streams the matching entries in ascending order of transaction date.  A page is only fetched once the stream
+   * reaches it, and each page is a call of its own, so the timeout bounds the fetching of a page rather than the
+   * consumption of the whole stream.
+   */
+  private Stream<AccountEntry> fetchAccountEntries(
+      final String accountIdentifier,
+      final DateRange dateRange,
+      final String message) {
+    final AccountEntryPage firstPage = fetchAccountEntriesPage(accountIdentifier, dateRange, message, 0);
+    final int pageCount = firstPage.getTotalPages() == null ? 0 : firstPage.getTotalPages();
+    return Stream.concat(
+        Stream.of(firstPage),
+        IntStream.range(1, pageCount).mapToObj(pageIndex -> fetchAccountEntriesPage(accountIdentifier, dateRange, message, pageIndex)))
+        .flatMap(page -> page.getAccountEntries() == null ? Stream.empty() : page.getAccountEntries().stream());
+  }
+
+  private AccountEntryPage fetchAccountEntriesPage(
+      final String accountIdentifier,
+      final DateRange dateRange,
+      final String message,
+      final int pageIndex) {
+    return accountingGateway.call(Operation.FETCH_ACCOUNT_ENTRIES, () ->
+        ledgerManager.fetchAccountEntries(accountIdentifier, dateRange.toString(), message,
+            pageIndex, ACCOUNT_ENTRIES_PAGE_SIZE, "transactionDate", "ASC"));
   }
 
   public Account getAccount(final String accountIdentifier) {
     try {
-      final Account account = ledgerManager.findAccount(accountIdentifier);
+      final Account account = accountingGateway.call(Operation.FIND_ACCOUNT, () -> ledgerManager.findAccount(accountIdentifier));
       if (account == null || account.getBalance() == null || account.getType() == null)
         throw ServiceException.internalError("Could not find the account with identifier ''{0}''", accountIdentifier);
       return account;
@@ -230,11 +336,157 @@ public class AccountingAdapter {
     }
   }
 
-  public String createLedger(
+  /**
+   * Like {@link #getAccount}, but served from the accounts shared across requests if possible.  The balance includes
+   * the journal entries which are still waiting in the outbox to be posted.
+   */
+  public Account getCachedAccount(final String accountIdentifier) {
+    return withPendingEntries(getCachedPostedAccount(accountIdentifier));
+  }
+
+  private Account getCachedPostedAccount(final String accountIdentifier) {
+    final Optional<Account> cachedAccount = accountCache.get(accountIdentifier);
+    if (cachedAccount.isPresent())
+      return cachedAccount.get();
+
+    final long readStartedInGeneration = accountCache.startRead();
+    final Account account = getAccount(accountIdentifier);
+    accountCache.put(account, readStartedInGeneration);
+    return account;
+  }
+
+  /**
+   * Runs the call on the accounting executor, in the tenant and user context of the calling thread.
+   */
+  public <T> CompletableFuture<T> callInBackground(final Callable<T> call) {
+    return callInBackground(
+        TenantContextHolder.checkedGetIdentifier(),
+        UserContextHolder.checkedGetUser(),
+        UserContextHolder.checkedGetAccessToken(),
+        call);
+  }
+
+  /**
+   * Runs the call on the accounting executor, in the given tenant and user context.  Use this for calls chained onto
+   * futures which may be completed by a thread without context, such as accounting's event listener.
+   */
+  public <T> CompletableFuture<T> callInBackground(
+      final String tenantIdentifier,
+      final String user,
+      final String accessToken,
+      final Callable<T> call) {
+    final CompletableFuture<T> ret = new CompletableFuture<>();
+    accountingExecutor.submit(() -> {
+      TenantContextHolder.setIdentifier(tenantIdentifier);
+      UserContextHolder.setAccessToken(user, accessToken);
+      try {
+        ret.complete(call.call());
+      }
+      catch (final Exception e) {
+        ret.completeExceptionally(e);
+      }
+      finally {
+        UserContextHolder.clear();
+        TenantContextHolder.clear();
+      }
+    });
+    return ret;
+  }
+
+  /**
+   * Reads the given accounts concurrently.  Accounts which can't be read are left out of the result rather than
+   * failing the whole request, so that callers which only prefetch can leave error handling to the single read.  Like
+   * {@link #getCachedAccount}, the balances include the journal entries still waiting in the outbox.
+   */
+  public Map<String, Account> getAccounts(final Collection<String> accountIdentifiers) {
+    final String tenantIdentifier = TenantContextHolder.checkedGetIdentifier();
+    final String user = UserContextHolder.checkedGetUser();
+    final String accessToken = UserContextHolder.checkedGetAccessToken();
+
+    final Map<String, Account> ret = new HashMap<>();
+    final Map<String, Future<Account>> accountsInFlight = accountIdentifiers.stream()
+        .distinct()
+        .filter(accountIdentifier -> {
+          final Optional<Account> cachedAccount = accountCache.get(accountIdentifier);
+          cachedAccount.ifPresent(account -> ret.put(accountIdentifier, account));
+          return !cachedAccount.isPresent();
+        })
+        .collect(Collectors.toMap(Function.identity(), accountIdentifier -> accountingExecutor.submit(() -> {
+          TenantContextHolder.setIdentifier(tenantIdentifier);
+          UserContextHolder.setAccessToken(user, accessToken);
+          try {
+            return getCachedPostedAccount(accountIdentifier);
+          }
+          finally {
+            UserContextHolder.clear();
+            TenantContextHolder.clear();
+          }
+        })));
+
+    for (final Map.Entry<String, Future<Account>> accountInFlight : accountsInFlight.entrySet()) {
+      try {
+        ret.put(accountInFlight.getKey(), accountInFlight.getValue().get());
+      }
+      catch (final ExecutionException e) {
+        logger.info("Reading account '{}' failed.", accountInFlight.getKey(), e.getCause());
+      }
+      catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        accountsInFlight.values().forEach(x -> x.cancel(true));
+        break;
+      }
+    }
+    ret.replaceAll((accountIdentifier, account) -> withPendingEntries(account));
+    return ret;
+  }
+
+  /**
+   * @return the account as it will be once the journal entries still waiting in the outbox have been posted.  A copy
+   * if they change its balance, since the account read may be shared across requests.
+   */
+  private Account withPendingEntries(final Account account) {
+    if (!journalEntryOutbox.isEnabled())
+      return account;
+
+    final BigDecimal pendingCreditAmount = journalEntryOutbox.getPendingCreditAmount(account.getIdentifier());
+    if (pendingCreditAmount.signum() == 0)
+      return account;
+
+    //Credits increase the balance of accounts of these types, and decrease the balance of all others.
+    final boolean creditIncreasesBalance = Stream.of(AccountType.LIABILITY, AccountType.REVENUE, AccountType.EQUITY)
+        .map(AccountType::name)
+        .anyMatch(x -> x.equals(account.getType()));
+    final BigDecimal balanceAdjustment = creditIncreasesBalance ? pendingCreditAmount : pendingCreditAmount.negate();
+
+    final Account ret = new Account();
+    ret.setType(account.getType());
+    ret.setIdentifier(account.getIdentifier());
+    ret.setName(account.getName());
+    ret.setHolders(account.getHolders());
+    ret.setSignatureAuthorities(account.getSignatureAuthorities());
+    ret.setBalance(BigDecimal.valueOf(account.getBalance()).add(balanceAdjustment).doubleValue());
+    ret.setReferenceAccount(account.getReferenceAccount());
+    ret.setLedger(account.getLedger());
+    ret.setState(account.getState());
+    ret.setAlternativeAccountNumber(account.getAlternativeAccountNumber());
+    ret.setCreatedOn(account.getCreatedOn());
+    ret.setCreatedBy(account.getCreatedBy());
+    ret.setLastModifiedOn(account.getLastModifiedOn());
+    ret.setLastModifiedBy(account.getLastModifiedBy());
+    return ret;
+  }
+
+  /**
+   * Requests the creation of the ledger, without waiting for accounting to announce it.
+   *
+   * @return a future which completes with the identifier of the ledger once accounting has announced its creation,
+   * or after 10 seconds if it wasn't announced.
+   */
+  public CompletableFuture<String> createLedger(
       final String customerIdentifier,
       final String groupName,
-      final String parentLedger) throws InterruptedException {
-    final Ledger ledger = ledgerManager.findLedger(parentLedger);
+      final String parentLedger) {
+    final Ledger ledger = accountingGateway.call(Operation.FIND_LEDGER, () -> ledgerManager.findLedger(parentLedger));
     final List<Ledger> subLedgers = ledger.getSubLedgers() == null ? Collections.emptyList() : ledger.getSubLedgers();
 
     final Ledger generatedLedger = new Ledger();
@@ -246,33 +498,34 @@ public class AccountingAdapter {
     generatedLedger.setDescription("Individual loan case specific ledger");
     generatedLedger.setName(ledgerIdentifer.getIdentifier());
 
-
-    final EventExpectation expectation = accountingListener.expectLedgerCreation(generatedLedger.getIdentifier());
-    boolean created = false;
-    while (!created) {
+    while (true) {
+      final String attemptedLedgerIdentifier = ledgerIdentifer.getIdentifier();
+      final CompletableFuture<Boolean> ledgerCreationDetected
+          = accountingListener.awaitLedgerCreation(attemptedLedgerIdentifier, 10, TimeUnit.SECONDS);
       try {
-        logger.info("Attempting to create ledger with identifier '{}'", ledgerIdentifer.getIdentifier());
-        ledgerManager.addSubLedger(parentLedger, generatedLedger);
-        created = true;
+        logger.info("Attempting to create ledger with identifier '{}'", attemptedLedgerIdentifier);
+        accountingGateway.run(Operation.ADD_SUB_LEDGER, () -> ledgerManager.addSubLedger(parentLedger, generatedLedger));
+        return ledgerCreationDetected.thenApply(detected -> {
+          if (!detected)
+            logger.warn("Waited 10 seconds for creation of ledger '{}', but it was not detected. This could cause subsequent " +
+                    "account creations to fail. Is there something wrong with the accounting service? Is ActiveMQ setup properly?",
+                attemptedLedgerIdentifier);
+          return attemptedLedgerIdentifier;
+        });
       } catch (final LedgerAlreadyExistsException e) {
+        accountingListener.stopAwaitingLedgerCreation(attemptedLedgerIdentifier);
         ledgerIdentifer.incrementIndex();
         generatedLedger.setIdentifier(ledgerIdentifer.getIdentifier());
         generatedLedger.setName(ledgerIdentifer.getIdentifier());
       }
     }
-    final boolean ledgerCreationDetected = expectation.waitForOccurrence(10, TimeUnit.SECONDS);
-    if (!ledgerCreationDetected)
-      logger.warn("Waited 5 seconds for creation of ledger '{}', but it was not detected. This could cause subsequent " +
-              "account creations to fail. Is there something wrong with the accounting service? Is ActiveMQ setup properly?",
-          generatedLedger.getIdentifier());
-    return ledgerIdentifer.getIdentifier();
   }
 
   public String createProductAccountForLedgerAssignment(
       final String productIdentifier,
       final String accountDesignator,
       final String ledgerIdentifier) {
-    final Ledger ledger = ledgerManager.findLedger(ledgerIdentifier);
+    final Ledger ledger = accountingGateway.call(Operation.FIND_LEDGER, () -> ledgerManager.findLedger(ledgerIdentifier));
 
     final Account generatedAccount = new Account();
     generatedAccount.setBalance(0.0);
@@ -286,7 +539,7 @@ public class AccountingAdapter {
               generatedAccount.setIdentifier(accountNumber);
               generatedAccount.setName(accountNumber);
               try {
-                ledgerManager.createAccount(generatedAccount);
+                accountingGateway.run(Operation.CREATE_ACCOUNT, () -> ledgerManager.createAccount(generatedAccount));
                 return Optional.of(accountNumber);
               } catch (final AccountAlreadyExistsException e) {
                 logger.error("Account '{}' could not be created because it already exists.", accountNumber);
@@ -307,43 +560,46 @@ public class AccountingAdapter {
       final BigDecimal currentBalance) {
     if (ledgerAssignment.getAccountIdentifier() != null) try
     {
-      final Account existingAccount = ledgerManager.findAccount(ledgerAssignment.getAccountIdentifier());
+      final Account existingAccount = accountingGateway.call(Operation.FIND_ACCOUNT,
+          () -> ledgerManager.findAccount(ledgerAssignment.getAccountIdentifier()));
       return existingAccount.getIdentifier();
     }
     catch (final AccountNotFoundException ignored) {
       //If the "existing" account doesn't exist after all, create a new one.
     }
-    final Ledger ledger = ledgerManager.findLedger(ledgerAssignment.getLedgerIdentifier());
-    final AccountPage accountsOfLedger = ledgerManager.fetchAccountsOfLedger(ledger.getIdentifier(), null, null, null, null);
+    final Ledger ledger = accountingGateway.call(Operation.FIND_LEDGER,
+        () -> ledgerManager.findLedger(ledgerAssignment.getLedgerIdentifier()));
 
     final Account generatedAccount = new Account();
     generatedAccount.setBalance(currentBalance.doubleValue());
     generatedAccount.setType(ledger.getType());
     generatedAccount.setState(Account.State.OPEN.name());
     generatedAccount.setHolders(Sets.newHashSet(customerIdentifier));
-    long guestimatedAccountIndex = accountsOfLedger.getTotalElements() + 1;
     generatedAccount.setLedger(ledger.getIdentifier());
-    final Optional<String> createdAccountNumber =
-        Stream.iterate(guestimatedAccountIndex, i -> i + 1).limit(99999 - guestimatedAccountIndex)
-        .map(i -> {
-          final String accountNumber = createCaseAccountNumber(customerIdentifier, ledgerAssignment.getDesignator(), i);
-          generatedAccount.setIdentifier(accountNumber);
-          generatedAccount.setName(accountNumber);
-          generatedAccount.setAlternativeAccountNumber(ledgerAssignment.getAlternativeAccountNumber());
-          try {
-            ledgerManager.createAccount(generatedAccount);
-            return Optional.of(accountNumber);
-          } catch (final AccountAlreadyExistsException e) {
-            logger.error("Account '{}' could not be created because it already exists.", accountNumber);
-            return Optional.<String>empty();
-          }
-        })
-        .filter(Optional::isPresent).map(Optional::get)
-        .findFirst();
+    generatedAccount.setAlternativeAccountNumber(ledgerAssignment.getAlternativeAccountNumber());
+
+    //Numbers only collide with accounts which weren't numbered from the ledger's sequence, for example accounts of the
+    //same customer in another ledger with the same designator prefix.
+    for (int attempt = 0; attempt < MAXIMUM_CASE_ACCOUNT_NUMBER_COLLISIONS; attempt++) {
+      final long accountIndex = accountNumberAllocator.allocate(ledger.getIdentifier(),
+          () -> accountingGateway.call(Operation.FETCH_ACCOUNTS_OF_LEDGER,
+              () -> ledgerManager.fetchAccountsOfLedger(ledger.getIdentifier(), null, null, null, null)).getTotalElements() + 1);
+      if (accountIndex > MAXIMUM_ACCOUNT_INDEX)
+        break;
+
+      final String accountNumber = createCaseAccountNumber(customerIdentifier, ledgerAssignment.getDesignator(), accountIndex);
+      generatedAccount.setIdentifier(accountNumber);
+      generatedAccount.setName(accountNumber);
+      try {
+        accountingGateway.run(Operation.CREATE_ACCOUNT, () -> ledgerManager.createAccount(generatedAccount));
+        return accountNumber;
+      } catch (final AccountAlreadyExistsException e) {
+        logger.error("Account '{}' could not be created because it already exists.", accountNumber);
+      }
+    }
 
-    return createdAccountNumber.orElseThrow(() ->
-        ServiceException.conflict("Failed to create an account for customer ''{0}'' and ''{1}'', in ledger ''{2}''.",
-            customerIdentifier, ledgerAssignment.getDesignator(), ledgerAssignment.getLedgerIdentifier()));
+    throw ServiceException.conflict("Failed to create an account for customer ''{0}'' and ''{1}'', in ledger ''{2}''.",
+        customerIdentifier, ledgerAssignment.getDesignator(), ledgerAssignment.getLedgerIdentifier());
   }
 
   private static class IdentiferWithIndex {
@@ -438,7 +694,7 @@ public class AccountingAdapter {
   public boolean accountAssignmentRepresentsRealAccount(final AccountAssignment accountAssignment) {
     if (accountAssignment.getAccountIdentifier() != null) {
       try {
-        ledgerManager.findAccount(accountAssignment.getAccountIdentifier());
+        accountingGateway.call(Operation.FIND_ACCOUNT, () -> ledgerManager.findAccount(accountAssignment.getAccountIdentifier()));
         return true;
       }
       catch (final AccountNotFoundException e){
@@ -447,7 +703,7 @@ public class AccountingAdapter {
     }
     else if (accountAssignment.getLedgerIdentifier() != null) {
       try {
-        ledgerManager.findLedger(accountAssignment.getLedgerIdentifier());
+        accountingGateway.call(Operation.FIND_LEDGER, () -> ledgerManager.findLedger(accountAssignment.getLedgerIdentifier()));
         return true;
       }
       catch (final LedgerNotFoundException e){
@@ -0,0 +1,273 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.portfolio.service.internal.util;
+
+import org.apache.fineract.cn.portfolio.service.ServiceConstants;
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+import javax.annotation.PreDestroy;
+import org.apache.fineract.cn.accounting.api.v1.client.LedgerManager;
+import org.apache.fineract.cn.api.util.UserContextHolder;
+import org.apache.fineract.cn.lang.ServiceException;
+import org.apache.fineract.cn.lang.TenantContextHolder;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+/**
+ * All calls to accounting go through here.  The latency and outcome of each call are recorded per tenant and
+ * operation, and logged at a fixed interval.
+ *
+ * If guarding is switched on, each operation also gets a bulkhead limiting how many of its calls may run at once,
+ * a timeout, and a circuit breaker which fails calls fast after a run of failures.  The exceptions accounting's client
+ * declares, such as an account not being found, are answers rather than failures, and don't trip the breaker.
+ */
+@Component
+public class AccountingGateway {
+  public enum Operation {
+    FIND_ACCOUNT, FIND_LEDGER, FETCH_ACCOUNT_ENTRIES, FETCH_ACCOUNTS_OF_LEDGER,
+    CREATE_ACCOUNT, ADD_SUB_LEDGER, CREATE_JOURNAL_ENTRY
+  }
+
+  static final long[] LATENCY_BUCKET_UPPER_BOUNDS_MILLIS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, Long.MAX_VALUE};
+  private static final String DECLARED_EXCEPTION_PACKAGE = LedgerManager.class.getPackage().getName();
+
+  private final PortfolioProperties portfolioProperties;
+  private final Logger logger;
+  private final Map<Operation, Semaphore> bulkheads = new EnumMap<>(Operation.class);
+  private final Map<Operation, CircuitBreaker> circuitBreakers = new EnumMap<>(Operation.class);
+  private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+  private final ExecutorService callExecutor = Executors.newCachedThreadPool();
+  private final ScheduledExecutorService metricsLogger = Executors.newSingleThreadScheduledExecutor();
+
+  static class LatencyHistogram {
+    private final AtomicLongArray bucketCounts = new AtomicLongArray(LATENCY_BUCKET_UPPER_BOUNDS_MILLIS.length);
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    void record(final long millis, final boolean failed) {
+      int bucket = 0;
+      while (millis > LATENCY_BUCKET_UPPER_BOUNDS_MILLIS[bucket])
+        bucket++;
+      bucketCounts.incrementAndGet(bucket);
+      if (failed)
+        errors.incrementAndGet();
+    }
+
+    long getCount(final int bucket) {
+      return bucketCounts.get(bucket);
+    }
+
+    long getErrors() {
+      return errors.get();
+    }
+
+    long getRejections() {
+      return rejections.get();
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder ret = new StringBuilder();
+      for (int bucket = 0; bucket < LATENCY_BUCKET_UPPER_BOUNDS_MILLIS.length; bucket++) {
+        final long upperBound = LATENCY_BUCKET_UPPER_BOUNDS_MILLIS[bucket];
+        ret.append(upperBound == Long.MAX_VALUE ? "inf" : "le" + upperBound).append('=').append(bucketCounts.get(bucket)).append(' ');
+      }
+      return ret.append("errors=").append(errors.get()).append(" rejections=").append(rejections.get()).toString();
+    }
+  }
+
+  private static class CircuitBreaker {
+    private int consecutiveFailures = 0;
+    private long openUntil = 0;
+    private boolean trialInFlight = false;
+
+    synchronized boolean allowCall(final long now) {
+      if (openUntil == 0)
+        return true;
+      if (now < openUntil || trialInFlight)
+        return false;
+      //Half open: let one call through to find out whether accounting has recovered.
+      trialInFlight = true;
+      return true;
+    }
+
+    synchronized void recordSuccess() {
+      consecutiveFailures = 0;
+      openUntil = 0;
+      trialInFlight = false;
+    }
+
+    synchronized void recordFailure(final long now, final int threshold, final long openMillis) {
+      trialInFlight = false;
+      consecutiveFailures++;
+      if (consecutiveFailures >= threshold)
+        openUntil = now + openMillis;
+    }
+  }
+
+  @Autowired
+  public AccountingGateway(
+      final PortfolioProperties portfolioProperties,
+      @Qualifier(ServiceConstants.LOGGER_NAME) final Logger logger) {
+    this.portfolioProperties = portfolioProperties;
+    this.logger = logger;
+    for (final Operation operation : Operation.values()) {
+      bulkheads.put(operation, new Semaphore(portfolioProperties.getAccountingBulkheadSize()));
+      circuitBreakers.put(operation, new CircuitBreaker());
+    }
+    final int metricsLogIntervalSeconds = portfolioProperties.getAccountingMetricsLogIntervalSeconds();
+    if (metricsLogIntervalSeconds > 0)
+      metricsLogger.scheduleAtFixedRate(this::logMetrics, metricsLogIntervalSeconds, metricsLogIntervalSeconds, TimeUnit.SECONDS);
+  }
+
+  public void run(final Operation operation, final Runnable call) {
+    call(operation, () -> {
+      call.run();
+      return null;
+    });
+  }
+
+  public <T> T call(final Operation operation, final Supplier<T> call) {
+    final String tenantIdentifier = TenantContextHolder.checkedGetIdentifier();
+    final LatencyHistogram histogram = histograms.computeIfAbsent(
+        tenantIdentifier + "|" + operation, key -> new LatencyHistogram());
+
+    if (!portfolioProperties.isGuardAccountingCalls())
+      return callAndRecord(histogram, call);
+
+    final Semaphore bulkhead = bulkheads.get(operation);
+    try {
+      if (!bulkhead.tryAcquire(portfolioProperties.getAccountingBulkheadWaitMillis(), TimeUnit.MILLISECONDS)) {
+        histogram.rejections.incrementAndGet();
+        throw ServiceException.internalError("Too many concurrent calls to accounting for ''{0}''.", operation);
+      }
+    }
+    catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw ServiceException.internalError("Interrupted while waiting to call accounting for ''{0}''.", operation);
+    }
+
+    final CircuitBreaker circuitBreaker = circuitBreakers.get(operation);
+    if (!circuitBreaker.allowCall(System.currentTimeMillis())) {
+      bulkhead.release();
+      histogram.rejections.incrementAndGet();
+      throw ServiceException.internalError("Calls to accounting for ''{0}'' are failing.  Not trying again yet.", operation);
+    }
+
+    final String user = UserContextHolder.checkedGetUser();
+    final String accessToken = UserContextHolder.checkedGetAccessToken();
+    final Future<T> callInFlight = callExecutor.submit(() -> {
+      TenantContextHolder.setIdentifier(tenantIdentifier);
+      UserContextHolder.setAccessToken(user, accessToken);
+      try {
+        return callAndRecord(histogram, call);
+      }
+      finally {
+        //A call which timed out keeps its place in the bulkhead until it actually ends.
+        bulkhead.release();
+        UserContextHolder.clear();
+        TenantContextHolder.clear();
+      }
+    });
+
+    //The outcome is judged here rather than in the call, since a call which timed out may still end normally.
+    try {
+      final T ret = callInFlight.get(portfolioProperties.getAccountingCallTimeoutMillis(), TimeUnit.MILLISECONDS);
+      circuitBreaker.recordSuccess();
+      return ret;
+    }
+    catch (final TimeoutException e) {
+      callInFlight.cancel(true);
+      histogram.errors.incrementAndGet();
+      recordFailure(circuitBreaker);
+      throw ServiceException.internalError("Call to accounting for ''{0}'' timed out.", operation);
+    }
+    catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      callInFlight.cancel(true);
+      recordFailure(circuitBreaker);
+      throw ServiceException.internalError("Interrupted while calling accounting for ''{0}''.", operation);
+    }
+    catch (final ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException && isDeclaredByClient((RuntimeException) e.getCause()))
+        circuitBreaker.recordSuccess();
+      else
+        recordFailure(circuitBreaker);
+
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw ServiceException.internalError("Call to accounting for ''{0}'' failed: {1}", operation, e.getCause());
+    }
+  }
+
+  private <T> T callAndRecord(final LatencyHistogram histogram, final Supplier<T> call) {
+    final long start = System.nanoTime();
+    boolean failed = false;
+    try {
+      return call.get();
+    }
+    catch (final RuntimeException e) {
+      failed = !isDeclaredByClient(e);
+      throw e;
+    }
+    finally {
+      histogram.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), failed);
+    }
+  }
+
+  private void recordFailure(final CircuitBreaker circuitBreaker) {
+    circuitBreaker.recordFailure(
+        System.currentTimeMillis(),
+        portfolioProperties.getAccountingCircuitBreakerFailureThreshold(),
+        TimeUnit.SECONDS.toMillis(portfolioProperties.getAccountingCircuitBreakerOpenSeconds()));
+  }
+
+  static boolean isDeclaredByClient(final RuntimeException e) {
+    return e.getClass().getPackage() != null && e.getClass().getPackage().getName().equals(DECLARED_EXCEPTION_PACKAGE);
+  }
+
+  LatencyHistogram getHistogram(final String tenantIdentifier, final Operation operation) {
+    return histograms.get(tenantIdentifier + "|" + operation);
+  }
+
+  private void logMetrics() {
+    histograms.forEach((key, histogram) -> logger.info("Accounting call latencies for '{}': {}", key, histogram));
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    metricsLogger.shutdownNow();
+    callExecutor.shutdown();
+  }
+}
@@ -18,12 +18,21 @@
  */
 package org.apache.fineract.cn.portfolio.service.internal.util;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
 import org.apache.fineract.cn.accounting.api.v1.EventConstants;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseUnreleasedEntryRepository;
+import org.apache.fineract.cn.portfolio.service.internal.repository.JournalEntryOutboxRepository;
 import org.apache.fineract.cn.lang.TenantContextHolder;
 import org.apache.fineract.cn.lang.config.TenantHeaderFilter;
-import org.apache.fineract.cn.lang.listening.EventExpectation;
 import org.apache.fineract.cn.lang.listening.EventKey;
 import org.apache.fineract.cn.lang.listening.TenantedEventListener;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jms.annotation.JmsListener;
 import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.stereotype.Component;
@@ -34,6 +43,21 @@ import org.springframework.stereotype.Component;
 @Component
 public class AccountingListener {
   private final TenantedEventListener eventListener = new TenantedEventListener();
+  private final AccountCache accountCache;
+  private final CaseUnreleasedEntryRepository caseUnreleasedEntryRepository;
+  private final JournalEntryOutboxRepository journalEntryOutboxRepository;
+  private final Map<EventKey, CompletableFuture<Boolean>> ledgerCreationsAwaited = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService expiryScheduler = Executors.newSingleThreadScheduledExecutor();
+
+  @Autowired
+  public AccountingListener(
+      final AccountCache accountCache,
+      final CaseUnreleasedEntryRepository caseUnreleasedEntryRepository,
+      final JournalEntryOutboxRepository journalEntryOutboxRepository) {
+    this.accountCache = accountCache;
+    this.caseUnreleasedEntryRepository = caseUnreleasedEntryRepository;
+    this.journalEntryOutboxRepository = journalEntryOutboxRepository;
+  }
 
   @JmsListener(
       destination = EventConstants.DESTINATION,
@@ -42,11 +66,122 @@ public class AccountingListener {
   )
   public void onPostLedger(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
                            final String payload) {
-    this.eventListener.notify(new EventKey(tenant, EventConstants.POST_LEDGER, payload));
+    final EventKey eventKey = new EventKey(tenant, EventConstants.POST_LEDGER, payload);
+    this.eventListener.notify(eventKey);
+    final CompletableFuture<Boolean> ledgerCreationAwaited = ledgerCreationsAwaited.remove(eventKey);
+    if (ledgerCreationAwaited != null)
+      ledgerCreationAwaited.complete(true);
+  }
+
+  @JmsListener(
+      destination = EventConstants.DESTINATION,
+      selector = EventConstants.SELECTOR_PUT_ACCOUNT,
+      subscription = EventConstants.DESTINATION
+  )
+  public void onPutAccount(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+                           final String payload) {
+    onAccountChanged(tenant, payload);
+  }
+
+  @JmsListener(
+      destination = EventConstants.DESTINATION,
+      selector = EventConstants.SELECTOR_DELETE_ACCOUNT,
+      subscription = EventConstants.DESTINATION
+  )
+  public void onDeleteAccount(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+                              final String payload) {
+    onAccountChanged(tenant, payload);
   }
 
+  @JmsListener(
+      destination = EventConstants.DESTINATION,
+      selector = EventConstants.SELECTOR_CLOSE_ACCOUNT,
+      subscription = EventConstants.DESTINATION
+  )
+  public void onCloseAccount(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+                             final String payload) {
+    onAccountChanged(tenant, payload);
+  }
+
+  @JmsListener(
+      destination = EventConstants.DESTINATION,
+      selector = EventConstants.SELECTOR_LOCK_ACCOUNT,
+      subscription = EventConstants.DESTINATION
+  )
+  public void onLockAccount(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+                            final String payload) {
+    onAccountChanged(tenant, payload);
+  }
+
+  @JmsListener(
+      destination = EventConstants.DESTINATION,
+      selector = EventConstants.SELECTOR_UNLOCK_ACCOUNT,
+      subscription = EventConstants.DESTINATION
+  )
+  public void onUnlockAccount(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+                              final String payload) {
+    onAccountChanged(tenant, payload);
+  }
+
+  @JmsListener(
+      destination = EventConstants.DESTINATION,
+      selector = EventConstants.SELECTOR_REOPEN_ACCOUNT,
+      subscription = EventConstants.DESTINATION
+  )
+  public void onReopenAccount(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+                              final String payload) {
+    onAccountChanged(tenant, payload);
+  }
+
+  @JmsListener(
+      destination = EventConstants.DESTINATION,
+      selector = EventConstants.SELECTOR_RELEASE_JOURNAL_ENTRY,
+      subscription = EventConstants.DESTINATION
+  )
+  public void onReleaseJournalEntry(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+                                    final String payload) {
+    this.accountCache.evictAccountsOfTransaction(tenant, payload);
+
+    //Entries booked by other services can't have been applied to the balances projected by the portfolio.
+    if (!payload.startsWith(AccountingAdapter.TRANSACTION_IDENTIFIER_PREFIX))
+      return;
+    TenantContextHolder.setIdentifier(tenant);
+    try {
+      //Right after the accounts are evicted, so that balances read from then on don't count the entry twice.
+      this.journalEntryOutboxRepository.deleteReleased(payload);
+      this.caseUnreleasedEntryRepository.deleteByTransactionIdentifier(payload);
+    }
+    finally {
+      TenantContextHolder.clear();
+    }
+  }
+
+  //Any change to an account can change its balance or its state, so the cached copy is dropped instead of updated.
+  private void onAccountChanged(final String tenant, final String accountIdentifier) {
+    this.accountCache.evictAccount(tenant, accountIdentifier);
+  }
+
+  /**
+   * @return a future which completes with true once accounting announces the creation of the ledger, or with false if
+   * it isn't announced within the given time.  No thread is held while waiting.  Call before requesting the creation
+   * of the ledger, so that the announcement can't be missed.
+   */
+  CompletableFuture<Boolean> awaitLedgerCreation(final String ledgerIdentifier, final long timeout, final TimeUnit unit) {
+    final EventKey eventKey = new EventKey(TenantContextHolder.checkedGetIdentifier(), EventConstants.POST_LEDGER, ledgerIdentifier);
+    final CompletableFuture<Boolean> ret = ledgerCreationsAwaited.computeIfAbsent(eventKey, key -> new CompletableFuture<>());
+    expiryScheduler.schedule(() -> {
+      if (ledgerCreationsAwaited.remove(eventKey, ret))
+        ret.complete(false);
+    }, timeout, unit);
+    return ret;
+  }
+
+  void stopAwaitingLedgerCreation(final String ledgerIdentifier) {
+    ledgerCreationsAwaited.remove(new EventKey(TenantContextHolder.checkedGetIdentifier(), EventConstants.POST_LEDGER, ledgerIdentifier));
+  }
 
-  EventExpectation expectLedgerCreation(final String ledgerIdentifier) {
-    return eventListener.expect(new EventKey(TenantContextHolder.checkedGetIdentifier(), EventConstants.POST_LEDGER, ledgerIdentifier));
+  @PreDestroy
+  public void shutdown() {
+    expiryScheduler.shutdownNow();
   }
 }
@@ -0,0 +1,553 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.portfolio.service.internal.util;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseUnreleasedEntryRepository;
+import org.apache.fineract.cn.individuallending.internal.service.RejectedJournalEntryService;
+import org.apache.fineract.cn.portfolio.service.ServiceConstants;
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import org.apache.fineract.cn.portfolio.service.internal.repository.JournalEntryOutboxEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.JournalEntryOutboxLineEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.JournalEntryOutboxLineRepository;
+import org.apache.fineract.cn.portfolio.service.internal.repository.JournalEntryOutboxRepository;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import org.apache.commons.lang.RandomStringUtils;
+import org.apache.fineract.cn.accounting.api.v1.client.JournalEntryAlreadyExistsException;
+import org.apache.fineract.cn.accounting.api.v1.client.LedgerManager;
+import org.apache.fineract.cn.accounting.api.v1.domain.Creditor;
+import org.apache.fineract.cn.accounting.api.v1.domain.Debtor;
+import org.apache.fineract.cn.accounting.api.v1.domain.JournalEntry;
+import org.apache.fineract.cn.api.util.UserContextHolder;
+import org.apache.fineract.cn.lang.DateConverter;
+import org.apache.fineract.cn.lang.TenantContextHolder;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Journal entries are written to the outbox in the transaction of the command which books them, and posted to
+ * accounting from the dispatcher pool once that transaction has committed.  This way no database transaction is held
+ * open while waiting on accounting.
+ *
+ * Entries are posted in the order they were booked.  Transaction identifiers are fixed when an entry is booked, so
+ * reposting an entry which accounting already has is harmless.  An entry which can't be posted is retried with
+ * exponential backoff, once its backoff has passed, or earlier on the next booking or beat for its tenant.  The
+ * tenant's later entries wait for it, so that accounting never sees them out of order.
+ *
+ * Until accounting announces that it has released an entry, what the entry books to each account is kept alongside it,
+ * so that balances and sums of entries read from accounting can be completed with it.  A posted entry is removed in
+ * the same step in which the accounts it touches are evicted from the {@link AccountCache}, so that it is counted
+ * exactly once by balances read in between.
+ *
+ * An entry which accounting rejects is kept as a dead letter rather than being retried, and no longer holds back the
+ * entries after it.  What booking it did to the portfolio's own records of its case is reversed in the same
+ * transaction, and the case is marked for someone to look at.
+ *
+ * Consecutive entries booked for batching, of the same transaction date and type, are posted as one combined entry
+ * with the net amount per account.  Which entries go into a combined entry is recorded before it is first posted, so
+ * that a retry posts exactly the same entry under the same transaction identifier.  Entries are only taken into a
+ * combined entry if no other dispatcher has taken them into one first.  If accounting rejects the combined entry, its
+ * entries are posted one by one.  If its entries cancel each other out, there is nothing to post.
+ */
+@Component
+public class JournalEntryOutbox {
+  private static final int DISPATCH_BATCH_SIZE = 100;
+  private static final long MAXIMUM_BACKOFF_SECONDS = 3600;
+  private static final long MAXIMUM_RELEASE_WAIT_SECONDS = 600;
+  private static final String BATCH_MESSAGE = "batch";
+  private static final Type BALANCE_ADJUSTMENTS_TYPE = new TypeToken<Map<String, BigDecimal>>() {}.getType();
+
+  private final JournalEntryOutboxRepository journalEntryOutboxRepository;
+  private final JournalEntryOutboxLineRepository journalEntryOutboxLineRepository;
+  private final CaseUnreleasedEntryRepository caseUnreleasedEntryRepository;
+  private final RejectedJournalEntryService rejectedJournalEntryService;
+  private final TransactionTemplate transactionTemplate;
+  private final LedgerManager ledgerManager;
+  private final AccountCache accountCache;
+  private final AccountingGateway accountingGateway;
+  private final PortfolioProperties portfolioProperties;
+  private final ExecutorService journalEntryDispatcher;
+  private final Gson gson;
+  private final Logger logger;
+  private final Set<String> tenantsDispatchRequestedFor = ConcurrentHashMap.newKeySet();
+  private final Set<String> tenantsBeingDispatched = ConcurrentHashMap.newKeySet();
+  private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor();
+  private final Map<String, ScheduledFuture<?>> retriesScheduled = new ConcurrentHashMap<>();
+
+  @Autowired
+  public JournalEntryOutbox(
+      final JournalEntryOutboxRepository journalEntryOutboxRepository,
+      final JournalEntryOutboxLineRepository journalEntryOutboxLineRepository,
+      final CaseUnreleasedEntryRepository caseUnreleasedEntryRepository,
+      final RejectedJournalEntryService rejectedJournalEntryService,
+      final PlatformTransactionManager transactionManager,
+      @SuppressWarnings("SpringJavaAutowiringInspection") final LedgerManager ledgerManager,
+      final AccountCache accountCache,
+      final AccountingGateway accountingGateway,
+      final PortfolioProperties portfolioProperties,
+      @Qualifier(ServiceConstants.JOURNAL_ENTRY_DISPATCHER_NAME) final ExecutorService journalEntryDispatcher,
+      @Qualifier(ServiceConstants.GSON_NAME) final Gson gson,
+      @Qualifier(ServiceConstants.LOGGER_NAME) final Logger logger) {
+    this.journalEntryOutboxRepository = journalEntryOutboxRepository;
+    this.journalEntryOutboxLineRepository = journalEntryOutboxLineRepository;
+    this.caseUnreleasedEntryRepository = caseUnreleasedEntryRepository;
+    this.rejectedJournalEntryService = rejectedJournalEntryService;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.ledgerManager = ledgerManager;
+    this.accountCache = accountCache;
+    this.accountingGateway = accountingGateway;
+    this.portfolioProperties = portfolioProperties;
+    this.journalEntryDispatcher = journalEntryDispatcher;
+    this.gson = gson;
+    this.logger = logger;
+  }
+
+  public boolean isEnabled() {
+    return portfolioProperties.isUseJournalEntryOutbox();
+  }
+
+  /**
+   * Writes the journal entry to the outbox.  It is posted once the current transaction commits.
+   *
+   * @param balanceAdjustments the balance adjustments by account designator the journal entry was built from.
+   */
+  public void enqueue(final JournalEntry journalEntry, final Map<String, BigDecimal> balanceAdjustments) {
+    enqueue(journalEntry, balanceAdjustments, false);
+  }
+
+  /**
+   * Like {@link #enqueue}, but the journal entry may be posted combined with the entries booked after it.  Only for
+   * entries which are never looked up by their message in accounting.
+   */
+  public void enqueueForBatch(final JournalEntry journalEntry, final Map<String, BigDecimal> balanceAdjustments) {
+    enqueue(journalEntry, balanceAdjustments, true);
+  }
+
+  /**
+   * @return the net amount credited to the account by the current tenant's journal entries which accounting hasn't
+   * released yet.  Negative if the account is debited.
+   */
+  public BigDecimal getPendingCreditAmount(final String accountIdentifier) {
+    return journalEntryOutboxLineRepository.sumPendingCreditAmounts(accountIdentifier);
+  }
+
+  /**
+   * @return the total amount booked to the account by the current tenant's journal entries with the given message,
+   * which accounting hasn't released yet, and whose transaction date is on or after the given date.
+   */
+  public BigDecimal getPendingAmountWithMessage(final String accountIdentifier, final String message, final LocalDate since) {
+    return journalEntryOutboxLineRepository.sumPendingAmountsWithMessage(accountIdentifier, message, since.atStartOfDay());
+  }
+
+  private void enqueue(
+      final JournalEntry journalEntry,
+      final Map<String, BigDecimal> balanceAdjustments,
+      final boolean batchable) {
+    final LocalDateTime now = LocalDateTime.now(Clock.systemUTC());
+    final JournalEntryOutboxEntity outboxEntry = new JournalEntryOutboxEntity();
+    outboxEntry.setTransactionIdentifier(journalEntry.getTransactionIdentifier());
+    outboxEntry.setJournalEntry(gson.toJson(journalEntry));
+    outboxEntry.setCreatedOn(now);
+    outboxEntry.setAttempts(0);
+    outboxEntry.setNextAttemptOn(now);
+    outboxEntry.setBatchable(batchable);
+    outboxEntry.setBalanceAdjustments(gson.toJson(balanceAdjustments, BALANCE_ADJUSTMENTS_TYPE));
+    journalEntryOutboxRepository.save(outboxEntry);
+    journalEntryOutboxLineRepository.save(getLines(outboxEntry, journalEntry, batchable));
+
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+        @Override
+        public void afterCommit() {
+          dispatchPending();
+        }
+      });
+    }
+    else {
+      dispatchPending();
+    }
+  }
+
+  /**
+   * Posts all due journal entries of the current tenant to accounting, in the background, with the current user's
+   * credentials.
+   */
+  public void dispatchPending() {
+    final String tenantIdentifier = TenantContextHolder.checkedGetIdentifier();
+    final String user = UserContextHolder.checkedGetUser();
+    final String accessToken = UserContextHolder.checkedGetAccessToken();
+    requestDispatch(tenantIdentifier, user, accessToken);
+  }
+
+  private void requestDispatch(final String tenantIdentifier, final String user, final String accessToken) {
+    tenantsDispatchRequestedFor.add(tenantIdentifier);
+    if (tenantsBeingDispatched.add(tenantIdentifier))
+      journalEntryDispatcher.submit(() -> dispatchWhileRequested(tenantIdentifier, user, accessToken));
+  }
+
+  private void dispatchWhileRequested(final String tenantIdentifier, final String user, final String accessToken) {
+    TenantContextHolder.setIdentifier(tenantIdentifier);
+    UserContextHolder.setAccessToken(user, accessToken);
+    try {
+      //A request which arrives while the last batch is dispatched would otherwise be lost.
+      do {
+        try {
+          while (tenantsDispatchRequestedFor.remove(tenantIdentifier))
+            dispatchDue();
+        }
+        finally {
+          tenantsBeingDispatched.remove(tenantIdentifier);
+        }
+      } while (tenantsDispatchRequestedFor.contains(tenantIdentifier) && tenantsBeingDispatched.add(tenantIdentifier));
+    }
+    catch (final RuntimeException e) {
+      logger.warn("Dispatching journal entries for tenant '{}' failed.", tenantIdentifier, e);
+    }
+    finally {
+      UserContextHolder.clear();
+      TenantContextHolder.clear();
+    }
+  }
+
+  private void dispatchDue() {
+    final LocalDateTime releaseDeadline = LocalDateTime.now(Clock.systemUTC()).minusSeconds(MAXIMUM_RELEASE_WAIT_SECONDS);
+    if (journalEntryOutboxRepository.deleteByPostedOnNotAfter(releaseDeadline) != 0)
+      logger.warn("The release of some posted journal entries wasn't announced within {} seconds.  Assuming it was missed.",
+          MAXIMUM_RELEASE_WAIT_SECONDS);
+
+    //A batch recorded by an earlier attempt always starts the page, and is never cut off by its end.
+    final int pageSize = Math.max(DISPATCH_BATCH_SIZE, portfolioProperties.getInterestJournalEntryBatchSize());
+    while (true) {
+      final List<JournalEntryOutboxEntity> pendingEntries = journalEntryOutboxRepository
+          .findByDeadLetteredOnIsNullAndPostedOnIsNullOrderByIdAsc(new PageRequest(0, pageSize));
+      if (pendingEntries.isEmpty())
+        return;
+
+      int next = 0;
+      while (next < pendingEntries.size()) {
+        final JournalEntryOutboxEntity pendingEntry = pendingEntries.get(next);
+        if (pendingEntry.getNextAttemptOn().isAfter(LocalDateTime.now(Clock.systemUTC()))) {
+          //Still backing off.  Everything after it waits until it has been posted.
+          scheduleRetry(pendingEntry.getNextAttemptOn());
+          return;
+        }
+
+        final List<JournalEntryOutboxEntity> batch = getBatchStartingAt(pendingEntries, next);
+        final boolean dispatched = batch.size() > 1 || pendingEntry.getBatchIdentifier() != null
+            ? dispatchBatch(batch)
+            : dispatch(pendingEntry);
+        if (!dispatched)
+          return; //Accounting is likely unavailable.  The failed entry is retried after its backoff.
+        next += batch.size();
+      }
+    }
+  }
+
+  private List<JournalEntryOutboxEntity> getBatchStartingAt(
+      final List<JournalEntryOutboxEntity> pendingEntries,
+      final int start) {
+    final JournalEntryOutboxEntity first = pendingEntries.get(start);
+    if (first.getBatchIdentifier() != null)
+      return pendingEntries.stream()
+          .skip(start)
+          .filter(x -> first.getBatchIdentifier().equals(x.getBatchIdentifier()))
+          .collect(Collectors.toList());
+
+    final List<JournalEntryOutboxEntity> ret = new ArrayList<>();
+    ret.add(first);
+    if (!first.getBatchable())
+      return ret;
+
+    final JournalEntry firstJournalEntry = gson.fromJson(first.getJournalEntry(), JournalEntry.class);
+    for (final JournalEntryOutboxEntity candidate : pendingEntries.subList(start + 1, pendingEntries.size())) {
+      if (ret.size() >= portfolioProperties.getInterestJournalEntryBatchSize() ||
+          !candidate.getBatchable() || candidate.getBatchIdentifier() != null)
+        break;
+      final JournalEntry candidateJournalEntry = gson.fromJson(candidate.getJournalEntry(), JournalEntry.class);
+      if (!Objects.equals(firstJournalEntry.getTransactionDate(), candidateJournalEntry.getTransactionDate()) ||
+          !Objects.equals(firstJournalEntry.getTransactionType(), candidateJournalEntry.getTransactionType()))
+        break;
+      ret.add(candidate);
+    }
+    return ret;
+  }
+
+  /**
+   * @return false if the entry could neither be posted nor dead lettered, and should be retried.
+   */
+  private boolean dispatch(final JournalEntryOutboxEntity outboxEntry) {
+    final JournalEntry journalEntry = gson.fromJson(outboxEntry.getJournalEntry(), JournalEntry.class);
+    final int attempts = outboxEntry.getAttempts() + 1;
+    try {
+      accountingGateway.run(AccountingGateway.Operation.CREATE_JOURNAL_ENTRY, () -> ledgerManager.createJournalEntry(journalEntry));
+    }
+    catch (final JournalEntryAlreadyExistsException ignore) {
+      //Posted by an earlier attempt which didn't get to remove it from the outbox.
+    }
+    catch (final RuntimeException e) {
+      outboxEntry.setAttempts(attempts);
+      if (AccountingGateway.isDeclaredByClient(e)) {
+        //Accounting answered, and the answer won't be different next time.
+        logger.error("Journal entry '{}' was rejected by accounting on attempt {}.  Keeping it as a dead letter.",
+            outboxEntry.getTransactionIdentifier(), attempts, e);
+        return deadLetter(outboxEntry, journalEntry);
+      }
+
+      backOff(outboxEntry, e);
+      return false;
+    }
+
+    journalEntryOutboxRepository.markPosted(outboxEntry.getTransactionIdentifier(), LocalDateTime.now(Clock.systemUTC()));
+    accountCache.journalEntryBooked(journalEntry);
+    return true;
+  }
+
+  /**
+   * @return false if the combined entry could not be posted, and should be retried.
+   */
+  private boolean dispatchBatch(final List<JournalEntryOutboxEntity> candidates) {
+    final List<JournalEntryOutboxEntity> batch = claimBatch(candidates);
+    if (batch.isEmpty())
+      return false; //Another dispatcher took the entries first, and posts them.
+
+    final JournalEntryOutboxEntity first = batch.get(0);
+    final String batchIdentifier = first.getBatchIdentifier();
+    final List<String> transactionIdentifiers = getTransactionIdentifiers(batch);
+    final List<JournalEntry> journalEntries = batch.stream()
+        .map(x -> gson.fromJson(x.getJournalEntry(), JournalEntry.class))
+        .collect(Collectors.toList());
+    final JournalEntry combinedJournalEntry = combine(batchIdentifier, journalEntries);
+    if (combinedJournalEntry.getCreditors().isEmpty() && combinedJournalEntry.getDebtors().isEmpty()) {
+      //Accounting doesn't take an entry without lines.  Nothing will announce the release of the cases' entries.
+      transactionTemplate.execute(status -> {
+        caseUnreleasedEntryRepository.deleteByTransactionIdentifier(batchIdentifier);
+        journalEntryOutboxRepository.deleteByBatchIdentifier(batchIdentifier);
+        return null;
+      });
+      logger.info("Batch '{}' of journal entries {} nets to zero on every account.  Nothing was posted.",
+          batchIdentifier, transactionIdentifiers);
+      return true;
+    }
+
+    try {
+      accountingGateway.run(AccountingGateway.Operation.CREATE_JOURNAL_ENTRY, () -> ledgerManager.createJournalEntry(combinedJournalEntry));
+    }
+    catch (final JournalEntryAlreadyExistsException ignore) {
+      //Posted by an earlier attempt which didn't get to remove it from the outbox.
+    }
+    catch (final RuntimeException e) {
+      if (AccountingGateway.isDeclaredByClient(e)) {
+        logger.warn("Batch '{}' of {} journal entries was rejected by accounting.  Posting them one by one.",
+            batchIdentifier, batch.size(), e);
+        transactionTemplate.execute(status -> {
+          caseUnreleasedEntryRepository.setBatchIdentifier(transactionIdentifiers, null);
+          batch.forEach(x -> {
+            x.setBatchable(false);
+            x.setBatchIdentifier(null);
+          });
+          journalEntryOutboxRepository.save(batch);
+          return null;
+        });
+        return true;
+      }
+
+      first.setAttempts(first.getAttempts() + 1);
+      backOff(first, e);
+      return false;
+    }
+
+    //Only what is recorded under the combined entry's identifier went into it.
+    journalEntryOutboxRepository.markPosted(batchIdentifier, LocalDateTime.now(Clock.systemUTC()));
+    accountCache.journalEntryBooked(combinedJournalEntry);
+    if (logger.isDebugEnabled())
+      logger.debug("Posted batch '{}' containing journal entries {}.", batchIdentifier, transactionIdentifiers);
+    return true;
+  }
+
+  /**
+   * Records the candidates as one combined entry, unless an earlier attempt already did.  Of the candidates, only those
+   * which no other dispatcher has taken into a combined entry in the meantime are taken.
+   *
+   * @return the entries of the combined entry, as recorded.  Empty if none of the candidates could be taken.
+   */
+  private List<JournalEntryOutboxEntity> claimBatch(final List<JournalEntryOutboxEntity> candidates) {
+    final String recordedBatchIdentifier = candidates.get(0).getBatchIdentifier();
+    if (recordedBatchIdentifier != null)
+      return journalEntryOutboxRepository.findByBatchIdentifierOrderByIdAsc(recordedBatchIdentifier);
+
+    final String batchIdentifier = AccountingAdapter.TRANSACTION_IDENTIFIER_PREFIX + BATCH_MESSAGE + "." +
+        RandomStringUtils.random(26, true, true);
+    final List<Long> ids = candidates.stream().map(JournalEntryOutboxEntity::getId).collect(Collectors.toList());
+    return transactionTemplate.execute(status -> {
+      if (journalEntryOutboxRepository.claimForBatch(ids, batchIdentifier) == 0)
+        return Collections.<JournalEntryOutboxEntity>emptyList();
+      final List<JournalEntryOutboxEntity> ret = journalEntryOutboxRepository.findByBatchIdentifierOrderByIdAsc(batchIdentifier);
+      //The cases' entries are released with the combined entry.
+      caseUnreleasedEntryRepository.setBatchIdentifier(getTransactionIdentifiers(ret), batchIdentifier);
+      return ret;
+    });
+  }
+
+  private static List<String> getTransactionIdentifiers(final List<JournalEntryOutboxEntity> outboxEntries) {
+    return outboxEntries.stream()
+        .map(JournalEntryOutboxEntity::getTransactionIdentifier)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * @return false if the entry could not be dead lettered, and should be retried.
+   */
+  private boolean deadLetter(final JournalEntryOutboxEntity outboxEntry, final JournalEntry journalEntry) {
+    try {
+      transactionTemplate.execute(status -> {
+        outboxEntry.setDeadLetteredOn(LocalDateTime.now(Clock.systemUTC()));
+        journalEntryOutboxRepository.save(outboxEntry);
+        if (outboxEntry.getBalanceAdjustments() != null)
+          rejectedJournalEntryService.reverseBooking(journalEntry,
+              gson.fromJson(outboxEntry.getBalanceAdjustments(), BALANCE_ADJUSTMENTS_TYPE));
+        return null;
+      });
+      return true;
+    }
+    catch (final RuntimeException e) {
+      outboxEntry.setDeadLetteredOn(null);
+      backOff(outboxEntry, e);
+      return false;
+    }
+  }
+
+  private static List<JournalEntryOutboxLineEntity> getLines(
+      final JournalEntryOutboxEntity outboxEntry,
+      final JournalEntry journalEntry,
+      final boolean batchable) {
+    final Map<String, BigDecimal> netCreditsByAccount = getNetCreditsByAccount(Collections.singletonList(journalEntry));
+    //Once posted combined with other entries, the entry can't be found by its own message anymore.
+    final String message = batchable ? null : journalEntry.getMessage();
+    final LocalDateTime transactionDate = Optional.ofNullable(journalEntry.getTransactionDate())
+        .map(DateConverter::fromIsoString)
+        .orElse(null);
+    return netCreditsByAccount.entrySet().stream()
+        .map(x -> {
+          final JournalEntryOutboxLineEntity ret = new JournalEntryOutboxLineEntity();
+          ret.setOutboxEntryId(outboxEntry.getId());
+          ret.setAccountIdentifier(x.getKey());
+          ret.setMessage(message);
+          ret.setTransactionDate(transactionDate);
+          ret.setCreditAmount(x.getValue());
+          return ret;
+        })
+        .collect(Collectors.toList());
+  }
+
+  private void backOff(final JournalEntryOutboxEntity outboxEntry, final RuntimeException e) {
+    final long backoffSeconds = Math.min(MAXIMUM_BACKOFF_SECONDS, 1L << Math.min(outboxEntry.getAttempts(), 20));
+    logger.warn("Posting journal entry '{}' failed on attempt {}.  Retrying in {} seconds.",
+        outboxEntry.getTransactionIdentifier(), outboxEntry.getAttempts(), backoffSeconds, e);
+    outboxEntry.setNextAttemptOn(LocalDateTime.now(Clock.systemUTC()).plusSeconds(backoffSeconds));
+    journalEntryOutboxRepository.save(outboxEntry);
+    scheduleRetry(outboxEntry.getNextAttemptOn());
+  }
+
+  /**
+   * Dispatches the current tenant's entries again once the given time has come, even if nothing else is booked for
+   * the tenant until then.  Replaces the retry scheduled before for the tenant.
+   */
+  private void scheduleRetry(final LocalDateTime retryOn) {
+    final String tenantIdentifier = TenantContextHolder.checkedGetIdentifier();
+    final String user = UserContextHolder.checkedGetUser();
+    final String accessToken = UserContextHolder.checkedGetAccessToken();
+    final long delayMillis = Math.max(0, Duration.between(LocalDateTime.now(Clock.systemUTC()), retryOn).toMillis());
+    retriesScheduled.compute(tenantIdentifier, (key, scheduledRetry) -> {
+      if (scheduledRetry != null)
+        scheduledRetry.cancel(false);
+      return retryScheduler.schedule(
+          () -> requestDispatch(tenantIdentifier, user, accessToken), delayMillis, TimeUnit.MILLISECONDS);
+    });
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    retryScheduler.shutdownNow();
+  }
+
+  static JournalEntry combine(final String transactionIdentifier, final List<JournalEntry> journalEntries) {
+    final Map<String, BigDecimal> netCreditsByAccount = getNetCreditsByAccount(journalEntries);
+
+    final Set<Creditor> creditors = netCreditsByAccount.entrySet().stream()
+        .filter(x -> x.getValue().signum() > 0)
+        .map(x -> new Creditor(x.getKey(), x.getValue().toPlainString()))
+        .collect(Collectors.toSet());
+    final Set<Debtor> debtors = netCreditsByAccount.entrySet().stream()
+        .filter(x -> x.getValue().signum() < 0)
+        .map(x -> new Debtor(x.getKey(), x.getValue().negate().toPlainString()))
+        .collect(Collectors.toSet());
+
+    final JournalEntry first = journalEntries.get(0);
+    final JournalEntry ret = new JournalEntry();
+    ret.setTransactionIdentifier(transactionIdentifier);
+    ret.setTransactionDate(first.getTransactionDate());
+    ret.setTransactionType(first.getTransactionType());
+    ret.setClerk(first.getClerk());
+    ret.setMessage(BATCH_MESSAGE);
+    ret.setNote("Batch of " + journalEntries.size() + " journal entries.");
+    ret.setCreditors(creditors);
+    ret.setDebtors(debtors);
+    return ret;
+  }
+
+  private static Map<String, BigDecimal> getNetCreditsByAccount(final List<JournalEntry> journalEntries) {
+    final Map<String, BigDecimal> ret = new HashMap<>();
+    journalEntries.forEach(journalEntry -> {
+      journalEntry.getCreditors().forEach(creditor ->
+          ret.merge(creditor.getAccountNumber(), new BigDecimal(creditor.getAmount()), BigDecimal::add));
+      journalEntry.getDebtors().forEach(debtor ->
+          ret.merge(debtor.getAccountNumber(), new BigDecimal(debtor.getAmount()).negate(), BigDecimal::add));
+    });
+    return ret;
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.portfolio.service.internal.util;
+
+import org.apache.fineract.cn.portfolio.service.ServiceConstants;
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import java.util.Objects;
+import org.apache.fineract.cn.api.util.ApiConstants;
+import org.apache.fineract.cn.lang.ApplicationName;
+import org.apache.fineract.cn.lang.TenantContextHolder;
+import org.apache.fineract.cn.lang.config.TenantHeaderFilter;
+import org.apache.fineract.cn.permittedfeignclient.service.ApplicationAccessTokenService;
+import org.apache.fineract.cn.rhythm.spi.v1.client.BeatListener;
+import org.apache.fineract.cn.rhythm.spi.v1.domain.BeatPublish;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Knows about the other running instances of this service, so that the work of a beat, which rhythm delivers to only
+ * one of them, can be shared.
+ */
+@Component
+public class ReplicaAdapter {
+  final private DiscoveryClient discoveryClient;
+  final private ApplicationName applicationName;
+  final private ApplicationAccessTokenService applicationAccessTokenService;
+  final private PortfolioProperties portfolioProperties;
+  final private String contextPath;
+  final private String hostName;
+  final private String ipAddress;
+  final private int port;
+  final private RestTemplate restTemplate;
+  final private Logger logger;
+
+  @Autowired
+  public ReplicaAdapter(final DiscoveryClient discoveryClient,
+                        final ApplicationName applicationName,
+                        final ApplicationAccessTokenService applicationAccessTokenService,
+                        final PortfolioProperties portfolioProperties,
+                        final @Value("${server.contextPath:}") String contextPath,
+                        final @Value("${spring.cloud.client.hostname:}") String hostName,
+                        final @Value("${spring.cloud.client.ipAddress:}") String ipAddress,
+                        final @Value("${server.port:-1}") int port,
+                        final @Qualifier(ServiceConstants.LOGGER_NAME) Logger logger) {
+    this.discoveryClient = discoveryClient;
+    this.applicationName = applicationName;
+    this.applicationAccessTokenService = applicationAccessTokenService;
+    this.portfolioProperties = portfolioProperties;
+    this.contextPath = contextPath.replaceAll("/\\*$", "");
+    this.hostName = hostName;
+    this.ipAddress = ipAddress;
+    this.port = port;
+    this.restTemplate = new RestTemplate();
+    this.logger = logger;
+  }
+
+  public int countInstances() {
+    return Math.max(1, discoveryClient.getInstances(applicationName.toString()).size());
+  }
+
+  /**
+   * Hands the beat to all other instances, on behalf of the tenant the beat was delivered for, as the user this
+   * service acts as on its own behalf.  Failure to reach an instance is not an error: the instances which are reached
+   * share the work between them.
+   */
+  public void forwardBeat(final BeatPublish beatPublish) {
+    final String tenantIdentifier = TenantContextHolder.checkedGetIdentifier();
+    final String systemUser = portfolioProperties.getBookLateFeesAndInterestAsUser();
+    if (systemUser == null) {
+      logger.warn("Beat {} isn't shared with other instances, since no user to forward it as is configured.", beatPublish);
+      return;
+    }
+
+    final String accessToken;
+    try {
+      accessToken = applicationAccessTokenService.getAccessToken(systemUser, tenantIdentifier);
+    }
+    catch (final RuntimeException e) {
+      logger.warn("Beat {} isn't shared with other instances, since no access token for '{}' could be obtained.",
+          beatPublish, systemUser, e);
+      return;
+    }
+
+    final HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_JSON);
+    headers.set(HttpHeaders.AUTHORIZATION, accessToken);
+    headers.set(ApiConstants.USER_HEADER, systemUser);
+    headers.set(TenantHeaderFilter.TENANT_HEADER, tenantIdentifier);
+    final HttpEntity<BeatPublish> request = new HttpEntity<>(beatPublish, headers);
+
+    discoveryClient.getInstances(applicationName.toString()).stream()
+        .filter(instance -> !isThisInstance(instance))
+        .forEach(instance -> {
+          try {
+            restTemplate.postForEntity(instance.getUri() + contextPath + BeatListener.PUBLISH_BEAT_PATH, request, Void.class);
+          }
+          catch (final RestClientException e) {
+            logger.warn("Forwarding beat {} to instance {} failed.", beatPublish, instance.getUri(), e);
+          }
+        });
+  }
+
+  /**
+   * An instance is registered under either the host name or the ip address of its host, depending on the
+   * configuration of the registry, and under the port the service listens on.
+   */
+  private boolean isThisInstance(final ServiceInstance instance) {
+    return instance.getPort() == port &&
+        (Objects.equals(instance.getHost(), hostName) || Objects.equals(instance.getHost(), ipAddress));
+  }
+}
@@ -0,0 +1,35 @@
+--
+-- Licensed to the Apache Software Foundation (ASF) under one
+-- or more contributor license agreements.  See the NOTICE file
+-- distributed with this work for additional information
+-- regarding copyright ownership.  The ASF licenses this file
+-- to you under the Apache License, Version 2.0 (the
+-- "License"); you may not use this file except in compliance
+-- with the License.  You may obtain a copy of the License at
+--
+--   http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing,
+-- software distributed under the License is distributed on an
+-- "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+-- KIND, either express or implied.  See the License for the
+-- specific language governing permissions and limitations
+-- under the License.
+--
+
+
+CREATE TABLE bastet_il_beat_progress (
+  id BIGSERIAL NOT NULL,
+  beat_identifier          VARCHAR(32)    NOT NULL,
+  for_time                 TIMESTAMP(3)   NOT NULL,
+  stage                    VARCHAR(32)    NOT NULL,
+  first_case_id            BIGINT         NOT NULL,
+  last_case_id             BIGINT         NOT NULL,
+  last_processed_case_id   BIGINT         NOT NULL,
+  finished                 BOOLEAN        NOT NULL,
+
+  CONSTRAINT bastet_il_beat_progress_pk PRIMARY KEY (id),
+  CONSTRAINT bastet_il_beat_progress_uq UNIQUE (beat_identifier, for_time, stage, first_case_id)
+);
+
+CREATE INDEX bastet_il_beat_progress_unfinished_ix ON bastet_il_beat_progress (for_time) WHERE finished = FALSE;
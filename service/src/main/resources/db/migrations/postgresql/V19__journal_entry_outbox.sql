@@ -0,0 +1,37 @@
+--
+-- Licensed to the Apache Software Foundation (ASF) under one
+-- or more contributor license agreements.  See the NOTICE file
+-- distributed with this work for additional information
+-- regarding copyright ownership.  The ASF licenses this file
+-- to you under the Apache License, Version 2.0 (the
+-- "License"); you may not use this file except in compliance
+-- with the License.  You may obtain a copy of the License at
+--
+--   http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing,
+-- software distributed under the License is distributed on an
+-- "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+-- KIND, either express or implied.  See the License for the
+-- specific language governing permissions and limitations
+-- under the License.
+--
+
+CREATE TABLE bastet_journal_entry_outbox (
+  id BIGSERIAL NOT NULL,
+  transaction_identifier   VARCHAR(512)   NOT NULL,
+  journal_entry            TEXT           NOT NULL,
+  balance_adjustments      TEXT           NULL,
+  created_on               TIMESTAMP(3)   NOT NULL,
+  attempts                 INT            NOT NULL,
+  next_attempt_on          TIMESTAMP(3)   NOT NULL,
+  batchable                BOOLEAN        NOT NULL DEFAULT FALSE,
+  batch_identifier         VARCHAR(512)   NULL,
+  posted_on                TIMESTAMP(3)   NULL,
+  dead_lettered_on         TIMESTAMP(3)   NULL,
+  CONSTRAINT bastet_journal_entry_outbox_pk PRIMARY KEY (id),
+  CONSTRAINT bastet_journal_entry_outbox_uq UNIQUE (transaction_identifier)
+);
+
+CREATE INDEX bastet_journal_entry_outbox_unposted_ix ON bastet_journal_entry_outbox (id) WHERE dead_lettered_on IS NULL AND posted_on IS NULL;
+CREATE INDEX bastet_journal_entry_outbox_batch_ix ON bastet_journal_entry_outbox (batch_identifier);
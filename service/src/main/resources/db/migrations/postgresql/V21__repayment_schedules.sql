@@ -0,0 +1,31 @@
+--
+-- Licensed to the Apache Software Foundation (ASF) under one
+-- or more contributor license agreements.  See the NOTICE file
+-- distributed with this work for additional information
+-- regarding copyright ownership.  The ASF licenses this file
+-- to you under the Apache License, Version 2.0 (the
+-- "License"); you may not use this file except in compliance
+-- with the License.  You may obtain a copy of the License at
+--
+--   http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing,
+-- software distributed under the License is distributed on an
+-- "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+-- KIND, either express or implied.  See the License for the
+-- specific language governing permissions and limitations
+-- under the License.
+--
+
+CREATE TABLE bastet_il_repayment_periods (
+  id BIGSERIAL NOT NULL,
+  case_id                  BIGINT         NOT NULL,
+  period_index             INT            NOT NULL,
+  begin_date               TIMESTAMP(3)   NOT NULL,
+  end_date                 TIMESTAMP(3)   NOT NULL,
+  last_period              BOOLEAN        NOT NULL,
+  expected_payment         DECIMAL(19,4)  NOT NULL,
+  CONSTRAINT bastet_il_repayment_periods_pk PRIMARY KEY (id),
+  CONSTRAINT bastet_il_repayment_periods_uq UNIQUE (case_id, period_index),
+  CONSTRAINT bastet_il_repayment_periods_fk FOREIGN KEY (case_id) REFERENCES bastet_cases (id)
+);
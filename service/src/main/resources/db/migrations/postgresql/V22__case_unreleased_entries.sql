@@ -0,0 +1,32 @@
+--
+-- Licensed to the Apache Software Foundation (ASF) under one
+-- or more contributor license agreements.  See the NOTICE file
+-- distributed with this work for additional information
+-- regarding copyright ownership.  The ASF licenses this file
+-- to you under the Apache License, Version 2.0 (the
+-- "License"); you may not use this file except in compliance
+-- with the License.  You may obtain a copy of the License at
+--
+--   http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing,
+-- software distributed under the License is distributed on an
+-- "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+-- KIND, either express or implied.  See the License for the
+-- specific language governing permissions and limitations
+-- under the License.
+--
+
+CREATE TABLE bastet_il_case_unreleased_entries (
+  id BIGSERIAL NOT NULL,
+  case_id                  BIGINT         NOT NULL,
+  transaction_identifier   VARCHAR(512)   NOT NULL,
+  batch_identifier         VARCHAR(512)   NULL,
+  booked_on                TIMESTAMP(3)   NOT NULL,
+  CONSTRAINT bastet_il_case_unreleased_entries_pk PRIMARY KEY (id),
+  CONSTRAINT bastet_il_case_unreleased_entries_uq UNIQUE (transaction_identifier),
+  CONSTRAINT bastet_il_case_unreleased_entries_fk FOREIGN KEY (case_id) REFERENCES bastet_cases (id)
+);
+
+CREATE INDEX bastet_il_case_unreleased_entries_case_ix ON bastet_il_case_unreleased_entries (case_id, booked_on);
+CREATE INDEX bastet_il_case_unreleased_entries_batch_ix ON bastet_il_case_unreleased_entries (batch_identifier);
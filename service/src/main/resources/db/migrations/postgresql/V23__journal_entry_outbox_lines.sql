@@ -0,0 +1,31 @@
+--
+-- Licensed to the Apache Software Foundation (ASF) under one
+-- or more contributor license agreements.  See the NOTICE file
+-- distributed with this work for additional information
+-- regarding copyright ownership.  The ASF licenses this file
+-- to you under the Apache License, Version 2.0 (the
+-- "License"); you may not use this file except in compliance
+-- with the License.  You may obtain a copy of the License at
+--
+--   http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing,
+-- software distributed under the License is distributed on an
+-- "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+-- KIND, either express or implied.  See the License for the
+-- specific language governing permissions and limitations
+-- under the License.
+--
+
+CREATE TABLE bastet_journal_entry_outbox_lines (
+  id BIGSERIAL NOT NULL,
+  outbox_entry_id          BIGINT         NOT NULL,
+  account_identifier       VARCHAR(34)    NOT NULL,
+  message                  VARCHAR(2048)  NULL,
+  transaction_date         TIMESTAMP(3)   NULL,
+  credit_amount            DECIMAL(19,4)  NOT NULL,
+  CONSTRAINT bastet_journal_entry_outbox_lines_pk PRIMARY KEY (id),
+  CONSTRAINT bastet_journal_entry_outbox_lines_fk FOREIGN KEY (outbox_entry_id) REFERENCES bastet_journal_entry_outbox (id) ON DELETE CASCADE
+);
+
+CREATE INDEX bastet_journal_entry_outbox_lines_account_ix ON bastet_journal_entry_outbox_lines (account_identifier, outbox_entry_id);
@@ -0,0 +1,967 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.command.handler;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.apache.fineract.cn.api.util.UserContextHolder;
+import org.apache.fineract.cn.command.internal.CommandBus;
+import org.apache.fineract.cn.individuallending.api.v1.domain.product.AccountDesignators;
+import org.apache.fineract.cn.individuallending.api.v1.domain.workflow.Action;
+import org.apache.fineract.cn.individuallending.api.v1.events.IndividualLoanCommandEvent;
+import org.apache.fineract.cn.individuallending.internal.command.ApplyInterestAndCheckLateCommand;
+import org.apache.fineract.cn.individuallending.internal.command.ApplyInterestCommand;
+import org.apache.fineract.cn.individuallending.internal.command.AbandonAccountCreationCommand;
+import org.apache.fineract.cn.individuallending.internal.command.ApproveCommand;
+import org.apache.fineract.cn.individuallending.internal.command.CheckLateCommand;
+import org.apache.fineract.cn.individuallending.internal.command.CompleteApprovalCommand;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseParametersEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseParametersRepository;
+import org.apache.fineract.cn.individuallending.internal.repository.LateCaseEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.LateCaseRepository;
+import org.apache.fineract.cn.individuallending.internal.repository.LossProvisionStepEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.LossProvisionStepRepository;
+import org.apache.fineract.cn.individuallending.internal.repository.RepaymentPeriodRepository;
+import org.apache.fineract.cn.individuallending.internal.service.AccrualAggregateService;
+import org.apache.fineract.cn.individuallending.internal.service.CaseBalanceProjectionService;
+import org.apache.fineract.cn.individuallending.internal.service.DataContextOfAction;
+import org.apache.fineract.cn.individuallending.internal.service.DataContextService;
+import org.apache.fineract.cn.individuallending.internal.service.DesignatorToAccountIdentifierMapper;
+import org.apache.fineract.cn.individuallending.internal.service.LatenessCheckService;
+import org.apache.fineract.cn.individuallending.internal.service.RepaymentScheduleService;
+import org.apache.fineract.cn.individuallending.internal.service.StartOfTermBackfillService;
+import org.apache.fineract.cn.individuallending.internal.service.beat.BeatSchedule;
+import org.apache.fineract.cn.individuallending.internal.service.beat.PartitionedCaseProcessor;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.AcceptPaymentBuilderService;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.ApplyInterestPaymentBuilderService;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.ApprovePaymentBuilderService;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.ClosePaymentBuilderService;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.DenyPaymentBuilderService;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.DisbursePaymentBuilderService;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.MarkInArrearsPaymentBuilderService;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.MarkLatePaymentBuilderService;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.OpenPaymentBuilderService;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.PaymentBuilder;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.RealRunningBalances;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.RecoverPaymentBuilderService;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.RunningBalances;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.WriteOffPaymentBuilderService;
+import org.apache.fineract.cn.lang.ApplicationName;
+import org.apache.fineract.cn.lang.DateConverter;
+import org.apache.fineract.cn.lang.ServiceException;
+import org.apache.fineract.cn.lang.TenantContextHolder;
+import org.apache.fineract.cn.portfolio.api.v1.domain.AccountAssignment;
+import org.apache.fineract.cn.portfolio.api.v1.domain.Case;
+import org.apache.fineract.cn.portfolio.api.v1.domain.Command;
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseAccountAssignmentEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseCommandEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseCommandRepository;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseRepository;
+import org.apache.fineract.cn.portfolio.service.internal.repository.ProductAccountAssignmentEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.ProductEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.TaskInstanceRepository;
+import org.apache.fineract.cn.portfolio.service.internal.util.AccountingAdapter;
+import org.apache.fineract.cn.portfolio.service.internal.util.JournalEntryOutbox;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatcher;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.springframework.data.domain.PageImpl;
+import org.slf4j.Logger;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+public class IndividualLoanCommandHandlerTest {
+  private static final String PRODUCT_IDENTIFIER = "product";
+  private static final String CASE_IDENTIFIER = "case";
+  private static final Long CASE_ID = 17L;
+  private static final LocalDateTime DISBURSED_ON = LocalDateTime.of(2018, 1, 10, 0, 0);
+  private static final LocalDateTime FOR_TIME = LocalDateTime.of(2018, 3, 15, 0, 0);
+  private static final BigDecimal DAILY_INTEREST = BigDecimal.valueOf(150, 2);
+
+  @Before
+  public void prepare() {
+    TenantContextHolder.setIdentifier("tenant");
+    UserContextHolder.setAccessToken("user", "token");
+  }
+
+  @After
+  public void cleanup() {
+    UserContextHolder.clear();
+    TenantContextHolder.clear();
+  }
+
+  @Test
+  public void fusedPassMatchesSeparatePassesForCaseWhichIsUpToDate() {
+    final Scenario scenario = new Scenario().paid(BigDecimal.valueOf(1000));
+
+    final Outcome fused = scenario.runFused();
+    final Outcome separate = scenario.runSeparately();
+
+    Assert.assertEquals(separate, fused);
+    Assert.assertTrue(fused.dispatchedCommands.isEmpty());
+    Assert.assertEquals(Collections.singletonList(Action.APPLY_INTEREST.name()), fused.recordedActions);
+    Assert.assertTrue(fused.nextDueDate.isAfter(FOR_TIME));
+  }
+
+  @Test
+  public void fusedPassMatchesSeparatePassesForCaseWhichFellBehind() {
+    final Scenario scenario = new Scenario().paid(BigDecimal.ZERO);
+
+    final Outcome fused = scenario.runFused();
+    final Outcome separate = scenario.runSeparately();
+
+    Assert.assertEquals(separate, fused);
+    Assert.assertEquals(1, fused.dispatchedCommands.size());
+    Assert.assertTrue(fused.dispatchedCommands.get(0).startsWith("MarkLateCommand"));
+  }
+
+  @Test
+  public void fusedPassMatchesSeparatePassesForCaseWhichReachedLossProvisionStep() {
+    final Scenario scenario = new Scenario().paid(BigDecimal.ZERO).lateSince(FOR_TIME.minusDays(9));
+
+    final Outcome fused = scenario.runFused();
+    final Outcome separate = scenario.runSeparately();
+
+    Assert.assertEquals(separate, fused);
+    Assert.assertEquals(1, fused.dispatchedCommands.size());
+    Assert.assertTrue(fused.dispatchedCommands.get(0).startsWith("MarkInArrearsCommand"));
+    Assert.assertTrue(fused.dispatchedCommands.get(0).contains("daysLate=10"));
+  }
+
+  @Test
+  public void interestIsNotAppliedTwiceForTheSameDayWhenABeatIsResumed() {
+    final Run run = new Scenario()
+        .recorded(Action.APPLY_INTEREST, FOR_TIME)
+        .resumed()
+        .runApplyInterest();
+
+    Assert.assertTrue(run.getAccrualDays().isEmpty());
+    Mockito.verify(run.accountingAdapter, Mockito.never()).bookCharges(
+        Matchers.anyMapOf(String.class, BigDecimal.class), Matchers.any(), Matchers.anyString(), Matchers.anyString(),
+        Matchers.anyString(), Matchers.anyString());
+  }
+
+  @Test
+  public void interestIsAppliedAgainForTheSameDayOutsideOfAResumedBeat() {
+    final Run run = new Scenario()
+        .recorded(Action.APPLY_INTEREST, FOR_TIME)
+        .runApplyInterest();
+
+    Assert.assertEquals(Collections.singletonList(1), run.getAccrualDays());
+  }
+
+  @Test
+  public void interestIsAppliedForOneDayWhenCatchingUpIsSwitchedOff() {
+    final Run run = new Scenario()
+        .recorded(Action.APPLY_INTEREST, FOR_TIME.minusDays(4))
+        .runApplyInterest();
+
+    Assert.assertEquals(Collections.singletonList(1), run.getAccrualDays());
+  }
+
+  @Test
+  public void interestIsCaughtUpSinceDisbursementUpToTheConfiguredMaximum() {
+    final Run run = new Scenario().maximumInterestCatchUpDays(30).runApplyInterest();
+
+    Assert.assertEquals(Collections.singletonList(30), run.getAccrualDays());
+  }
+
+  @Test
+  public void interestIsCaughtUpSinceItWasLastApplied() {
+    final Run run = new Scenario()
+        .maximumInterestCatchUpDays(30)
+        .recorded(Action.APPLY_INTEREST, FOR_TIME.minusDays(4))
+        .runApplyInterest();
+
+    Assert.assertEquals(Collections.singletonList(4), run.getAccrualDays());
+  }
+
+  @Test
+  public void interestIsNotCaughtUpSinceALaterDisbursement() {
+    final Run run = new Scenario()
+        .maximumInterestCatchUpDays(30)
+        .recorded(Action.APPLY_INTEREST, FOR_TIME.minusDays(5))
+        .recorded(Action.DISBURSE, FOR_TIME.minusDays(1))
+        .runApplyInterest();
+
+    Assert.assertEquals(Collections.singletonList(5), run.getAccrualDays());
+  }
+
+  @Test
+  public void interestIsCaughtUpSinceTheFirstDisbursementIfItWasNeverApplied() {
+    final Run run = new Scenario()
+        .maximumInterestCatchUpDays(90)
+        .recorded(Action.DISBURSE, FOR_TIME.minusDays(1))
+        .runApplyInterest();
+
+    Assert.assertEquals(Collections.singletonList((int) ChronoUnit.DAYS.between(DISBURSED_ON, FOR_TIME)), run.getAccrualDays());
+  }
+
+  @Test
+  public void interestOfImportedCaseIsCaughtUpSinceImportRatherThanSinceStartOfTerm() {
+    //An import records the disbursement on the start of term, and the import itself on the day it happened.
+    final Run run = new Scenario()
+        .maximumInterestCatchUpDays(30)
+        .recorded(Action.IMPORT, FOR_TIME.minusDays(2))
+        .runApplyInterest();
+
+    Assert.assertEquals(Collections.singletonList(2), run.getAccrualDays());
+  }
+
+  @Test
+  public void interestOfImportedCaseIsCaughtUpSinceItWasLastAppliedAfterImport() {
+    final Run run = new Scenario()
+        .maximumInterestCatchUpDays(30)
+        .recorded(Action.IMPORT, FOR_TIME.minusDays(10))
+        .recorded(Action.APPLY_INTEREST, FOR_TIME.minusDays(1))
+        .runApplyInterest();
+
+    Assert.assertEquals(Collections.singletonList(1), run.getAccrualDays());
+  }
+
+  @Test
+  public void noInterestIsAppliedOnTheDayOfImport() {
+    final Run run = new Scenario()
+        .maximumInterestCatchUpDays(30)
+        .recorded(Action.IMPORT, FOR_TIME)
+        .runApplyInterest();
+
+    Assert.assertTrue(run.getAccrualDays().isEmpty());
+    Mockito.verify(run.accountingAdapter, Mockito.never()).bookCharges(
+        Matchers.anyMapOf(String.class, BigDecimal.class), Matchers.any(), Matchers.anyString(), Matchers.anyString(),
+        Matchers.anyString(), Matchers.anyString());
+  }
+
+  @Test
+  public void createAccountsCreatesLedgerForCustomerLoanGroupAndTheGroupsAccountsInIt() throws Exception {
+    final DataContextOfAction dataContextOfAction = caseBeingApproved();
+    final CaseRepository caseRepository = Mockito.mock(CaseRepository.class);
+    final ExecutorService accountingExecutor = Executors.newFixedThreadPool(2);
+    try {
+      final AccountingAdapter accountingAdapter = accountingAdapter(accountingExecutor);
+      Mockito.doReturn(CompletableFuture.completedFuture("customer.cll.1")).when(accountingAdapter)
+          .createLedger("customer", AccountDesignators.CUSTOMER_LOAN_GROUP, "loanLedger");
+
+      final List<AccountAssignment> accountAssignments = individualLoanCommandHandler(caseRepository, accountingAdapter).createAccounts(
+          dataContextOfAction,
+          new DesignatorToAccountIdentifierMapper(dataContextOfAction),
+          Collections.singletonMap(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL, BigDecimal.valueOf(500)))
+          .get(10, TimeUnit.SECONDS);
+
+      Assert.assertEquals(expectedAccountAssignments(), accountIdentifiersByDesignator(accountAssignments));
+
+      Mockito.verify(accountingAdapter, Mockito.times(1)).createLedger(Matchers.anyString(), Matchers.anyString(), Matchers.anyString());
+      Mockito.verify(accountingAdapter).createOrFindCaseAccountForLedgerAssignment(
+          Matchers.eq("customer"), Matchers.argThat(hasDesignator(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL)), Matchers.eq(BigDecimal.valueOf(500)));
+      Mockito.verify(accountingAdapter).createOrFindCaseAccountForLedgerAssignment(
+          Matchers.eq("customer"), Matchers.argThat(hasDesignator(AccountDesignators.CUSTOMER_LOAN_INTEREST)), Matchers.eq(BigDecimal.ZERO));
+      Assert.assertTrue(dataContextOfAction.getCustomerCaseEntity().getAccountAssignments().isEmpty());
+      Mockito.verifyZeroInteractions(caseRepository);
+    }
+    finally {
+      accountingExecutor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void createAccountsFailsIfAnAccountCannotBeCreated() throws Exception {
+    final DataContextOfAction dataContextOfAction = caseBeingApproved();
+    final CaseRepository caseRepository = Mockito.mock(CaseRepository.class);
+    final ExecutorService accountingExecutor = Executors.newFixedThreadPool(2);
+    try {
+      final AccountingAdapter accountingAdapter = accountingAdapter(accountingExecutor);
+      Mockito.doReturn(CompletableFuture.completedFuture("customer.cll.1")).when(accountingAdapter)
+          .createLedger("customer", AccountDesignators.CUSTOMER_LOAN_GROUP, "loanLedger");
+      Mockito.doThrow(ServiceException.internalError("Accounting is down.")).when(accountingAdapter)
+          .createOrFindCaseAccountForLedgerAssignment(
+              Matchers.eq("customer"), Matchers.argThat(hasDesignator(AccountDesignators.CUSTOMER_LOAN_INTEREST)), Matchers.any(BigDecimal.class));
+
+      try {
+        individualLoanCommandHandler(caseRepository, accountingAdapter).createAccounts(
+            dataContextOfAction,
+            new DesignatorToAccountIdentifierMapper(dataContextOfAction),
+            Collections.emptyMap())
+            .get(10, TimeUnit.SECONDS);
+        Assert.fail("Account creation should have failed.");
+      }
+      catch (final ExecutionException e) {
+        Assert.assertEquals("Accounting is down.", e.getCause().getMessage());
+      }
+
+      Assert.assertTrue(dataContextOfAction.getCustomerCaseEntity().getAccountAssignments().isEmpty());
+      Mockito.verifyZeroInteractions(caseRepository);
+    }
+    finally {
+      accountingExecutor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void createAccountsReturnsBeforeTheLedgerIsAnnouncedAndCreatesTheGroupsAccountsInTheCommandsContext() throws Exception {
+    final DataContextOfAction dataContextOfAction = caseBeingApproved();
+    final ExecutorService accountingExecutor = Executors.newFixedThreadPool(2);
+    try {
+      final AccountingAdapter accountingAdapter = accountingAdapter(accountingExecutor);
+      final CompletableFuture<String> ledgerAnnounced = new CompletableFuture<>();
+      Mockito.doReturn(ledgerAnnounced).when(accountingAdapter)
+          .createLedger("customer", AccountDesignators.CUSTOMER_LOAN_GROUP, "loanLedger");
+      final Map<String, String> contextOfAccountCreations = new ConcurrentHashMap<>();
+      Mockito.doAnswer(invocation -> {
+        final AccountAssignment ledgerAssignment = invocation.getArgumentAt(1, AccountAssignment.class);
+        contextOfAccountCreations.put(ledgerAssignment.getDesignator(),
+            TenantContextHolder.checkedGetIdentifier() + "|" + UserContextHolder.checkedGetUser() + "|" + UserContextHolder.checkedGetAccessToken());
+        return ledgerAssignment.getLedgerIdentifier() + "." + ledgerAssignment.getDesignator();
+      }).when(accountingAdapter).createOrFindCaseAccountForLedgerAssignment(
+          Matchers.anyString(), Matchers.any(AccountAssignment.class), Matchers.any(BigDecimal.class));
+
+      final CompletableFuture<List<AccountAssignment>> accountsInFlight
+          = individualLoanCommandHandler(Mockito.mock(CaseRepository.class), accountingAdapter).createAccounts(
+              dataContextOfAction,
+              new DesignatorToAccountIdentifierMapper(dataContextOfAction),
+              Collections.emptyMap());
+      Assert.assertFalse(accountsInFlight.isDone());
+
+      //Announce the ledger like the accounting listener does: from a thread without context.
+      UserContextHolder.clear();
+      TenantContextHolder.clear();
+      while (ledgerAnnounced.getNumberOfDependents() == 0)
+        Thread.sleep(10);
+      ledgerAnnounced.complete("customer.cll.1");
+
+      final List<AccountAssignment> accountAssignments = accountsInFlight.get(10, TimeUnit.SECONDS);
+      Assert.assertEquals(4, contextOfAccountCreations.size());
+      contextOfAccountCreations.values().forEach(context -> Assert.assertEquals("tenant|user|token", context));
+      Assert.assertEquals(expectedAccountAssignments(), accountIdentifiersByDesignator(accountAssignments));
+    }
+    finally {
+      accountingExecutor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void approvalIsCompletedByACommandDispatchedOnceTheAccountsExist() throws Exception {
+    final DataContextOfAction dataContextOfAction = caseBeingApproved();
+    final CaseRepository caseRepository = Mockito.mock(CaseRepository.class);
+    final CaseParametersRepository caseParametersRepository = Mockito.mock(CaseParametersRepository.class);
+    Mockito.doReturn(1).when(caseParametersRepository).markAccountsRequested(
+        Matchers.eq(CASE_ID), Matchers.any(LocalDateTime.class), Matchers.any(LocalDateTime.class));
+    final CommandBus commandBus = Mockito.mock(CommandBus.class);
+    final ExecutorService accountingExecutor = Executors.newFixedThreadPool(2);
+    try {
+      final AccountingAdapter accountingAdapter = accountingAdapter(accountingExecutor);
+      final CompletableFuture<String> ledgerAnnounced = new CompletableFuture<>();
+      Mockito.doReturn(ledgerAnnounced).when(accountingAdapter)
+          .createLedger("customer", AccountDesignators.CUSTOMER_LOAN_GROUP, "loanLedger");
+
+      individualLoanCommandHandler(caseRepository, dataContextService(dataContextOfAction), caseParametersRepository,
+          Mockito.mock(ApprovePaymentBuilderService.class), accountingAdapter, commandBus)
+          .process(new ApproveCommand(PRODUCT_IDENTIFIER, CASE_IDENTIFIER, new Command()));
+
+      Mockito.verify(commandBus, Mockito.never()).dispatch(Matchers.any());
+      ledgerAnnounced.complete("customer.cll.1");
+
+      final ArgumentCaptor<CompleteApprovalCommand> completion = ArgumentCaptor.forClass(CompleteApprovalCommand.class);
+      Mockito.verify(commandBus, Mockito.timeout(10000)).dispatch(completion.capture());
+      Assert.assertEquals(CASE_IDENTIFIER, completion.getValue().getCaseIdentifier());
+      Assert.assertEquals(expectedAccountAssignments(), accountIdentifiersByDesignator(completion.getValue().getAccountAssignments()));
+      Assert.assertEquals(Case.State.PENDING.name(), dataContextOfAction.getCustomerCaseEntity().getCurrentState());
+      Assert.assertTrue(dataContextOfAction.getCustomerCaseEntity().getAccountAssignments().isEmpty());
+      Mockito.verifyZeroInteractions(caseRepository);
+    }
+    finally {
+      accountingExecutor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void approvalWhoseAccountsCannotBeCreatedIsAbandoned() throws Exception {
+    final DataContextOfAction dataContextOfAction = caseBeingApproved();
+    final CaseParametersRepository caseParametersRepository = Mockito.mock(CaseParametersRepository.class);
+    Mockito.doReturn(1).when(caseParametersRepository).markAccountsRequested(
+        Matchers.eq(CASE_ID), Matchers.any(LocalDateTime.class), Matchers.any(LocalDateTime.class));
+    final CommandBus commandBus = Mockito.mock(CommandBus.class);
+    final ExecutorService accountingExecutor = Executors.newFixedThreadPool(2);
+    try {
+      final AccountingAdapter accountingAdapter = accountingAdapter(accountingExecutor);
+      final CompletableFuture<String> ledgerAnnounced = new CompletableFuture<>();
+      Mockito.doReturn(ledgerAnnounced).when(accountingAdapter)
+          .createLedger("customer", AccountDesignators.CUSTOMER_LOAN_GROUP, "loanLedger");
+
+      individualLoanCommandHandler(Mockito.mock(CaseRepository.class), dataContextService(dataContextOfAction),
+          caseParametersRepository, Mockito.mock(ApprovePaymentBuilderService.class), accountingAdapter, commandBus)
+          .process(new ApproveCommand(PRODUCT_IDENTIFIER, CASE_IDENTIFIER, new Command()));
+      ledgerAnnounced.completeExceptionally(ServiceException.internalError("Accounting is down."));
+
+      final ArgumentCaptor<LocalDateTime> accountsRequestedOn = ArgumentCaptor.forClass(LocalDateTime.class);
+      Mockito.verify(caseParametersRepository).markAccountsRequested(
+          Matchers.eq(CASE_ID), accountsRequestedOn.capture(), Matchers.any(LocalDateTime.class));
+      final ArgumentCaptor<AbandonAccountCreationCommand> abandonment = ArgumentCaptor.forClass(AbandonAccountCreationCommand.class);
+      Mockito.verify(commandBus, Mockito.timeout(10000)).dispatch(abandonment.capture());
+      Assert.assertEquals(CASE_IDENTIFIER, abandonment.getValue().getCaseIdentifier());
+      Assert.assertEquals(Action.APPROVE, abandonment.getValue().getAction());
+      Assert.assertEquals(accountsRequestedOn.getValue(), abandonment.getValue().getAccountsRequestedOn());
+    }
+    finally {
+      accountingExecutor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void abandoningAccountCreationAllowsTheActionToBeTriedAgain() {
+    final DataContextOfAction dataContextOfAction = caseBeingApproved();
+    final CaseParametersRepository caseParametersRepository = Mockito.mock(CaseParametersRepository.class);
+    final LocalDateTime accountsRequestedOn = FOR_TIME.minusMinutes(1);
+
+    final IndividualLoanCommandEvent event = individualLoanCommandHandler(Mockito.mock(CaseRepository.class),
+        dataContextService(dataContextOfAction), caseParametersRepository, Mockito.mock(ApprovePaymentBuilderService.class),
+        Mockito.mock(AccountingAdapter.class), Mockito.mock(CommandBus.class))
+        .process(new AbandonAccountCreationCommand(PRODUCT_IDENTIFIER, CASE_IDENTIFIER, Action.APPROVE, accountsRequestedOn));
+
+    Assert.assertEquals(CASE_IDENTIFIER, event.getCaseIdentifier());
+    Mockito.verify(caseParametersRepository).clearAccountsRequested(CASE_ID, accountsRequestedOn);
+  }
+
+  @Test
+  public void approvalIsRefusedWhileTheAccountsOfAnEarlierApprovalAreBeingCreated() {
+    final DataContextOfAction dataContextOfAction = caseBeingApproved();
+    final CaseParametersRepository caseParametersRepository = Mockito.mock(CaseParametersRepository.class);
+    Mockito.doReturn(0).when(caseParametersRepository).markAccountsRequested(
+        Matchers.eq(CASE_ID), Matchers.any(LocalDateTime.class), Matchers.any(LocalDateTime.class));
+    final AccountingAdapter accountingAdapter = Mockito.mock(AccountingAdapter.class);
+
+    try {
+      individualLoanCommandHandler(Mockito.mock(CaseRepository.class), dataContextService(dataContextOfAction),
+          caseParametersRepository, Mockito.mock(ApprovePaymentBuilderService.class), accountingAdapter,
+          Mockito.mock(CommandBus.class))
+          .process(new ApproveCommand(PRODUCT_IDENTIFIER, CASE_IDENTIFIER, new Command()));
+      Assert.fail("A second approval should have been refused.");
+    }
+    catch (final ServiceException e) {
+      Assert.assertEquals("The accounts for case 'product.case' are already being created.", e.getMessage());
+    }
+
+    Mockito.verifyZeroInteractions(accountingAdapter);
+  }
+
+  @Test
+  public void completingTheApprovalAssignsTheAccountsAndApprovesTheCase() {
+    final DataContextOfAction dataContextOfAction = caseBeingApproved();
+    dataContextOfAction.getCaseParametersEntity().setAccountsRequestedOn(LocalDateTime.now());
+    final CaseRepository caseRepository = Mockito.mock(CaseRepository.class);
+    final CaseParametersRepository caseParametersRepository = Mockito.mock(CaseParametersRepository.class);
+    final ApprovePaymentBuilderService approvePaymentBuilderService = Mockito.mock(ApprovePaymentBuilderService.class);
+    final PaymentBuilder paymentBuilder = Mockito.mock(PaymentBuilder.class);
+    Mockito.doReturn(Collections.emptyMap()).when(paymentBuilder).getBalanceAdjustments();
+    Mockito.doReturn(paymentBuilder).when(approvePaymentBuilderService).getPaymentBuilder(
+        Matchers.eq(dataContextOfAction), Matchers.any(BigDecimal.class), Matchers.any(LocalDate.class), Matchers.any(RunningBalances.class));
+    final AccountingAdapter accountingAdapter = Mockito.mock(AccountingAdapter.class);
+    Mockito.doReturn(Optional.empty()).when(accountingAdapter).bookCharges(
+        Matchers.anyMapOf(String.class, BigDecimal.class), Matchers.any(), Matchers.anyString(), Matchers.anyString(),
+        Matchers.anyString(), Matchers.anyString());
+    final Command command = new Command();
+    command.setCreatedOn(DateConverter.toIsoString(FOR_TIME));
+    final List<AccountAssignment> accountAssignments = expectedAccountAssignments().entrySet().stream()
+        .map(accountAssignment -> new AccountAssignment(accountAssignment.getKey(), accountAssignment.getValue()))
+        .collect(Collectors.toList());
+
+    final IndividualLoanCommandEvent event = individualLoanCommandHandler(caseRepository, dataContextService(dataContextOfAction),
+        caseParametersRepository, approvePaymentBuilderService, accountingAdapter, Mockito.mock(CommandBus.class))
+        .process(new CompleteApprovalCommand(PRODUCT_IDENTIFIER, CASE_IDENTIFIER, command, accountAssignments));
+
+    Assert.assertEquals(CASE_IDENTIFIER, event.getCaseIdentifier());
+    final CaseEntity customerCase = dataContextOfAction.getCustomerCaseEntity();
+    Assert.assertEquals(Case.State.APPROVED.name(), customerCase.getCurrentState());
+    Assert.assertEquals(expectedAccountAssignments(), accountAssignmentsOf(customerCase));
+    Assert.assertNull(dataContextOfAction.getCaseParametersEntity().getAccountsRequestedOn());
+    Mockito.verify(caseParametersRepository).save(dataContextOfAction.getCaseParametersEntity());
+    Mockito.verify(caseRepository, Mockito.atLeastOnce()).save(customerCase);
+  }
+
+  /**
+   * What an interest and lateness pass leaves behind for a case.
+   */
+  private static class Outcome {
+    private final List<String> dispatchedCommands;
+    private final List<Map<String, BigDecimal>> bookedAdjustments;
+    private final List<String> recordedActions;
+    private final Map<String, BigDecimal> balances;
+    private final LocalDateTime nextDueDate;
+    private final BigDecimal expectedPaymentSum;
+
+    private Outcome(
+        final List<String> dispatchedCommands,
+        final List<Map<String, BigDecimal>> bookedAdjustments,
+        final List<String> recordedActions,
+        final Map<String, BigDecimal> balances,
+        final LocalDateTime nextDueDate,
+        final BigDecimal expectedPaymentSum) {
+      this.dispatchedCommands = dispatchedCommands;
+      this.bookedAdjustments = bookedAdjustments;
+      this.recordedActions = recordedActions;
+      this.balances = balances;
+      this.nextDueDate = nextDueDate;
+      this.expectedPaymentSum = expectedPaymentSum;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Outcome outcome = (Outcome) o;
+      return dispatchedCommands.equals(outcome.dispatchedCommands) &&
+          bookedAdjustments.equals(outcome.bookedAdjustments) &&
+          recordedActions.equals(outcome.recordedActions) &&
+          balances.equals(outcome.balances) &&
+          Objects.equals(nextDueDate, outcome.nextDueDate) &&
+          Objects.equals(expectedPaymentSum, outcome.expectedPaymentSum);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(dispatchedCommands, bookedAdjustments, recordedActions, balances, nextDueDate, expectedPaymentSum);
+    }
+
+    @Override
+    public String toString() {
+      return "Outcome{" +
+          "dispatchedCommands=" + dispatchedCommands +
+          ", bookedAdjustments=" + bookedAdjustments +
+          ", recordedActions=" + recordedActions +
+          ", balances=" + balances +
+          ", nextDueDate=" + nextDueDate +
+          ", expectedPaymentSum=" + expectedPaymentSum +
+          '}';
+    }
+  }
+
+  /**
+   * An active case, and handlers wired to mocks which keep the case's balances, payments and commands in memory.  Each
+   * run starts over from the same state.
+   */
+  private static class Scenario {
+    private BigDecimal paid = BigDecimal.ZERO;
+    private LocalDateTime lateSince = null;
+    private int maximumInterestCatchUpDays = 1;
+    private boolean resumed = false;
+    private final List<CaseCommandEntity> earlierCommands = new ArrayList<>();
+
+    Scenario paid(final BigDecimal paid) {
+      this.paid = paid;
+      return this;
+    }
+
+    Scenario lateSince(final LocalDateTime lateSince) {
+      this.lateSince = lateSince;
+      return this;
+    }
+
+    Scenario maximumInterestCatchUpDays(final int maximumInterestCatchUpDays) {
+      this.maximumInterestCatchUpDays = maximumInterestCatchUpDays;
+      return this;
+    }
+
+    Scenario resumed() {
+      this.resumed = true;
+      return this;
+    }
+
+    Scenario recorded(final Action action, final LocalDateTime createdOn) {
+      earlierCommands.add(caseCommand(action, createdOn));
+      return this;
+    }
+
+    Run runApplyInterest() {
+      final Run run = new Run(this);
+      run.individualLoanCommandHandler.process(new ApplyInterestCommand(
+          PRODUCT_IDENTIFIER, CASE_IDENTIFIER, DateConverter.toIsoString(FOR_TIME), resumed));
+      return run;
+    }
+
+    Outcome runFused() {
+      final Run run = new Run(this);
+      run.individualLoanCommandHandler.process(new ApplyInterestAndCheckLateCommand(
+          PRODUCT_IDENTIFIER, CASE_IDENTIFIER, DateConverter.toIsoString(FOR_TIME)));
+      return run.getOutcome();
+    }
+
+    Outcome runSeparately() {
+      final Run run = new Run(this);
+      run.individualLoanCommandHandler.process(new ApplyInterestCommand(
+          PRODUCT_IDENTIFIER, CASE_IDENTIFIER, DateConverter.toIsoString(FOR_TIME)));
+      run.beatPublishCommandHandler.process(new CheckLateCommand(
+          PRODUCT_IDENTIFIER, CASE_IDENTIFIER, DateConverter.toIsoString(FOR_TIME)));
+      return run.getOutcome();
+    }
+  }
+
+  private static class Run {
+    private final DataContextOfAction dataContextOfAction;
+    private final Map<String, BigDecimal> balances = new HashMap<>();
+    private final CommandBus commandBus = Mockito.mock(CommandBus.class);
+    private final AccountingAdapter accountingAdapter = Mockito.mock(AccountingAdapter.class);
+    private final CaseCommandRepository caseCommandRepository = Mockito.mock(CaseCommandRepository.class);
+    private final List<CaseCommandEntity> caseCommands = new ArrayList<>();
+    private final ApplyInterestPaymentBuilderService applyInterestPaymentBuilderService = Mockito.mock(ApplyInterestPaymentBuilderService.class);
+    private final IndividualLoanCommandHandler individualLoanCommandHandler;
+    private final BeatPublishCommandHandler beatPublishCommandHandler;
+
+    Run(final Scenario scenario) {
+      dataContextOfAction = activeCase();
+      balances.put(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL, BigDecimal.valueOf(800));
+      balances.put(AccountDesignators.CUSTOMER_LOAN_INTEREST, BigDecimal.ZERO);
+
+      final PortfolioProperties portfolioProperties = new PortfolioProperties();
+      portfolioProperties.setMaximumInterestCatchUpDays(scenario.maximumInterestCatchUpDays);
+
+      final DataContextService dataContextService = Mockito.mock(DataContextService.class);
+      Mockito.doReturn(dataContextOfAction).when(dataContextService)
+          .checkedGetDataContext(Matchers.eq(PRODUCT_IDENTIFIER), Matchers.eq(CASE_IDENTIFIER), Matchers.any());
+
+      final CaseBalanceProjectionService caseBalanceProjectionService = Mockito.mock(CaseBalanceProjectionService.class);
+      Mockito.doAnswer(invocation -> balancesAsOfNow(scenario))
+          .when(caseBalanceProjectionService).getRunningBalances(Matchers.any(DataContextOfAction.class));
+      Mockito.doAnswer(invocation -> {
+        @SuppressWarnings("unchecked")
+        final Map<String, BigDecimal> adjustments = invocation.getArgumentAt(2, Map.class);
+        adjustments.forEach((designator, adjustment) -> balances.merge(designator, adjustment, BigDecimal::add));
+        return null;
+      }).when(caseBalanceProjectionService).adjustBalances(
+          Matchers.any(DataContextOfAction.class), Matchers.any(RunningBalances.class), Matchers.anyMapOf(String.class, BigDecimal.class),
+          Matchers.any());
+
+      final PaymentBuilder interestPayment = Mockito.mock(PaymentBuilder.class);
+      final Map<String, BigDecimal> interestAdjustments = new HashMap<>();
+      interestAdjustments.put(AccountDesignators.CUSTOMER_LOAN_INTEREST, DAILY_INTEREST);
+      interestAdjustments.put(AccountDesignators.INTEREST_ACCRUAL, DAILY_INTEREST.negate());
+      Mockito.doReturn(interestAdjustments).when(interestPayment).getBalanceAdjustments();
+      Mockito.doReturn(interestPayment).when(applyInterestPaymentBuilderService).getPaymentBuilder(
+          Matchers.any(DataContextOfAction.class), Matchers.any(LocalDate.class), Matchers.anyInt(), Matchers.any(RunningBalances.class));
+
+      Mockito.doReturn(Optional.of("transaction")).when(accountingAdapter).bookCharges(
+          Matchers.anyMapOf(String.class, BigDecimal.class), Matchers.any(), Matchers.anyString(), Matchers.anyString(),
+          Matchers.anyString(), Matchers.anyString());
+
+      caseCommands.add(caseCommand(Action.DISBURSE, DISBURSED_ON));
+      caseCommands.addAll(scenario.earlierCommands);
+      Mockito.doAnswer(invocation -> commandsByCreatedOn(invocation.getArgumentAt(1, String.class), invocation.getArgumentAt(2, Pageable.class)))
+          .when(caseCommandRepository).findByCaseIdAndActionName(Matchers.eq(CASE_ID), Matchers.anyString(), Matchers.any(Pageable.class));
+      Mockito.doAnswer(invocation -> {
+        caseCommands.add(invocation.getArgumentAt(0, CaseCommandEntity.class));
+        return invocation.getArgumentAt(0, CaseCommandEntity.class);
+      }).when(caseCommandRepository).save(Matchers.any(CaseCommandEntity.class));
+
+      final LateCaseRepository lateCaseRepository = Mockito.mock(LateCaseRepository.class);
+      Mockito.doReturn(Optional.ofNullable(scenario.lateSince).map(lateSince -> {
+        final LateCaseEntity ret = new LateCaseEntity();
+        ret.setCaseId(CASE_ID);
+        ret.setLateSince(lateSince);
+        return ret;
+      })).when(lateCaseRepository).findByCaseId(CASE_ID);
+      final LossProvisionStepRepository lossProvisionStepRepository = Mockito.mock(LossProvisionStepRepository.class);
+      Mockito.doReturn(Optional.empty()).when(lossProvisionStepRepository).findByProductIdAndDaysLate(Matchers.anyLong(), Matchers.anyInt());
+      Mockito.doReturn(Optional.of(new LossProvisionStepEntity())).when(lossProvisionStepRepository).findByProductIdAndDaysLate(Matchers.anyLong(), Matchers.eq(10));
+
+      final RepaymentScheduleService repaymentScheduleService = new RepaymentScheduleService(Mockito.mock(RepaymentPeriodRepository.class));
+      final CaseParametersRepository caseParametersRepository = Mockito.mock(CaseParametersRepository.class);
+      final LatenessCheckService latenessCheckService = new LatenessCheckService(
+          caseCommandRepository,
+          caseParametersRepository,
+          lateCaseRepository,
+          lossProvisionStepRepository,
+          repaymentScheduleService);
+
+      final CaseRepository caseRepository = Mockito.mock(CaseRepository.class);
+      individualLoanCommandHandler = new IndividualLoanCommandHandler(
+          caseRepository,
+          dataContextService,
+          Mockito.mock(OpenPaymentBuilderService.class),
+          Mockito.mock(ApprovePaymentBuilderService.class),
+          Mockito.mock(DenyPaymentBuilderService.class),
+          Mockito.mock(DisbursePaymentBuilderService.class),
+          applyInterestPaymentBuilderService,
+          Mockito.mock(AcceptPaymentBuilderService.class),
+          Mockito.mock(ClosePaymentBuilderService.class),
+          Mockito.mock(MarkLatePaymentBuilderService.class),
+          Mockito.mock(MarkInArrearsPaymentBuilderService.class),
+          Mockito.mock(WriteOffPaymentBuilderService.class),
+          Mockito.mock(RecoverPaymentBuilderService.class),
+          accountingAdapter,
+          caseCommandRepository,
+          Mockito.mock(TaskInstanceRepository.class),
+          caseParametersRepository,
+          lateCaseRepository,
+          latenessCheckService,
+          repaymentScheduleService,
+          caseBalanceProjectionService,
+          Mockito.mock(AccrualAggregateService.class),
+          commandBus,
+          portfolioProperties,
+          Mockito.mock(Logger.class));
+      beatPublishCommandHandler = new BeatPublishCommandHandler(
+          portfolioProperties,
+          dataContextService,
+          Mockito.mock(ApplicationName.class),
+          commandBus,
+          latenessCheckService,
+          caseBalanceProjectionService,
+          Mockito.mock(PartitionedCaseProcessor.class),
+          new BeatSchedule(portfolioProperties),
+          Mockito.mock(JournalEntryOutbox.class),
+          Mockito.mock(StartOfTermBackfillService.class),
+          Mockito.mock(ExecutorService.class),
+          Mockito.mock(Logger.class));
+    }
+
+    private PageImpl<CaseCommandEntity> commandsByCreatedOn(final String actionName, final Pageable pageable) {
+      final Comparator<CaseCommandEntity> byCreatedOn = Comparator.comparing(CaseCommandEntity::getCreatedOn);
+      final Sort.Order order = pageable.getSort() == null ? null : pageable.getSort().getOrderFor("createdOn");
+      return new PageImpl<>(caseCommands.stream()
+          .filter(caseCommand -> caseCommand.getActionName().equals(actionName))
+          .sorted(order != null && order.isAscending() ? byCreatedOn : byCreatedOn.reversed())
+          .collect(Collectors.toList()));
+    }
+
+    List<Integer> getAccrualDays() {
+      final ArgumentCaptor<Integer> accrualDays = ArgumentCaptor.forClass(Integer.class);
+      Mockito.verify(applyInterestPaymentBuilderService, Mockito.atLeast(0)).getPaymentBuilder(
+          Matchers.any(DataContextOfAction.class), Matchers.any(LocalDate.class), accrualDays.capture(), Matchers.any(RunningBalances.class));
+      return accrualDays.getAllValues();
+    }
+
+    /**
+     * Like the balances read from the projection or from accounting: a snapshot, which doesn't see later bookings.
+     */
+    private RealRunningBalances balancesAsOfNow(final Scenario scenario) {
+      final Map<String, BigDecimal> snapshot = new HashMap<>(balances);
+      final RealRunningBalances ret = Mockito.mock(RealRunningBalances.class);
+      Mockito.doAnswer(invocation -> Optional.ofNullable(snapshot.get(invocation.getArgumentAt(0, String.class))))
+          .when(ret).getAccountBalance(Matchers.anyString());
+      Mockito.doAnswer(invocation ->
+          invocation.getArgumentAt(0, String.class).equals(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL) ? scenario.paid : BigDecimal.ZERO)
+          .when(ret).getSumOfChargesForActionSinceDate(Matchers.anyString(), Matchers.eq(Action.ACCEPT_PAYMENT), Matchers.any());
+      return ret;
+    }
+
+    Outcome getOutcome() {
+      final ArgumentCaptor<Object> dispatchedCommands = ArgumentCaptor.forClass(Object.class);
+      Mockito.verify(commandBus, Mockito.atLeast(0)).dispatch(dispatchedCommands.capture());
+
+      @SuppressWarnings("unchecked")
+      final ArgumentCaptor<Map<String, BigDecimal>> bookedAdjustments = ArgumentCaptor.forClass((Class) Map.class);
+      Mockito.verify(accountingAdapter, Mockito.atLeast(0)).bookCharges(
+          bookedAdjustments.capture(), Matchers.any(), Matchers.anyString(), Matchers.anyString(),
+          Matchers.anyString(), Matchers.anyString());
+
+      final ArgumentCaptor<CaseCommandEntity> recordedCommands = ArgumentCaptor.forClass(CaseCommandEntity.class);
+      Mockito.verify(caseCommandRepository, Mockito.atLeast(0)).save(recordedCommands.capture());
+
+      final CaseParametersEntity caseParameters = dataContextOfAction.getCaseParametersEntity();
+      return new Outcome(
+          dispatchedCommands.getAllValues().stream().map(Object::toString).collect(Collectors.toList()),
+          bookedAdjustments.getAllValues(),
+          recordedCommands.getAllValues().stream().map(CaseCommandEntity::getActionName).collect(Collectors.toList()),
+          balances,
+          caseParameters.getNextDueDate(),
+          caseParameters.getExpectedPaymentSum());
+    }
+  }
+
+  /**
+   * An accounting adapter which runs its background calls, but only pretends to create ledgers and accounts.  Each
+   * account is named after its ledger and designator.
+   */
+  private static AccountingAdapter accountingAdapter(final ExecutorService accountingExecutor) {
+    final AccountingAdapter ret = Mockito.spy(new AccountingAdapter(
+        null, null, null, null, null, null, accountingExecutor, Mockito.mock(Logger.class)));
+    Mockito.doAnswer(invocation -> {
+      final AccountAssignment ledgerAssignment = invocation.getArgumentAt(1, AccountAssignment.class);
+      return ledgerAssignment.getLedgerIdentifier() + "." + ledgerAssignment.getDesignator();
+    }).when(ret).createOrFindCaseAccountForLedgerAssignment(
+        Matchers.anyString(), Matchers.any(AccountAssignment.class), Matchers.any(BigDecimal.class));
+    return ret;
+  }
+
+  private static IndividualLoanCommandHandler individualLoanCommandHandler(
+      final CaseRepository caseRepository,
+      final AccountingAdapter accountingAdapter) {
+    return individualLoanCommandHandler(caseRepository, Mockito.mock(DataContextService.class),
+        Mockito.mock(CaseParametersRepository.class), Mockito.mock(ApprovePaymentBuilderService.class), accountingAdapter,
+        Mockito.mock(CommandBus.class));
+  }
+
+  private static IndividualLoanCommandHandler individualLoanCommandHandler(
+      final CaseRepository caseRepository,
+      final DataContextService dataContextService,
+      final CaseParametersRepository caseParametersRepository,
+      final ApprovePaymentBuilderService approvePaymentBuilderService,
+      final AccountingAdapter accountingAdapter,
+      final CommandBus commandBus) {
+    return new IndividualLoanCommandHandler(
+        caseRepository,
+        dataContextService,
+        Mockito.mock(OpenPaymentBuilderService.class),
+        approvePaymentBuilderService,
+        Mockito.mock(DenyPaymentBuilderService.class),
+        Mockito.mock(DisbursePaymentBuilderService.class),
+        Mockito.mock(ApplyInterestPaymentBuilderService.class),
+        Mockito.mock(AcceptPaymentBuilderService.class),
+        Mockito.mock(ClosePaymentBuilderService.class),
+        Mockito.mock(MarkLatePaymentBuilderService.class),
+        Mockito.mock(MarkInArrearsPaymentBuilderService.class),
+        Mockito.mock(WriteOffPaymentBuilderService.class),
+        Mockito.mock(RecoverPaymentBuilderService.class),
+        accountingAdapter,
+        Mockito.mock(CaseCommandRepository.class),
+        Mockito.mock(TaskInstanceRepository.class),
+        caseParametersRepository,
+        Mockito.mock(LateCaseRepository.class),
+        Mockito.mock(LatenessCheckService.class),
+        Mockito.mock(RepaymentScheduleService.class),
+        Mockito.mock(CaseBalanceProjectionService.class),
+        Mockito.mock(AccrualAggregateService.class),
+        commandBus,
+        new PortfolioProperties(),
+        Mockito.mock(Logger.class));
+  }
+
+  private static DataContextService dataContextService(final DataContextOfAction dataContextOfAction) {
+    final DataContextService ret = Mockito.mock(DataContextService.class);
+    Mockito.doReturn(dataContextOfAction).when(ret).checkedGetDataContext(
+        Matchers.eq(PRODUCT_IDENTIFIER), Matchers.eq(CASE_IDENTIFIER), Matchers.anyListOf(AccountAssignment.class));
+    return ret;
+  }
+
+  private static ArgumentMatcher<AccountAssignment> hasDesignator(final String designator) {
+    return new ArgumentMatcher<AccountAssignment>() {
+      @Override
+      public boolean matches(final Object argument) {
+        return argument instanceof AccountAssignment && designator.equals(((AccountAssignment) argument).getDesignator());
+      }
+    };
+  }
+
+  /**
+   * The ledger and accounts created for the case of caseBeingApproved by the accounting adapter of accountingAdapter,
+   * once the customer loan group's ledger is announced as "customer.cll.1".
+   */
+  private static Map<String, String> expectedAccountAssignments() {
+    final Map<String, String> ret = new HashMap<>();
+    ret.put(AccountDesignators.CUSTOMER_LOAN_GROUP, "customer.cll.1");
+    ret.put(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL, "customer.cll.1." + AccountDesignators.CUSTOMER_LOAN_PRINCIPAL);
+    ret.put(AccountDesignators.CUSTOMER_LOAN_INTEREST, "customer.cll.1." + AccountDesignators.CUSTOMER_LOAN_INTEREST);
+    ret.put(AccountDesignators.CUSTOMER_LOAN_FEES, "customer.cll.1." + AccountDesignators.CUSTOMER_LOAN_FEES);
+    ret.put(AccountDesignators.LOAN_FUNDS_SOURCE, "fundsLedger." + AccountDesignators.LOAN_FUNDS_SOURCE);
+    return ret;
+  }
+
+  private static Map<String, String> accountIdentifiersByDesignator(final List<AccountAssignment> accountAssignments) {
+    return accountAssignments.stream()
+        .collect(Collectors.toMap(AccountAssignment::getDesignator, AccountAssignment::getAccountIdentifier));
+  }
+
+  private static Map<String, String> accountAssignmentsOf(final CaseEntity customerCase) {
+    return customerCase.getAccountAssignments().stream()
+        .collect(Collectors.toMap(CaseAccountAssignmentEntity::getDesignator, CaseAccountAssignmentEntity::getIdentifier));
+  }
+
+  private static CaseCommandEntity caseCommand(final Action action, final LocalDateTime createdOn) {
+    final CaseCommandEntity ret = new CaseCommandEntity();
+    ret.setCaseId(CASE_ID);
+    ret.setActionName(action.name());
+    ret.setCreatedOn(createdOn);
+    return ret;
+  }
+
+  /**
+   * A case whose product assigns the customer loan accounts to one ledger and the loan funds source to another, so that
+   * the customer loan group needs a ledger of its own.
+   */
+  private static DataContextOfAction caseBeingApproved() {
+    final DataContextOfAction ret = activeCase();
+    ret.getCustomerCaseEntity().setCurrentState(Case.State.PENDING.name());
+    final Set<ProductAccountAssignmentEntity> productAccountAssignments = ret.getProductEntity().getAccountAssignments();
+    productAccountAssignments.add(ledgerAssignment(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL, "loanLedger"));
+    productAccountAssignments.add(ledgerAssignment(AccountDesignators.CUSTOMER_LOAN_INTEREST, "loanLedger"));
+    productAccountAssignments.add(ledgerAssignment(AccountDesignators.CUSTOMER_LOAN_FEES, "loanLedger"));
+    productAccountAssignments.add(ledgerAssignment(AccountDesignators.LOAN_FUNDS_SOURCE, "fundsLedger"));
+    return ret;
+  }
+
+  private static ProductAccountAssignmentEntity ledgerAssignment(final String designator, final String ledgerIdentifier) {
+    final ProductAccountAssignmentEntity ret = new ProductAccountAssignmentEntity();
+    ret.setDesignator(designator);
+    ret.setIdentifier(ledgerIdentifier);
+    ret.setType(AccountingAdapter.IdentifierType.LEDGER);
+    return ret;
+  }
+
+  private static DataContextOfAction activeCase() {
+    final ProductEntity product = new ProductEntity();
+    product.setId(3L);
+    product.setIdentifier(PRODUCT_IDENTIFIER);
+    product.setMinorCurrencyUnitDigits(2);
+    product.setAccountAssignments(new HashSet<>());
+    final CaseEntity customerCase = new CaseEntity();
+    customerCase.setId(CASE_ID);
+    customerCase.setIdentifier(CASE_IDENTIFIER);
+    customerCase.setProductIdentifier(PRODUCT_IDENTIFIER);
+    customerCase.setCurrentState(Case.State.ACTIVE.name());
+    customerCase.setStartOfTerm(DISBURSED_ON);
+    customerCase.setEndOfTerm(DISBURSED_ON.plusMonths(12));
+    customerCase.setInterest(BigDecimal.TEN);
+    customerCase.setAccountAssignments(new HashSet<>());
+    final CaseParametersEntity caseParameters = new CaseParametersEntity();
+    caseParameters.setCaseId(CASE_ID);
+    caseParameters.setCustomerIdentifier("customer");
+    caseParameters.setPaymentSize(BigDecimal.valueOf(100));
+    caseParameters.setBalanceRangeMaximum(BigDecimal.valueOf(1000));
+    caseParameters.setTermRangeTemporalUnit(ChronoUnit.MONTHS);
+    caseParameters.setTermRangeMaximum(12);
+    caseParameters.setPaymentCyclePeriod(1);
+    caseParameters.setPaymentCycleTemporalUnit(ChronoUnit.MONTHS);
+    caseParameters.setCreditWorthinessFactors(Collections.emptySet());
+    return new DataContextOfAction(product, customerCase, caseParameters, Collections.emptyList());
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.apache.fineract.cn.individuallending.api.v1.domain.product.AccountDesignators;
+import org.apache.fineract.cn.individuallending.api.v1.domain.workflow.Action;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseAccrualEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseAccrualRepository;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseParametersEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseParametersRepository;
+import org.apache.fineract.cn.portfolio.api.v1.domain.ChargeDefinition;
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.ProductEntity;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+public class AccrualAggregateServiceTest {
+  private CaseAccrualRepository caseAccrualRepository;
+  private AccrualAggregateService testSubject;
+  private DataContextOfAction dataContextOfAction;
+  private ChargeDefinition interestCharge;
+  private PortfolioProperties portfolioProperties;
+
+  @Before
+  public void prepare() {
+    caseAccrualRepository = Mockito.mock(CaseAccrualRepository.class);
+    final ChargeDefinitionService chargeDefinitionService = Mockito.mock(ChargeDefinitionService.class);
+    portfolioProperties = new PortfolioProperties();
+    portfolioProperties.setUseAccrualTotals(true);
+    testSubject = new AccrualAggregateService(
+        caseAccrualRepository,
+        Mockito.mock(CaseParametersRepository.class),
+        chargeDefinitionService,
+        portfolioProperties);
+
+    interestCharge = new ChargeDefinition();
+    interestCharge.setIdentifier("interest");
+    interestCharge.setAccrueAction(Action.APPLY_INTEREST.name());
+    interestCharge.setChargeAction(Action.ACCEPT_PAYMENT.name());
+    interestCharge.setAccrualAccountDesignator(AccountDesignators.INTEREST_ACCRUAL);
+    Mockito.doReturn(Collections.singletonMap(Action.APPLY_INTEREST.name(), Collections.singletonList(interestCharge)))
+        .when(chargeDefinitionService).getChargeDefinitionsMappedByAccrueAction("blah");
+
+    final ProductEntity product = new ProductEntity();
+    product.setIdentifier("blah");
+    final CaseEntity customerCase = new CaseEntity();
+    customerCase.setId(17L);
+    dataContextOfAction = new DataContextOfAction(product, customerCase, new CaseParametersEntity(), Collections.emptyList());
+  }
+
+  @Test
+  public void untrackedCaseFallsBackToAccounting() {
+    testSubject.recordBooking(dataContextOfAction, Action.APPLY_INTEREST,
+        Collections.singletonMap(AccountDesignators.INTEREST_ACCRUAL, BigDecimal.ONE));
+
+    Mockito.verifyZeroInteractions(caseAccrualRepository);
+    Assert.assertEquals(Optional.empty(), testSubject.getAccruedBalanceForCharge(dataContextOfAction, interestCharge));
+  }
+
+  @Test
+  public void onlyAccrualAccountsAreTotalled() {
+    testSubject.startTracking(dataContextOfAction);
+
+    final Map<String, BigDecimal> balanceAdjustments = new HashMap<>();
+    balanceAdjustments.put(AccountDesignators.INTEREST_ACCRUAL, BigDecimal.valueOf(-5));
+    balanceAdjustments.put(AccountDesignators.CUSTOMER_LOAN_INTEREST, BigDecimal.valueOf(5));
+    testSubject.recordBooking(dataContextOfAction, Action.ACCEPT_PAYMENT, balanceAdjustments);
+
+    Mockito.verify(caseAccrualRepository, Mockito.times(1))
+        .addToAmount(17L, AccountDesignators.INTEREST_ACCRUAL, Action.ACCEPT_PAYMENT.name(), BigDecimal.valueOf(5));
+    Mockito.verify(caseAccrualRepository, Mockito.times(1))
+        .addToAmount(Matchers.anyLong(), Matchers.anyString(), Matchers.anyString(), Matchers.any(BigDecimal.class));
+  }
+
+  @Test
+  public void turnedOffTotalsAreNeitherStartedNorRead() {
+    portfolioProperties.setUseAccrualTotals(false);
+    testSubject.startTracking(dataContextOfAction);
+    Assert.assertFalse(testSubject.isTracking(dataContextOfAction));
+
+    //A case tracked while the totals were on keeps being totalled, but its accrued balance is read from accounting.
+    dataContextOfAction.getCaseParametersEntity().setAccrualsTracked(true);
+    testSubject.recordBooking(dataContextOfAction, Action.APPLY_INTEREST,
+        Collections.singletonMap(AccountDesignators.INTEREST_ACCRUAL, BigDecimal.ONE));
+
+    Mockito.verify(caseAccrualRepository, Mockito.times(1))
+        .addToAmount(17L, AccountDesignators.INTEREST_ACCRUAL, Action.APPLY_INTEREST.name(), BigDecimal.ONE);
+    Assert.assertEquals(Optional.empty(), testSubject.getAccruedBalanceForCharge(dataContextOfAction, interestCharge));
+  }
+
+  @Test
+  public void accruedBalanceIsAccruedLessApplied() {
+    testSubject.startTracking(dataContextOfAction);
+    Mockito.doReturn(Optional.of(accrual(BigDecimal.valueOf(12)))).when(caseAccrualRepository)
+        .findByCaseIdAndAccountDesignatorAndActionName(17L, AccountDesignators.INTEREST_ACCRUAL, Action.APPLY_INTEREST.name());
+    Mockito.doReturn(Optional.of(accrual(BigDecimal.valueOf(5)))).when(caseAccrualRepository)
+        .findByCaseIdAndAccountDesignatorAndActionName(17L, AccountDesignators.INTEREST_ACCRUAL, Action.ACCEPT_PAYMENT.name());
+
+    Assert.assertEquals(Optional.of(BigDecimal.valueOf(7)), testSubject.getAccruedBalanceForCharge(dataContextOfAction, interestCharge));
+  }
+
+  private static CaseAccrualEntity accrual(final BigDecimal amount) {
+    final CaseAccrualEntity ret = new CaseAccrualEntity();
+    ret.setAmount(amount);
+    return ret;
+  }
+}
@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.apache.fineract.cn.accounting.api.v1.domain.Account;
+import org.apache.fineract.cn.accounting.api.v1.domain.AccountType;
+import org.apache.fineract.cn.individuallending.api.v1.domain.product.AccountDesignators;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseBalanceEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseBalanceRepository;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseParametersEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseUnreleasedEntryEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseUnreleasedEntryRepository;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.ProjectedRunningBalances;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.RealRunningBalances;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.RunningBalances;
+import org.apache.fineract.cn.portfolio.api.v1.domain.Case;
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseAccountAssignmentEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.ProductEntity;
+import org.apache.fineract.cn.portfolio.service.internal.util.AccountingAdapter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+
+public class CaseBalanceProjectionServiceTest {
+  private static final Long CASE_ID = 17L;
+  private static final String PRINCIPAL_ACCOUNT = "principal-account";
+  private static final String INTEREST_ACCOUNT = "interest-account";
+
+  private CaseBalanceRepository caseBalanceRepository;
+  private CaseUnreleasedEntryRepository caseUnreleasedEntryRepository;
+  private AccountingAdapter accountingAdapter;
+  private Map<String, BigDecimal> balancesInAccounting;
+  private List<CaseBalanceEntity> projection;
+  private CaseBalanceProjectionService testSubject;
+  private DataContextOfAction dataContextOfAction;
+
+  @Before
+  public void prepare() {
+    caseBalanceRepository = Mockito.mock(CaseBalanceRepository.class);
+    caseUnreleasedEntryRepository = Mockito.mock(CaseUnreleasedEntryRepository.class);
+    accountingAdapter = Mockito.mock(AccountingAdapter.class);
+    balancesInAccounting = new HashMap<>();
+    balancesInAccounting.put(PRINCIPAL_ACCOUNT, BigDecimal.valueOf(700));
+    balancesInAccounting.put(INTEREST_ACCOUNT, BigDecimal.valueOf(5));
+    projection = Arrays.asList(
+        caseBalance(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL, PRINCIPAL_ACCOUNT, BigDecimal.valueOf(800)),
+        caseBalance(AccountDesignators.CUSTOMER_LOAN_INTEREST, INTEREST_ACCOUNT, BigDecimal.valueOf(10)));
+
+    Mockito.doAnswer(invocation -> projection).when(caseBalanceRepository).findByCaseId(CASE_ID);
+    Mockito.doAnswer(invocation -> invocation.getArgumentAt(0, List.class))
+        .when(caseBalanceRepository).save(Matchers.anyListOf(CaseBalanceEntity.class));
+    Mockito.doAnswer(invocation -> {
+      @SuppressWarnings("unchecked")
+      final Collection<String> accountIdentifiers = invocation.getArgumentAt(0, Collection.class);
+      return accountIdentifiers.stream().collect(Collectors.toMap(x -> x, this::accountInAccounting));
+    }).when(accountingAdapter).getAccounts(Matchers.anyCollectionOf(String.class));
+    Mockito.doAnswer(invocation -> accountInAccounting(invocation.getArgumentAt(0, String.class)))
+        .when(accountingAdapter).getCachedAccount(Matchers.anyString());
+
+    final PortfolioProperties portfolioProperties = new PortfolioProperties();
+    portfolioProperties.setUseLocalCaseBalances(true);
+    portfolioProperties.setCaseBalanceReconciliationDays(7);
+
+    testSubject = new CaseBalanceProjectionService(
+        caseBalanceRepository,
+        caseUnreleasedEntryRepository,
+        accountingAdapter,
+        Mockito.mock(AccrualAggregateService.class),
+        portfolioProperties,
+        Mockito.mock(Logger.class));
+    dataContextOfAction = activeCase();
+  }
+
+  @Test
+  public void adjustmentsAreAddedWithTheSignOfTheAccount() {
+    final RunningBalances runningBalances = Mockito.mock(RunningBalances.class);
+    Mockito.doReturn(true).when(runningBalances).isAccountNegative(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL);
+    Mockito.doReturn(false).when(runningBalances).isAccountNegative(AccountDesignators.CUSTOMER_LOAN_INTEREST);
+    final Map<String, BigDecimal> adjustments = new HashMap<>();
+    adjustments.put(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL, BigDecimal.valueOf(100));
+    adjustments.put(AccountDesignators.CUSTOMER_LOAN_INTEREST, BigDecimal.valueOf(2.5));
+    adjustments.put(AccountDesignators.ENTRY, BigDecimal.valueOf(-102.5));
+
+    testSubject.adjustBalances(dataContextOfAction, runningBalances, adjustments, Optional.of("portfolio.x"));
+
+    Assert.assertEquals(BigDecimal.valueOf(700), projectedBalance(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL));
+    Assert.assertEquals(BigDecimal.valueOf(12.5), projectedBalance(AccountDesignators.CUSTOMER_LOAN_INTEREST));
+  }
+
+  @Test
+  public void adjustedEntryIsUnreleasedUntilAccountingReleasesIt() {
+    final Map<String, BigDecimal> adjustments = new HashMap<>();
+    adjustments.put(AccountDesignators.CUSTOMER_LOAN_INTEREST, BigDecimal.ONE);
+
+    testSubject.adjustBalances(dataContextOfAction, Mockito.mock(RunningBalances.class), adjustments, Optional.of("portfolio.x"));
+
+    final ArgumentCaptor<CaseUnreleasedEntryEntity> unreleasedEntry = ArgumentCaptor.forClass(CaseUnreleasedEntryEntity.class);
+    Mockito.verify(caseUnreleasedEntryRepository).save(unreleasedEntry.capture());
+    Assert.assertEquals(CASE_ID, unreleasedEntry.getValue().getCaseId());
+    Assert.assertEquals("portfolio.x", unreleasedEntry.getValue().getTransactionIdentifier());
+  }
+
+  @Test
+  public void nothingIsAdjustedForCaseWithoutProjection() {
+    projection = Collections.emptyList();
+    final Map<String, BigDecimal> adjustments = new HashMap<>();
+    adjustments.put(AccountDesignators.CUSTOMER_LOAN_INTEREST, BigDecimal.ONE);
+
+    testSubject.adjustBalances(dataContextOfAction, Mockito.mock(RunningBalances.class), adjustments, Optional.of("portfolio.x"));
+
+    Mockito.verify(caseBalanceRepository, Mockito.never()).save(Matchers.anyListOf(CaseBalanceEntity.class));
+    Mockito.verifyZeroInteractions(caseUnreleasedEntryRepository);
+  }
+
+  @Test
+  public void currentProjectionIsUsedWithoutGoingToAccounting() {
+    final RealRunningBalances runningBalances = testSubject.getRunningBalances(dataContextOfAction);
+
+    Assert.assertTrue(runningBalances instanceof ProjectedRunningBalances);
+    Assert.assertEquals(Optional.of(BigDecimal.valueOf(800)), runningBalances.getAccountBalance(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL));
+    Mockito.verifyZeroInteractions(accountingAdapter);
+    Mockito.verify(caseBalanceRepository, Mockito.never()).save(Matchers.anyListOf(CaseBalanceEntity.class));
+  }
+
+  @Test
+  public void dueProjectionIsReconciledOnceAccountingHasReleasedAllEntries() {
+    projection.forEach(x -> x.setReconciledOn(LocalDateTime.now(Clock.systemUTC()).minusDays(8)));
+    Mockito.doReturn(0L).when(caseUnreleasedEntryRepository)
+        .countByCaseIdAndBookedOnAfter(Matchers.eq(CASE_ID), Matchers.any(LocalDateTime.class));
+
+    final RealRunningBalances runningBalances = testSubject.getRunningBalances(dataContextOfAction);
+
+    Assert.assertEquals(Optional.of(BigDecimal.valueOf(700.0)), runningBalances.getAccountBalance(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL));
+    Assert.assertEquals(BigDecimal.valueOf(700.0), projectedBalance(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL));
+    Assert.assertEquals(BigDecimal.valueOf(5.0), projectedBalance(AccountDesignators.CUSTOMER_LOAN_INTEREST));
+    Assert.assertTrue(projection.stream().allMatch(x -> x.getReconciledOn().isAfter(LocalDateTime.now(Clock.systemUTC()).minusDays(1))));
+  }
+
+  @Test
+  public void dueReconciliationWaitsForAccountingToReleaseAppliedEntries() {
+    projection.forEach(x -> x.setReconciledOn(LocalDateTime.now(Clock.systemUTC()).minusDays(8)));
+    Mockito.doReturn(1L).when(caseUnreleasedEntryRepository)
+        .countByCaseIdAndBookedOnAfter(Matchers.eq(CASE_ID), Matchers.any(LocalDateTime.class));
+
+    final RealRunningBalances runningBalances = testSubject.getRunningBalances(dataContextOfAction);
+
+    Assert.assertEquals(Optional.of(BigDecimal.valueOf(800)), runningBalances.getAccountBalance(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL));
+    Assert.assertEquals(BigDecimal.valueOf(800), projectedBalance(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL));
+    Mockito.verify(accountingAdapter, Mockito.never()).getAccounts(Matchers.anyCollectionOf(String.class));
+    Mockito.verify(caseBalanceRepository, Mockito.never()).save(Matchers.anyListOf(CaseBalanceEntity.class));
+  }
+
+  @Test
+  public void entriesUnreleasedForAWholeIntervalDontHoldBackReconciliation() {
+    projection.forEach(x -> x.setReconciledOn(LocalDateTime.now(Clock.systemUTC()).minusDays(8)));
+    Mockito.doReturn(0L).when(caseUnreleasedEntryRepository)
+        .countByCaseIdAndBookedOnAfter(Matchers.eq(CASE_ID), Matchers.any(LocalDateTime.class));
+    Mockito.doReturn(2).when(caseUnreleasedEntryRepository)
+        .deleteByCaseIdAndBookedOnNotAfter(Matchers.eq(CASE_ID), Matchers.any(LocalDateTime.class));
+
+    testSubject.getRunningBalances(dataContextOfAction);
+
+    Mockito.verify(caseUnreleasedEntryRepository).deleteByCaseIdAndBookedOnNotAfter(Matchers.eq(CASE_ID), Matchers.any(LocalDateTime.class));
+    Assert.assertEquals(BigDecimal.valueOf(700.0), projectedBalance(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL));
+  }
+
+  @Test
+  public void readingDueProjectionGoesToAccountingWithoutWriting() {
+    projection.forEach(x -> x.setReconciledOn(LocalDateTime.now(Clock.systemUTC()).minusDays(8)));
+
+    final RealRunningBalances runningBalances = testSubject.getRunningBalancesForReading(dataContextOfAction);
+
+    Assert.assertFalse(runningBalances instanceof ProjectedRunningBalances);
+    Assert.assertEquals(Optional.of(BigDecimal.valueOf(700.0)), runningBalances.getAccountBalance(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL));
+    Assert.assertEquals(BigDecimal.valueOf(800), projectedBalance(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL));
+    Mockito.verify(caseBalanceRepository, Mockito.never()).save(Matchers.anyListOf(CaseBalanceEntity.class));
+    Mockito.verify(caseBalanceRepository, Mockito.never()).delete(Matchers.anyListOf(CaseBalanceEntity.class));
+    Mockito.verifyZeroInteractions(caseUnreleasedEntryRepository);
+  }
+
+  @Test
+  public void readingCurrentProjectionUsesIt() {
+    final RealRunningBalances runningBalances = testSubject.getRunningBalancesForReading(dataContextOfAction);
+
+    Assert.assertTrue(runningBalances instanceof ProjectedRunningBalances);
+    Assert.assertEquals(Optional.of(BigDecimal.valueOf(10)), runningBalances.getAccountBalance(AccountDesignators.CUSTOMER_LOAN_INTEREST));
+    Mockito.verifyZeroInteractions(accountingAdapter);
+  }
+
+  private BigDecimal projectedBalance(final String accountDesignator) {
+    return projection.stream()
+        .filter(x -> x.getAccountDesignator().equals(accountDesignator))
+        .findFirst()
+        .map(CaseBalanceEntity::getBalance)
+        .orElseThrow(IllegalStateException::new);
+  }
+
+  private Account accountInAccounting(final String accountIdentifier) {
+    final Account ret = new Account();
+    ret.setIdentifier(accountIdentifier);
+    ret.setType(AccountType.ASSET.name());
+    ret.setBalance(balancesInAccounting.get(accountIdentifier).doubleValue());
+    return ret;
+  }
+
+  private static CaseBalanceEntity caseBalance(
+      final String accountDesignator,
+      final String accountIdentifier,
+      final BigDecimal balance) {
+    final CaseBalanceEntity ret = new CaseBalanceEntity();
+    ret.setCaseId(CASE_ID);
+    ret.setAccountDesignator(accountDesignator);
+    ret.setAccountIdentifier(accountIdentifier);
+    ret.setBalance(balance);
+    ret.setReconciledOn(LocalDateTime.now(Clock.systemUTC()).minusDays(1));
+    return ret;
+  }
+
+  private static CaseAccountAssignmentEntity caseAccountAssignment(
+      final String accountDesignator,
+      final String accountIdentifier) {
+    final CaseAccountAssignmentEntity ret = new CaseAccountAssignmentEntity();
+    ret.setDesignator(accountDesignator);
+    ret.setIdentifier(accountIdentifier);
+    return ret;
+  }
+
+  private static DataContextOfAction activeCase() {
+    final ProductEntity product = new ProductEntity();
+    product.setIdentifier("product");
+    product.setAccountAssignments(new HashSet<>());
+    final CaseEntity customerCase = new CaseEntity();
+    customerCase.setId(CASE_ID);
+    customerCase.setIdentifier("case");
+    customerCase.setCurrentState(Case.State.ACTIVE.name());
+    customerCase.setAccountAssignments(new HashSet<>(Arrays.asList(
+        caseAccountAssignment(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL, PRINCIPAL_ACCOUNT),
+        caseAccountAssignment(AccountDesignators.CUSTOMER_LOAN_INTEREST, INTEREST_ACCOUNT))));
+    return new DataContextOfAction(product, customerCase, new CaseParametersEntity(), null);
+  }
+}
@@ -34,10 +34,14 @@ import org.apache.fineract.cn.portfolio.api.v1.domain.ChargeDefinition;
 import org.apache.fineract.cn.portfolio.api.v1.domain.CostComponent;
 import org.apache.fineract.cn.portfolio.api.v1.domain.PaymentCycle;
 import org.apache.fineract.cn.portfolio.api.v1.domain.TermRange;
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
 import org.apache.fineract.cn.portfolio.service.internal.repository.BalanceSegmentRepository;
 import org.apache.fineract.cn.portfolio.service.internal.repository.CaseEntity;
 import org.apache.fineract.cn.portfolio.service.internal.repository.ProductEntity;
+import org.apache.fineract.cn.lang.TenantContextHolder;
+import org.junit.After;
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
@@ -46,6 +50,7 @@ import org.mockito.Mockito;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -270,7 +275,17 @@ public class IndividualLoanServiceTest {
 
     scheduledChargesService = new ScheduledChargesService(DefaultChargeDefinitionsMocker.getChargeDefinitionService(testCase.chargeDefinitions), balanceSegmentRepositoryMock);
 
-    testSubject = new IndividualLoanService(scheduledChargesService);
+    testSubject = new IndividualLoanService(scheduledChargesService, Mockito.mock(RepaymentScheduleService.class), new PortfolioProperties());
+  }
+
+  @Before
+  public void setTenant() {
+    TenantContextHolder.setIdentifier("tenant");
+  }
+
+  @After
+  public void clearTenant() {
+    TenantContextHolder.clear();
   }
 
   @Test
@@ -375,6 +390,50 @@ public class IndividualLoanServiceTest {
     Assert.assertEquals(testCase.expectedChargeIdentifiers, resultChargeIdentifiers);
   }
 
+  @Test
+  public void pagesResumedFromCursorMatchPagesSimulatedFromStart() {
+    final PortfolioProperties withoutCursors = new PortfolioProperties();
+    withoutCursors.setPlannedPaymentCursorCacheSize(0);
+    final IndividualLoanService testSubjectWithoutCursors = new IndividualLoanService(scheduledChargesService, Mockito.mock(RepaymentScheduleService.class), withoutCursors);
+
+    final int pageCount = testSubject.getPlannedPaymentsPage(testCase.getDataContextOfAction(),
+        new IndividualLoanService.PlannedPaymentWindow(0, 3, Optional.of(testCase.initialDisbursementDate)))
+        .getTotalPages();
+
+    for (int pageIndex = 1; pageIndex < pageCount; pageIndex++) {
+      final IndividualLoanService.PlannedPaymentWindow window
+          = new IndividualLoanService.PlannedPaymentWindow(pageIndex, 3, Optional.of(testCase.initialDisbursementDate));
+      Assert.assertEquals("Page " + pageIndex,
+          testSubjectWithoutCursors.getPlannedPaymentsPage(testCase.getDataContextOfAction(), window).getElements(),
+          testSubject.getPlannedPaymentsPage(testCase.getDataContextOfAction(), window).getElements());
+    }
+  }
+
+  @Test
+  public void cursorIsNotResumedOnceTheProductsChargeDefinitionsChanged() {
+    final ScheduledChargesService scheduledChargesServiceSpy = Mockito.spy(scheduledChargesService);
+    final IndividualLoanService testSubjectWithSpy = new IndividualLoanService(scheduledChargesServiceSpy, Mockito.mock(RepaymentScheduleService.class), new PortfolioProperties());
+
+    final DataContextOfAction beforeChange = testCase.getDataContextOfAction();
+    beforeChange.getProductEntity().setLastModifiedOn(LocalDateTime.of(2018, 1, 1, 0, 0));
+    final PlannedPaymentPage firstPage = testSubjectWithSpy.getPlannedPaymentsPage(beforeChange,
+        new IndividualLoanService.PlannedPaymentWindow(0, 1, Optional.of(testCase.initialDisbursementDate)));
+    Assert.assertTrue(firstPage.getTotalPages() > 2);
+
+    final DataContextOfAction afterChange = testCase.getDataContextOfAction();
+    afterChange.getProductEntity().setLastModifiedOn(LocalDateTime.of(2018, 1, 2, 0, 0));
+    testSubjectWithSpy.getPlannedPaymentsPage(afterChange,
+        new IndividualLoanService.PlannedPaymentWindow(1, 1, Optional.of(testCase.initialDisbursementDate)));
+    Mockito.verify(scheduledChargesServiceSpy, Mockito.times(2)).getScheduledCharges(Matchers.anyString(), Matchers.anyListOf(ScheduledAction.class));
+
+    //Unchanged since then, so the cursor saved by the second page is resumed for the third.
+    final DataContextOfAction stillAfterChange = testCase.getDataContextOfAction();
+    stillAfterChange.getProductEntity().setLastModifiedOn(LocalDateTime.of(2018, 1, 2, 0, 0));
+    testSubjectWithSpy.getPlannedPaymentsPage(stillAfterChange,
+        new IndividualLoanService.PlannedPaymentWindow(2, 1, Optional.of(testCase.initialDisbursementDate)));
+    Mockito.verify(scheduledChargesServiceSpy, Mockito.times(2)).getScheduledCharges(Matchers.anyString(), Matchers.anyListOf(ScheduledAction.class));
+  }
+
   private BigDecimal getBalanceForPayment(
       final List<PlannedPayment> allPlannedPayments,
       final String accountDesignator,
@@ -390,7 +449,8 @@ public class IndividualLoanServiceTest {
 
     final List<LocalDate> interestCalculationDates = scheduledCharges.stream()
         .filter(scheduledCharge -> scheduledCharge.getScheduledAction().getAction() == Action.APPLY_INTEREST)
-        .map(scheduledCharge -> scheduledCharge.getScheduledAction().getWhen())
+        .flatMap(scheduledCharge -> scheduledCharge.getScheduledAction().expandOccurrences())
+        .map(ScheduledAction::getWhen)
         .collect(Collectors.toList());
 
     final List<LocalDate> allTheDaysAfterTheInitialDisbursementDate
@@ -413,6 +473,8 @@ public class IndividualLoanServiceTest {
         acceptPaymentDates.size());*/
 
     final Map<ActionDatePair, Set<ChargeDefinition>> searchableScheduledCharges = scheduledCharges.stream()
+        .flatMap(scheduledCharge -> scheduledCharge.getScheduledAction().expandOccurrences()
+            .map(scheduledAction -> new ScheduledCharge(scheduledAction, scheduledCharge.getChargeDefinition(), scheduledCharge.getChargeRange())))
         .collect(
             Collectors.groupingBy(scheduledCharge ->
                 new ActionDatePair(scheduledCharge.getScheduledAction().getAction(), scheduledCharge.getScheduledAction().getWhen()),
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.Optional;
+import org.apache.fineract.cn.individuallending.api.v1.domain.product.AccountDesignators;
+import org.apache.fineract.cn.individuallending.api.v1.domain.workflow.Action;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseParametersEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseParametersRepository;
+import org.apache.fineract.cn.individuallending.internal.repository.LateCaseRepository;
+import org.apache.fineract.cn.individuallending.internal.repository.LossProvisionStepRepository;
+import org.apache.fineract.cn.individuallending.internal.repository.RepaymentPeriodRepository;
+import org.apache.fineract.cn.individuallending.internal.service.costcomponent.RealRunningBalances;
+import org.apache.fineract.cn.lang.DateConverter;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseCommandEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseCommandRepository;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.ProductEntity;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+public class LatenessCheckServiceTest {
+  private static final LocalDateTime DISBURSED_ON = LocalDateTime.of(2018, 1, 10, 0, 0);
+
+  private CaseCommandRepository caseCommandRepository;
+  private CaseParametersRepository caseParametersRepository;
+  private LateCaseRepository lateCaseRepository;
+  private LatenessCheckService testSubject;
+  private DataContextOfAction dataContextOfAction;
+
+  @Before
+  public void prepare() {
+    caseCommandRepository = Mockito.mock(CaseCommandRepository.class);
+    caseParametersRepository = Mockito.mock(CaseParametersRepository.class);
+    lateCaseRepository = Mockito.mock(LateCaseRepository.class);
+    Mockito.doReturn(Optional.empty()).when(lateCaseRepository).findByCaseId(Matchers.anyLong());
+    testSubject = new LatenessCheckService(
+        caseCommandRepository,
+        caseParametersRepository,
+        lateCaseRepository,
+        Mockito.mock(LossProvisionStepRepository.class),
+        new RepaymentScheduleService(Mockito.mock(RepaymentPeriodRepository.class)));
+
+    final ProductEntity product = new ProductEntity();
+    product.setIdentifier("blah");
+    product.setMinorCurrencyUnitDigits(2);
+    final CaseEntity customerCase = new CaseEntity();
+    customerCase.setId(17L);
+    customerCase.setIdentifier("blubb");
+    final CaseParametersEntity caseParameters = new CaseParametersEntity();
+    caseParameters.setPaymentSize(BigDecimal.valueOf(100));
+    caseParameters.setBalanceRangeMaximum(BigDecimal.valueOf(1000));
+    caseParameters.setTermRangeTemporalUnit(ChronoUnit.MONTHS);
+    caseParameters.setTermRangeMaximum(12);
+    caseParameters.setPaymentCyclePeriod(1);
+    caseParameters.setPaymentCycleTemporalUnit(ChronoUnit.MONTHS);
+    caseParameters.setCreditWorthinessFactors(Collections.emptySet());
+    dataContextOfAction = new DataContextOfAction(product, customerCase, caseParameters, Collections.emptyList());
+
+    final CaseCommandEntity disbursement = new CaseCommandEntity();
+    disbursement.setCreatedOn(DISBURSED_ON);
+    Mockito.doReturn(new PageImpl<>(Collections.singletonList(disbursement)))
+        .when(caseCommandRepository).findByCaseIdAndActionName(Matchers.eq(17L), Matchers.anyString(), Matchers.any(Pageable.class));
+  }
+
+  @Test
+  public void disbursementSetsFirstDueDate() {
+    testSubject.updateNextDueDateOnDisbursement(dataContextOfAction, DISBURSED_ON);
+
+    final CaseParametersEntity caseParameters = dataContextOfAction.getCaseParametersEntity();
+    Assert.assertNotNull(caseParameters.getNextDueDate());
+    Assert.assertTrue(caseParameters.getNextDueDate().isAfter(DISBURSED_ON));
+    Assert.assertEquals(BigDecimal.valueOf(100), caseParameters.getExpectedPaymentSum());
+    Mockito.verify(caseParametersRepository).save(caseParameters);
+  }
+
+  @Test
+  public void caseIsNotCheckedBeforeItsDueDate() {
+    testSubject.updateNextDueDateOnDisbursement(dataContextOfAction, DISBURSED_ON);
+    final RealRunningBalances balances = Mockito.mock(RealRunningBalances.class);
+
+    final LatenessCheckService.Result result = testSubject.checkLate(
+        dataContextOfAction, balances, DateConverter.toIsoString(DISBURSED_ON.plusDays(1)));
+
+    Assert.assertFalse(result.getMarkLateCommand().isPresent());
+    Assert.assertFalse(result.getMarkInArrearsCommand().isPresent());
+    Mockito.verifyZeroInteractions(balances);
+  }
+
+  @Test
+  public void paymentsAreComparedToStoredExpectedPaymentSumOnceItsDueDateHasPassed() {
+    testSubject.updateNextDueDateOnDisbursement(dataContextOfAction, DISBURSED_ON);
+    final CaseParametersEntity caseParameters = dataContextOfAction.getCaseParametersEntity();
+    caseParameters.setExpectedPaymentSum(BigDecimal.valueOf(150));
+    final RealRunningBalances balances = Mockito.mock(RealRunningBalances.class);
+    Mockito.doReturn(Optional.of(BigDecimal.valueOf(880)))
+        .when(balances).getAccountBalance(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL);
+    Mockito.doReturn(BigDecimal.ZERO)
+        .when(balances).getSumOfChargesForActionSinceDate(Matchers.anyString(), Matchers.eq(Action.ACCEPT_PAYMENT), Matchers.any());
+    Mockito.doReturn(BigDecimal.valueOf(120))
+        .when(balances).getSumOfChargesForActionSinceDate(
+            Matchers.eq(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL), Matchers.eq(Action.ACCEPT_PAYMENT), Matchers.any());
+
+    //One payment of 100 would be expected by now, but 150 are expected according to the case.
+    final LatenessCheckService.Result result = testSubject.checkLate(
+        dataContextOfAction, balances, DateConverter.toIsoString(caseParameters.getNextDueDate().plusDays(1)));
+
+    Assert.assertTrue(result.getMarkLateCommand().isPresent());
+    Assert.assertFalse(result.getMarkInArrearsCommand().isPresent());
+  }
+
+  @Test
+  public void paymentBeforeDueDateLeavesDueDate() {
+    testSubject.updateNextDueDateOnDisbursement(dataContextOfAction, DISBURSED_ON);
+    final LocalDateTime nextDueDate = dataContextOfAction.getCaseParametersEntity().getNextDueDate();
+    Mockito.reset(caseParametersRepository);
+
+    testSubject.updateNextDueDateOnPayment(dataContextOfAction, DISBURSED_ON.plusDays(3));
+
+    Assert.assertEquals(nextDueDate, dataContextOfAction.getCaseParametersEntity().getNextDueDate());
+    Mockito.verifyZeroInteractions(caseParametersRepository);
+  }
+
+  @Test
+  public void paymentAfterDueDateKeepsCaseDue() {
+    final LocalDateTime paidOn = DISBURSED_ON.plusMonths(3).plusDays(5);
+
+    testSubject.updateNextDueDateOnPayment(dataContextOfAction, paidOn);
+
+    final CaseParametersEntity caseParameters = dataContextOfAction.getCaseParametersEntity();
+    Assert.assertTrue(caseParameters.getNextDueDate().isBefore(paidOn));
+    Assert.assertTrue(caseParameters.getNextDueDate().isAfter(DISBURSED_ON.plusMonths(1)));
+    Assert.assertTrue(caseParameters.getExpectedPaymentSum().compareTo(BigDecimal.valueOf(100)) > 0);
+  }
+}
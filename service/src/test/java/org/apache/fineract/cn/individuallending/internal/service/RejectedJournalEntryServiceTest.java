@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import org.apache.fineract.cn.accounting.api.v1.domain.Creditor;
+import org.apache.fineract.cn.accounting.api.v1.domain.Debtor;
+import org.apache.fineract.cn.accounting.api.v1.domain.JournalEntry;
+import org.apache.fineract.cn.individuallending.api.v1.domain.product.AccountDesignators;
+import org.apache.fineract.cn.individuallending.api.v1.domain.workflow.Action;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseBalanceEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseBalanceRepository;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseParametersEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseParametersRepository;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseUnreleasedEntryRepository;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseCommandEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseCommandRepository;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseRepository;
+import org.apache.fineract.cn.portfolio.service.internal.repository.ProductEntity;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+
+public class RejectedJournalEntryServiceTest {
+  private static final Long CASE_ID = 17L;
+  private static final String PRINCIPAL_ACCOUNT = "principal-account";
+  private static final String TRANSACTION_IDENTIFIER = "portfolio.product.case.ACCEPT_PAYMENT.abc";
+
+  private CaseCommandRepository caseCommandRepository;
+  private AccrualAggregateService accrualAggregateService;
+  private CaseBalanceRepository caseBalanceRepository;
+  private CaseUnreleasedEntryRepository caseUnreleasedEntryRepository;
+  private CaseParametersRepository caseParametersRepository;
+  private CaseBalanceEntity principalBalance;
+  private DataContextOfAction dataContextOfAction;
+  private RejectedJournalEntryService testSubject;
+
+  @Before
+  public void prepare() {
+    caseCommandRepository = Mockito.mock(CaseCommandRepository.class);
+    final CaseRepository caseRepository = Mockito.mock(CaseRepository.class);
+    final DataContextService dataContextService = Mockito.mock(DataContextService.class);
+    accrualAggregateService = Mockito.mock(AccrualAggregateService.class);
+    caseBalanceRepository = Mockito.mock(CaseBalanceRepository.class);
+    caseUnreleasedEntryRepository = Mockito.mock(CaseUnreleasedEntryRepository.class);
+    caseParametersRepository = Mockito.mock(CaseParametersRepository.class);
+
+    dataContextOfAction = activeCase();
+    final CaseCommandEntity caseCommand = new CaseCommandEntity();
+    caseCommand.setCaseId(CASE_ID);
+    caseCommand.setActionName(Action.ACCEPT_PAYMENT.name());
+    caseCommand.setTransactionUniqueifier("abc");
+    Mockito.doReturn(Optional.of(caseCommand)).when(caseCommandRepository).findFirstByTransactionUniqueifier("abc");
+    Mockito.doReturn(dataContextOfAction.getCustomerCaseEntity()).when(caseRepository).findOne(CASE_ID);
+    Mockito.doReturn(dataContextOfAction).when(dataContextService)
+        .checkedGetDataContext("product", "case", Collections.emptyList());
+
+    principalBalance = new CaseBalanceEntity();
+    principalBalance.setCaseId(CASE_ID);
+    principalBalance.setAccountDesignator(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL);
+    principalBalance.setAccountIdentifier(PRINCIPAL_ACCOUNT);
+    principalBalance.setBalance(BigDecimal.valueOf(700));
+    principalBalance.setReconciledOn(LocalDateTime.now(Clock.systemUTC()).minusDays(1));
+    Mockito.doReturn(Collections.singletonList(principalBalance)).when(caseBalanceRepository).findByCaseId(CASE_ID);
+
+    testSubject = new RejectedJournalEntryService(
+        caseCommandRepository,
+        caseRepository,
+        dataContextService,
+        accrualAggregateService,
+        caseBalanceRepository,
+        caseUnreleasedEntryRepository,
+        caseParametersRepository,
+        Mockito.mock(Logger.class));
+  }
+
+  @Test
+  public void accrualsAndProjectionAreReversed() {
+    Mockito.doReturn(1).when(caseUnreleasedEntryRepository).deleteByTransactionIdentifier(TRANSACTION_IDENTIFIER);
+
+    testSubject.reverseBooking(journalEntry(), balanceAdjustments());
+
+    Mockito.verify(accrualAggregateService).reverseBooking(dataContextOfAction, Action.ACCEPT_PAYMENT, balanceAdjustments());
+    //The principal is an asset, so crediting it had taken 100 off of its projected balance.
+    Assert.assertEquals(BigDecimal.valueOf(800), principalBalance.getBalance());
+    Mockito.verify(caseBalanceRepository).save(Collections.singletonList(principalBalance));
+  }
+
+  @Test
+  public void projectionIsLeftAloneIfTheEntryWasNeverAppliedToIt() {
+    Mockito.doReturn(0).when(caseUnreleasedEntryRepository).deleteByTransactionIdentifier(TRANSACTION_IDENTIFIER);
+
+    testSubject.reverseBooking(journalEntry(), balanceAdjustments());
+
+    Mockito.verify(accrualAggregateService).reverseBooking(dataContextOfAction, Action.ACCEPT_PAYMENT, balanceAdjustments());
+    Assert.assertEquals(BigDecimal.valueOf(700), principalBalance.getBalance());
+    Mockito.verify(caseBalanceRepository, Mockito.never()).save(Matchers.anyListOf(CaseBalanceEntity.class));
+  }
+
+  @Test
+  public void caseIsMarkedSinceTheStateChangesOfItsCommandRemain() {
+    testSubject.reverseBooking(journalEntry(), balanceAdjustments());
+
+    final CaseParametersEntity caseParameters = dataContextOfAction.getCaseParametersEntity();
+    Assert.assertNotNull(caseParameters.getJournalEntryRejectedOn());
+    Mockito.verify(caseParametersRepository).save(caseParameters);
+  }
+
+  @Test
+  public void caseAlreadyMarkedKeepsTheTimeOfTheFirstRejection() {
+    final LocalDateTime firstRejectedOn = LocalDateTime.now(Clock.systemUTC()).minusDays(3);
+    dataContextOfAction.getCaseParametersEntity().setJournalEntryRejectedOn(firstRejectedOn);
+
+    testSubject.reverseBooking(journalEntry(), balanceAdjustments());
+
+    Assert.assertEquals(firstRejectedOn, dataContextOfAction.getCaseParametersEntity().getJournalEntryRejectedOn());
+    Mockito.verify(caseParametersRepository, Mockito.never()).save(Matchers.any(CaseParametersEntity.class));
+  }
+
+  @Test
+  public void nothingIsReversedForEntryOfUnknownCase() {
+    Mockito.doReturn(Optional.empty()).when(caseCommandRepository).findFirstByTransactionUniqueifier("abc");
+
+    testSubject.reverseBooking(journalEntry(), balanceAdjustments());
+
+    Mockito.verifyZeroInteractions(accrualAggregateService, caseBalanceRepository, caseUnreleasedEntryRepository,
+        caseParametersRepository);
+  }
+
+  private static JournalEntry journalEntry() {
+    final JournalEntry ret = new JournalEntry();
+    ret.setTransactionIdentifier(TRANSACTION_IDENTIFIER);
+    ret.setCreditors(Collections.singleton(new Creditor(PRINCIPAL_ACCOUNT, "100")));
+    ret.setDebtors(Collections.singleton(new Debtor("entry-account", "100")));
+    return ret;
+  }
+
+  private static Map<String, BigDecimal> balanceAdjustments() {
+    final Map<String, BigDecimal> ret = new HashMap<>();
+    ret.put(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL, BigDecimal.valueOf(100));
+    ret.put(AccountDesignators.ENTRY, BigDecimal.valueOf(-100));
+    return ret;
+  }
+
+  private static DataContextOfAction activeCase() {
+    final ProductEntity product = new ProductEntity();
+    product.setIdentifier("product");
+    product.setAccountAssignments(new HashSet<>());
+    final CaseEntity customerCase = new CaseEntity();
+    customerCase.setId(CASE_ID);
+    customerCase.setIdentifier("case");
+    customerCase.setProductIdentifier("product");
+    customerCase.setAccountAssignments(new HashSet<>());
+    return new DataContextOfAction(product, customerCase, new CaseParametersEntity(), null);
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseParametersEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.RepaymentPeriodEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.RepaymentPeriodRepository;
+import org.apache.fineract.cn.individuallending.internal.service.schedule.Period;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.ProductEntity;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+public class RepaymentScheduleServiceTest {
+  private static final LocalDate DISBURSED_ON = LocalDate.of(2018, 1, 10);
+
+  private List<RepaymentPeriodEntity> persisted;
+  private RepaymentScheduleService testSubject;
+  private DataContextOfAction dataContextOfAction;
+
+  @Before
+  public void prepare() {
+    persisted = new ArrayList<>();
+    final RepaymentPeriodRepository repaymentPeriodRepository = Mockito.mock(RepaymentPeriodRepository.class);
+    Mockito.doAnswer(invocation -> {
+      persisted.add(invocation.getArgumentAt(0, RepaymentPeriodEntity.class));
+      return invocation.getArgumentAt(0, RepaymentPeriodEntity.class);
+    }).when(repaymentPeriodRepository).save(Matchers.any(RepaymentPeriodEntity.class));
+    Mockito.doAnswer(invocation -> {
+      final int deleted = persisted.size();
+      persisted.clear();
+      return deleted;
+    }).when(repaymentPeriodRepository).deleteByCaseId(17L);
+    Mockito.doAnswer(invocation -> new ArrayList<>(persisted))
+        .when(repaymentPeriodRepository).findByCaseIdOrderByPeriodIndex(17L);
+    testSubject = new RepaymentScheduleService(repaymentPeriodRepository);
+
+    final ProductEntity product = new ProductEntity();
+    product.setIdentifier("blah");
+    product.setMinorCurrencyUnitDigits(2);
+    final CaseEntity customerCase = new CaseEntity();
+    customerCase.setId(17L);
+    customerCase.setIdentifier("blubb");
+    final CaseParametersEntity caseParameters = new CaseParametersEntity();
+    caseParameters.setPaymentSize(BigDecimal.valueOf(100));
+    caseParameters.setBalanceRangeMaximum(BigDecimal.valueOf(1000));
+    caseParameters.setTermRangeTemporalUnit(ChronoUnit.MONTHS);
+    caseParameters.setTermRangeMaximum(12);
+    caseParameters.setPaymentCyclePeriod(1);
+    caseParameters.setPaymentCycleTemporalUnit(ChronoUnit.MONTHS);
+    caseParameters.setCreditWorthinessFactors(Collections.emptySet());
+    dataContextOfAction = new DataContextOfAction(product, customerCase, caseParameters, Collections.emptyList());
+  }
+
+  @Test
+  public void generatedScheduleIsFoundAgain() {
+    final List<Period> generated = testSubject.generate(dataContextOfAction, DISBURSED_ON);
+
+    Assert.assertEquals(12, generated.size());
+    Assert.assertTrue(generated.get(generated.size() - 1).isLastPeriod());
+    Assert.assertEquals(Optional.of(generated), testSubject.find(dataContextOfAction, DISBURSED_ON));
+
+    testSubject.generate(dataContextOfAction, DISBURSED_ON);
+    Assert.assertEquals(generated.size(), persisted.size());
+  }
+
+  @Test
+  public void scheduleForAnotherStartOrPaymentSizeIsNotFound() {
+    testSubject.generate(dataContextOfAction, DISBURSED_ON);
+
+    Assert.assertFalse(testSubject.find(dataContextOfAction, DISBURSED_ON.plusDays(1)).isPresent());
+
+    dataContextOfAction.getCaseParametersEntity().setPaymentSize(BigDecimal.valueOf(120));
+    Assert.assertFalse(testSubject.find(dataContextOfAction, DISBURSED_ON).isPresent());
+
+    final List<Period> regenerated = testSubject.findOrGenerate(dataContextOfAction, DISBURSED_ON);
+    Assert.assertEquals(Optional.of(regenerated), testSubject.find(dataContextOfAction, DISBURSED_ON));
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import org.apache.fineract.cn.individuallending.api.v1.domain.product.AccountDesignators;
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseAccountReference;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseRepository;
+import org.apache.fineract.cn.portfolio.service.internal.util.AccountingAdapter;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+
+public class StartOfTermBackfillServiceTest {
+  @Test
+  public void backfillWalksCasesInChunksAndSetsTheStartOfTermFoundInAccounting() {
+    final CaseRepository caseRepository = Mockito.mock(CaseRepository.class);
+    final AccountingAdapter accountingAdapter = Mockito.mock(AccountingAdapter.class);
+    final PortfolioProperties portfolioProperties = new PortfolioProperties();
+    portfolioProperties.setStartOfTermBackfillChunkSize(2);
+    portfolioProperties.setStartOfTermBackfillConcurrency(1);
+
+    final LocalDateTime disbursedOn = LocalDateTime.of(2017, 3, 1, 10, 0);
+    Mockito.doReturn(3L).when(caseRepository).countWithoutStartOfTerm(Matchers.anyCollection());
+    Mockito.doReturn(Arrays.asList(
+        new CaseAccountReference(1L, "p", "c1", "a1"),
+        new CaseAccountReference(2L, "p", "c2", "a2")))
+        .when(caseRepository).findWithoutStartOfTermAfterId(
+            Matchers.anyCollection(), Matchers.eq(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL), Matchers.eq(0L), Matchers.any());
+    Mockito.doReturn(Collections.singletonList(new CaseAccountReference(5L, "p", "c5", "a5")))
+        .when(caseRepository).findWithoutStartOfTermAfterId(
+            Matchers.anyCollection(), Matchers.eq(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL), Matchers.eq(2L), Matchers.any());
+    Mockito.doReturn(Collections.emptyList())
+        .when(caseRepository).findWithoutStartOfTermAfterId(
+            Matchers.anyCollection(), Matchers.eq(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL), Matchers.eq(5L), Matchers.any());
+    Mockito.doReturn(1).when(caseRepository).setStartOfTermIfAbsent(Matchers.anyLong(), Matchers.any());
+
+    Mockito.doAnswer(invocation -> {
+      final Callable<?> call = (Callable<?>) invocation.getArguments()[0];
+      return CompletableFuture.completedFuture(call.call());
+    }).when(accountingAdapter).callInBackground(Matchers.any());
+    Mockito.doReturn(Optional.of(disbursedOn)).when(accountingAdapter).getDateOfOldestEntryContainingMessage("a1", "p.c1.DISBURSE");
+    Mockito.doReturn(Optional.empty()).when(accountingAdapter).getDateOfOldestEntryContainingMessage("a2", "p.c2.DISBURSE");
+    Mockito.doReturn(Optional.of(disbursedOn)).when(accountingAdapter).getDateOfOldestEntryContainingMessage("a5", "p.c5.DISBURSE");
+
+    final StartOfTermBackfillService testSubject = new StartOfTermBackfillService(
+        caseRepository, accountingAdapter, portfolioProperties, Mockito.mock(Logger.class));
+
+    Assert.assertTrue(testSubject.backfill("tenant"));
+
+    Mockito.verify(caseRepository).setStartOfTermIfAbsent(1L, disbursedOn);
+    Mockito.verify(caseRepository).setStartOfTermIfAbsent(5L, disbursedOn);
+    Mockito.verify(caseRepository, Mockito.never()).setStartOfTermIfAbsent(Matchers.eq(2L), Matchers.any());
+    Mockito.verify(caseRepository).setStartOfTermToCreatedOnIfAbsent(2L);
+  }
+
+  @Test
+  public void caseWithoutDisbursementEntryGetsItsCreationAsStartOfTerm() {
+    final CaseRepository caseRepository = Mockito.mock(CaseRepository.class);
+    final AccountingAdapter accountingAdapter = Mockito.mock(AccountingAdapter.class);
+
+    Mockito.doReturn(1L).when(caseRepository).countWithoutStartOfTerm(Matchers.anyCollection());
+    Mockito.doReturn(Collections.singletonList(new CaseAccountReference(2L, "p", "c2", "a2")))
+        .doReturn(Collections.emptyList())
+        .when(caseRepository).findWithoutStartOfTermAfterId(
+            Matchers.anyCollection(), Matchers.anyString(), Matchers.anyLong(), Matchers.any());
+    Mockito.doReturn(1).when(caseRepository).setStartOfTermToCreatedOnIfAbsent(2L);
+
+    Mockito.doAnswer(invocation -> {
+      final Callable<?> call = (Callable<?>) invocation.getArguments()[0];
+      return CompletableFuture.completedFuture(call.call());
+    }).when(accountingAdapter).callInBackground(Matchers.any());
+    Mockito.doReturn(Optional.empty()).when(accountingAdapter).getDateOfOldestEntryContainingMessage("a2", "p.c2.DISBURSE");
+
+    final StartOfTermBackfillService testSubject = new StartOfTermBackfillService(
+        caseRepository, accountingAdapter, new PortfolioProperties(), Mockito.mock(Logger.class));
+
+    //The case no longer lacks a start of term, so the backfill is complete and isn't repeated.
+    Assert.assertTrue(testSubject.backfill("tenant"));
+    Mockito.verify(caseRepository).setStartOfTermToCreatedOnIfAbsent(2L);
+    Mockito.verify(caseRepository, Mockito.never()).setStartOfTermIfAbsent(Matchers.anyLong(), Matchers.any());
+  }
+
+  @Test
+  public void backfillIsIncompleteIfALookupFails() {
+    final CaseRepository caseRepository = Mockito.mock(CaseRepository.class);
+    final AccountingAdapter accountingAdapter = Mockito.mock(AccountingAdapter.class);
+
+    Mockito.doReturn(1L).when(caseRepository).countWithoutStartOfTerm(Matchers.anyCollection());
+    Mockito.doReturn(Collections.singletonList(new CaseAccountReference(1L, "p", "c1", "a1")))
+        .doReturn(Collections.emptyList())
+        .when(caseRepository).findWithoutStartOfTermAfterId(
+            Matchers.anyCollection(), Matchers.anyString(), Matchers.anyLong(), Matchers.any());
+
+    final CompletableFuture<Optional<LocalDateTime>> failedLookup = new CompletableFuture<>();
+    failedLookup.completeExceptionally(new IllegalStateException());
+    Mockito.doReturn(failedLookup).when(accountingAdapter).callInBackground(Matchers.any());
+
+    final StartOfTermBackfillService testSubject = new StartOfTermBackfillService(
+        caseRepository, accountingAdapter, new PortfolioProperties(), Mockito.mock(Logger.class));
+
+    Assert.assertFalse(testSubject.backfill("tenant"));
+    Mockito.verify(caseRepository, Mockito.never()).setStartOfTermIfAbsent(Matchers.anyLong(), Matchers.any());
+    Mockito.verify(caseRepository, Mockito.never()).setStartOfTermToCreatedOnIfAbsent(Matchers.anyLong());
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service.beat;
+
+import java.util.Optional;
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BeatScheduleTest {
+  @Test
+  public void singleSlotIsProcessedInConfiguredHourOnly() {
+    final BeatSchedule testSubject = new BeatSchedule(properties(1, 3));
+
+    Assert.assertEquals(Optional.of(0), testSubject.getSlot(BeatStage.APPLY_INTEREST, 3));
+    Assert.assertEquals(Optional.empty(), testSubject.getSlot(BeatStage.APPLY_INTEREST, 4));
+    Assert.assertEquals(Optional.empty(), testSubject.getSlot(BeatStage.APPLY_INTEREST, 2));
+  }
+
+  @Test
+  public void slotsFollowConfiguredHour() {
+    final BeatSchedule testSubject = new BeatSchedule(properties(4, 22));
+
+    Assert.assertEquals(Optional.of(0), testSubject.getSlot(BeatStage.APPLY_INTEREST, 22));
+    Assert.assertEquals(Optional.of(1), testSubject.getSlot(BeatStage.APPLY_INTEREST, 23));
+    Assert.assertEquals(Optional.of(2), testSubject.getSlot(BeatStage.APPLY_INTEREST, 0));
+    Assert.assertEquals(Optional.of(3), testSubject.getSlot(BeatStage.APPLY_INTEREST, 1));
+    Assert.assertEquals(Optional.empty(), testSubject.getSlot(BeatStage.APPLY_INTEREST, 2));
+    Assert.assertEquals(Optional.empty(), testSubject.getSlot(BeatStage.CHECK_LATE, 22));
+  }
+
+  @Test
+  public void everyHourHasASlotWhenSpreadOverTheWholeDay() {
+    final BeatSchedule testSubject = new BeatSchedule(properties(24, 0));
+
+    for (int hour = 0; hour < 24; hour++)
+      Assert.assertEquals(Optional.of(hour), testSubject.getSlot(BeatStage.CHECK_LATE, hour));
+  }
+
+  private static PortfolioProperties properties(final int slotCount, final int bookInterestInTimeSlot) {
+    final PortfolioProperties ret = new PortfolioProperties();
+    ret.setBeatSlotCount(slotCount);
+    ret.setBookInterestInTimeSlot(bookInterestInTimeSlot);
+    ret.setCheckForLatenessInTimeSlot(0);
+    return ret;
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service.beat;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class CaseIdRangeTest {
+  @Test
+  public void partitionEvenly() {
+    final List<CaseIdRange> partitions = CaseIdRange.partition(1, 12, 3);
+    Assert.assertEquals(
+        Arrays.asList(new CaseIdRange(1, 4), new CaseIdRange(5, 8), new CaseIdRange(9, 12)),
+        partitions);
+  }
+
+  @Test
+  public void partitionWithRemainder() {
+    final List<CaseIdRange> partitions = CaseIdRange.partition(10, 20, 3);
+    Assert.assertEquals(
+        Arrays.asList(new CaseIdRange(10, 13), new CaseIdRange(14, 17), new CaseIdRange(18, 20)),
+        partitions);
+  }
+
+  @Test
+  public void partitionFewerIdsThanPartitions() {
+    final List<CaseIdRange> partitions = CaseIdRange.partition(7, 8, 4);
+    Assert.assertEquals(
+        Arrays.asList(new CaseIdRange(7, 7), new CaseIdRange(8, 8)),
+        partitions);
+  }
+
+  @Test
+  public void partitionEmptyRange() {
+    Assert.assertEquals(Collections.emptyList(), CaseIdRange.partition(8, 7, 4));
+  }
+}
@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service.beat;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import org.apache.fineract.cn.individuallending.internal.repository.BeatProgressEntity;
+import org.apache.fineract.cn.individuallending.internal.repository.BeatProgressRepository;
+import org.apache.fineract.cn.portfolio.api.v1.domain.Case;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseReference;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseRepository;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Pageable;
+
+/**
+ * Repositories for the beat, mocked to behave like their queries would against the database, so that partitioning,
+ * paging, checkpointing and leasing can be tested without one.  Entities handed out are copies, as they would be
+ * after the end of the transaction which read them.
+ */
+class InMemoryBeatRepositories {
+  private final Map<Long, BeatProgressEntity> progress = new TreeMap<>();
+  private final TreeMap<Long, CaseReference> activeCases = new TreeMap<>();
+  private final List<LocalDateTime> checkpointedLeaseExpiries = new ArrayList<>();
+  private long nextProgressId = 1;
+
+  final BeatProgressRepository beatProgressRepository = Mockito.mock(BeatProgressRepository.class);
+  final CaseRepository caseRepository = Mockito.mock(CaseRepository.class);
+
+  InMemoryBeatRepositories() {
+    mockBeatProgressRepository();
+    mockCaseRepository();
+  }
+
+  synchronized void addActiveCases(final long firstId, final long lastId) {
+    LongStream.rangeClosed(firstId, lastId).forEach(id -> activeCases.put(id, new CaseReference(id, "product", "case" + id)));
+  }
+
+  synchronized List<BeatProgressEntity> getProgress() {
+    return progress.values().stream().map(InMemoryBeatRepositories::copy).collect(Collectors.toList());
+  }
+
+  synchronized Optional<BeatProgressEntity> getProgressOfCase(final long caseId) {
+    return progress.values().stream()
+        .filter(partition -> partition.getFirstCaseId() <= caseId && caseId <= partition.getLastCaseId())
+        .findFirst()
+        .map(InMemoryBeatRepositories::copy);
+  }
+
+  /**
+   * Leases the partition containing the given case to another owner, as if another instance had claimed it.
+   */
+  synchronized void leaseToOther(final long caseId, final String owner, final LocalDateTime leaseExpiresOn) {
+    progress.values().stream()
+        .filter(partition -> partition.getFirstCaseId() <= caseId && caseId <= partition.getLastCaseId())
+        .forEach(partition -> {
+          partition.setLeaseOwner(owner);
+          partition.setLeaseExpiresOn(leaseExpiresOn);
+        });
+  }
+
+  synchronized List<LocalDateTime> getCheckpointedLeaseExpiries() {
+    return new ArrayList<>(checkpointedLeaseExpiries);
+  }
+
+  private void mockBeatProgressRepository() {
+    Mockito.doAnswer(invocation -> findPartitions(
+        invocation.getArgumentAt(0, String.class),
+        invocation.getArgumentAt(1, LocalDateTime.class),
+        invocation.getArgumentAt(2, String.class)))
+        .when(beatProgressRepository).findByBeatIdentifierAndForTimeAndStage(Matchers.anyString(), Matchers.any(), Matchers.anyString());
+
+    Mockito.doAnswer(invocation -> findUnfinishedBefore(invocation.getArgumentAt(0, LocalDateTime.class)))
+        .when(beatProgressRepository).findByFinishedFalseAndForTimeBefore(Matchers.any());
+
+    Mockito.doAnswer(invocation -> {
+      @SuppressWarnings("unchecked")
+      final List<BeatProgressEntity> partitions = invocation.getArgumentAt(0, List.class);
+      return savePartitions(partitions);
+    }).when(beatProgressRepository).save(Matchers.anyListOf(BeatProgressEntity.class));
+
+    Mockito.doAnswer(invocation -> claimLease(
+        invocation.getArgumentAt(0, Long.class),
+        invocation.getArgumentAt(1, String.class),
+        invocation.getArgumentAt(2, LocalDateTime.class),
+        invocation.getArgumentAt(3, LocalDateTime.class)))
+        .when(beatProgressRepository).claimLease(Matchers.anyLong(), Matchers.anyString(), Matchers.any(), Matchers.any());
+
+    Mockito.doAnswer(invocation -> checkpoint(
+        invocation.getArgumentAt(0, Long.class),
+        invocation.getArgumentAt(1, String.class),
+        invocation.getArgumentAt(2, Long.class),
+        invocation.getArgumentAt(3, String.class),
+        invocation.getArgumentAt(4, LocalDateTime.class)))
+        .when(beatProgressRepository).checkpoint(
+            Matchers.anyLong(), Matchers.anyString(), Matchers.anyLong(), Matchers.any(), Matchers.any());
+
+    Mockito.doAnswer(invocation -> finish(
+        invocation.getArgumentAt(0, Long.class),
+        invocation.getArgumentAt(1, String.class)))
+        .when(beatProgressRepository).finish(Matchers.anyLong(), Matchers.anyString());
+
+    Mockito.doAnswer(invocation -> releaseLease(
+        invocation.getArgumentAt(0, Long.class),
+        invocation.getArgumentAt(1, String.class)))
+        .when(beatProgressRepository).releaseLease(Matchers.anyLong(), Matchers.anyString());
+  }
+
+  private void mockCaseRepository() {
+    Mockito.doAnswer(invocation -> firstActiveCaseId())
+        .when(caseRepository).findMinimumIdByCurrentStateIn(Matchers.anyCollectionOf(String.class));
+    Mockito.doAnswer(invocation -> lastActiveCaseId())
+        .when(caseRepository).findMaximumIdByCurrentStateIn(Matchers.anyCollectionOf(String.class));
+    Mockito.doAnswer(invocation -> findActiveCases(
+        invocation.getArgumentAt(1, Long.class),
+        invocation.getArgumentAt(2, Long.class),
+        invocation.getArgumentAt(3, Long.class),
+        invocation.getArgumentAt(4, Long.class),
+        invocation.getArgumentAt(5, Pageable.class)))
+        .when(caseRepository).findReferencesByCurrentStateInAfterId(
+            Matchers.anyCollectionOf(String.class), Matchers.anyLong(), Matchers.anyLong(),
+            Matchers.anyLong(), Matchers.anyLong(), Matchers.any(Pageable.class));
+    Mockito.doAnswer(invocation -> findActiveCase(invocation.getArgumentAt(0, Long.class)))
+        .when(caseRepository).findOne(Matchers.anyLong());
+  }
+
+  private synchronized List<BeatProgressEntity> findPartitions(
+      final String beatIdentifier,
+      final LocalDateTime forTime,
+      final String stage) {
+    return progress.values().stream()
+        .filter(partition -> partition.getBeatIdentifier().equals(beatIdentifier))
+        .filter(partition -> partition.getForTime().equals(forTime))
+        .filter(partition -> partition.getStage().equals(stage))
+        .map(InMemoryBeatRepositories::copy)
+        .collect(Collectors.toList());
+  }
+
+  private synchronized List<BeatProgressEntity> findUnfinishedBefore(final LocalDateTime forTime) {
+    return progress.values().stream()
+        .filter(partition -> !partition.getFinished())
+        .filter(partition -> partition.getForTime().isBefore(forTime))
+        .map(InMemoryBeatRepositories::copy)
+        .collect(Collectors.toList());
+  }
+
+  private synchronized List<BeatProgressEntity> savePartitions(final List<BeatProgressEntity> partitions) {
+    final boolean violatesUniqueConstraint = partitions.stream().anyMatch(partition -> progress.values().stream().anyMatch(existing ->
+        existing.getBeatIdentifier().equals(partition.getBeatIdentifier()) &&
+            existing.getForTime().equals(partition.getForTime()) &&
+            existing.getStage().equals(partition.getStage()) &&
+            existing.getFirstCaseId().equals(partition.getFirstCaseId())));
+    if (violatesUniqueConstraint)
+      throw new DataIntegrityViolationException("bastet_il_beat_progress_uq");
+
+    return partitions.stream()
+        .map(partition -> {
+          final BeatProgressEntity saved = copy(partition);
+          saved.setId(nextProgressId++);
+          progress.put(saved.getId(), saved);
+          return copy(saved);
+        })
+        .collect(Collectors.toList());
+  }
+
+  private synchronized int claimLease(
+      final Long id,
+      final String owner,
+      final LocalDateTime now,
+      final LocalDateTime leaseExpiresOn) {
+    final BeatProgressEntity partition = progress.get(id);
+    if (partition == null || partition.getFinished())
+      return 0;
+    if (partition.getLeaseOwner() != null && !partition.getLeaseExpiresOn().isBefore(now))
+      return 0;
+    partition.setLeaseOwner(owner);
+    partition.setLeaseExpiresOn(leaseExpiresOn);
+    return 1;
+  }
+
+  private synchronized int checkpoint(
+      final Long id,
+      final String owner,
+      final Long lastProcessedCaseId,
+      final String failedCaseIds,
+      final LocalDateTime leaseExpiresOn) {
+    final BeatProgressEntity partition = progress.get(id);
+    if (partition == null || !owner.equals(partition.getLeaseOwner()))
+      return 0;
+    partition.setLastProcessedCaseId(lastProcessedCaseId);
+    partition.setFailedCaseIds(failedCaseIds);
+    partition.setLeaseExpiresOn(leaseExpiresOn);
+    checkpointedLeaseExpiries.add(leaseExpiresOn);
+    return 1;
+  }
+
+  private synchronized int finish(final Long id, final String owner) {
+    final BeatProgressEntity partition = progress.get(id);
+    if (partition == null || !owner.equals(partition.getLeaseOwner()))
+      return 0;
+    partition.setFinished(true);
+    partition.setLeaseOwner(null);
+    partition.setLeaseExpiresOn(null);
+    return 1;
+  }
+
+  private synchronized int releaseLease(final Long id, final String owner) {
+    final BeatProgressEntity partition = progress.get(id);
+    if (partition == null || !owner.equals(partition.getLeaseOwner()))
+      return 0;
+    partition.setLeaseOwner(null);
+    partition.setLeaseExpiresOn(null);
+    return 1;
+  }
+
+  private synchronized Long firstActiveCaseId() {
+    return activeCases.isEmpty() ? null : activeCases.firstKey();
+  }
+
+  private synchronized Long lastActiveCaseId() {
+    return activeCases.isEmpty() ? null : activeCases.lastKey();
+  }
+
+  private synchronized CaseEntity findActiveCase(final Long id) {
+    final CaseReference activeCase = activeCases.get(id);
+    if (activeCase == null)
+      return null;
+    final CaseEntity ret = new CaseEntity();
+    ret.setId(activeCase.getId());
+    ret.setProductIdentifier(activeCase.getProductIdentifier());
+    ret.setIdentifier(activeCase.getIdentifier());
+    ret.setCurrentState(Case.State.ACTIVE.name());
+    return ret;
+  }
+
+  private synchronized List<CaseReference> findActiveCases(
+      final Long slotCount,
+      final Long slot,
+      final Long afterId,
+      final Long lastId,
+      final Pageable pageRequest) {
+    if (afterId >= lastId)
+      return Collections.emptyList();
+    final Collection<CaseReference> candidates = activeCases.subMap(afterId, false, lastId, true).values();
+    return candidates.stream()
+        .filter(activeCase -> Math.floorMod(activeCase.getId(), slotCount) == slot)
+        .limit(pageRequest.getPageSize())
+        .collect(Collectors.toList());
+  }
+
+  private static BeatProgressEntity copy(final BeatProgressEntity partition) {
+    final BeatProgressEntity ret = new BeatProgressEntity();
+    ret.setId(partition.getId());
+    ret.setBeatIdentifier(partition.getBeatIdentifier());
+    ret.setForTime(partition.getForTime());
+    ret.setStage(partition.getStage());
+    ret.setFirstCaseId(partition.getFirstCaseId());
+    ret.setLastCaseId(partition.getLastCaseId());
+    ret.setLastProcessedCaseId(partition.getLastProcessedCaseId());
+    ret.setFinished(partition.getFinished());
+    ret.setLeaseOwner(partition.getLeaseOwner());
+    ret.setLeaseExpiresOn(partition.getLeaseExpiresOn());
+    ret.setFailedCaseIds(partition.getFailedCaseIds());
+    return ret;
+  }
+}
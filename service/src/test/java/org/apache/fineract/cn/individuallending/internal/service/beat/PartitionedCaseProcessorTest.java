@@ -0,0 +1,486 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service.beat;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import org.apache.fineract.cn.api.util.UserContextHolder;
+import org.apache.fineract.cn.individuallending.internal.repository.BeatProgressEntity;
+import org.apache.fineract.cn.lang.TenantContextHolder;
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import org.apache.fineract.cn.portfolio.service.internal.repository.CaseReference;
+import org.apache.fineract.cn.portfolio.service.internal.util.ReplicaAdapter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.springframework.data.domain.Pageable;
+
+public class PartitionedCaseProcessorTest {
+  private static final String BEAT_IDENTIFIER = "alignment0";
+  private static final LocalDateTime FOR_TIME = LocalDateTime.of(2017, 6, 1, 0, 0);
+
+  private InMemoryBeatRepositories repositories;
+  private PortfolioProperties portfolioProperties;
+  private ReplicaAdapter replicaAdapter;
+  private ExecutorService beatWorkerExecutor;
+
+  @Before
+  public void prepare() {
+    repositories = new InMemoryBeatRepositories();
+    portfolioProperties = new PortfolioProperties();
+    portfolioProperties.setBeatSlotCount(1);
+    portfolioProperties.setBookInterestInTimeSlot(0);
+    portfolioProperties.setCheckForLatenessInTimeSlot(0);
+    portfolioProperties.setBeatPartitionCount(1);
+    portfolioProperties.setBeatBatchSize(3);
+    replicaAdapter = Mockito.mock(ReplicaAdapter.class);
+    Mockito.doReturn(1).when(replicaAdapter).countInstances();
+    beatWorkerExecutor = Executors.newCachedThreadPool();
+    setContext();
+  }
+
+  @After
+  public void cleanup() {
+    beatWorkerExecutor.shutdownNow();
+    clearContext();
+  }
+
+  @Test
+  public void everyActiveCaseIsProcessedOnce() throws InterruptedException {
+    repositories.addActiveCases(1, 10);
+    portfolioProperties.setBeatPartitionCount(3);
+    final List<Long> processedCaseIds = Collections.synchronizedList(new ArrayList<>());
+
+    newProcessor().forEachActiveCase(BEAT_IDENTIFIER, FOR_TIME, BeatStage.APPLY_INTEREST, recordingInto(processedCaseIds));
+
+    assertEachProcessedOnce(processedCaseIds, 1, 10);
+    Assert.assertTrue(repositories.getProgress().stream().allMatch(BeatProgressEntity::getFinished));
+  }
+
+  @Test
+  public void interruptedStageIsResumedAfterLastProcessedCase() throws InterruptedException {
+    repositories.addActiveCases(1, 10);
+    final List<Long> processedCaseIds = Collections.synchronizedList(new ArrayList<>());
+
+    //Interrupted while processing case 5, in the middle of the second batch.
+    newProcessor().forEachActiveCase(BEAT_IDENTIFIER, FOR_TIME, BeatStage.APPLY_INTEREST, synchronously(activeCase -> {
+      processedCaseIds.add(activeCase.getId());
+      if (activeCase.getId() == 5L)
+        Thread.currentThread().interrupt();
+    }));
+
+    Assert.assertEquals(LongStream.rangeClosed(1, 5).boxed().collect(Collectors.toList()), processedCaseIds);
+    final BeatProgressEntity interruptedPartition = repositories.getProgress().get(0);
+    Assert.assertFalse(interruptedPartition.getFinished());
+    Assert.assertEquals(Long.valueOf(5), interruptedPartition.getLastProcessedCaseId());
+    Assert.assertNull(interruptedPartition.getLeaseOwner());
+
+    //A new instance, as after a restart, picks up where the first one stopped.
+    newProcessor().resumeUnfinishedStages(FOR_TIME.plusHours(1), (stage, forTime) -> {
+      Assert.assertEquals(BeatStage.APPLY_INTEREST, stage);
+      Assert.assertEquals(FOR_TIME, forTime);
+      return recordingInto(processedCaseIds);
+    });
+
+    assertEachProcessedOnce(processedCaseIds, 1, 10);
+    Assert.assertTrue(repositories.getProgress().stream().allMatch(BeatProgressEntity::getFinished));
+  }
+
+  @Test
+  public void finishedStageIsNotRepeated() throws InterruptedException {
+    repositories.addActiveCases(1, 4);
+    final List<Long> processedCaseIds = Collections.synchronizedList(new ArrayList<>());
+
+    newProcessor().forEachActiveCase(BEAT_IDENTIFIER, FOR_TIME, BeatStage.APPLY_INTEREST, recordingInto(processedCaseIds));
+    newProcessor().forEachActiveCase(BEAT_IDENTIFIER, FOR_TIME, BeatStage.APPLY_INTEREST, recordingInto(processedCaseIds));
+    newProcessor().resumeUnfinishedStages(FOR_TIME.plusHours(1), (stage, forTime) -> recordingInto(processedCaseIds));
+
+    assertEachProcessedOnce(processedCaseIds, 1, 4);
+  }
+
+  @Test
+  public void pagesContinueAfterLastCaseOfPreviousPage() throws InterruptedException {
+    repositories.addActiveCases(1, 9);
+    final List<Long> processedCaseIds = Collections.synchronizedList(new ArrayList<>());
+
+    newProcessor().forEachActiveCase(BEAT_IDENTIFIER, FOR_TIME, BeatStage.APPLY_INTEREST, recordingInto(processedCaseIds));
+
+    Assert.assertEquals(LongStream.rangeClosed(1, 9).boxed().collect(Collectors.toList()), processedCaseIds);
+    //The last page is full, so one more, empty page is read to find the end.
+    for (final long afterId : new long[] {0, 3, 6, 9})
+      Mockito.verify(repositories.caseRepository).findReferencesByCurrentStateInAfterId(
+          Matchers.anyCollectionOf(String.class), Matchers.eq(1L), Matchers.eq(0L),
+          Matchers.eq(afterId), Matchers.eq(9L), Matchers.any(Pageable.class));
+  }
+
+  @Test
+  public void gapsInCaseIdsAreSkippedAcrossPages() throws InterruptedException {
+    repositories.addActiveCases(1, 2);
+    repositories.addActiveCases(7, 8);
+    repositories.addActiveCases(20, 22);
+    portfolioProperties.setBeatPartitionCount(2);
+    final List<Long> processedCaseIds = Collections.synchronizedList(new ArrayList<>());
+
+    newProcessor().forEachActiveCase(BEAT_IDENTIFIER, FOR_TIME, BeatStage.APPLY_INTEREST, recordingInto(processedCaseIds));
+
+    final List<Long> sortedCaseIds = new ArrayList<>(processedCaseIds);
+    Collections.sort(sortedCaseIds);
+    Assert.assertEquals(Arrays.asList(1L, 2L, 7L, 8L, 20L, 21L, 22L), sortedCaseIds);
+  }
+
+  @Test
+  public void lateCheckVisitsEveryActiveCaseInTheSlot() throws InterruptedException {
+    //Listeners wait for a lateness check event for each case, so cases which aren't due yet are visited too.
+    repositories.addActiveCases(1, 10);
+    portfolioProperties.setBeatSlotCount(2);
+    final List<Long> processedCaseIds = Collections.synchronizedList(new ArrayList<>());
+
+    newProcessor().forEachActiveCase(BEAT_IDENTIFIER, FOR_TIME, BeatStage.CHECK_LATE, recordingInto(processedCaseIds));
+
+    Assert.assertEquals(Arrays.asList(2L, 4L, 6L, 8L, 10L), processedCaseIds);
+  }
+
+  @Test
+  public void onlyCasesInTheSlotOfTheHourArePaged() throws InterruptedException {
+    repositories.addActiveCases(1, 10);
+    portfolioProperties.setBeatSlotCount(2);
+    final List<Long> processedCaseIds = Collections.synchronizedList(new ArrayList<>());
+
+    newProcessor().forEachActiveCase(BEAT_IDENTIFIER, FOR_TIME.plusHours(1), BeatStage.APPLY_INTEREST, recordingInto(processedCaseIds));
+
+    Assert.assertEquals(Arrays.asList(1L, 3L, 5L, 7L, 9L), processedCaseIds);
+  }
+
+  @Test
+  public void partitionIsLeasedWhileProcessedAndReleasedWhenFinished() throws InterruptedException {
+    repositories.addActiveCases(1, 4);
+    final List<String> leaseOwners = Collections.synchronizedList(new ArrayList<>());
+
+    newProcessor().forEachActiveCase(BEAT_IDENTIFIER, FOR_TIME, BeatStage.APPLY_INTEREST, synchronously(activeCase -> {
+      final BeatProgressEntity partition = repositories.getProgressOfCase(activeCase.getId()).orElseThrow(AssertionError::new);
+      Assert.assertTrue(partition.getLeaseExpiresOn().isAfter(LocalDateTime.now(Clock.systemUTC())));
+      leaseOwners.add(partition.getLeaseOwner());
+    }));
+
+    Assert.assertEquals(4, leaseOwners.size());
+    Assert.assertNotNull(leaseOwners.get(0));
+    Assert.assertTrue(leaseOwners.stream().allMatch(leaseOwners.get(0)::equals));
+    final BeatProgressEntity partition = repositories.getProgress().get(0);
+    Assert.assertTrue(partition.getFinished());
+    Assert.assertNull(partition.getLeaseOwner());
+    Assert.assertNull(partition.getLeaseExpiresOn());
+  }
+
+  @Test
+  public void leaseIsRenewedWithEveryCheckpoint() throws InterruptedException {
+    repositories.addActiveCases(1, 5);
+    portfolioProperties.setBeatLeaseDurationSeconds(300);
+    final List<LocalDateTime> processedOn = Collections.synchronizedList(new ArrayList<>());
+
+    newProcessor().forEachActiveCase(BEAT_IDENTIFIER, FOR_TIME, BeatStage.APPLY_INTEREST,
+        synchronously(activeCase -> processedOn.add(LocalDateTime.now(Clock.systemUTC()))));
+
+    final List<LocalDateTime> leaseExpiries = repositories.getCheckpointedLeaseExpiries();
+    Assert.assertEquals(5, leaseExpiries.size());
+    for (int i = 0; i < leaseExpiries.size(); i++)
+      Assert.assertFalse(leaseExpiries.get(i).isBefore(processedOn.get(i).plusSeconds(300)));
+  }
+
+  @Test
+  public void partitionLeasedByAnotherLiveInstanceIsLeftAlone() throws InterruptedException {
+    repositories.addActiveCases(1, 6);
+    newProcessor().forEachActiveCase(BEAT_IDENTIFIER, FOR_TIME, BeatStage.APPLY_INTEREST, interruptingAt(2L));
+    repositories.leaseToOther(3, "other", LocalDateTime.now(Clock.systemUTC()).plusHours(1));
+    final List<Long> processedCaseIds = Collections.synchronizedList(new ArrayList<>());
+
+    newProcessor().forEachActiveCase(BEAT_IDENTIFIER, FOR_TIME, BeatStage.APPLY_INTEREST, recordingInto(processedCaseIds));
+
+    Assert.assertTrue(processedCaseIds.isEmpty());
+    final BeatProgressEntity partition = repositories.getProgress().get(0);
+    Assert.assertFalse(partition.getFinished());
+    Assert.assertEquals("other", partition.getLeaseOwner());
+    Assert.assertEquals(Long.valueOf(2), partition.getLastProcessedCaseId());
+  }
+
+  @Test
+  public void expiredLeaseIsTakenOverAfterLastCheckpoint() throws InterruptedException {
+    repositories.addActiveCases(1, 6);
+    newProcessor().forEachActiveCase(BEAT_IDENTIFIER, FOR_TIME, BeatStage.APPLY_INTEREST, interruptingAt(2L));
+    //The instance which held the lease died without releasing it.
+    repositories.leaseToOther(3, "dead", LocalDateTime.now(Clock.systemUTC()).minusSeconds(1));
+    final List<Long> processedCaseIds = Collections.synchronizedList(new ArrayList<>());
+
+    newProcessor().forEachActiveCase(BEAT_IDENTIFIER, FOR_TIME, BeatStage.APPLY_INTEREST, recordingInto(processedCaseIds));
+
+    Assert.assertEquals(Arrays.asList(3L, 4L, 5L, 6L), processedCaseIds);
+    final BeatProgressEntity partition = repositories.getProgress().get(0);
+    Assert.assertTrue(partition.getFinished());
+    Assert.assertNull(partition.getLeaseOwner());
+  }
+
+  @Test
+  public void processingStopsWhenLeaseIsLost() throws InterruptedException {
+    repositories.addActiveCases(1, 6);
+    final List<Long> processedCaseIds = Collections.synchronizedList(new ArrayList<>());
+
+    newProcessor().forEachActiveCase(BEAT_IDENTIFIER, FOR_TIME, BeatStage.APPLY_INTEREST, synchronously(activeCase -> {
+      processedCaseIds.add(activeCase.getId());
+      if (activeCase.getId() == 3L) //Took so long that another instance claimed the lease meanwhile.
+        repositories.leaseToOther(3, "other", LocalDateTime.now(Clock.systemUTC()).plusHours(1));
+    }));
+
+    Assert.assertEquals(Arrays.asList(1L, 2L, 3L), processedCaseIds);
+    final BeatProgressEntity partition = repositories.getProgress().get(0);
+    Assert.assertFalse(partition.getFinished());
+    Assert.assertEquals("other", partition.getLeaseOwner());
+    Assert.assertEquals(Long.valueOf(2), partition.getLastProcessedCaseId());
+  }
+
+  @Test
+  public void casesAreDispatchedWithoutWaitingAndCheckpointedInOrderOfTheirIds() throws Exception {
+    repositories.addActiveCases(1, 10);
+    portfolioProperties.setBeatCasesInFlightPerPartition(3);
+    final Map<Long, CompletableFuture<Void>> dispatched = new ConcurrentHashMap<>();
+    final ExecutorService beat = Executors.newSingleThreadExecutor();
+    try {
+      final Future<?> run = beat.submit(() -> {
+        setContext();
+        try {
+          newProcessor().forEachActiveCase(BEAT_IDENTIFIER, FOR_TIME, BeatStage.APPLY_INTEREST,
+              activeCase -> dispatched.computeIfAbsent(activeCase.getId(), caseId -> new CompletableFuture<>()));
+        }
+        finally {
+          clearContext();
+        }
+        return null;
+      });
+
+      awaitDispatched(dispatched, 3);
+      Thread.sleep(100);
+      Assert.assertEquals(3, dispatched.size());
+      Assert.assertEquals(Long.valueOf(0), repositories.getProgress().get(0).getLastProcessedCaseId());
+
+      //A later case finishing first doesn't count as processed while an earlier one is still in flight.
+      dispatched.get(2L).complete(null);
+      Thread.sleep(100);
+      Assert.assertEquals(3, dispatched.size());
+      Assert.assertEquals(Long.valueOf(0), repositories.getProgress().get(0).getLastProcessedCaseId());
+
+      dispatched.get(1L).complete(null);
+      awaitDispatched(dispatched, 5);
+      Thread.sleep(100);
+      Assert.assertEquals(5, dispatched.size());
+      Assert.assertEquals(Long.valueOf(2), repositories.getProgress().get(0).getLastProcessedCaseId());
+
+      for (long caseId = 3; caseId <= 10; caseId++) {
+        awaitDispatched(dispatched, (int) Math.min(caseId + 2, 10));
+        dispatched.get(caseId).complete(null);
+      }
+      run.get(10, TimeUnit.SECONDS);
+    }
+    finally {
+      beat.shutdownNow();
+    }
+
+    final BeatProgressEntity partition = repositories.getProgress().get(0);
+    Assert.assertTrue(partition.getFinished());
+    Assert.assertEquals(Long.valueOf(10), partition.getLastProcessedCaseId());
+  }
+
+  @Test
+  public void failedCaseIsRecordedAndRetriedWhenTheStageIsResumed() throws InterruptedException {
+    repositories.addActiveCases(1, 4);
+    final List<Long> processedCaseIds = Collections.synchronizedList(new ArrayList<>());
+
+    newProcessor().forEachActiveCase(BEAT_IDENTIFIER, FOR_TIME, BeatStage.APPLY_INTEREST, activeCase -> {
+      processedCaseIds.add(activeCase.getId());
+      final CompletableFuture<Void> ret = new CompletableFuture<>();
+      if (activeCase.getId() == 2L)
+        ret.completeExceptionally(new IllegalStateException("Accounting unavailable."));
+      else
+        ret.complete(null);
+      return ret;
+    });
+
+    Assert.assertEquals(Arrays.asList(1L, 2L, 3L, 4L), processedCaseIds);
+    final BeatProgressEntity failedPartition = repositories.getProgress().get(0);
+    Assert.assertFalse(failedPartition.getFinished());
+    Assert.assertEquals(Long.valueOf(4), failedPartition.getLastProcessedCaseId());
+    Assert.assertEquals("2", failedPartition.getFailedCaseIds());
+
+    //The lease is left to expire, so the failed case is only retried when the stage is resumed with a later beat.
+    repositories.leaseToOther(1, failedPartition.getLeaseOwner(), FOR_TIME);
+    processedCaseIds.clear();
+    newProcessor().resumeUnfinishedStages(FOR_TIME.plusHours(1), (stage, forTime) -> recordingInto(processedCaseIds));
+
+    Assert.assertEquals(Collections.singletonList(2L), processedCaseIds);
+    final BeatProgressEntity resumedPartition = repositories.getProgress().get(0);
+    Assert.assertTrue(resumedPartition.getFinished());
+    Assert.assertNull(resumedPartition.getFailedCaseIds());
+  }
+
+  @Test
+  public void caseFailingAgainOnRetryDoesNotHoldUpItsPartition() throws InterruptedException {
+    repositories.addActiveCases(1, 4);
+    final Function<CaseReference, Future<?>> failingAt2 = activeCase -> {
+      final CompletableFuture<Void> ret = new CompletableFuture<>();
+      if (activeCase.getId() == 2L)
+        ret.completeExceptionally(new IllegalStateException("Case can't be processed."));
+      else
+        ret.complete(null);
+      return ret;
+    };
+
+    newProcessor().forEachActiveCase(BEAT_IDENTIFIER, FOR_TIME, BeatStage.APPLY_INTEREST, failingAt2);
+    repositories.leaseToOther(1, repositories.getProgress().get(0).getLeaseOwner(), FOR_TIME);
+    newProcessor().resumeUnfinishedStages(FOR_TIME.plusHours(1), (stage, forTime) -> failingAt2);
+
+    final BeatProgressEntity partition = repositories.getProgress().get(0);
+    Assert.assertTrue(partition.getFinished());
+    Assert.assertNull(partition.getFailedCaseIds());
+  }
+
+  @Test
+  public void replicasCompetingForOneLeaseProcessEachCaseOnce() throws Exception {
+    repositories.addActiveCases(1, 30);
+    assertReplicasProcessEachCaseOnce(1, 30);
+    Assert.assertEquals(1, repositories.getProgress().size());
+  }
+
+  @Test
+  public void replicasSharingPartitionsProcessEachCaseOnce() throws Exception {
+    repositories.addActiveCases(1, 50);
+    portfolioProperties.setShareBeatsWithReplicas(true);
+    portfolioProperties.setBeatPartitionCount(2);
+    Mockito.doReturn(2).when(replicaAdapter).countInstances();
+
+    assertReplicasProcessEachCaseOnce(1, 50);
+    Assert.assertEquals(4, repositories.getProgress().size());
+  }
+
+  private void assertReplicasProcessEachCaseOnce(final long firstId, final long lastId) throws Exception {
+    final List<Long> processedCaseIds = Collections.synchronizedList(new ArrayList<>());
+    final CountDownLatch start = new CountDownLatch(1);
+    final ExecutorService replicas = Executors.newFixedThreadPool(2);
+    try {
+      final List<Future<?>> runs = Stream.generate(this::newProcessor)
+          .limit(2)
+          .map(replica -> replicas.submit(() -> {
+            setContext();
+            try {
+              start.await();
+              replica.forEachActiveCase(BEAT_IDENTIFIER, FOR_TIME, BeatStage.APPLY_INTEREST, synchronously(activeCase -> {
+                processedCaseIds.add(activeCase.getId());
+                Thread.yield();
+              });
+            }
+            finally {
+              clearContext();
+            }
+            return null;
+          }))
+          .collect(Collectors.toList());
+      start.countDown();
+      for (final Future<?> run : runs)
+        run.get(30, TimeUnit.SECONDS);
+    }
+    finally {
+      replicas.shutdownNow();
+    }
+
+    assertEachProcessedOnce(processedCaseIds, firstId, lastId);
+    Assert.assertTrue(repositories.getProgress().stream().allMatch(BeatProgressEntity::getFinished));
+  }
+
+  private static Function<CaseReference, Future<?>> interruptingAt(final long caseId) {
+    return synchronously(activeCase -> {
+      if (activeCase.getId() == caseId)
+        Thread.currentThread().interrupt();
+    });
+  }
+
+  private static void awaitDispatched(final Map<Long, CompletableFuture<Void>> dispatched, final int count)
+      throws InterruptedException {
+    final long giveUpAt = System.currentTimeMillis() + 10000;
+    while (dispatched.size() < count) {
+      if (System.currentTimeMillis() > giveUpAt)
+        Assert.fail("Only " + dispatched.size() + " of " + count + " cases were dispatched.");
+      Thread.sleep(10);
+    }
+  }
+
+  private PartitionedCaseProcessor newProcessor() {
+    return new PartitionedCaseProcessor(
+        repositories.caseRepository,
+        repositories.beatProgressRepository,
+        portfolioProperties,
+        replicaAdapter,
+        new BeatSchedule(portfolioProperties),
+        beatWorkerExecutor,
+        Mockito.mock(Logger.class));
+  }
+
+  private static Function<CaseReference, Future<?>> recordingInto(final List<Long> processedCaseIds) {
+    return synchronously(activeCase -> processedCaseIds.add(activeCase.getId()));
+  }
+
+  private static Function<CaseReference, Future<?>> synchronously(final Consumer<CaseReference> caseAction) {
+    return activeCase -> {
+      caseAction.accept(activeCase);
+      return CompletableFuture.completedFuture(null);
+    };
+  }
+
+  private static void assertEachProcessedOnce(final List<Long> processedCaseIds, final long firstId, final long lastId) {
+    final List<Long> sortedCaseIds = new ArrayList<>(processedCaseIds);
+    Collections.sort(sortedCaseIds);
+    Assert.assertEquals(LongStream.rangeClosed(firstId, lastId).boxed().collect(Collectors.toList()), sortedCaseIds);
+  }
+
+  private static void setContext() {
+    TenantContextHolder.setIdentifier("tenant");
+    UserContextHolder.setAccessToken("user", "token");
+  }
+
+  private static void clearContext() {
+    UserContextHolder.clear();
+    TenantContextHolder.clear();
+  }
+}
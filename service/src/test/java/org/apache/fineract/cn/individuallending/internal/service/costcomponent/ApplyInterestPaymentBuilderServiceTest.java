@@ -43,4 +43,18 @@ public class ApplyInterestPaymentBuilderServiceTest {
 
     Assert.assertEquals(BigDecimal.valueOf(27, 2), paymentBuilder.getBalanceAdjustments().get(AccountDesignators.INTEREST_ACCRUAL));
   }
+
+  @Test
+  public void getPaymentBuilderForSeveralDays() throws Exception {
+    final PaymentBuilderServiceTestCase testCase = new PaymentBuilderServiceTestCase("five days of interest");
+
+    final PaymentBuilder paymentBuilder = PaymentBuilderServiceTestHarness.constructCallToPaymentBuilder(
+        scheduledChargesService -> (dataContextOfAction, ignored, forDate, runningBalances) ->
+            new ApplyInterestPaymentBuilderService(scheduledChargesService)
+                .getPaymentBuilder(dataContextOfAction, forDate, 5, runningBalances),
+        testCase);
+
+    //2000.00 * ((1 + 0.05 / 365.2425)^5 - 1) = 1.369...  Five separately rounded days would come to 5 * 0.27 = 1.35.
+    Assert.assertEquals(BigDecimal.valueOf(137, 2), paymentBuilder.getBalanceAdjustments().get(AccountDesignators.INTEREST_ACCRUAL));
+  }
 }
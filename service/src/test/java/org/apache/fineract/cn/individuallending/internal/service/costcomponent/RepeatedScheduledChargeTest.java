@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service.costcomponent;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.apache.fineract.cn.individuallending.api.v1.domain.product.AccountDesignators;
+import org.apache.fineract.cn.individuallending.api.v1.domain.product.ChargeProportionalDesignator;
+import org.apache.fineract.cn.individuallending.api.v1.domain.workflow.Action;
+import org.apache.fineract.cn.individuallending.internal.service.schedule.Period;
+import org.apache.fineract.cn.individuallending.internal.service.schedule.ScheduledAction;
+import org.apache.fineract.cn.individuallending.internal.service.schedule.ScheduledCharge;
+import org.apache.fineract.cn.portfolio.api.v1.domain.ChargeDefinition;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RepeatedScheduledChargeTest {
+  private static final LocalDate BEGIN_OF_PERIOD = LocalDate.of(2017, 1, 31);
+  private static final LocalDate END_OF_PERIOD = LocalDate.of(2017, 3, 1);
+
+  @Test
+  public void interestProportionalToPrincipalIsAppliedAsIfChargedDaily() {
+    assertSameAsDailyCharges(interestCharge(ChargeProportionalDesignator.PRINCIPAL_DESIGNATOR), BigDecimal.valueOf(10_000));
+  }
+
+  @Test
+  public void interestProportionalToRunningBalanceIsAppliedAsIfChargedDaily() {
+    assertSameAsDailyCharges(interestCharge(ChargeProportionalDesignator.RUNNING_BALANCE_DESIGNATOR), BigDecimal.valueOf(10_000));
+  }
+
+  @Test
+  public void interestOnTinyPrincipalIsAppliedAsIfChargedDaily() {
+    assertSameAsDailyCharges(interestCharge(ChargeProportionalDesignator.PRINCIPAL_DESIGNATOR), BigDecimal.valueOf(3));
+  }
+
+  private static void assertSameAsDailyCharges(final ChargeDefinition chargeDefinition, final BigDecimal principal) {
+    final Period repaymentPeriod = new Period(BEGIN_OF_PERIOD, END_OF_PERIOD);
+    final int dayCount = (int) ChronoUnit.DAYS.between(BEGIN_OF_PERIOD, END_OF_PERIOD);
+    final ScheduledAction repeatedAction = new ScheduledAction(
+        Action.APPLY_INTEREST,
+        END_OF_PERIOD,
+        new Period(END_OF_PERIOD.minusDays(1), END_OF_PERIOD),
+        repaymentPeriod,
+        dayCount);
+
+    final List<ScheduledCharge> dailyCharges = repeatedAction.expandOccurrences()
+        .map(scheduledAction -> new ScheduledCharge(scheduledAction, chargeDefinition, Optional.empty()))
+        .collect(Collectors.toList());
+    Assert.assertEquals(dayCount, dailyCharges.size());
+    Assert.assertEquals(BEGIN_OF_PERIOD.plusDays(1), dailyCharges.get(0).getScheduledAction().getWhen());
+
+    final PaymentBuilder daily = getCostComponents(dailyCharges, principal);
+    final PaymentBuilder repeated = getCostComponents(
+        Collections.singletonList(new ScheduledCharge(repeatedAction, chargeDefinition, Optional.empty())), principal);
+
+    Assert.assertEquals(daily.getBalanceAdjustments(), repeated.getBalanceAdjustments());
+  }
+
+  private static PaymentBuilder getCostComponents(final List<ScheduledCharge> scheduledCharges, final BigDecimal principal) {
+    final SimulatedRunningBalances runningBalances = new SimulatedRunningBalances();
+    runningBalances.adjustBalance(AccountDesignators.CUSTOMER_LOAN_PRINCIPAL, principal.negate());
+    return CostComponentService.getCostComponentsForScheduledCharges(
+        scheduledCharges,
+        principal,
+        runningBalances,
+        BigDecimal.ZERO,
+        BigDecimal.ZERO,
+        BigDecimal.ZERO,
+        BigDecimal.valueOf(13),
+        2,
+        true);
+  }
+
+  private static ChargeDefinition interestCharge(final ChargeProportionalDesignator proportionalTo) {
+    final ChargeDefinition ret = new ChargeDefinition();
+    ret.setIdentifier("interest");
+    ret.setChargeMethod(ChargeDefinition.ChargeMethod.INTEREST);
+    ret.setForCycleSizeUnit(ChronoUnit.YEARS);
+    ret.setAmount(BigDecimal.valueOf(100));
+    ret.setAccrueAction(Action.APPLY_INTEREST.name());
+    ret.setChargeAction(Action.ACCEPT_PAYMENT.name());
+    ret.setFromAccountDesignator(AccountDesignators.CUSTOMER_LOAN_INTEREST);
+    ret.setAccrualAccountDesignator(AccountDesignators.INTEREST_ACCRUAL);
+    ret.setToAccountDesignator(AccountDesignators.INTEREST_INCOME);
+    ret.setProportionalTo(proportionalTo.getValue());
+    return ret;
+  }
+}
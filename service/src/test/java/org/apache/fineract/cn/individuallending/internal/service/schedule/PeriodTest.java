@@ -74,4 +74,16 @@ public class PeriodTest {
     Assert.assertTrue(tommorrowPeriod.compareTo(todayPeriod) > 0);
   }
 
+  @Test
+  public void datesAreDerivedFromEpochDays() {
+    final Period testSubject = new Period(today, tommorrow);
+    Assert.assertEquals(today, testSubject.getBeginDate());
+    Assert.assertEquals(tommorrow, testSubject.getEndDate());
+
+    final Period withoutBegin = new Period(null, today);
+    Assert.assertNull(withoutBegin.getBeginDate());
+    Assert.assertEquals(today, withoutBegin.getEndDate());
+    Assert.assertTrue(withoutBegin.compareTo(new Period(yesterday, today)) < 0);
+  }
+
 }
\ No newline at end of file
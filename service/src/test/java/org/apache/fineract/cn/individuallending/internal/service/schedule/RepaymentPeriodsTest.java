@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.individuallending.internal.service.schedule;
+
+import org.apache.fineract.cn.individuallending.api.v1.domain.caseinstance.CaseParameters;
+import org.apache.fineract.cn.portfolio.api.v1.domain.PaymentCycle;
+import org.apache.fineract.cn.portfolio.api.v1.domain.TermRange;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class RepaymentPeriodsTest {
+  private static final LocalDate START_OF_TERM = LocalDate.of(2018, 1, 31);
+
+  private RepaymentPeriods testSubject;
+  private List<Period> expected;
+
+  @Before
+  public void prepare() {
+    final CaseParameters caseParameters = new CaseParameters("fred");
+    caseParameters.setTermRange(new TermRange(ChronoUnit.MONTHS, 24));
+    caseParameters.setPaymentCycle(new PaymentCycle(ChronoUnit.MONTHS, 1, 30, null, null));
+    final LocalDate endOfTerm = ScheduledActionHelpers.getRoughEndDate(START_OF_TERM, caseParameters);
+
+    testSubject = ScheduledActionHelpers.getRepaymentPeriods(START_OF_TERM, endOfTerm, caseParameters);
+
+    //The same periods as ordinary Period objects in an ordinary list.
+    expected = new ArrayList<>();
+    for (final Period period : testSubject)
+      expected.add(new Period(period.getBeginDate(), period.getEndDate(), period.isLastPeriod()));
+  }
+
+  @Test
+  public void periodsAreConsecutiveAndOnlyTheLastEndsTheTerm() {
+    Assert.assertEquals(24, testSubject.size());
+    Assert.assertEquals(START_OF_TERM, testSubject.get(0).getBeginDate());
+    for (int i = 1; i < testSubject.size(); i++) {
+      Assert.assertEquals(testSubject.get(i - 1).getEndDate(), testSubject.get(i).getBeginDate());
+      Assert.assertEquals(testSubject.get(i).getEndDate(), testSubject.getEndDate(i));
+      Assert.assertFalse(testSubject.get(i - 1).isLastPeriod());
+    }
+    Assert.assertTrue(testSubject.get(testSubject.size() - 1).isLastPeriod());
+    Assert.assertEquals(expected, testSubject);
+  }
+
+  @Test
+  public void indexOfFirstPeriodEndingOnOrAfter() {
+    Assert.assertEquals(0, testSubject.indexOfFirstPeriodEndingOnOrAfter(START_OF_TERM.minusDays(1)));
+    for (int i = 0; i < testSubject.size(); i++) {
+      final LocalDate endDate = testSubject.getEndDate(i);
+      Assert.assertEquals(i, testSubject.indexOfFirstPeriodEndingOnOrAfter(endDate));
+      Assert.assertEquals(i, testSubject.indexOfFirstPeriodEndingOnOrAfter(endDate.minusDays(1)));
+      Assert.assertEquals(i, ScheduledActionHelpers.indexOfFirstPeriodEndingOnOrAfter(expected, endDate.minusDays(1)));
+    }
+    Assert.assertEquals(testSubject.size(),
+        testSubject.indexOfFirstPeriodEndingOnOrAfter(testSubject.getEndDate(testSubject.size() - 1).plusDays(1)));
+  }
+
+  @Test
+  public void firstPeriodsDoNotEndTheTermUnlessTheyAreAll() {
+    final RepaymentPeriods firstThree = testSubject.first(3);
+
+    Assert.assertEquals(expected.subList(0, 2), firstThree.subList(0, 2));
+    Assert.assertEquals(testSubject.getEndDate(2), firstThree.getEndDate(2));
+    Assert.assertFalse(firstThree.get(2).isLastPeriod());
+    Assert.assertEquals(3, firstThree.indexOfFirstPeriodEndingOnOrAfter(testSubject.getEndDate(5)));
+    Assert.assertSame(testSubject, testSubject.first(testSubject.size()));
+  }
+
+  @Test
+  public void ofDates() {
+    final RepaymentPeriods periods = RepaymentPeriods.of(
+        Arrays.asList(START_OF_TERM, START_OF_TERM.plusDays(30), START_OF_TERM.plusDays(58)), true);
+
+    Assert.assertEquals(Arrays.asList(
+        new Period(START_OF_TERM, START_OF_TERM.plusDays(30)),
+        new Period(START_OF_TERM.plusDays(30), START_OF_TERM.plusDays(58), true)),
+        periods);
+    Assert.assertEquals(28, periods.get(1).getDayCount());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void ofDatesWhichAreNotAscending() {
+    RepaymentPeriods.of(Arrays.asList(START_OF_TERM, START_OF_TERM.plusDays(30), START_OF_TERM.plusDays(30)), true);
+  }
+}
@@ -365,7 +365,11 @@ public class ScheduledActionHelpersTest {
 
   @Test
   public void getScheduledActions() throws Exception {
-    final List<ScheduledAction> result = ScheduledActionHelpers.getHypotheticalScheduledActions(testCase.initialDisbursementDate, testCase.caseParameters);
+    final List<ScheduledAction> scheduledActions = ScheduledActionHelpers.getHypotheticalScheduledActions(testCase.initialDisbursementDate, testCase.caseParameters);
+    Assert.assertTrue(maximumOneInterestActionPerRepaymentPeriod(scheduledActions));
+    final List<ScheduledAction> result = scheduledActions.stream()
+        .flatMap(ScheduledAction::expandOccurrences)
+        .collect(Collectors.toList());
 
     final List<ScheduledAction> missingExpectedResults = testCase.expectedResultContents.stream()
         .filter(expectedResult -> !result.contains(expectedResult))
@@ -417,6 +421,46 @@ public class ScheduledActionHelpersTest {
     Assert.assertTrue(afterAction.getActionPeriod().isLastPeriod());
   }
 
+  @Test
+  public void alreadyGeneratedRepaymentPeriodsGiveTheSameSchedule() {
+    final LocalDate roughEndDate = ScheduledActionHelpers.getRoughEndDate(testCase.initialDisbursementDate, testCase.caseParameters);
+    final List<Period> repaymentPeriods = ScheduledActionHelpers.generateRepaymentPeriods(
+        testCase.initialDisbursementDate, roughEndDate, testCase.caseParameters)
+        .collect(Collectors.toList());
+
+    Assert.assertEquals(
+        ScheduledActionHelpers.getHypotheticalScheduledActions(testCase.initialDisbursementDate, testCase.caseParameters),
+        ScheduledActionHelpers.getScheduledActions(testCase.initialDisbursementDate, roughEndDate, repaymentPeriods));
+
+    for (LocalDate fromDate = testCase.initialDisbursementDate; !fromDate.isAfter(roughEndDate); fromDate = fromDate.plusDays(7)) {
+      Assert.assertEquals(
+          Optional.of(ScheduledActionHelpers.getNextScheduledPayment(
+              testCase.initialDisbursementDate, fromDate, roughEndDate, testCase.caseParameters)),
+          ScheduledActionHelpers.getNextScheduledPayment(repaymentPeriods, fromDate));
+    }
+  }
+
+  @Test
+  public void nextScheduledPaymentIsFoundAroundEachPaymentDate() {
+    final LocalDate roughEndDate = ScheduledActionHelpers.getRoughEndDate(testCase.initialDisbursementDate, testCase.caseParameters);
+    final List<Period> repaymentPeriods = ScheduledActionHelpers.generateRepaymentPeriods(
+        testCase.initialDisbursementDate, roughEndDate, testCase.caseParameters)
+        .collect(Collectors.toList());
+
+    for (int i = 0; i < repaymentPeriods.size(); i++) {
+      final Period repaymentPeriod = repaymentPeriods.get(i);
+      final ScheduledAction expected = new ScheduledAction(Action.ACCEPT_PAYMENT, repaymentPeriod.getEndDate(), repaymentPeriod, repaymentPeriod);
+      Assert.assertEquals(i, ScheduledActionHelpers.indexOfFirstPeriodEndingOnOrAfter(repaymentPeriods, repaymentPeriod.getEndDate()));
+      Assert.assertEquals(Optional.of(expected), ScheduledActionHelpers.getNextScheduledPayment(repaymentPeriods, repaymentPeriod.getEndDate()));
+      Assert.assertEquals(expected, ScheduledActionHelpers.getNextScheduledPayment(
+          testCase.initialDisbursementDate, repaymentPeriod.getEndDate(), roughEndDate, testCase.caseParameters));
+    }
+
+    final LocalDate afterLastPaymentDate = repaymentPeriods.get(repaymentPeriods.size() - 1).getEndDate().plusDays(1);
+    Assert.assertEquals(repaymentPeriods.size(), ScheduledActionHelpers.indexOfFirstPeriodEndingOnOrAfter(repaymentPeriods, afterLastPaymentDate));
+    Assert.assertFalse(ScheduledActionHelpers.getNextScheduledPayment(repaymentPeriods, afterLastPaymentDate).isPresent());
+  }
+
   private long countActionsByType(final List<ScheduledAction> scheduledActions, final Action actionToCount) {
     return scheduledActions.stream().filter(x -> x.getAction() == actionToCount).count();
   }
@@ -432,6 +476,15 @@ public class ScheduledActionHelpersTest {
     return (interestDays.size() == interestDaysSet.size());
   }
 
+  private boolean maximumOneInterestActionPerRepaymentPeriod(final List<ScheduledAction> result) {
+    final List<Period> interestPeriods = result.stream()
+            .filter(x -> x.getAction() == Action.APPLY_INTEREST)
+            .map(ScheduledAction::getRepaymentPeriod)
+            .collect(Collectors.toList());
+
+    return (interestPeriods.size() == new HashSet<>(interestPeriods).size());
+  }
+
   private boolean noDuplicatesInResult(final List<ScheduledAction> result) {
     final Set<ScheduledAction> duplicatesRemoved = new HashSet<>();
     duplicatesRemoved.addAll(result);
@@ -20,8 +20,13 @@ package org.apache.fineract.cn.portfolio.service.internal.command.handler;
 
 import org.apache.fineract.cn.portfolio.service.internal.command.DeleteProductChargeDefinitionCommand;
 import org.apache.fineract.cn.portfolio.service.internal.repository.BalanceSegmentRepository;
+import org.apache.fineract.cn.portfolio.service.internal.repository.ChargeDefinitionEntity;
 import org.apache.fineract.cn.portfolio.service.internal.repository.ChargeDefinitionRepository;
+import org.apache.fineract.cn.portfolio.service.internal.repository.ProductEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.ProductRepository;
+import java.time.LocalDateTime;
 import java.util.Optional;
+import org.apache.fineract.cn.api.util.UserContextHolder;
 import org.apache.fineract.cn.lang.ServiceException;
 import org.junit.Assert;
 import org.junit.Test;
@@ -54,4 +59,35 @@ public class ChargeDefinitionCommandHandlerTest {
       Assert.assertTrue(e.getMessage().contains(chargeDefinitionIdentifier));
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  public void processDeleteRecordsTheChangeOnTheProduct() {
+    final ProductEntity product = new ProductEntity();
+    product.setIdentifier("bibbledybobbeldy");
+    final LocalDateTime lastModifiedBefore = LocalDateTime.of(2018, 1, 1, 0, 0);
+    product.setLastModifiedOn(lastModifiedBefore);
+    final ChargeDefinitionEntity toDelete = new ChargeDefinitionEntity();
+    toDelete.setProduct(product);
+    final ChargeDefinitionRepository chargeDefinitionRepositoryMock = Mockito.mock(ChargeDefinitionRepository.class);
+    Mockito.doReturn(Optional.of(toDelete))
+        .when(chargeDefinitionRepositoryMock)
+        .findByProductIdAndChargeDefinitionIdentifier("bibbledybobbeldy", "booboo");
+    final ProductRepository productRepositoryMock = Mockito.mock(ProductRepository.class);
+
+    final ChargeDefinitionCommandHandler testSubject = new ChargeDefinitionCommandHandler(
+        productRepositoryMock, chargeDefinitionRepositoryMock, Mockito.mock(BalanceSegmentRepository.class));
+
+    UserContextHolder.setAccessToken("shed", "token");
+    try {
+      testSubject.process(new DeleteProductChargeDefinitionCommand("bibbledybobbeldy", "booboo"));
+    }
+    finally {
+      UserContextHolder.clear();
+    }
+
+    Mockito.verify(chargeDefinitionRepositoryMock).delete(toDelete);
+    Assert.assertTrue(product.getLastModifiedOn().isAfter(lastModifiedBefore));
+    Assert.assertEquals("shed", product.getLastModifiedBy());
+    Mockito.verify(productRepositoryMock).save(product);
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.portfolio.service.internal.util;
+
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import java.util.Collections;
+import java.util.Optional;
+import org.apache.fineract.cn.accounting.api.v1.domain.Account;
+import org.apache.fineract.cn.lang.TenantContextHolder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AccountCacheTest {
+  private AccountCache testSubject;
+
+  @Before
+  public void prepare() {
+    final PortfolioProperties portfolioProperties = new PortfolioProperties();
+    portfolioProperties.setSharedAccountCacheSize(10);
+    testSubject = new AccountCache(portfolioProperties);
+    TenantContextHolder.setIdentifier("tenant1");
+  }
+
+  @After
+  public void cleanup() {
+    TenantContextHolder.clear();
+  }
+
+  @Test
+  public void accountsAreKeptPerTenant() {
+    testSubject.put(account("a1"), testSubject.startRead());
+    Assert.assertTrue(testSubject.get("a1").isPresent());
+
+    TenantContextHolder.clear();
+    TenantContextHolder.setIdentifier("tenant2");
+    Assert.assertEquals(Optional.empty(), testSubject.get("a1"));
+  }
+
+  @Test
+  public void bookedJournalEntryEvictsOnlyTheAccountsItTouches() {
+    testSubject.put(account("a1"), testSubject.startRead());
+    testSubject.put(account("b1"), testSubject.startRead());
+    testSubject.journalEntryBooked("t1", Collections.singleton("a1"));
+    Assert.assertEquals(Optional.empty(), testSubject.get("a1"));
+
+    testSubject.put(account("a1"), testSubject.startRead());
+    testSubject.evictAccountsOfTransaction("tenant1", "t1");
+    Assert.assertEquals(Optional.empty(), testSubject.get("a1"));
+    Assert.assertTrue(testSubject.get("b1").isPresent());
+  }
+
+  @Test
+  public void unknownJournalEntryEvictsAllAccountsOfTheTenant() {
+    testSubject.put(account("a1"), testSubject.startRead());
+    testSubject.put(account("b1"), testSubject.startRead());
+    testSubject.evictAccountsOfTransaction("tenant1", "unknown");
+    Assert.assertEquals(Optional.empty(), testSubject.get("a1"));
+    Assert.assertEquals(Optional.empty(), testSubject.get("b1"));
+  }
+
+  @Test
+  public void accountReadBeforeItsEvictionIsNotPutBack() {
+    final long readStartedInGeneration = testSubject.startRead();
+    testSubject.journalEntryBooked("t1", Collections.singleton("a1"));
+    testSubject.put(account("a1"), readStartedInGeneration);
+    Assert.assertEquals(Optional.empty(), testSubject.get("a1"));
+
+    testSubject.put(account("b1"), readStartedInGeneration);
+    Assert.assertTrue(testSubject.get("b1").isPresent());
+
+    testSubject.put(account("a1"), testSubject.startRead());
+    Assert.assertTrue(testSubject.get("a1").isPresent());
+  }
+
+  @Test
+  public void accountReadBeforeAllAccountsOfTheTenantWereEvictedIsNotPutBack() {
+    final long readStartedInGeneration = testSubject.startRead();
+    testSubject.evictAccountsOfTransaction("tenant1", "unknown");
+    testSubject.put(account("a1"), readStartedInGeneration);
+    Assert.assertEquals(Optional.empty(), testSubject.get("a1"));
+
+    TenantContextHolder.clear();
+    TenantContextHolder.setIdentifier("tenant2");
+    testSubject.put(account("a1"), readStartedInGeneration);
+    Assert.assertTrue(testSubject.get("a1").isPresent());
+  }
+
+  @Test
+  public void nothingIsKeptWhenSizeIsZero() {
+    final AccountCache disabledCache = new AccountCache(new PortfolioProperties());
+    disabledCache.put(account("a1"), disabledCache.startRead());
+    Assert.assertEquals(Optional.empty(), disabledCache.get("a1"));
+  }
+
+  private static Account account(final String identifier) {
+    final Account ret = new Account();
+    ret.setIdentifier(identifier);
+    return ret;
+  }
+}
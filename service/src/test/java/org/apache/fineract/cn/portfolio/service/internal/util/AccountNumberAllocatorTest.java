@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.portfolio.service.internal.util;
+
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import org.apache.fineract.cn.portfolio.service.internal.repository.AccountNumberSequenceRepository;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.fineract.cn.lang.TenantContextHolder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class AccountNumberAllocatorTest {
+  private AccountNumberSequenceRepository accountNumberSequenceRepository;
+  private AccountNumberAllocator testSubject;
+
+  @Before
+  public void prepare() {
+    accountNumberSequenceRepository = Mockito.mock(AccountNumberSequenceRepository.class);
+    final PortfolioProperties portfolioProperties = new PortfolioProperties();
+    portfolioProperties.setAccountNumberBlockSize(2);
+    testSubject = new AccountNumberAllocator(accountNumberSequenceRepository, portfolioProperties);
+    TenantContextHolder.setIdentifier("blah");
+  }
+
+  @After
+  public void cleanup() {
+    TenantContextHolder.clear();
+  }
+
+  @Test
+  public void newSequenceStartsAtGivenIndexAndIsReservedInBlocks() {
+    Mockito.doReturn(Optional.empty(), Optional.of(7L), Optional.of(9L))
+        .when(accountNumberSequenceRepository).findNextIndex("ledger");
+    Mockito.doReturn(1).when(accountNumberSequenceRepository).reserve(Mockito.eq("ledger"), Mockito.anyLong(), Mockito.eq(2L));
+
+    Assert.assertEquals(7L, testSubject.allocate("ledger", () -> 7L));
+    Assert.assertEquals(8L, testSubject.allocate("ledger", () -> 7L));
+    Assert.assertEquals(9L, testSubject.allocate("ledger", () -> 7L));
+
+    Mockito.verify(accountNumberSequenceRepository, Mockito.times(1)).createIfAbsent("ledger", 7L);
+    Mockito.verify(accountNumberSequenceRepository, Mockito.times(2)).reserve(Mockito.eq("ledger"), Mockito.anyLong(), Mockito.eq(2L));
+  }
+
+  @Test
+  public void reservationRetriesIfAnotherInstanceReservedFirst() {
+    Mockito.doReturn(Optional.of(3L), Optional.of(5L)).when(accountNumberSequenceRepository).findNextIndex("ledger");
+    Mockito.doReturn(0).when(accountNumberSequenceRepository).reserve("ledger", 3L, 2L);
+    Mockito.doReturn(1).when(accountNumberSequenceRepository).reserve("ledger", 5L, 2L);
+
+    Assert.assertEquals(5L, testSubject.allocate("ledger", () -> 1L));
+    Mockito.verify(accountNumberSequenceRepository, Mockito.never()).createIfAbsent(Mockito.anyString(), Mockito.anyLong());
+  }
+
+  @Test
+  public void firstIndexOfNewSequenceIsDeterminedWithoutHoldingTheLedgersLock() throws Exception {
+    final AtomicLong sequence = new AtomicLong(-1L);
+    Mockito.doAnswer(invocation -> sequence.get() < 0 ? Optional.empty() : Optional.of(sequence.get()))
+        .when(accountNumberSequenceRepository).findNextIndex("ledger");
+    Mockito.doAnswer(invocation -> sequence.compareAndSet(-1L, invocation.getArgumentAt(1, Long.class)) ? 1 : 0)
+        .when(accountNumberSequenceRepository).createIfAbsent(Mockito.eq("ledger"), Mockito.anyLong());
+    Mockito.doAnswer(invocation -> {
+      final long nextIndex = invocation.getArgumentAt(1, Long.class);
+      final long blockSize = invocation.getArgumentAt(2, Long.class);
+      return sequence.compareAndSet(nextIndex, nextIndex + blockSize) ? 1 : 0;
+    }).when(accountNumberSequenceRepository).reserve(Mockito.eq("ledger"), Mockito.anyLong(), Mockito.anyLong());
+
+    final ExecutorService otherThread = Executors.newSingleThreadExecutor();
+    try {
+      //While the first allocation waits on accounting, another allocation for the same ledger gets through.
+      final long index = testSubject.allocate("ledger", () -> {
+        final Future<Long> otherIndex = otherThread.submit(() -> {
+          TenantContextHolder.setIdentifier("blah");
+          try {
+            return testSubject.allocate("ledger", () -> 7L);
+          }
+          finally {
+            TenantContextHolder.clear();
+          }
+        });
+        try {
+          Assert.assertEquals(Long.valueOf(7L), otherIndex.get(10, TimeUnit.SECONDS));
+        }
+        catch (final Exception e) {
+          throw new AssertionError("Allocation was blocked while accounting was asked for the first index.", e);
+        }
+        return 7L;
+      });
+
+      Assert.assertEquals(8L, index);
+      Mockito.verify(accountNumberSequenceRepository, Mockito.times(1)).reserve("ledger", 7L, 2L);
+    }
+    finally {
+      otherThread.shutdownNow();
+    }
+  }
+}
@@ -20,24 +20,48 @@ package org.apache.fineract.cn.portfolio.service.internal.util;
 
 import com.google.common.collect.Sets;
 import org.apache.fineract.cn.individuallending.internal.service.DesignatorToAccountIdentifierMapper;
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
 import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.fineract.cn.accounting.api.v1.client.AccountNotFoundException;
 import org.apache.fineract.cn.accounting.api.v1.client.JournalEntryAlreadyExistsException;
 import org.apache.fineract.cn.accounting.api.v1.client.LedgerManager;
+import org.apache.fineract.cn.accounting.api.v1.domain.Account;
+import org.apache.fineract.cn.accounting.api.v1.domain.AccountEntry;
+import org.apache.fineract.cn.accounting.api.v1.domain.AccountEntryPage;
+import org.apache.fineract.cn.accounting.api.v1.domain.AccountType;
 import org.apache.fineract.cn.accounting.api.v1.domain.Creditor;
 import org.apache.fineract.cn.accounting.api.v1.domain.Debtor;
 import org.apache.fineract.cn.accounting.api.v1.domain.JournalEntry;
 import org.apache.fineract.cn.api.util.UserContextHolder;
+import org.apache.fineract.cn.lang.DateConverter;
+import org.apache.fineract.cn.lang.TenantContextHolder;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.AdditionalMatchers;
 import org.mockito.Matchers;
 import org.mockito.Mockito;
+import org.slf4j.Logger;
 
 /**
  * @author Myrle Krantz
  */
 public class AccountingAdapterTest {
+  @After
+  public void clearContext() {
+    UserContextHolder.clear();
+    TenantContextHolder.clear();
+  }
+
   @Test
   public void getJournalEntryWithMultipleIdenticalChargesMappedToSameAccount() {
     final BigDecimal two = BigDecimal.valueOf(2);
@@ -63,7 +87,7 @@ public class AccountingAdapterTest {
   @Test
   public void journalEntryCreationFailsBecauseIdentifierAlreadyExistsShouldCauseRetry() {
     final LedgerManager ledgerManagerMock = Mockito.mock(LedgerManager.class);
-    final AccountingAdapter testSubject = new AccountingAdapter(ledgerManagerMock, null, null);
+    final AccountingAdapter testSubject = new AccountingAdapter(ledgerManagerMock, null, new AccountCache(new PortfolioProperties()), outboxDisabled(), null, accountingGateway(), null, null);
 
 
     final Map<String, BigDecimal> balanceAdjustments = new HashMap<>();
@@ -79,8 +103,8 @@ public class AccountingAdapterTest {
         .doNothing()
         .when(ledgerManagerMock).createJournalEntry(Matchers.anyObject());
 
+    TenantContextHolder.setIdentifier("blah");
     UserContextHolder.setAccessToken("blah", "blah");
-
     testSubject.bookCharges(
         balanceAdjustments,
         designatorToAccountIdentifierMapper,
@@ -89,4 +113,161 @@ public class AccountingAdapterTest {
     Mockito.verify(ledgerManagerMock, Mockito.atLeast(3)).createJournalEntry(Matchers.anyObject());
   }
 
-}
\ No newline at end of file
+  @Test
+  public void getAccountsLeavesOutAccountsWhichCouldNotBeRead() {
+    final LedgerManager ledgerManagerMock = Mockito.mock(LedgerManager.class);
+    final ExecutorService executorService = Executors.newFixedThreadPool(2);
+    final AccountingAdapter testSubject = new AccountingAdapter(
+        ledgerManagerMock, null, new AccountCache(new PortfolioProperties()), outboxDisabled(), null, accountingGateway(), executorService, Mockito.mock(Logger.class));
+
+    final Account account = new Account();
+    account.setIdentifier("a1");
+    account.setType(AccountType.ASSET.name());
+    account.setBalance(1.0);
+    Mockito.doReturn(account).when(ledgerManagerMock).findAccount("a1");
+    Mockito.doThrow(AccountNotFoundException.class).when(ledgerManagerMock).findAccount("b1");
+
+    TenantContextHolder.setIdentifier("blah");
+    UserContextHolder.setAccessToken("blah", "blah");
+    try {
+      final Map<String, Account> accounts = testSubject.getAccounts(Arrays.asList("a1", "b1", "a1"));
+
+      Assert.assertEquals(Collections.singletonMap("a1", account), accounts);
+      Mockito.verify(ledgerManagerMock, Mockito.times(1)).findAccount("a1");
+    }
+    finally {
+      executorService.shutdown();
+    }
+  }
+
+  @Test
+  public void balancesIncludeJournalEntriesWaitingInTheOutbox() {
+    final LedgerManager ledgerManagerMock = Mockito.mock(LedgerManager.class);
+    final JournalEntryOutbox journalEntryOutbox = Mockito.mock(JournalEntryOutbox.class);
+    Mockito.doReturn(true).when(journalEntryOutbox).isEnabled();
+    Mockito.doReturn(BigDecimal.valueOf(2)).when(journalEntryOutbox).getPendingCreditAmount("a1");
+    Mockito.doReturn(BigDecimal.valueOf(2)).when(journalEntryOutbox).getPendingCreditAmount("r1");
+    final PortfolioProperties portfolioProperties = new PortfolioProperties();
+    portfolioProperties.setSharedAccountCacheSize(10);
+    final AccountCache accountCache = new AccountCache(portfolioProperties);
+    final AccountingAdapter testSubject = new AccountingAdapter(
+        ledgerManagerMock, null, accountCache, journalEntryOutbox, null, accountingGateway(), null, Mockito.mock(Logger.class));
+
+    final Account assetAccount = new Account();
+    assetAccount.setIdentifier("a1");
+    assetAccount.setType(AccountType.ASSET.name());
+    assetAccount.setBalance(10.0);
+    Mockito.doReturn(assetAccount).when(ledgerManagerMock).findAccount("a1");
+    final Account revenueAccount = new Account();
+    revenueAccount.setIdentifier("r1");
+    revenueAccount.setType(AccountType.REVENUE.name());
+    revenueAccount.setBalance(10.0);
+    Mockito.doReturn(revenueAccount).when(ledgerManagerMock).findAccount("r1");
+
+    TenantContextHolder.setIdentifier("blah");
+    UserContextHolder.setAccessToken("blah", "blah");
+    Assert.assertEquals(Double.valueOf(8.0), testSubject.getCachedAccount("a1").getBalance());
+    Assert.assertEquals(Double.valueOf(12.0), testSubject.getCachedAccount("r1").getBalance());
+    //The account shared across requests keeps the balance accounting answered with.
+    Assert.assertEquals(Double.valueOf(10.0), accountCache.get("a1").map(Account::getBalance).orElse(null));
+  }
+
+  @Test
+  public void sumOfMatchingEntriesIncludesJournalEntriesWaitingInTheOutbox() {
+    final LedgerManager ledgerManagerMock = Mockito.mock(LedgerManager.class);
+    final JournalEntryOutbox journalEntryOutbox = Mockito.mock(JournalEntryOutbox.class);
+    Mockito.doReturn(true).when(journalEntryOutbox).isEnabled();
+    Mockito.doReturn(BigDecimal.valueOf(1.5))
+        .when(journalEntryOutbox).getPendingAmountWithMessage("a1", "message", LocalDate.of(2018, 1, 1));
+    final AccountingAdapter testSubject = new AccountingAdapter(
+        ledgerManagerMock, null, new AccountCache(new PortfolioProperties()), journalEntryOutbox, null, accountingGateway(), null, Mockito.mock(Logger.class));
+    Mockito.doReturn(accountEntryPage(1, 2.0)).when(ledgerManagerMock).fetchAccountEntries(
+        Matchers.eq("a1"), Matchers.anyString(), Matchers.eq("message"), Matchers.anyInt(), Matchers.anyInt(), Matchers.anyString(), Matchers.eq("ASC"));
+
+    TenantContextHolder.setIdentifier("blah");
+    UserContextHolder.setAccessToken("blah", "blah");
+    Assert.assertEquals(BigDecimal.valueOf(3.5),
+        testSubject.sumMatchingEntriesSinceDate("a1", LocalDate.of(2018, 1, 1), "message"));
+  }
+
+  @Test
+  public void accountEntriesAreFetchedPageByPageEachWithinTheTimeout() {
+    final LedgerManager ledgerManagerMock = Mockito.mock(LedgerManager.class);
+    final PortfolioProperties portfolioProperties = new PortfolioProperties();
+    portfolioProperties.setAccountingMetricsLogIntervalSeconds(0);
+    portfolioProperties.setGuardAccountingCalls(true);
+    portfolioProperties.setAccountingCallTimeoutMillis(500);
+    final AccountingGateway accountingGateway = new AccountingGateway(portfolioProperties, Mockito.mock(Logger.class));
+    final AccountingAdapter testSubject = new AccountingAdapter(
+        ledgerManagerMock, null, new AccountCache(portfolioProperties), outboxDisabled(), null, accountingGateway, null, Mockito.mock(Logger.class));
+
+    //Together the pages take longer than the timeout, but each one alone is well within it.
+    for (int pageIndex = 0; pageIndex < 3; pageIndex++) {
+      final int page = pageIndex;
+      Mockito.doAnswer(invocation -> {
+        Thread.sleep(200);
+        return accountEntryPage(3, 2.0 + page);
+      }).when(ledgerManagerMock).fetchAccountEntries(
+          Matchers.eq("a1"), Matchers.anyString(), Matchers.eq("message"), Matchers.eq(page), Matchers.anyInt(), Matchers.anyString(), Matchers.eq("ASC"));
+    }
+
+    TenantContextHolder.setIdentifier("blah");
+    UserContextHolder.setAccessToken("blah", "blah");
+    try {
+      Assert.assertEquals(BigDecimal.valueOf(9.0),
+          testSubject.sumMatchingEntriesSinceDate("a1", LocalDate.of(2018, 1, 1), "message"));
+      Mockito.verify(ledgerManagerMock, Mockito.times(3)).fetchAccountEntries(
+          Matchers.eq("a1"), Matchers.anyString(), Matchers.eq("message"), Matchers.anyInt(), Matchers.anyInt(), Matchers.anyString(), Matchers.eq("ASC"));
+    }
+    finally {
+      accountingGateway.shutdown();
+    }
+  }
+
+  @Test
+  public void searchForOldestEntryStopsAtTheFirstPageContainingIt() {
+    final LedgerManager ledgerManagerMock = Mockito.mock(LedgerManager.class);
+    final AccountingAdapter testSubject = new AccountingAdapter(
+        ledgerManagerMock, null, new AccountCache(new PortfolioProperties()), outboxDisabled(), null, accountingGateway(), null, Mockito.mock(Logger.class));
+
+    final Account account = new Account();
+    account.setIdentifier("a1");
+    account.setCreatedOn(DateConverter.toIsoString(LocalDateTime.of(2018, 1, 1, 0, 0)));
+    Mockito.doReturn(account).when(ledgerManagerMock).findAccount("a1");
+    Mockito.doReturn(accountEntryPage(3, 1.0)).when(ledgerManagerMock).fetchAccountEntries(
+        Matchers.eq("a1"), Matchers.anyString(), Matchers.eq("message"), Matchers.anyInt(), Matchers.anyInt(), Matchers.anyString(), Matchers.eq("ASC"));
+
+    TenantContextHolder.setIdentifier("blah");
+    UserContextHolder.setAccessToken("blah", "blah");
+    Assert.assertEquals(Optional.of(LocalDateTime.of(2018, 1, 2, 0, 0)),
+        testSubject.getDateOfOldestEntryContainingMessage("a1", "message"));
+    Mockito.verify(ledgerManagerMock, Mockito.times(1)).fetchAccountEntries(
+        Matchers.eq("a1"), Matchers.anyString(), Matchers.eq("message"), Matchers.eq(0), Matchers.anyInt(), Matchers.anyString(), Matchers.eq("ASC"));
+    Mockito.verify(ledgerManagerMock, Mockito.never()).fetchAccountEntries(
+        Matchers.eq("a1"), Matchers.anyString(), Matchers.eq("message"), AdditionalMatchers.gt(0), Matchers.anyInt(), Matchers.anyString(), Matchers.anyString());
+  }
+
+  private static AccountEntryPage accountEntryPage(final int totalPages, final double amount) {
+    final AccountEntry accountEntry = new AccountEntry();
+    accountEntry.setTransactionDate(DateConverter.toIsoString(LocalDateTime.of(2018, 1, 2, 0, 0)));
+    accountEntry.setMessage("message");
+    accountEntry.setAmount(amount);
+    final AccountEntryPage ret = new AccountEntryPage();
+    ret.setTotalPages(totalPages);
+    ret.setTotalElements((long) totalPages);
+    ret.setAccountEntries(Collections.singletonList(accountEntry));
+    return ret;
+  }
+
+  private static AccountingGateway accountingGateway() {
+    final PortfolioProperties portfolioProperties = new PortfolioProperties();
+    portfolioProperties.setAccountingMetricsLogIntervalSeconds(0);
+    return new AccountingGateway(portfolioProperties, Mockito.mock(Logger.class));
+  }
+
+  private static JournalEntryOutbox outboxDisabled() {
+    final JournalEntryOutbox ret = Mockito.mock(JournalEntryOutbox.class);
+    Mockito.doReturn(false).when(ret).isEnabled();
+    return ret;
+  }
+}
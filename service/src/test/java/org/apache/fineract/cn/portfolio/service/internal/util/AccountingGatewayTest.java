@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.portfolio.service.internal.util;
+
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import org.apache.fineract.cn.accounting.api.v1.client.AccountNotFoundException;
+import org.apache.fineract.cn.api.util.UserContextHolder;
+import org.apache.fineract.cn.lang.ServiceException;
+import org.apache.fineract.cn.lang.TenantContextHolder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+
+public class AccountingGatewayTest {
+  private AccountingGateway testSubject;
+
+  @Before
+  public void prepare() {
+    final PortfolioProperties portfolioProperties = new PortfolioProperties();
+    portfolioProperties.setGuardAccountingCalls(true);
+    portfolioProperties.setAccountingCallTimeoutMillis(100);
+    portfolioProperties.setAccountingCircuitBreakerFailureThreshold(2);
+    portfolioProperties.setAccountingCircuitBreakerOpenSeconds(3600);
+    portfolioProperties.setAccountingMetricsLogIntervalSeconds(0);
+    testSubject = new AccountingGateway(portfolioProperties, Mockito.mock(Logger.class));
+
+    TenantContextHolder.setIdentifier("blah");
+    UserContextHolder.setAccessToken("blah", "blah");
+  }
+
+  @After
+  public void cleanup() {
+    testSubject.shutdown();
+    UserContextHolder.clear();
+    TenantContextHolder.clear();
+  }
+
+  @Test
+  public void callsAreRecordedPerTenantAndOperation() {
+    Assert.assertEquals("x", testSubject.call(AccountingGateway.Operation.FIND_ACCOUNT, () -> "x"));
+
+    final AccountingGateway.LatencyHistogram histogram = testSubject.getHistogram("blah", AccountingGateway.Operation.FIND_ACCOUNT);
+    long count = 0;
+    for (int bucket = 0; bucket < AccountingGateway.LATENCY_BUCKET_UPPER_BOUNDS_MILLIS.length; bucket++)
+      count += histogram.getCount(bucket);
+    Assert.assertEquals(1, count);
+    Assert.assertEquals(0, histogram.getErrors());
+    Assert.assertNull(testSubject.getHistogram("blah", AccountingGateway.Operation.FIND_LEDGER));
+  }
+
+  @Test
+  public void declaredExceptionsDontOpenTheCircuit() {
+    for (int i = 0; i < 3; i++) {
+      try {
+        testSubject.run(AccountingGateway.Operation.FIND_ACCOUNT, () -> {
+          throw new AccountNotFoundException();
+        });
+        Assert.fail();
+      }
+      catch (final AccountNotFoundException expected) {
+        //Expected.
+      }
+    }
+
+    Assert.assertEquals("x", testSubject.call(AccountingGateway.Operation.FIND_ACCOUNT, () -> "x"));
+  }
+
+  @Test
+  public void timeoutsOpenTheCircuit() {
+    for (int i = 0; i < 2; i++) {
+      try {
+        testSubject.run(AccountingGateway.Operation.CREATE_ACCOUNT, () -> {
+          try {
+            Thread.sleep(5000);
+          }
+          catch (final InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+          }
+        });
+        Assert.fail();
+      }
+      catch (final ServiceException expected) {
+        //Expected.
+      }
+    }
+
+    try {
+      testSubject.call(AccountingGateway.Operation.CREATE_ACCOUNT, () -> "x");
+      Assert.fail();
+    }
+    catch (final ServiceException expected) {
+      //Expected: the circuit is open.
+    }
+    Assert.assertEquals(1, testSubject.getHistogram("blah", AccountingGateway.Operation.CREATE_ACCOUNT).getRejections());
+
+    //Other operations aren't affected.
+    Assert.assertEquals("x", testSubject.call(AccountingGateway.Operation.FIND_ACCOUNT, () -> "x"));
+  }
+}
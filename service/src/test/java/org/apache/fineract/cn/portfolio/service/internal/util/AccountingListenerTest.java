@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.portfolio.service.internal.util;
+
+import org.apache.fineract.cn.individuallending.internal.repository.CaseUnreleasedEntryRepository;
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import org.apache.fineract.cn.portfolio.service.internal.repository.JournalEntryOutboxRepository;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.fineract.cn.lang.TenantContextHolder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+public class AccountingListenerTest {
+  private CaseUnreleasedEntryRepository caseUnreleasedEntryRepository;
+  private JournalEntryOutboxRepository journalEntryOutboxRepository;
+  private AccountingListener testSubject;
+
+  @Before
+  public void prepare() {
+    caseUnreleasedEntryRepository = Mockito.mock(CaseUnreleasedEntryRepository.class);
+    journalEntryOutboxRepository = Mockito.mock(JournalEntryOutboxRepository.class);
+    testSubject = new AccountingListener(
+        new AccountCache(new PortfolioProperties()), caseUnreleasedEntryRepository, journalEntryOutboxRepository);
+    TenantContextHolder.setIdentifier("blah");
+  }
+
+  @After
+  public void cleanup() {
+    testSubject.shutdown();
+    TenantContextHolder.clear();
+  }
+
+  @Test
+  public void awaitedLedgerCreationCompletesOnEvent() throws InterruptedException, ExecutionException, TimeoutException {
+    final CompletableFuture<Boolean> ledgerCreation = testSubject.awaitLedgerCreation("ledger", 10, TimeUnit.SECONDS);
+    Assert.assertFalse(ledgerCreation.isDone());
+
+    testSubject.onPostLedger("other-tenant", "ledger");
+    Assert.assertFalse(ledgerCreation.isDone());
+
+    testSubject.onPostLedger("blah", "ledger");
+    Assert.assertTrue(ledgerCreation.get(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void awaitedLedgerCreationCompletesWithFalseAfterTimeout() throws InterruptedException, ExecutionException, TimeoutException {
+    final CompletableFuture<Boolean> ledgerCreation = testSubject.awaitLedgerCreation("ledger", 10, TimeUnit.MILLISECONDS);
+
+    Assert.assertFalse(ledgerCreation.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void releasedPortfolioEntryIsNoLongerUnreleased() {
+    TenantContextHolder.clear();
+    final List<String> tenantsDeletedIn = new ArrayList<>();
+    Mockito.doAnswer(invocation -> {
+      tenantsDeletedIn.add(TenantContextHolder.checkedGetIdentifier());
+      return 1;
+    }).when(caseUnreleasedEntryRepository).deleteByTransactionIdentifier(Matchers.anyString());
+
+    testSubject.onReleaseJournalEntry("other-tenant", "portfolio.product.case.APPLY_INTEREST.xyz");
+
+    Mockito.verify(caseUnreleasedEntryRepository).deleteByTransactionIdentifier("portfolio.product.case.APPLY_INTEREST.xyz");
+    Assert.assertEquals(Collections.singletonList("other-tenant"), tenantsDeletedIn);
+  }
+
+  @Test
+  public void releasedPortfolioEntryIsRemovedFromTheOutbox() {
+    TenantContextHolder.clear();
+    final List<String> tenantsDeletedIn = new ArrayList<>();
+    Mockito.doAnswer(invocation -> {
+      tenantsDeletedIn.add(TenantContextHolder.checkedGetIdentifier());
+      return 1;
+    }).when(journalEntryOutboxRepository).deleteReleased(Matchers.anyString());
+
+    testSubject.onReleaseJournalEntry("other-tenant", "portfolio.batch.xyz");
+
+    Mockito.verify(journalEntryOutboxRepository).deleteReleased("portfolio.batch.xyz");
+    Assert.assertEquals(Collections.singletonList("other-tenant"), tenantsDeletedIn);
+  }
+
+  @Test
+  public void releasedEntryOfOtherServiceIsIgnored() {
+    testSubject.onReleaseJournalEntry("blah", "deposit.xyz");
+
+    Mockito.verifyZeroInteractions(caseUnreleasedEntryRepository, journalEntryOutboxRepository);
+  }
+}
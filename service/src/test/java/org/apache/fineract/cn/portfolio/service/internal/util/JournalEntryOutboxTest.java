@@ -0,0 +1,542 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.fineract.cn.portfolio.service.internal.util;
+
+import com.google.common.collect.Sets;
+import com.google.gson.Gson;
+import org.apache.fineract.cn.individuallending.internal.repository.CaseUnreleasedEntryRepository;
+import org.apache.fineract.cn.individuallending.internal.service.RejectedJournalEntryService;
+import org.apache.fineract.cn.portfolio.service.config.PortfolioProperties;
+import org.apache.fineract.cn.portfolio.service.internal.repository.JournalEntryOutboxEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.JournalEntryOutboxLineEntity;
+import org.apache.fineract.cn.portfolio.service.internal.repository.JournalEntryOutboxLineRepository;
+import org.apache.fineract.cn.portfolio.service.internal.repository.JournalEntryOutboxRepository;
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.apache.fineract.cn.accounting.api.v1.client.JournalEntryValidationException;
+import org.apache.fineract.cn.accounting.api.v1.client.LedgerManager;
+import org.apache.fineract.cn.accounting.api.v1.domain.Creditor;
+import org.apache.fineract.cn.accounting.api.v1.domain.Debtor;
+import org.apache.fineract.cn.accounting.api.v1.domain.JournalEntry;
+import org.apache.fineract.cn.api.util.UserContextHolder;
+import org.apache.fineract.cn.lang.TenantContextHolder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatcher;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.springframework.transaction.PlatformTransactionManager;
+
+public class JournalEntryOutboxTest {
+  private JournalEntryOutboxRepository journalEntryOutboxRepository;
+  private JournalEntryOutboxLineRepository journalEntryOutboxLineRepository;
+  private CaseUnreleasedEntryRepository caseUnreleasedEntryRepository;
+  private RejectedJournalEntryService rejectedJournalEntryService;
+  private LedgerManager ledgerManager;
+  private ExecutorService journalEntryDispatcher;
+  private JournalEntryOutbox testSubject;
+
+  @Before
+  public void prepare() {
+    journalEntryOutboxRepository = Mockito.mock(JournalEntryOutboxRepository.class);
+    journalEntryOutboxLineRepository = Mockito.mock(JournalEntryOutboxLineRepository.class);
+    caseUnreleasedEntryRepository = Mockito.mock(CaseUnreleasedEntryRepository.class);
+    rejectedJournalEntryService = Mockito.mock(RejectedJournalEntryService.class);
+    ledgerManager = Mockito.mock(LedgerManager.class);
+    journalEntryDispatcher = Executors.newSingleThreadExecutor();
+    final PortfolioProperties portfolioProperties = new PortfolioProperties();
+    portfolioProperties.setUseJournalEntryOutbox(true);
+    portfolioProperties.setAccountingMetricsLogIntervalSeconds(0);
+    portfolioProperties.setInterestJournalEntryBatchSize(2);
+    testSubject = new JournalEntryOutbox(
+        journalEntryOutboxRepository,
+        journalEntryOutboxLineRepository,
+        caseUnreleasedEntryRepository,
+        rejectedJournalEntryService,
+        Mockito.mock(PlatformTransactionManager.class),
+        ledgerManager,
+        new AccountCache(portfolioProperties),
+        new AccountingGateway(portfolioProperties, Mockito.mock(Logger.class)),
+        portfolioProperties,
+        journalEntryDispatcher,
+        new Gson(),
+        Mockito.mock(Logger.class));
+
+    TenantContextHolder.setIdentifier("blah");
+    UserContextHolder.setAccessToken("blah", "blah");
+  }
+
+  @After
+  public void cleanup() {
+    testSubject.shutdown();
+    journalEntryDispatcher.shutdownNow();
+    TenantContextHolder.clear();
+    UserContextHolder.clear();
+  }
+
+  @Test
+  public void enqueuedJournalEntryIsPostedAndKeptUntilItIsReleased() throws InterruptedException {
+    final JournalEntry journalEntry = journalEntry();
+    final JournalEntryOutboxEntity outboxEntry = stageOutboxEntry(journalEntry);
+
+    testSubject.enqueue(journalEntry, balanceAdjustments());
+    awaitDispatch();
+
+    Mockito.verify(journalEntryOutboxRepository).save(Matchers.any(JournalEntryOutboxEntity.class));
+    final ArgumentCaptor<JournalEntry> posted = ArgumentCaptor.forClass(JournalEntry.class);
+    Mockito.verify(ledgerManager).createJournalEntry(posted.capture());
+    Assert.assertEquals(journalEntry.getTransactionIdentifier(), posted.getValue().getTransactionIdentifier());
+    Assert.assertEquals(journalEntry.getDebtors(), posted.getValue().getDebtors());
+    Mockito.verify(journalEntryOutboxRepository)
+        .markPosted(Matchers.eq(journalEntry.getTransactionIdentifier()), Matchers.any(LocalDateTime.class));
+    Mockito.verify(journalEntryOutboxRepository, Mockito.never()).delete(outboxEntry);
+  }
+
+  @Test
+  public void failedJournalEntryIsKeptForRetry() throws InterruptedException {
+    final JournalEntry journalEntry = journalEntry();
+    final JournalEntryOutboxEntity outboxEntry = stageOutboxEntry(journalEntry);
+    Mockito.doThrow(new IllegalStateException("accounting is down")).when(ledgerManager).createJournalEntry(Matchers.any());
+
+    testSubject.dispatchPending();
+    awaitDispatch();
+
+    Mockito.verify(journalEntryOutboxRepository, Mockito.never()).markPosted(Matchers.anyString(), Matchers.any());
+    Assert.assertEquals(Integer.valueOf(1), outboxEntry.getAttempts());
+    Assert.assertTrue(outboxEntry.getNextAttemptOn().isAfter(LocalDateTime.now().minusHours(24)));
+  }
+
+  @Test
+  public void failedJournalEntryIsRetriedOnceItsBackoffHasPassedWithoutFurtherBookings() {
+    final JournalEntry journalEntry = journalEntry();
+    final JournalEntryOutboxEntity outboxEntry = outboxEntry(journalEntry);
+    Mockito.when(journalEntryOutboxRepository.findByDeadLetteredOnIsNullAndPostedOnIsNullOrderByIdAsc(Matchers.any()))
+        .thenReturn(Collections.singletonList(outboxEntry))
+        .thenReturn(Collections.singletonList(outboxEntry))
+        .thenReturn(Collections.emptyList());
+    Mockito.doThrow(new IllegalStateException("accounting is down")).doNothing()
+        .when(ledgerManager).createJournalEntry(Matchers.any());
+
+    testSubject.dispatchPending();
+
+    Mockito.verify(ledgerManager, Mockito.timeout(10000).times(2)).createJournalEntry(Matchers.any());
+    Mockito.verify(journalEntryOutboxRepository, Mockito.timeout(10000))
+        .markPosted(Matchers.eq(journalEntry.getTransactionIdentifier()), Matchers.any());
+  }
+
+  @Test
+  public void postedJournalEntriesWhoseReleaseWasMissedAreRemoved() throws InterruptedException {
+    stageOutboxEntries();
+
+    testSubject.dispatchPending();
+    awaitDispatch();
+
+    final ArgumentCaptor<LocalDateTime> postedBefore = ArgumentCaptor.forClass(LocalDateTime.class);
+    Mockito.verify(journalEntryOutboxRepository).deleteByPostedOnNotAfter(postedBefore.capture());
+    Assert.assertTrue(postedBefore.getValue().isBefore(LocalDateTime.now(Clock.systemUTC()).minusMinutes(5)));
+  }
+
+  @Test
+  public void failedJournalEntryHoldsBackLaterEntries() throws InterruptedException {
+    final JournalEntry failingJournalEntry = journalEntry("portfolio.x.abc");
+    final JournalEntry laterJournalEntry = journalEntry("portfolio.x.def");
+    stageOutboxEntries(outboxEntry(failingJournalEntry), outboxEntry(laterJournalEntry));
+    Mockito.doThrow(new IllegalStateException("accounting is down")).when(ledgerManager).createJournalEntry(Matchers.any());
+
+    testSubject.dispatchPending();
+    awaitDispatch();
+
+    final ArgumentCaptor<JournalEntry> posted = ArgumentCaptor.forClass(JournalEntry.class);
+    Mockito.verify(ledgerManager).createJournalEntry(posted.capture());
+    Assert.assertEquals(failingJournalEntry.getTransactionIdentifier(), posted.getValue().getTransactionIdentifier());
+  }
+
+  @Test
+  public void journalEntryBackingOffHoldsBackLaterEntries() throws InterruptedException {
+    final JournalEntryOutboxEntity backingOffEntry = outboxEntry(journalEntry("portfolio.x.abc"));
+    backingOffEntry.setAttempts(3);
+    backingOffEntry.setNextAttemptOn(LocalDateTime.now(Clock.systemUTC()).plusMinutes(5));
+    stageOutboxEntries(backingOffEntry, outboxEntry(journalEntry("portfolio.x.def")));
+
+    testSubject.dispatchPending();
+    awaitDispatch();
+
+    Mockito.verifyZeroInteractions(ledgerManager);
+    Mockito.verify(journalEntryOutboxRepository, Mockito.never()).markPosted(Matchers.anyString(), Matchers.any());
+  }
+
+  @Test
+  public void rejectedJournalEntryIsDeadLetteredAndDoesntHoldBackLaterEntries() throws InterruptedException {
+    final JournalEntry rejectedJournalEntry = journalEntry("portfolio.x.abc");
+    final JournalEntry laterJournalEntry = journalEntry("portfolio.x.def");
+    final JournalEntryOutboxEntity rejectedEntry = outboxEntry(rejectedJournalEntry);
+    final JournalEntryOutboxEntity laterEntry = outboxEntry(laterJournalEntry);
+    stageOutboxEntries(rejectedEntry, laterEntry);
+    Mockito.doThrow(new JournalEntryValidationException()).when(ledgerManager).createJournalEntry(
+        Matchers.argThat(new ArgumentMatcher<JournalEntry>() {
+          @Override
+          public boolean matches(final Object argument) {
+            return ((JournalEntry) argument).getTransactionIdentifier().equals(rejectedJournalEntry.getTransactionIdentifier());
+          }
+        }));
+
+    testSubject.dispatchPending();
+    awaitDispatch();
+
+    Assert.assertNotNull(rejectedEntry.getDeadLetteredOn());
+    Mockito.verify(journalEntryOutboxRepository).save(rejectedEntry);
+    Mockito.verify(journalEntryOutboxRepository, Mockito.never()).markPosted(Matchers.eq("portfolio.x.abc"), Matchers.any());
+    Mockito.verify(journalEntryOutboxRepository).markPosted(Matchers.eq("portfolio.x.def"), Matchers.any());
+    Assert.assertNull(laterEntry.getDeadLetteredOn());
+  }
+
+  @Test
+  public void rejectedJournalEntryIsReversed() throws InterruptedException {
+    final JournalEntry rejectedJournalEntry = journalEntry("portfolio.x.abc");
+    final JournalEntryOutboxEntity rejectedEntry = outboxEntry(rejectedJournalEntry);
+    rejectedEntry.setBalanceAdjustments(new Gson().toJson(balanceAdjustments()));
+    stageOutboxEntries(rejectedEntry);
+    Mockito.doThrow(new JournalEntryValidationException()).when(ledgerManager).createJournalEntry(Matchers.any());
+
+    testSubject.dispatchPending();
+    awaitDispatch();
+
+    Assert.assertNotNull(rejectedEntry.getDeadLetteredOn());
+    final ArgumentCaptor<JournalEntry> reversed = ArgumentCaptor.forClass(JournalEntry.class);
+    Mockito.verify(rejectedJournalEntryService).reverseBooking(reversed.capture(), Matchers.eq(balanceAdjustments()));
+    Assert.assertEquals("portfolio.x.abc", reversed.getValue().getTransactionIdentifier());
+  }
+
+  @Test
+  public void journalEntryWhoseReversalFailsIsRetried() throws InterruptedException {
+    final JournalEntryOutboxEntity rejectedEntry = outboxEntry(journalEntry("portfolio.x.abc"));
+    rejectedEntry.setBalanceAdjustments(new Gson().toJson(balanceAdjustments()));
+    stageOutboxEntries(rejectedEntry);
+    Mockito.doThrow(new JournalEntryValidationException()).when(ledgerManager).createJournalEntry(Matchers.any());
+    Mockito.doThrow(new IllegalStateException("database is down"))
+        .when(rejectedJournalEntryService).reverseBooking(Matchers.any(), Matchers.any());
+
+    testSubject.dispatchPending();
+    awaitDispatch();
+
+    Assert.assertNull(rejectedEntry.getDeadLetteredOn());
+    Assert.assertEquals(Integer.valueOf(1), rejectedEntry.getAttempts());
+    Assert.assertTrue(rejectedEntry.getNextAttemptOn().isAfter(LocalDateTime.now(Clock.systemUTC())));
+  }
+
+  @Test
+  public void enqueuedJournalEntryKeepsWhatItBooksToEachAccount() {
+    testSubject.enqueue(journalEntry("portfolio.x.a", "case1", "income", "1.5"), balanceAdjustments());
+
+    final List<JournalEntryOutboxLineEntity> lines = captureSavedLines();
+    Assert.assertEquals(2, lines.size());
+    final JournalEntryOutboxLineEntity debitedLine = lines.stream()
+        .filter(x -> x.getAccountIdentifier().equals("case1")).findFirst().orElseThrow(AssertionError::new);
+    Assert.assertEquals(new BigDecimal("-1.5"), debitedLine.getCreditAmount());
+    Assert.assertEquals("x", debitedLine.getMessage());
+    Assert.assertEquals(LocalDateTime.of(2017, 7, 4, 0, 0), debitedLine.getTransactionDate());
+    final JournalEntryOutboxLineEntity creditedLine = lines.stream()
+        .filter(x -> x.getAccountIdentifier().equals("income")).findFirst().orElseThrow(AssertionError::new);
+    Assert.assertEquals(new BigDecimal("1.5"), creditedLine.getCreditAmount());
+  }
+
+  @Test
+  public void journalEntryEnqueuedForBatchCantBeFoundByItsMessage() {
+    testSubject.enqueueForBatch(journalEntry("portfolio.x.a", "case1", "income", "1.5"), balanceAdjustments());
+
+    Assert.assertEquals(Collections.singleton(null),
+        captureSavedLines().stream().map(JournalEntryOutboxLineEntity::getMessage).collect(Collectors.toSet()));
+  }
+
+  @Test
+  public void journalEntryEnqueuedForBatchIsBatchable() {
+    testSubject.enqueueForBatch(journalEntry(), balanceAdjustments());
+
+    final ArgumentCaptor<JournalEntryOutboxEntity> saved = ArgumentCaptor.forClass(JournalEntryOutboxEntity.class);
+    Mockito.verify(journalEntryOutboxRepository).save(saved.capture());
+    Assert.assertTrue(saved.getValue().getBatchable());
+  }
+
+  @Test
+  public void combinedJournalEntryNetsAmountsPerAccount() {
+    final JournalEntry combined = JournalEntryOutbox.combine("portfolio.batch.a", Arrays.asList(
+        journalEntry("portfolio.x.a", "case1", "income", "1.5"),
+        journalEntry("portfolio.x.b", "case2", "income", "2.5"),
+        journalEntry("portfolio.x.c", "income", "case1", "0.5")));
+
+    Assert.assertEquals(Sets.newHashSet(new Debtor("case1", "1.0"), new Debtor("case2", "2.5")), combined.getDebtors());
+    Assert.assertEquals(Collections.singleton(new Creditor("income", "3.5")), combined.getCreditors());
+    Assert.assertEquals("2017-07-04T00:00:00Z", combined.getTransactionDate());
+    Assert.assertEquals("portfolio.batch.a", combined.getTransactionIdentifier());
+  }
+
+  @Test
+  public void consecutiveBatchableEntriesArePostedAsOneJournalEntry() throws InterruptedException {
+    final JournalEntryOutboxEntity first = batchableOutboxEntry(journalEntry("portfolio.x.a", "case1", "income", "1.5"));
+    final JournalEntryOutboxEntity second = batchableOutboxEntry(journalEntry("portfolio.x.b", "case2", "income", "2.5"));
+    final JournalEntryOutboxEntity unbatchable = outboxEntry(journalEntry("portfolio.x.c", "case1", "income", "1"));
+    stageOutboxEntries(first, second, unbatchable);
+
+    testSubject.dispatchPending();
+    awaitDispatch();
+
+    final String batchIdentifier = first.getBatchIdentifier();
+    Assert.assertTrue(batchIdentifier.startsWith("portfolio.batch."));
+    final ArgumentCaptor<JournalEntry> posted = ArgumentCaptor.forClass(JournalEntry.class);
+    Mockito.verify(ledgerManager, Mockito.times(2)).createJournalEntry(posted.capture());
+    Assert.assertEquals(batchIdentifier, posted.getAllValues().get(0).getTransactionIdentifier());
+    Assert.assertEquals(Collections.singleton(new Creditor("income", "4.0")), posted.getAllValues().get(0).getCreditors());
+    Assert.assertEquals("portfolio.x.c", posted.getAllValues().get(1).getTransactionIdentifier());
+    Mockito.verify(caseUnreleasedEntryRepository)
+        .setBatchIdentifier(Arrays.asList("portfolio.x.a", "portfolio.x.b"), batchIdentifier);
+    Mockito.verify(journalEntryOutboxRepository).markPosted(Matchers.eq(batchIdentifier), Matchers.any());
+    Mockito.verify(journalEntryOutboxRepository).markPosted(Matchers.eq("portfolio.x.c"), Matchers.any());
+  }
+
+  @Test
+  public void batchIsRecordedBeforeItIsPostedSoThatRetriesPostTheSameEntry() throws InterruptedException {
+    final JournalEntryOutboxEntity first = batchableOutboxEntry(journalEntry("portfolio.x.a", "case1", "income", "1.5"));
+    final JournalEntryOutboxEntity second = batchableOutboxEntry(journalEntry("portfolio.x.b", "case2", "income", "2.5"));
+    stageOutboxEntries(first, second);
+    Mockito.doThrow(new IllegalStateException("accounting is down")).when(ledgerManager).createJournalEntry(Matchers.any());
+
+    testSubject.dispatchPending();
+    awaitDispatch();
+
+    Assert.assertNotNull(first.getBatchIdentifier());
+    Assert.assertEquals(first.getBatchIdentifier(), second.getBatchIdentifier());
+    Mockito.verify(journalEntryOutboxRepository).claimForBatch(
+        Arrays.asList(first.getId(), second.getId()), first.getBatchIdentifier());
+    Assert.assertEquals(Integer.valueOf(1), first.getAttempts());
+    Assert.assertTrue(first.getNextAttemptOn().isAfter(LocalDateTime.now(Clock.systemUTC())));
+    Mockito.verify(journalEntryOutboxRepository, Mockito.never()).markPosted(Matchers.anyString(), Matchers.any());
+  }
+
+  @Test
+  public void recordedBatchIsNotExtended() throws InterruptedException {
+    final JournalEntryOutboxEntity first = batchableOutboxEntry(journalEntry("portfolio.x.a", "case1", "income", "1.5"));
+    final JournalEntryOutboxEntity later = batchableOutboxEntry(journalEntry("portfolio.x.b", "case2", "income", "2.5"));
+    first.setBatchIdentifier("portfolio.batch.z");
+    stageOutboxEntries(first, later);
+
+    testSubject.dispatchPending();
+    awaitDispatch();
+
+    //An earlier attempt may already have posted the recorded batch, so it is reposted under the same identifier.
+    final ArgumentCaptor<JournalEntry> posted = ArgumentCaptor.forClass(JournalEntry.class);
+    Mockito.verify(ledgerManager, Mockito.times(2)).createJournalEntry(posted.capture());
+    Assert.assertEquals("portfolio.batch.z", posted.getAllValues().get(0).getTransactionIdentifier());
+    Assert.assertEquals("portfolio.x.b", posted.getAllValues().get(1).getTransactionIdentifier());
+    Mockito.verify(journalEntryOutboxRepository, Mockito.never())
+        .claimForBatch(Matchers.anyCollectionOf(Long.class), Matchers.anyString());
+  }
+
+  @Test
+  public void entriesTakenByAnotherDispatcherAreLeftToIt() throws InterruptedException {
+    final JournalEntryOutboxEntity first = batchableOutboxEntry(journalEntry("portfolio.x.a", "case1", "income", "1.5"));
+    final JournalEntryOutboxEntity second = batchableOutboxEntry(journalEntry("portfolio.x.b", "case2", "income", "2.5"));
+    stageOutboxEntries(first, second);
+    Mockito.doReturn(0).when(journalEntryOutboxRepository)
+        .claimForBatch(Matchers.anyCollectionOf(Long.class), Matchers.anyString());
+
+    testSubject.dispatchPending();
+    awaitDispatch();
+
+    Mockito.verifyZeroInteractions(ledgerManager);
+    Mockito.verify(caseUnreleasedEntryRepository, Mockito.never())
+        .setBatchIdentifier(Matchers.anyCollectionOf(String.class), Matchers.anyString());
+    Mockito.verify(journalEntryOutboxRepository, Mockito.never()).markPosted(Matchers.anyString(), Matchers.any());
+  }
+
+  @Test
+  public void onlyEntriesTakenIntoTheBatchArePostedInIt() throws InterruptedException {
+    final JournalEntryOutboxEntity first = batchableOutboxEntry(journalEntry("portfolio.x.a", "case1", "income", "1.5"));
+    final JournalEntryOutboxEntity second = batchableOutboxEntry(journalEntry("portfolio.x.b", "case2", "income", "2.5"));
+    stageBatchRecords(first, second);
+    //Between reading the outbox and recording the batch, another dispatcher took the second entry into its own batch.
+    final JournalEntryOutboxEntity secondAsRead = batchableOutboxEntry(journalEntry("portfolio.x.b", "case2", "income", "2.5"));
+    secondAsRead.setId(second.getId());
+    second.setBatchIdentifier("portfolio.batch.elsewhere");
+    Mockito.when(journalEntryOutboxRepository.findByDeadLetteredOnIsNullAndPostedOnIsNullOrderByIdAsc(Matchers.any()))
+        .thenReturn(Arrays.asList(first, secondAsRead))
+        .thenReturn(Collections.emptyList());
+
+    testSubject.dispatchPending();
+    awaitDispatch();
+
+    final ArgumentCaptor<JournalEntry> posted = ArgumentCaptor.forClass(JournalEntry.class);
+    Mockito.verify(ledgerManager).createJournalEntry(posted.capture());
+    Assert.assertEquals(first.getBatchIdentifier(), posted.getValue().getTransactionIdentifier());
+    Assert.assertEquals(Collections.singleton(new Creditor("income", "1.5")), posted.getValue().getCreditors());
+    Mockito.verify(caseUnreleasedEntryRepository)
+        .setBatchIdentifier(Collections.singletonList("portfolio.x.a"), first.getBatchIdentifier());
+  }
+
+  @Test
+  public void batchWhichNetsToZeroIsNotPosted() throws InterruptedException {
+    final JournalEntryOutboxEntity booked = batchableOutboxEntry(journalEntry("portfolio.x.a", "case1", "income", "1.5"));
+    final JournalEntryOutboxEntity reversed = batchableOutboxEntry(journalEntry("portfolio.x.b", "income", "case1", "1.5"));
+    stageOutboxEntries(booked, reversed);
+
+    testSubject.dispatchPending();
+    awaitDispatch();
+
+    Mockito.verifyZeroInteractions(ledgerManager);
+    Mockito.verify(caseUnreleasedEntryRepository).deleteByTransactionIdentifier(booked.getBatchIdentifier());
+    Mockito.verify(journalEntryOutboxRepository).deleteByBatchIdentifier(booked.getBatchIdentifier());
+    Mockito.verify(journalEntryOutboxRepository, Mockito.never()).markPosted(Matchers.anyString(), Matchers.any());
+  }
+
+  @Test
+  public void rejectedBatchIsPostedEntryByEntry() throws InterruptedException {
+    final JournalEntryOutboxEntity first = batchableOutboxEntry(journalEntry("portfolio.x.a", "case1", "income", "1.5"));
+    final JournalEntryOutboxEntity second = batchableOutboxEntry(journalEntry("portfolio.x.b", "case2", "income", "2.5"));
+    stageBatchRecords(first, second);
+    Mockito.when(journalEntryOutboxRepository.findByDeadLetteredOnIsNullAndPostedOnIsNullOrderByIdAsc(Matchers.any()))
+        .thenReturn(Arrays.asList(first, second))
+        .thenReturn(Arrays.asList(first, second))
+        .thenReturn(Collections.emptyList());
+    Mockito.doThrow(new JournalEntryValidationException()).when(ledgerManager).createJournalEntry(
+        Matchers.argThat(new ArgumentMatcher<JournalEntry>() {
+          @Override
+          public boolean matches(final Object argument) {
+            return ((JournalEntry) argument).getTransactionIdentifier().startsWith("portfolio.batch.");
+          }
+        }));
+
+    testSubject.dispatchPending();
+    awaitDispatch();
+
+    Assert.assertFalse(first.getBatchable());
+    Assert.assertNull(first.getBatchIdentifier());
+    Mockito.verify(caseUnreleasedEntryRepository).setBatchIdentifier(Arrays.asList("portfolio.x.a", "portfolio.x.b"), null);
+    Mockito.verify(ledgerManager, Mockito.times(3)).createJournalEntry(Matchers.any());
+    Mockito.verify(journalEntryOutboxRepository).markPosted(Matchers.eq("portfolio.x.a"), Matchers.any());
+    Mockito.verify(journalEntryOutboxRepository).markPosted(Matchers.eq("portfolio.x.b"), Matchers.any());
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<JournalEntryOutboxLineEntity> captureSavedLines() {
+    final ArgumentCaptor<List> saved = ArgumentCaptor.forClass(List.class);
+    Mockito.verify(journalEntryOutboxLineRepository).save(saved.capture());
+    return (List<JournalEntryOutboxLineEntity>) saved.getValue();
+  }
+
+  private static Map<String, BigDecimal> balanceAdjustments() {
+    return Collections.singletonMap("customer-loan-principal", BigDecimal.ONE);
+  }
+
+  private JournalEntryOutboxEntity stageOutboxEntry(final JournalEntry journalEntry) {
+    final JournalEntryOutboxEntity ret = outboxEntry(journalEntry);
+    stageOutboxEntries(ret);
+    return ret;
+  }
+
+  private void stageOutboxEntries(final JournalEntryOutboxEntity... outboxEntries) {
+    stageBatchRecords(outboxEntries);
+    Mockito.when(journalEntryOutboxRepository.findByDeadLetteredOnIsNullAndPostedOnIsNullOrderByIdAsc(Matchers.any()))
+        .thenReturn(Arrays.asList(outboxEntries))
+        .thenReturn(Collections.emptyList());
+  }
+
+  /**
+   * Gives the entries ids, and lets the repository record and find batches among them like the database would.
+   */
+  private void stageBatchRecords(final JournalEntryOutboxEntity... outboxEntries) {
+    final List<JournalEntryOutboxEntity> staged = Arrays.asList(outboxEntries);
+    for (int i = 0; i < outboxEntries.length; i++)
+      outboxEntries[i].setId((long) i + 1);
+    Mockito.doAnswer(invocation -> {
+      final Collection<?> ids = invocation.getArgumentAt(0, Collection.class);
+      final String batchIdentifier = invocation.getArgumentAt(1, String.class);
+      final List<JournalEntryOutboxEntity> claimed = staged.stream()
+          .filter(x -> ids.contains(x.getId()) && x.getBatchIdentifier() == null)
+          .collect(Collectors.toList());
+      claimed.forEach(x -> x.setBatchIdentifier(batchIdentifier));
+      return claimed.size();
+    }).when(journalEntryOutboxRepository).claimForBatch(Matchers.anyCollectionOf(Long.class), Matchers.anyString());
+    Mockito.doAnswer(invocation -> staged.stream()
+        .filter(x -> invocation.getArgumentAt(0, String.class).equals(x.getBatchIdentifier()))
+        .collect(Collectors.toList()))
+        .when(journalEntryOutboxRepository).findByBatchIdentifierOrderByIdAsc(Matchers.anyString());
+  }
+
+  private static JournalEntryOutboxEntity outboxEntry(final JournalEntry journalEntry) {
+    final JournalEntryOutboxEntity ret = new JournalEntryOutboxEntity();
+    ret.setTransactionIdentifier(journalEntry.getTransactionIdentifier());
+    ret.setJournalEntry(new Gson().toJson(journalEntry));
+    ret.setAttempts(0);
+    ret.setNextAttemptOn(LocalDateTime.now(Clock.systemUTC()).minusSeconds(1));
+    ret.setBatchable(false);
+    return ret;
+  }
+
+  private static JournalEntryOutboxEntity batchableOutboxEntry(final JournalEntry journalEntry) {
+    final JournalEntryOutboxEntity ret = outboxEntry(journalEntry);
+    ret.setBatchable(true);
+    return ret;
+  }
+
+  private void awaitDispatch() throws InterruptedException {
+    journalEntryDispatcher.shutdown();
+    Assert.assertTrue(journalEntryDispatcher.awaitTermination(10, TimeUnit.SECONDS));
+  }
+
+  private static JournalEntry journalEntry() {
+    return journalEntry("portfolio.x.abc");
+  }
+
+  private static JournalEntry journalEntry(final String transactionIdentifier) {
+    final JournalEntry ret = new JournalEntry();
+    ret.setTransactionIdentifier(transactionIdentifier);
+    ret.setDebtors(Collections.singleton(new Debtor("a1", "1")));
+    ret.setCreditors(Collections.singleton(new Creditor("b1", "1")));
+    return ret;
+  }
+
+  private static JournalEntry journalEntry(
+      final String transactionIdentifier,
+      final String debtorAccount,
+      final String creditorAccount,
+      final String amount) {
+    final JournalEntry ret = new JournalEntry();
+    ret.setTransactionIdentifier(transactionIdentifier);
+    ret.setTransactionDate("2017-07-04T00:00:00Z");
+    ret.setTransactionType("INTR");
+    ret.setClerk("blah");
+    ret.setMessage("x");
+    ret.setDebtors(Collections.singleton(new Debtor(debtorAccount, amount)));
+    ret.setCreditors(Collections.singleton(new Creditor(creditorAccount, amount)));
+    return ret;
+  }
+}